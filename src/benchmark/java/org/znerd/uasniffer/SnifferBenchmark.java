@@ -0,0 +1,292 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for {@link Sniffer#analyze(String)}, {@link Sniffer#analyzeDevice(String)} and {@link UserAgent#getNamesAsString()}, driven by the unit test input.
+ * <p>
+ * Run with <code>mvn -Pbenchmark verify</code>; the GC profiler (enabled by default in the POM) reports the bytes allocated per operation.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnifferBenchmark {
+
+    /**
+     * A single, representative agent string per category.
+     */
+    @State(Scope.Thread)
+    public static class CategoryState {
+
+        @Param({ "BOT", "LEGACY_MSIE", "MODERN_CHROME", "MOBILE_SAFARI" })
+        public BenchmarkCorpus.Category category;
+
+        public String agentString;
+        public byte[] agentBytes;
+        public UserAgent userAgent;
+
+        @Setup
+        public void setUp() throws Exception {
+            agentString = BenchmarkCorpus.agentString(category);
+            agentBytes = agentString.getBytes("ISO-8859-1");
+            userAgent = Sniffer.analyze(agentString);
+        }
+    }
+
+    /**
+     * The longest Android agent string in the unit test input: many tokens, so the cost is dominated by scanning the text.
+     */
+    @State(Scope.Thread)
+    public static class LongAgentState {
+
+        public String agentString;
+
+        @Setup
+        public void setUp() {
+            agentString = "";
+            for (SnifferTestDataEntry entry : BenchmarkCorpus.entries()) {
+                if (entry.getOutputStrings().contains("BrowserOS-Linux-Android") && entry.getAgentString().length() > agentString.length()) {
+                    agentString = entry.getAgentString();
+                }
+            }
+        }
+    }
+
+    /**
+     * All agent strings in the unit test input.
+     */
+    @State(Scope.Thread)
+    public static class CorpusState {
+
+        public String[] agentStrings;
+
+        @Setup
+        public void setUp() {
+            agentStrings = BenchmarkCorpus.agentStrings();
+        }
+    }
+
+    /**
+     * Enables {@link SnifferMetrics} for the duration of a trial.
+     */
+    @State(Scope.Benchmark)
+    public static class MetricsState {
+
+        @Setup
+        public void setUp() {
+            SnifferMetrics.getInstance().setEnabled(true);
+        }
+
+        @TearDown
+        public void tearDown() {
+            SnifferMetrics.getInstance().setEnabled(false);
+            SnifferMetrics.getInstance().reset();
+        }
+    }
+
+    /**
+     * A precomputed table of all agent strings in the unit test input.
+     */
+    @State(Scope.Benchmark)
+    public static class PrecomputedState {
+
+        public PrecomputedTable table;
+
+        @Setup
+        public void setUp() throws Exception {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PrecomputedTable.write(Arrays.asList(BenchmarkCorpus.agentStrings()), out);
+            table = PrecomputedTable.read(new ByteArrayInputStream(out.toByteArray()));
+        }
+    }
+
+    /**
+     * The headers of a request from Chrome with client hints, and the unreduced agent string they correspond with.
+     */
+    @State(Scope.Thread)
+    public static class ClientHintsState {
+
+        public Map<String, String> headers;
+        public String agentString;
+
+        @Setup
+        public void setUp() {
+            headers = new HashMap<String, String>();
+            headers.put("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.0.0 Safari/537.36");
+            headers.put("Sec-CH-UA", "\"Chromium\";v=\"110\", \"Not A(Brand\";v=\"24\", \"Google Chrome\";v=\"110\"");
+            headers.put("Sec-CH-UA-Mobile", "?0");
+            headers.put("Sec-CH-UA-Platform", "\"Windows\"");
+            headers.put("Sec-CH-UA-Platform-Version", "\"0.1.0\"");
+            agentString = "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.0.0 Safari/537.36";
+        }
+    }
+
+    /**
+     * The analysis results for all agent strings in the unit test input, and statistics to record them in.
+     */
+    @State(Scope.Thread)
+    public static class StatisticsState {
+
+        public UserAgent[] results;
+        public UserAgentStatistics statistics;
+
+        @Setup
+        public void setUp() {
+            String[] agentStrings = BenchmarkCorpus.agentStrings();
+            results = new UserAgent[agentStrings.length];
+            for (int i = 0; i < agentStrings.length; i++) {
+                results[i] = Sniffer.analyze(agentStrings[i]);
+            }
+            statistics = new UserAgentStatistics();
+        }
+    }
+
+    @Benchmark
+    public UserAgent analyzeSingle(CategoryState state) {
+        return Sniffer.analyze(state.agentString);
+    }
+
+    /**
+     * Only determines if the agent string is a bot; compare with {@link #analyzeSingle(CategoryState)}.
+     */
+    @Benchmark
+    public boolean isBotSingle(CategoryState state) {
+        return Sniffer.isBot(state.agentString);
+    }
+
+    /**
+     * Analyzes a long agent string; compare with {@link #isBotLong(LongAgentState)} for the share of the keyword scan.
+     */
+    @Benchmark
+    public UserAgent analyzeLong(LongAgentState state) {
+        return Sniffer.analyze(state.agentString);
+    }
+
+    /**
+     * Runs the bot prefilter over a long agent string that is not a bot, which is a single pass of the keyword scanner over the whole text.
+     */
+    @Benchmark
+    public boolean isBotLong(LongAgentState state) {
+        return Sniffer.isBot(state.agentString);
+    }
+
+    /**
+     * Looks up the agent string in a precomputed table; compare with {@link #analyzeSingle(CategoryState)}.
+     */
+    @Benchmark
+    public UserAgent analyzePrecomputedSingle(CategoryState state, PrecomputedState precomputed) {
+        return precomputed.table.lookup(state.agentString);
+    }
+
+    /**
+     * Analyzes with metrics enabled; compare with {@link #analyzeSingle(CategoryState)} for the overhead of the metrics.
+     */
+    @Benchmark
+    public UserAgent analyzeSingleWithMetrics(CategoryState state, MetricsState metrics) {
+        return Sniffer.analyze(state.agentString);
+    }
+
+    /**
+     * Analyzes the agent string as raw bytes, as received in an HTTP header; compare with {@link #analyzeSingle(CategoryState)}.
+     */
+    @Benchmark
+    public UserAgent analyzeBytesSingle(CategoryState state) {
+        return Sniffer.analyze(state.agentBytes, 0, state.agentBytes.length);
+    }
+
+    /**
+     * Analyzes all agent strings in the unit test input; one operation is the whole corpus.
+     */
+    @Benchmark
+    public void analyzeCorpus(CorpusState state, Blackhole blackhole) {
+        for (String agentString : state.agentStrings) {
+            blackhole.consume(Sniffer.analyze(agentString));
+        }
+    }
+
+    /**
+     * Determines only the device classes; compare with {@link #analyzeSingle(CategoryState)}.
+     */
+    @Benchmark
+    public EnumSet<DeviceClass> analyzeDeviceSingle(CategoryState state) {
+        return Sniffer.analyzeDevice(state.agentString);
+    }
+
+    /**
+     * Determines only the device classes for all agent strings in the unit test input; compare with {@link #analyzeCorpus(CorpusState, Blackhole)}.
+     */
+    @Benchmark
+    public void analyzeDeviceCorpus(CorpusState state, Blackhole blackhole) {
+        for (String agentString : state.agentStrings) {
+            blackhole.consume(Sniffer.analyzeDevice(agentString));
+        }
+    }
+
+    /**
+     * Analyzes a request with client hints; compare with {@link #analyzeClientHintsAgentString(ClientHintsState)}.
+     */
+    @Benchmark
+    public UserAgent analyzeClientHints(ClientHintsState state) {
+        return Sniffer.analyze(state.headers);
+    }
+
+    /**
+     * Analyzes the unreduced agent string that corresponds with the client hints.
+     */
+    @Benchmark
+    public UserAgent analyzeClientHintsAgentString(ClientHintsState state) {
+        return Sniffer.analyze(state.agentString);
+    }
+
+    /**
+     * Determines the canonical form of all agent strings in the unit test input, as a cache with canonical keys does for each lookup; compare
+     * with {@link #analyzeCorpus(CorpusState, Blackhole)}.
+     */
+    @Benchmark
+    public void canonicalizeCorpus(CorpusState state, Blackhole blackhole) {
+        for (String agentString : state.agentStrings) {
+            blackhole.consume(AgentStringCanonicalizer.canonicalize(agentString));
+        }
+    }
+
+    /**
+     * Records the analysis results for all agent strings in the unit test input in {@link UserAgentStatistics}; compare with
+     * {@link #analyzeCorpus(CorpusState, Blackhole)}.
+     */
+    @Benchmark
+    public long recordStatisticsCorpus(StatisticsState state) {
+        for (UserAgent ua : state.results) {
+            state.statistics.record(ua);
+        }
+        return state.statistics.getCount();
+    }
+
+    @Benchmark
+    public String getNamesAsString(CategoryState state) {
+        return state.userAgent.getNamesAsString();
+    }
+}
@@ -0,0 +1,91 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how the throughput of {@link Sniffer#analyze(String)} scales with the number of threads, on platform threads and, on a JVM that has
+ * them, virtual threads. Every result is checked against the single-threaded result for the same agent string.
+ * <p>
+ * Run with: <code>mvn -Pbenchmark verify -Dbenchmark.main=org.znerd.uasniffer.SnifferScalingHarness -Djmh.args="[maxThreads] [seconds]"</code>
+ */
+public final class SnifferScalingHarness {
+
+    private static String[] AGENT_STRINGS;
+    private static String[] EXPECTED;
+
+    private SnifferScalingHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 2 * Runtime.getRuntime().availableProcessors();
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2.0;
+
+        List<SnifferTestDataEntry> entries = BenchmarkCorpus.entries();
+        AGENT_STRINGS = new String[entries.size()];
+        EXPECTED = new String[entries.size()];
+        for (int i = 0; i < AGENT_STRINGS.length; i++) {
+            AGENT_STRINGS[i] = entries.get(i).getAgentString();
+            EXPECTED[i] = Sniffer.analyze(AGENT_STRINGS[i]).getNamesAsString();
+        }
+
+        System.out.println("Agent strings: " + AGENT_STRINGS.length + ", processors: " + Runtime.getRuntime().availableProcessors());
+        measure("platform", ConcurrentRunner.platformThreads(), maxThreads, seconds);
+        ThreadFactory virtualThreads = ConcurrentRunner.virtualThreads();
+        if (virtualThreads == null) {
+            System.out.println("No virtual threads on this JVM.");
+        } else {
+            measure("virtual", virtualThreads, maxThreads, seconds);
+        }
+    }
+
+    private static void measure(String kind, ThreadFactory threads, int maxThreads, double seconds) throws Exception {
+        System.out.println();
+        System.out.println(String.format("%-9s %8s %14s %8s", kind, "threads", "ops/s", "scaling"));
+        run(threads, maxThreads, (long) (seconds * 1e9)); // warm-up
+        double single = 0.0;
+        for (int threadCount = 1; threadCount <= maxThreads; threadCount = nextThreadCount(threadCount, maxThreads)) {
+            double throughput = run(threads, threadCount, (long) (seconds * 1e9)).getThroughput();
+            if (threadCount == 1) {
+                single = throughput;
+            }
+            System.out.println(String.format("%-9s %8d %14.0f %7.2fx", kind, threadCount, throughput, throughput / single));
+        }
+    }
+
+    /**
+     * Doubles the thread count, ending with the maximum even if that is not a power of 2.
+     */
+    private static int nextThreadCount(int threadCount, int maxThreads) {
+        return threadCount < maxThreads && threadCount * 2 > maxThreads ? maxThreads : threadCount * 2;
+    }
+
+    private static ConcurrentRunner.Result run(ThreadFactory threads, final int threadCount, final long nanos) throws Exception {
+        final AtomicLong mismatches = new AtomicLong();
+        ConcurrentRunner.Result result = ConcurrentRunner.run(threads, threadCount, new ConcurrentRunner.Task() {
+            public long run(int threadIndex) {
+                int count = AGENT_STRINGS.length;
+                int i = threadIndex * count / threadCount;
+                long operations = 0L;
+                long end = System.nanoTime() + nanos;
+                do {
+                    for (int n = 0; n < count; n++, i = i + 1 == count ? 0 : i + 1) {
+                        if (!Sniffer.analyze(AGENT_STRINGS[i]).getNamesAsString().equals(EXPECTED[i])) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                    operations += count;
+                } while (System.nanoTime() < end);
+                return operations;
+            }
+        });
+        if (mismatches.get() != 0L) {
+            throw new IllegalStateException(mismatches.get() + " results differ from the single-threaded results with " + threadCount
+                    + " threads.");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,344 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the user agent names in an access log file in the Apache/NCSA combined log format, where the user agent is the last quoted field on each
+ * line, e.g.:
+ * <blockquote><code>127.0.0.1 - - [10/Oct/2013:13:55:36 +0200] "GET / HTTP/1.1" 200 2326 "-" "Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0)"</code></blockquote>
+ * <p>
+ * The file is memory-mapped and split in line-aligned chunks that are processed in parallel. Within a chunk, the user agent field is looked up
+ * by its bytes, so each distinct agent string is converted to a <code>String</code> and analyzed only once per chunk.
+ * <p>
+ * This class can be run from the command line; it prints the count for each name, highest count first:
+ *
+ * <pre>
+ * java -jar uasniffer.jar access_log
+ * </pre>
+ */
+public final class AccessLogAnalyzer {
+
+    /**
+     * Default chunk size in bytes.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private AccessLogAnalyzer() {
+    }
+
+    /**
+     * Analyzes an access log file from the command line and prints the count per name.
+     *
+     * @param args
+     *        the command line arguments: the names of the log files to analyze.
+     * @throws IOException
+     *         if one of the files cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java " + AccessLogAnalyzer.class.getName() + " logfile [logfile ...]");
+            System.exit(1);
+        }
+
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (String arg : args) {
+            merge(counts, analyze(new File(arg)));
+        }
+        print(counts, System.out);
+    }
+
+    /**
+     * Counts the user agent names in the specified access log file, using all available processors.
+     *
+     * @param file
+     *        the log file, cannot be <code>null</code>.
+     * @return the number of lines with each name, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>file == null</code>.
+     * @throws IOException
+     *         if the file cannot be read.
+     */
+    public static Map<String, Long> analyze(File file) throws IllegalArgumentException, IOException {
+        return analyze(file, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    static Map<String, Long> analyze(File file, int chunkSize, int threadCount) throws IllegalArgumentException, IOException {
+        checkArgument(file == null, "file == null");
+        checkArgument(chunkSize < 1, "chunkSize (" + chunkSize + ") < 1");
+        checkArgument(threadCount < 1, "threadCount (" + threadCount + ") < 1");
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            FileChannel channel = raf.getChannel();
+            List<Future<Map<String, Long>>> futures = new ArrayList<Future<Map<String, Long>>>();
+            long size = channel.size();
+            long start = 0L;
+            while (start < size) {
+                long end = lineEnd(channel, Math.min(start + chunkSize, size), size);
+                futures.add(executor.submit(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start))));
+                start = end;
+            }
+
+            Map<String, Long> counts = new HashMap<String, Long>();
+            for (Future<Map<String, Long>> future : futures) {
+                merge(counts, future.get());
+            }
+            return counts;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while analyzing " + file + '.');
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Failed to analyze " + file + '.', cause);
+        } finally {
+            executor.shutdownNow();
+            raf.close();
+        }
+    }
+
+    /**
+     * Finds the end of the line that contains the specified position.
+     *
+     * @return the position right after the next newline character at or after <code>position</code>, or <code>size</code> if there is none.
+     */
+    private static long lineEnd(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear();
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += count;
+        }
+        return size;
+    }
+
+    private static void merge(Map<String, Long> counts, Map<String, Long> chunkCounts) {
+        for (Map.Entry<String, Long> entry : chunkCounts.entrySet()) {
+            Long count = counts.get(entry.getKey());
+            counts.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+        }
+    }
+
+    private static void print(Map<String, Long> counts, PrintStream out) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                int result = b.getValue().compareTo(a.getValue());
+                return result != 0 ? result : a.getKey().compareTo(b.getKey());
+            }
+        });
+        for (Map.Entry<String, Long> entry : entries) {
+            out.println(entry.getValue() + "\t" + entry.getKey());
+        }
+    }
+
+    /**
+     * Finds the user agent field in a line: the last field between double quotes. Quotes escaped with a backslash are part of the field.
+     *
+     * @return the start of the field (after the opening quote) in the upper 32 bits and the end (at the closing quote) in the lower 32 bits, or
+     *         -1 if the line has no quoted field.
+     */
+    static long findAgentField(ByteBuffer buffer, int lineStart, int lineEnd) {
+        int end = lineEnd - 1;
+        while (end >= lineStart && buffer.get(end) != '"') {
+            end--;
+        }
+        int start = end - 1;
+        while (start >= lineStart && (buffer.get(start) != '"' || isEscaped(buffer, lineStart, start))) {
+            start--;
+        }
+        return start < lineStart ? -1L : ((long) (start + 1) << 32) | end;
+    }
+
+    private static boolean isEscaped(ByteBuffer buffer, int lineStart, int index) {
+        int backslashes = 0;
+        for (int i = index - 1; i >= lineStart && buffer.get(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return (backslashes & 1) != 0;
+    }
+
+    /**
+     * Converts a user agent field to a string, undoing the escaping applied by the web server (<code>\"</code>, <code>\\</code> and
+     * <code>\xhh</code>). Bytes are interpreted as ISO-8859-1, like HTTP header values.
+     */
+    static String decodeAgentField(byte[] bytes) {
+        StringBuilder s = new StringBuilder(bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            char c = (char) (bytes[i] & 0xFF);
+            if (c == '\\' && i + 1 < bytes.length) {
+                char next = (char) (bytes[i + 1] & 0xFF);
+                if (next == 'x' && i + 3 < bytes.length && Character.digit(bytes[i + 2], 16) >= 0 && Character.digit(bytes[i + 3], 16) >= 0) {
+                    c = (char) (Character.digit(bytes[i + 2], 16) * 16 + Character.digit(bytes[i + 3], 16));
+                    i += 3;
+                } else if (next == '"' || next == '\\') {
+                    c = next;
+                    i++;
+                }
+            }
+            s.append(c);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Counts the names in one line-aligned chunk of the file.
+     */
+    private static final class Chunk implements Callable<Map<String, Long>> {
+
+        Chunk(MappedByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        private final MappedByteBuffer _buffer;
+
+        public Map<String, Long> call() {
+            AgentTable agents = new AgentTable();
+            ByteBuffer buffer = _buffer;
+            int limit = buffer.limit();
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+
+                long field = findAgentField(buffer, lineStart, lineEnd);
+                if (field >= 0L) {
+                    agents.count(buffer, (int) (field >>> 32), (int) field);
+                }
+                lineStart = lineEnd + 1;
+            }
+            return agents.getNameCounts();
+        }
+    }
+
+    /**
+     * Open-addressing hash table from the bytes of a user agent field to its analysis result and the number of lines it occurred on.
+     */
+    private static final class AgentTable {
+
+        private int[] _hashes = new int[1024];
+        private byte[][] _keys = new byte[1024][];
+        private UserAgent[] _agents = new UserAgent[1024];
+        private long[] _counts = new long[1024];
+        private int _size;
+
+        void count(ByteBuffer buffer, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+
+            int mask = _keys.length - 1;
+            int slot = hash & mask;
+            while (_keys[slot] != null) {
+                if (_hashes[slot] == hash && equals(_keys[slot], buffer, start, end)) {
+                    _counts[slot]++;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            // First occurrence in this chunk: copy the bytes and analyze
+            byte[] key = new byte[end - start];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = buffer.get(start + i);
+            }
+            _hashes[slot] = hash;
+            _keys[slot] = key;
+            _agents[slot] = Sniffer.analyze(decodeAgentField(key));
+            _counts[slot] = 1L;
+            if (++_size * 2 > _keys.length) {
+                grow();
+            }
+        }
+
+        private static boolean equals(byte[] key, ByteBuffer buffer, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            int[] hashes = _hashes;
+            byte[][] keys = _keys;
+            UserAgent[] agents = _agents;
+            long[] counts = _counts;
+
+            int capacity = keys.length * 2;
+            _hashes = new int[capacity];
+            _keys = new byte[capacity][];
+            _agents = new UserAgent[capacity];
+            _counts = new long[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    int slot = hashes[i] & mask;
+                    while (_keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    _hashes[slot] = hashes[i];
+                    _keys[slot] = keys[i];
+                    _agents[slot] = agents[i];
+                    _counts[slot] = counts[i];
+                }
+            }
+        }
+
+        Map<String, Long> getNameCounts() {
+            Map<String, Long> counts = new HashMap<String, Long>();
+            for (int slot = 0; slot < _keys.length; slot++) {
+                if (_keys[slot] != null) {
+                    for (String name : _agents[slot].getNames()) {
+                        Long count = counts.get(name);
+                        counts.put(name, count == null ? _counts[slot] : count + _counts[slot]);
+                    }
+                }
+            }
+            return counts;
+        }
+    }
+}
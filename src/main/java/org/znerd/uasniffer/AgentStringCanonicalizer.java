@@ -0,0 +1,361 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes volatile tokens that the detection rules ignore from agent strings, so that a cache can use the result as its key. Many agent
+ * strings only differ in such tokens, like the locale (<code>en-US</code>, <code>nl</code>), the security flag (<code>U</code>) or
+ * <code>.NET CLR</code> and toolbar tokens, while {@link Sniffer#analyze(String)} returns the same names for all of them.
+ * <p>
+ * Only tokens within a parenthesized comment are removed, e.g. <code>"Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.2)"</code>
+ * becomes <code>"Mozilla/5.0 (Windows; Windows NT 5.1; rv:1.9.2)"</code>. A token is only removed if it has one of the known volatile forms
+ * and contains none of the keywords the detection code looks for, see {@link Sniffer#getKeywords()}. Removing it must also not change the
+ * separator in front of the next token, and keywords that contain a <code>';'</code> must occur as often as before; otherwise the token or the
+ * comment is left as-is. Version numbers are never changed, since all their parts end up in the names.
+ * <p>
+ * Use {@link #verify(Collection)}, or run this class, to check that the canonical form of a set of agent strings gives the same result as the
+ * agent strings themselves:
+ *
+ * <pre>
+ * java org.znerd.uasniffer.AgentStringCanonicalizer [-t <em>test-input-file</em> | <em>agent-list-file</em>]...
+ * </pre>
+ *
+ * The files are read as by {@link PrecomputedTableGenerator}.
+ */
+public final class AgentStringCanonicalizer {
+
+    /**
+     * All keywords the detection code looks for; a token that contains one of these is never removed.
+     */
+    private static final KeywordScanner KEYWORDS = new KeywordScanner(Sniffer.getKeywords(), new String[0][]);
+
+    /**
+     * Keywords that contain a <code>';'</code>. Since the first token of a comment is never removed, and the separator in front of the next
+     * token stays the same, these are the only keywords that can reach into a removed token, or appear once it is removed.
+     */
+    private static final String[] SEPARATOR_KEYWORDS = keywordsContaining(';');
+
+    /**
+     * Indicates if the last token of a comment can be removed, which is the case if no keyword contains the <code>')'</code> that then follows
+     * the token in front of it.
+     */
+    private static final boolean LAST_TOKEN_REMOVABLE = keywordsContaining(')').length == 0;
+
+    /**
+     * Starts of volatile tokens, in lower case: <code>.NET CLR</code> versions, Windows Media Center and Software Licensing Commerce Client
+     * versions, Office and Live Communications Server components, and toolbars.
+     */
+    private static final String[] VOLATILE_TOKEN_PREFIXES = new String[] { ".net", "media center pc", "slcc", "infopath.", "ms-rtc", "gtb", "sv1",
+            "funwebproducts", "alexa toolbar", "alexatoolbar" };
+
+    private AgentStringCanonicalizer() {
+    }
+
+    private static String[] keywordsContaining(char c) {
+        List<String> keywords = new ArrayList<String>();
+        for (String keyword : Sniffer.getKeywords()) {
+            if (keyword.indexOf(c) >= 0) {
+                keywords.add(keyword);
+            }
+        }
+        return keywords.toArray(new String[keywords.size()]);
+    }
+
+    /**
+     * Returns the canonical form of the specified agent string: the agent string without the volatile tokens that do not affect the result of
+     * {@link Sniffer#analyze(String)}.
+     *
+     * @param agentString
+     *        the agent string, cannot be <code>null</code>.
+     * @return the canonical form, never <code>null</code>; the same instance if there is nothing to remove.
+     * @throws IllegalArgumentException
+     *         if <code>agentString == null</code>.
+     */
+    public static String canonicalize(String agentString) throws IllegalArgumentException {
+        checkArgument(agentString == null, "agentString == null");
+
+        StringBuilder canonical = null;
+        int copied = 0;
+        for (int open = agentString.indexOf('('); open >= 0; open = agentString.indexOf('(', open + 1)) {
+            int close = agentString.indexOf(')', open + 1);
+            if (close < 0) {
+                break;
+            }
+            int nested = agentString.indexOf('(', open + 1);
+            if (nested >= 0 && nested < close) {
+                continue;
+            }
+            if (canonical == null) {
+                if (!hasVolatileToken(agentString, open + 1, close)) {
+                    continue;
+                }
+                canonical = new StringBuilder(agentString.length());
+            }
+            canonical.append(agentString, copied, open + 1);
+            canonicalizeComment(agentString, open + 1, close, canonical);
+            copied = close;
+        }
+        if (canonical == null) {
+            return agentString;
+        }
+        canonical.append(agentString, copied, agentString.length());
+        return canonical.length() == agentString.length() ? agentString : canonical.toString();
+    }
+
+    /**
+     * Quickly determines if a comment contains a token that could be volatile, so agent strings without one are not copied.
+     */
+    private static boolean hasVolatileToken(String agentString, int start, int end) {
+        for (int tokenStart = skipSpaces(agentString, start, end); tokenStart < end;) {
+            int tokenEnd = tokenEnd(agentString, tokenStart, end);
+            if (isVolatile(agentString, tokenStart, trimEnd(agentString, tokenStart, tokenEnd))) {
+                return true;
+            }
+            tokenStart = tokenEnd < end ? skipSpaces(agentString, tokenEnd + 1, end) : end;
+        }
+        return false;
+    }
+
+    /**
+     * Appends the comment between <code>start</code> and <code>end</code>, without its volatile tokens. Each token that is kept is followed by
+     * its own separator, except the last one, which is followed by the text after the last token of the comment.
+     */
+    private static void canonicalizeComment(String agentString, int start, int end, StringBuilder canonical) {
+        int tokenStart = skipSpaces(agentString, start, end);
+        canonical.append(agentString, start, tokenStart);
+
+        // The separator after the last token that was kept, as the range [keptSeparatorStart, keptSeparatorEnd)
+        int keptSeparatorStart = -1;
+        int keptSeparatorEnd = -1;
+        int keptStart = -1;
+        int previousTokenEnd = -1;
+        boolean pendingSeparator = false;
+        while (tokenStart < end) {
+            int tokenEnd = tokenEnd(agentString, tokenStart, end);
+            int nextStart = tokenEnd < end ? skipSpaces(agentString, tokenEnd + 1, end) : end;
+            boolean last = tokenEnd == end;
+
+            // Keywords that start in the white space in front of the token count as well
+            boolean remove = keptStart >= 0 && isVolatile(agentString, tokenStart, trimEnd(agentString, tokenStart, tokenEnd))
+                    && !KEYWORDS.containsAny(agentString, previousTokenEnd + 1, tokenEnd);
+            int length = agentString.length();
+            if (remove && last) {
+
+                // The kept token is then followed by ')' instead of ';', which only the Mobile Safari version pattern looks at
+                remove = LAST_TOKEN_REMOVABLE && tokenEnd == trimEnd(agentString, tokenStart, tokenEnd)
+                        && !contains(agentString, keptStart, keptSeparatorStart, "mobile/")
+                        && !matchesAtSemicolon(agentString, keptSeparatorStart, keptSeparatorStart, length, length);
+            } else if (remove) {
+
+                // A keyword with a ';' must not reach into the token, and must not appear once the token is gone
+                remove = agentString.regionMatches(keptSeparatorStart, agentString, tokenEnd, keptSeparatorEnd - keptSeparatorStart)
+                        && nextStart - tokenEnd == keptSeparatorEnd - keptSeparatorStart
+                        && !matchesAtSemicolon(agentString, keptSeparatorStart, keptSeparatorEnd, length, length)
+                        && !matchesAtSemicolon(agentString, tokenEnd, tokenEnd, length, length)
+                        && !matchesAtSemicolon(agentString, keptSeparatorStart, keptSeparatorEnd, keptSeparatorEnd, nextStart);
+            }
+
+            if (!remove) {
+                if (pendingSeparator) {
+                    canonical.append(agentString, keptSeparatorStart, keptSeparatorEnd);
+                }
+                canonical.append(agentString, tokenStart, tokenEnd);
+                keptStart = tokenStart;
+                keptSeparatorStart = tokenEnd;
+                keptSeparatorEnd = nextStart;
+                pendingSeparator = !last;
+            } else if (last) {
+                pendingSeparator = false;
+            }
+            previousTokenEnd = tokenEnd;
+            tokenStart = nextStart;
+        }
+        if (pendingSeparator) {
+            canonical.append(agentString, keptSeparatorStart, keptSeparatorEnd);
+        }
+    }
+
+    /**
+     * Determines if a token, without surrounding white space, has one of the volatile forms: a locale, like <code>en</code>, <code>en-US</code>
+     * or <code>pt_BR</code>, a security flag (<code>U</code>, <code>I</code> or <code>N</code>) or one of the {@link #VOLATILE_TOKEN_PREFIXES}.
+     */
+    private static boolean isVolatile(String agentString, int start, int end) {
+        int length = end - start;
+        if (length == 1) {
+            char c = KeywordMatches.toLowerCase(agentString.charAt(start));
+            return c == 'u' || c == 'i' || c == 'n';
+        }
+        if (isLocale(agentString, start, end)) {
+            return true;
+        }
+        for (String prefix : VOLATILE_TOKEN_PREFIXES) {
+            if (length >= prefix.length() && KeywordMatches.regionMatches(agentString, start, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines if a token is a locale: a language of 2 or 3 lower case letters, optionally followed by <code>'-'</code> or <code>'_'</code> and
+     * a region of 2 to 4 letters or digits. Upper case languages are not accepted, to leave tokens like <code>PPC</code> alone.
+     */
+    private static boolean isLocale(String agentString, int start, int end) {
+        int i = start;
+        while (i < end && agentString.charAt(i) >= 'a' && agentString.charAt(i) <= 'z') {
+            i++;
+        }
+        if (i - start < 2 || i - start > 3) {
+            return false;
+        } else if (i == end) {
+            return true;
+        }
+        char separator = agentString.charAt(i);
+        int regionLength = end - i - 1;
+        if ((separator != '-' && separator != '_') || regionLength < 2 || regionLength > 4) {
+            return false;
+        }
+        for (i++; i < end; i++) {
+            char c = agentString.charAt(i);
+            if (!isASCIILetter(c) && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isASCIILetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static int tokenEnd(String agentString, int start, int end) {
+        int semicolon = agentString.indexOf(';', start);
+        return semicolon < 0 || semicolon > end ? end : semicolon;
+    }
+
+    private static int skipSpaces(String agentString, int start, int end) {
+        int i = start;
+        while (i < end && agentString.charAt(i) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimEnd(String agentString, int start, int end) {
+        int i = end;
+        while (i > start && agentString.charAt(i - 1) <= ' ') {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Determines if one of the {@link #SEPARATOR_KEYWORDS} matches at the <code>';'</code> at the specified index and ends after
+     * <code>minEnd</code>, in the agent string as if the text between <code>gapStart</code> and <code>gapEnd</code> was removed.
+     */
+    private static boolean matchesAtSemicolon(String agentString, int semicolon, int minEnd, int gapStart, int gapEnd) {
+        for (String keyword : SEPARATOR_KEYWORDS) {
+            for (int j = keyword.indexOf(';'); j >= 0; j = keyword.indexOf(';', j + 1)) {
+                int start = semicolon - j;
+                if (start >= 0 && start + keyword.length() > minEnd && matchesWithGap(agentString, start, keyword, gapStart, gapEnd)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesWithGap(String agentString, int start, String keyword, int gapStart, int gapEnd) {
+        for (int i = 0; i < keyword.length(); i++) {
+            int index = start + i < gapStart ? start + i : start + i + gapEnd - gapStart;
+            if (index >= agentString.length() || KeywordMatches.toLowerCase(agentString.charAt(index)) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(String agentString, int start, int end, String keyword) {
+        int index = KeywordMatches.indexOf(agentString, keyword, start);
+        return index >= 0 && index + keyword.length() <= end;
+    }
+
+    /**
+     * Checks that the canonical form of each of the specified agent strings gives the same result as the agent string itself: the same names
+     * and the same typed result. The agent strings are analyzed with the detection rules, not looked up in the precomputed table.
+     *
+     * @param agentStrings
+     *        the agent strings to check, cannot be <code>null</code> and cannot contain <code>null</code> elements.
+     * @return the agent strings for which the results differ, never <code>null</code>; empty if canonicalization is correct for all of them.
+     * @throws IllegalArgumentException
+     *         if <code>agentStrings == null</code> or if any of the elements is <code>null</code>.
+     */
+    public static List<String> verify(Collection<String> agentStrings) throws IllegalArgumentException {
+        checkArgument(agentStrings == null, "agentStrings == null");
+
+        List<String> mismatches = new ArrayList<String>();
+        for (String agentString : new LinkedHashSet<String>(agentStrings)) {
+            checkArgument(agentString == null, "agentStrings contains null");
+            String canonical = canonicalize(agentString);
+            if (canonical != agentString && !isSameResult(Sniffer.analyzeWithRules(agentString), Sniffer.analyzeWithRules(canonical))) {
+                mismatches.add(agentString);
+            }
+        }
+        return mismatches;
+    }
+
+    private static boolean isSameResult(UserAgent a, UserAgent b) {
+        if (!a.getNames().equals(b.getNames())) {
+            return false;
+        }
+        for (int i = 0; i < UserAgent.TYPE_VALUE_COUNT; i++) {
+            if (a.getTypeValue(i) != b.getTypeValue(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> agentStrings = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-t".equals(args[i]) && i + 1 < args.length) {
+                PrecomputedTableGenerator.readAgentStrings(new File(args[++i]), true, agentStrings);
+            } else {
+                PrecomputedTableGenerator.readAgentStrings(new File(args[i]), false, agentStrings);
+            }
+        }
+        if (agentStrings.isEmpty()) {
+            System.err.println("Usage: java " + AgentStringCanonicalizer.class.getName() + " [-t test-input-file | agent-list-file]...");
+            System.exit(1);
+            return;
+        }
+
+        Set<String> distinct = new HashSet<String>(agentStrings);
+        Set<String> canonical = new HashSet<String>();
+        for (String agentString : distinct) {
+            canonical.add(canonicalize(agentString));
+        }
+        System.out.println(agentStrings.size() + " agent strings, " + distinct.size() + " distinct, " + canonical.size() + " distinct canonical forms.");
+
+        List<String> mismatches = verify(distinct);
+        for (String agentString : mismatches) {
+            System.out.println("Different result for canonical form \"" + canonicalize(agentString) + "\" of \"" + agentString + "\".");
+        }
+        if (!mismatches.isEmpty()) {
+            System.out.println(mismatches.size() + " mismatches.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Analyzes batches of agent strings in parallel. Identical agent strings in a batch are analyzed only once, and share the same {@link UserAgent}
+ * instance in the result.
+ * <p>
+ * Batches are split in chunks that are analyzed by a shared pool of daemon threads, one per available processor. The calling thread analyzes a
+ * chunk as well. Small batches are analyzed in the calling thread only.
+ */
+final class BatchAnalyzer {
+
+    /**
+     * Minimum number of unique agent strings per chunk; smaller batches are not worth handing off to other threads.
+     */
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    /**
+     * Number of chunks per thread, so threads that finish early can pick up more work.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private BatchAnalyzer() {
+    }
+
+    /**
+     * Analyzes the specified agent strings.
+     *
+     * @param agentStrings
+     *        the agent strings, cannot be <code>null</code> and cannot contain <code>null</code> elements.
+     * @return the results, in the same order as the input, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>agentStrings == null</code> or if one of the elements is <code>null</code>.
+     */
+    static UserAgent[] analyzeAll(String[] agentStrings) throws IllegalArgumentException {
+        checkArgument(agentStrings == null, "agentStrings == null");
+
+        // Find the unique agent strings, and map each input index to its unique index
+        HashMap<String, Integer> uniqueIndexes = new HashMap<String, Integer>();
+        List<String> uniqueStrings = new ArrayList<String>();
+        int[] indexes = new int[agentStrings.length];
+        for (int i = 0; i < agentStrings.length; i++) {
+            String agentString = agentStrings[i];
+            checkArgument(agentString == null, "agentStrings[" + i + "] == null");
+            Integer uniqueIndex = uniqueIndexes.get(agentString);
+            if (uniqueIndex == null) {
+                uniqueIndex = uniqueStrings.size();
+                uniqueIndexes.put(agentString, uniqueIndex);
+                uniqueStrings.add(agentString);
+            }
+            indexes[i] = uniqueIndex;
+        }
+
+        UserAgent[] uniqueResults = analyzeUnique(uniqueStrings);
+
+        UserAgent[] results = new UserAgent[agentStrings.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = uniqueResults[indexes[i]];
+        }
+        return results;
+    }
+
+    private static UserAgent[] analyzeUnique(List<String> agentStrings) {
+        UserAgent[] results = new UserAgent[agentStrings.size()];
+        int chunkCount = Math.min(THREAD_COUNT * CHUNKS_PER_THREAD, agentStrings.size() / MIN_CHUNK_SIZE);
+        if (chunkCount < 2) {
+            new Chunk(agentStrings, results, 0, results.length).run();
+            return results;
+        }
+
+        // Hand off all chunks but the first to the pool, analyze the first one in this thread
+        List<Future<?>> futures = new ArrayList<Future<?>>(chunkCount - 1);
+        for (int i = 1; i < chunkCount; i++) {
+            futures.add(Pool.EXECUTOR.submit(new Chunk(agentStrings, results, chunkStart(i, chunkCount, results.length), chunkStart(i + 1, chunkCount, results.length))));
+        }
+        new Chunk(agentStrings, results, 0, chunkStart(1, chunkCount, results.length)).run();
+
+        boolean interrupted = false;
+        try {
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Failed to analyze agent strings.", cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return results;
+    }
+
+    private static int chunkStart(int chunk, int chunkCount, int length) {
+        return (int) ((long) chunk * length / chunkCount);
+    }
+
+    private static final class Chunk implements Runnable {
+
+        Chunk(List<String> agentStrings, UserAgent[] results, int start, int end) {
+            _agentStrings = agentStrings;
+            _results = results;
+            _start = start;
+            _end = end;
+        }
+
+        private final List<String> _agentStrings;
+        private final UserAgent[] _results;
+        private final int _start;
+        private final int _end;
+
+        public void run() {
+            for (int i = _start; i < _end; i++) {
+                _results[i] = Sniffer.analyze(_agentStrings.get(i));
+            }
+        }
+    }
+
+    /**
+     * Holder for the shared thread pool, so it is only created when it is first needed.
+     */
+    private static final class Pool {
+
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+            private final AtomicInteger _threadCount = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "uasniffer-batch-" + _threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,105 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+/**
+ * Crawler families of bots, as returned by {@link UserAgent#getBotFamily()} and {@link Sniffer#getBotFamily(CharSequence)}. The family is
+ * only determined for agent strings that are identified as a bot, see {@link Sniffer#isBot(CharSequence)}. If an agent string
+ * matches several families, the one declared first wins; a bot that matches none is in {@link #OTHER}.
+ */
+public enum BotFamily {
+
+    /**
+     * The Google crawlers.
+     */
+    GOOGLE("googlebot", "adsbot-google", "storebot-google", "google-inspectiontool"),
+
+    /**
+     * The Bing crawlers, including the older MSN crawler.
+     */
+    BING("bingbot", "msnbot", "adidxbot", "bingpreview"),
+
+    /**
+     * The Yandex crawlers.
+     */
+    YANDEX("yandex"),
+
+    /**
+     * The Baidu crawlers.
+     */
+    BAIDU("baiduspider"),
+
+    /**
+     * The DuckDuckGo crawler.
+     */
+    DUCKDUCKGO("duckduckbot", "duckduckgo"),
+
+    /**
+     * The Apple crawler.
+     */
+    APPLE("applebot"),
+
+    /**
+     * Crawlers that fetch link previews for social networks.
+     */
+    SOCIAL("facebookbot", "facebookexternalhit", "twitterbot", "linkedinbot", "pinterestbot", "slackbot", "telegrambot",
+            "discordbot"),
+
+    /**
+     * Search engine optimization and backlink crawlers.
+     */
+    SEO("ahrefsbot", "semrushbot", "mj12bot", "dotbot", "rogerbot", "blexbot", "seznambot", "petalbot"),
+
+    /**
+     * Uptime monitors and link checkers.
+     */
+    MONITORING("pingdom", "uptimerobot", "statuscake", "site24x7", "checker"),
+
+    /**
+     * HTTP client libraries and command line tools.
+     */
+    LIBRARY("java", "python", "curl/", "okhttp", "apache-httpclient", "go-http-client", "libwww-perl"),
+
+    /**
+     * Bots that match none of the other families.
+     */
+    OTHER;
+
+    private static final BotFamily[] FAMILIES = values();
+
+    /**
+     * Finds the keywords of all families in a single scan; each family is a keyword group.
+     */
+    private static final KeywordScanner SCANNER;
+
+    static {
+        String[][] groups = new String[FAMILIES.length][];
+        for (BotFamily family : FAMILIES) {
+            groups[family.ordinal()] = family._keywords;
+        }
+        SCANNER = new KeywordScanner(new String[0], groups);
+    }
+
+    private BotFamily(String... keywords) {
+        _keywords = keywords;
+    }
+
+    private final String[] _keywords;
+
+    /**
+     * Determines the family of a bot.
+     *
+     * @param agentString
+     *        the agent string of a bot, cannot be <code>null</code>.
+     * @return the family, never <code>null</code>.
+     */
+    static BotFamily classify(CharSequence agentString) {
+        KeywordMatches m = SCANNER.scan(agentString);
+        for (BotFamily family : FAMILIES) {
+            if (m.containsAny(family._keywords)) {
+                return family;
+            }
+        }
+        return OTHER;
+    }
+}
@@ -0,0 +1,172 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+/**
+ * Browser families, as returned by {@link UserAgent#getBrowser()}. Each family corresponds to a name that {@link Sniffer#analyze(String)} adds to
+ * the {@link UserAgent}, see {@link #getName()}. Some families also cover more specific names, e.g. {@link #MSIE} covers
+ * <code>"Browser-DesktopMSIE"</code> and <code>"Browser-MobileMSIE"</code>; the version of the family is taken from those.
+ * <p>
+ * If an agent string matches several families, the one declared first wins.
+ */
+public enum Browser {
+
+    /**
+     * Lunascape; name <code>"Browser-Lunascape"</code>.
+     */
+    LUNASCAPE("Browser-Lunascape"),
+
+    /**
+     * Maxthon; name <code>"Browser-Maxthon"</code>.
+     */
+    MAXTHON("Browser-Maxthon"),
+
+    /**
+     * Sleipnir; name <code>"Browser-Sleipnir"</code>.
+     */
+    SLEIPNIR("Browser-Sleipnir"),
+
+    /**
+     * The BlackBerry browser; name <code>"Browser-Blackberry"</code>.
+     */
+    BLACKBERRY("Browser-Blackberry"),
+
+    /**
+     * Konqueror; name <code>"Browser-Konqueror"</code>.
+     */
+    KONQUEROR("Browser-Konqueror"),
+
+    /**
+     * Firefox, including the mobile versions; names <code>"Browser-Firefox"</code>, <code>"Browser-MobileFirefox"</code> and
+     * <code>"Browser-Fennec"</code>.
+     */
+    FIREFOX("Browser-Firefox", "Browser-Firefox", "Browser-MobileFirefox", "Browser-Fennec"),
+
+    /**
+     * Epiphany; name <code>"Browser-Epiphany"</code>.
+     */
+    EPIPHANY("Browser-Epiphany"),
+
+    /**
+     * Flock; name <code>"Browser-Flock"</code>.
+     */
+    FLOCK("Browser-Flock"),
+
+    /**
+     * Camino; name <code>"Browser-Camino"</code>.
+     */
+    CAMINO("Browser-Camino"),
+
+    /**
+     * SeaMonkey; name <code>"Browser-SeaMonkey"</code>.
+     */
+    SEAMONKEY("Browser-SeaMonkey"),
+
+    /**
+     * Netscape; name <code>"Browser-Netscape"</code>.
+     */
+    NETSCAPE("Browser-Netscape"),
+
+    /**
+     * Opera, including Opera Mini, Mobile and Tablet; name <code>"Browser-Opera"</code>, the version is taken from
+     * <code>"Browser-OperaDesktop"</code>, <code>"Browser-OperaMini"</code>, <code>"Browser-OperaMobile"</code> or
+     * <code>"Browser-OperaTablet"</code>.
+     */
+    OPERA("Browser-Opera", "Browser-OperaDesktop", "Browser-OperaMini", "Browser-OperaMobile", "Browser-OperaTablet"),
+
+    /**
+     * The Palm Pre browser; name <code>"Browser-PalmPreBrowser"</code>.
+     */
+    PALM_PRE("Browser-PalmPreBrowser"),
+
+    /**
+     * OmniWeb; name <code>"Browser-OmniWeb"</code>.
+     */
+    OMNIWEB("Browser-OmniWeb"),
+
+    /**
+     * RockMelt; name <code>"Browser-RockMelt"</code>.
+     */
+    ROCKMELT("Browser-RockMelt"),
+
+    /**
+     * Chrome; name <code>"Browser-Chrome"</code>.
+     */
+    CHROME("Browser-Chrome"),
+
+    /**
+     * The Nokia browser; name <code>"Browser-Nokia"</code>.
+     */
+    NOKIA("Browser-Nokia"),
+
+    /**
+     * NetFront; name <code>"Browser-NetFront"</code>.
+     */
+    NETFRONT("Browser-NetFront"),
+
+    /**
+     * The Kindle browser; name <code>"Browser-Kindle"</code>.
+     */
+    KINDLE("Browser-Kindle"),
+
+    /**
+     * Dolphin; name <code>"Browser-Dolphin"</code>.
+     */
+    DOLPHIN("Browser-Dolphin"),
+
+    /**
+     * The Nook browser; name <code>"Browser-Nook"</code>.
+     */
+    NOOK("Browser-Nook"),
+
+    /**
+     * Silk, on the Kindle Fire; name <code>"Browser-Silk"</code>.
+     */
+    SILK("Browser-Silk"),
+
+    /**
+     * iCab; name <code>"Browser-iCab"</code>.
+     */
+    ICAB("Browser-iCab"),
+
+    /**
+     * Safari, desktop and mobile; name <code>"Browser-Safari"</code>, the version is taken from <code>"Browser-DesktopSafari"</code> or
+     * <code>"Browser-MobileSafari"</code>.
+     */
+    SAFARI("Browser-Safari", "Browser-DesktopSafari", "Browser-MobileSafari"),
+
+    /**
+     * Internet Explorer, desktop and mobile; name <code>"Browser-MSIE"</code>, the version is taken from <code>"Browser-DesktopMSIE"</code> or
+     * <code>"Browser-MobileMSIE"</code>.
+     */
+    MSIE("Browser-MSIE", "Browser-DesktopMSIE", "Browser-MobileMSIE"),
+
+    /**
+     * NCSA Mosaic; name <code>"Browser-Mosaic"</code>.
+     */
+    MOSAIC("Browser-Mosaic");
+
+    private Browser(String name, String... versionNames) {
+        _name = name;
+        _versionNames = versionNames.length == 0 ? new String[] { name } : versionNames;
+    }
+
+    private final String _name;
+    private final String[] _versionNames;
+
+    /**
+     * Returns the name that corresponds with this browser family.
+     *
+     * @return the name, e.g. <code>"Browser-Chrome"</code>, never <code>null</code>.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Returns the names the version of this family is taken from, most preferred first. These names also identify the family.
+     */
+    String[] versionNames() {
+        return _versionNames.clone();
+    }
+}
@@ -0,0 +1,72 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+/**
+ * Browser engines, as returned by {@link UserAgent#getBrowserEngine()}. Each engine corresponds to a name that {@link Sniffer#analyze(String)}
+ * adds to the {@link UserAgent}, see {@link #getName()}.
+ * <p>
+ * If an agent string matches several engines, the one declared first wins.
+ */
+public enum BrowserEngine {
+
+    /**
+     * The Google Chrome Frame plugin for Internet Explorer; name <code>"BrowserEngine-ChromeFrame"</code>.
+     */
+    CHROME_FRAME("BrowserEngine-ChromeFrame"),
+
+    /**
+     * Trident, the engine of Internet Explorer; name <code>"BrowserEngine-Trident"</code>, the version is taken from
+     * <code>"BrowserEngine-Trident"</code> or, if the agent string has no Trident version, <code>"BrowserEngine-Trident-MSIE"</code>.
+     */
+    TRIDENT("BrowserEngine-Trident", "BrowserEngine-Trident", "BrowserEngine-Trident-MSIE"),
+
+    /**
+     * Tasman, the engine of Internet Explorer for Mac; name <code>"BrowserEngine-Tasman"</code>.
+     */
+    TASMAN("BrowserEngine-Tasman"),
+
+    /**
+     * Presto, the engine of Opera up to version 12; name <code>"BrowserEngine-Presto"</code>.
+     */
+    PRESTO("BrowserEngine-Presto"),
+
+    /**
+     * Gecko, the engine of Firefox; name <code>"BrowserEngine-Gecko"</code>.
+     */
+    GECKO("BrowserEngine-Gecko"),
+
+    /**
+     * KHTML, the engine of Konqueror; name <code>"BrowserEngine-KHTML"</code>.
+     */
+    KHTML("BrowserEngine-KHTML"),
+
+    /**
+     * WebKit, the engine of Safari and Chrome; name <code>"BrowserEngine-WebKit"</code>.
+     */
+    WEBKIT("BrowserEngine-WebKit");
+
+    private BrowserEngine(String name, String... versionNames) {
+        _name = name;
+        _versionNames = versionNames.length == 0 ? new String[] { name } : versionNames;
+    }
+
+    private final String _name;
+    private final String[] _versionNames;
+
+    /**
+     * Returns the name that corresponds with this browser engine.
+     *
+     * @return the name, e.g. <code>"BrowserEngine-WebKit"</code>, never <code>null</code>.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Returns the names the version of this engine is taken from, most preferred first. These names also identify the engine.
+     */
+    String[] versionNames() {
+        return _versionNames.clone();
+    }
+}
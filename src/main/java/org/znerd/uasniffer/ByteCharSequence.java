@@ -0,0 +1,49 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import java.nio.charset.Charset;
+
+/**
+ * Character sequence view of a range of bytes, with each byte interpreted as an ISO-8859-1 character, like HTTP header values. ASCII is a
+ * subset of ISO-8859-1, so ASCII text is read as-is.
+ * <p>
+ * No characters are decoded until {@link #toString()} is called.
+ */
+final class ByteCharSequence implements CharSequence {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    ByteCharSequence(byte[] bytes, int offset, int length) {
+        _bytes = bytes;
+        _offset = offset;
+        _length = length;
+    }
+
+    private final byte[] _bytes;
+    private final int _offset;
+    private final int _length;
+
+    public int length() {
+        return _length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= _length) {
+            throw new IndexOutOfBoundsException("index (" + index + ") out of range [0, " + _length + ").");
+        }
+        return (char) (_bytes[_offset + index] & 0xFF);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > _length || start > end) {
+            throw new IndexOutOfBoundsException("start (" + start + ") and end (" + end + ") out of range [0, " + _length + "].");
+        }
+        return new ByteCharSequence(_bytes, _offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(_bytes, _offset, _length, ISO_8859_1);
+    }
+}
@@ -0,0 +1,300 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parser for the User-Agent Client Hints headers that Chromium based browsers send, like <code>Sec-CH-UA</code>,
+ * <code>Sec-CH-UA-Mobile</code> and <code>Sec-CH-UA-Platform</code>.
+ * <p>
+ * The hints are turned into the agent string the browser would send if it did not reduce its <code>User-Agent</code> header, built the way
+ * Chromium builds it from the same information. Analyzing that string gives the same names as analyzing an unreduced agent string, while only
+ * the short, structured header values are parsed for each request: the strings built from hints have few distinct values, so their results
+ * can be cached, see {@link Sniffer#analyze(Map)}.
+ * <p>
+ * Browsers only send the low entropy hints by default. What the high entropy hints would tell (<code>Sec-CH-UA-Full-Version-List</code>,
+ * <code>Sec-CH-UA-Platform-Version</code> and <code>Sec-CH-UA-Model</code>) is taken from the <code>User-Agent</code> header if they are
+ * absent, never made up.
+ */
+final class ClientHints {
+
+    private ClientHints() {
+    }
+
+    /**
+     * Returns the value of a header, matching the name ignoring case.
+     *
+     * @return the value, or <code>null</code> if there is no such header.
+     */
+    static String header(Map<String, String> headers, String name) {
+        String value = headers.get(name);
+        if (value == null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                if (name.equalsIgnoreCase(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Builds an agent string from the client hints in the specified headers, completed with the parts of the <code>User-Agent</code> header
+     * that the hints do not cover.
+     *
+     * @param headers
+     *        the request headers, cannot be <code>null</code>.
+     * @param agentString
+     *        the value of the <code>User-Agent</code> header, cannot be <code>null</code>.
+     * @return the agent string, or <code>null</code> if the headers do not contain client hints, the hints describe a browser or platform that
+     *         is not supported, or the <code>User-Agent</code> header does not provide what the hints leave out, in which case the
+     *         <code>User-Agent</code> header should be analyzed instead.
+     */
+    static String toAgentString(Map<String, String> headers, String agentString) {
+        String brandsHeader = header(headers, "Sec-CH-UA-Full-Version-List");
+        boolean fullVersions = brandsHeader != null;
+        if (!fullVersions) {
+            brandsHeader = header(headers, "Sec-CH-UA");
+        }
+        Map<String, String> brands = brandsHeader == null ? null : parseBrands(brandsHeader);
+        String platform = parseString(header(headers, "Sec-CH-UA-Platform"));
+        if (brands == null || platform == null) {
+            return null;
+        }
+
+        // Only the brands that are known to add nothing but their own product token to the agent string are supported
+        String chromium = null;
+        String product = null;
+        String productToken = null;
+        for (Map.Entry<String, String> brand : brands.entrySet()) {
+            String name = brand.getKey();
+            if (name.equals("Chromium")) {
+                chromium = brand.getValue();
+            } else if (name.equals("Google Chrome")) {
+                // The agent string of Chrome only contains the Chromium version
+            } else if (name.equals("Opera") && product == null) {
+                productToken = "OPR/";
+                product = brand.getValue();
+            } else if (name.equals("Microsoft Edge") && product == null) {
+                productToken = platform.equals("Android") ? "EdgA/" : "Edg/";
+                product = brand.getValue();
+            } else if (!isGrease(name)) {
+                return null;
+            }
+        }
+        if (chromium == null) {
+            return null;
+        }
+
+        // Sec-CH-UA only has the major versions
+        if (!fullVersions) {
+            chromium = fullVersion(agentString, "Chrome/", chromium);
+            product = product == null ? null : fullVersion(agentString, productToken, product);
+            if (chromium == null || productToken != null && product == null) {
+                return null;
+            }
+        }
+
+        String platformToken = platformToken(platform, parseString(header(headers, "Sec-CH-UA-Platform-Version")), parseString(header(headers,
+                "Sec-CH-UA-Model")), agentString);
+        if (platformToken == null) {
+            return null;
+        }
+        boolean mobile = "?1".equals(trim(header(headers, "Sec-CH-UA-Mobile")));
+
+        StringBuilder s = new StringBuilder(160);
+        s.append("Mozilla/5.0 (").append(platformToken).append(") AppleWebKit/537.36 (KHTML, like Gecko) Chrome/").append(chromium);
+        s.append(mobile ? " Mobile Safari/537.36" : " Safari/537.36");
+        if (product != null) {
+            s.append(' ').append(productToken).append(product);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Finds the full version of a product in the <code>User-Agent</code> header, for a major version from <code>Sec-CH-UA</code>.
+     *
+     * @return the full version, or <code>null</code> if the header does not contain the product with the same major version.
+     */
+    private static String fullVersion(String agentString, String productToken, String majorVersion) {
+        int index = agentString.indexOf(productToken);
+        if (index < 0) {
+            return null;
+        }
+        int start = index + productToken.length();
+        int end = start;
+        while (end < agentString.length() && (Character.isDigit(agentString.charAt(end)) || agentString.charAt(end) == '.')) {
+            end++;
+        }
+        String version = agentString.substring(start, end);
+        return version.equals(majorVersion) || version.startsWith(majorVersion + '.') ? version : null;
+    }
+
+    /**
+     * Returns the platform part of the agent string. If the platform version, or for Android the model, is not known from the hints, the
+     * platform part of the <code>User-Agent</code> header is used, provided it is for the same platform.
+     *
+     * @return the platform part, or <code>null</code> if the platform is not supported or the hints and the header do not provide it.
+     */
+    private static String platformToken(String platform, String version, String model, String agentString) {
+        if (version != null && (version.length() == 0 || !isVersion(version))) {
+            version = null;
+        }
+        if (model != null && model.length() == 0) {
+            model = null;
+        }
+        if (platform.equals("Linux")) {
+            return "X11; Linux x86_64";
+        } else if (platform.equals("Windows")) {
+            return version == null ? headerPlatformToken(agentString, "Windows NT ") : "Windows NT " + windowsNTVersion(version) + "; Win64; x64";
+        } else if (platform.equals("macOS")) {
+            return version == null ? headerPlatformToken(agentString, "Mac OS X ") : "Macintosh; Intel Mac OS X " + version.replace('.', '_');
+        } else if (platform.equals("Chrome OS")) {
+            return version == null ? headerPlatformToken(agentString, "CrOS ") : "X11; CrOS x86_64 " + version;
+        } else if (platform.equals("Android")) {
+            return version == null || model == null ? headerPlatformToken(agentString, "Android ") : "Linux; Android " + version + "; " + model;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the platform part of the <code>User-Agent</code> header: the text between the first pair of parentheses, if it contains the
+     * specified keyword.
+     *
+     * @return the platform part, or <code>null</code> if there is none or it does not contain the keyword.
+     */
+    private static String headerPlatformToken(String agentString, String keyword) {
+        int start = agentString.indexOf('(');
+        int end = agentString.indexOf(')', start + 1);
+        if (start < 0 || end < 0) {
+            return null;
+        }
+        String token = agentString.substring(start + 1, end);
+        return token.contains(keyword) ? token : null;
+    }
+
+    /**
+     * Determines the Windows NT version from the platform version hint: 0.1, 0.2 and 0.3 are Windows 7, 8 and 8.1; 1 and up are Windows 10 and
+     * 11, which both report NT 10.0.
+     */
+    private static String windowsNTVersion(String version) {
+        if (version.startsWith("0.1")) {
+            return "6.1";
+        } else if (version.startsWith("0.2")) {
+            return "6.2";
+        } else if (version.startsWith("0.3")) {
+            return "6.3";
+        }
+        return "10.0";
+    }
+
+    private static boolean isVersion(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determines if a brand is a made-up one that browsers add to keep servers from depending on the exact brand list, like
+     * <code>"Not A(Brand"</code>.
+     */
+    private static boolean isGrease(String brand) {
+        return brand.startsWith("Not") && brand.endsWith("Brand");
+    }
+
+    /**
+     * Parses a list of brands with their versions, like <code>"Chromium";v="110", "Not A(Brand";v="24"</code>.
+     *
+     * @return the brands with their versions, in order, or <code>null</code> if the list is malformed or empty, or a brand has no valid version.
+     */
+    static Map<String, String> parseBrands(String header) {
+        Map<String, String> brands = new LinkedHashMap<String, String>();
+        int index = skipSpaces(header, 0);
+        while (index < header.length()) {
+            int end = stringEnd(header, index);
+            if (end < 0) {
+                return null;
+            }
+            String brand = header.substring(index + 1, end - 1);
+            String version = null;
+            index = skipSpaces(header, end);
+
+            // Parameters, of which only the version is used
+            while (index < header.length() && header.charAt(index) == ';') {
+                index = skipSpaces(header, index + 1);
+                int nameEnd = index;
+                while (nameEnd < header.length() && header.charAt(nameEnd) != '=' && header.charAt(nameEnd) != ';' && header.charAt(nameEnd) != ',') {
+                    nameEnd++;
+                }
+                String name = header.substring(index, nameEnd).trim();
+                index = nameEnd;
+                if (index < header.length() && header.charAt(index) == '=') {
+                    end = stringEnd(header, index + 1);
+                    if (end < 0) {
+                        return null;
+                    }
+                    if (name.equals("v")) {
+                        version = header.substring(index + 2, end - 1);
+                    }
+                    index = skipSpaces(header, end);
+                }
+            }
+            if (version == null || version.length() == 0 || !isVersion(version)) {
+                return null;
+            }
+            brands.put(brand, version);
+
+            if (index < header.length()) {
+                if (header.charAt(index) != ',') {
+                    return null;
+                }
+                index = skipSpaces(header, index + 1);
+            }
+        }
+        return brands.isEmpty() ? null : brands;
+    }
+
+    /**
+     * Parses a header value that is a single quoted string, like <code>"Windows"</code>.
+     *
+     * @return the string without quotes, or <code>null</code> if the value is <code>null</code> or not a quoted string.
+     */
+    static String parseString(String header) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        int end = stringEnd(value, 0);
+        return end == value.length() ? value.substring(1, end - 1) : null;
+    }
+
+    /**
+     * Finds the end of a quoted string that starts at the specified index. Escaped characters are not supported, browsers do not send them.
+     *
+     * @return the index after the closing quote, or -1 if there is no quoted string at the index.
+     */
+    private static int stringEnd(String s, int index) {
+        if (index >= s.length() || s.charAt(index) != '"') {
+            return -1;
+        }
+        int close = s.indexOf('"', index + 1);
+        return close < 0 || s.lastIndexOf('\\', close) > index ? -1 : close + 1;
+    }
+
+    private static int skipSpaces(String s, int index) {
+        while (index < s.length() && (s.charAt(index) == ' ' || s.charAt(index) == '\t')) {
+            index++;
+        }
+        return index;
+    }
+
+    private static String trim(String s) {
+        return s == null ? null : s.trim();
+    }
+}
@@ -0,0 +1,120 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Count-min sketch: approximate counts for an unbounded set of keys in a fixed amount of memory. An estimate is never below the actual count;
+ * with width <em>w</em> and depth <em>d</em> it exceeds the actual count by more than 2<em>N</em>/<em>w</em> (where <em>N</em> is the total of
+ * all counts) with a probability of at most 2<sup>-<em>d</em></sup>.
+ * <p>
+ * Sketches with the same dimensions can be merged by adding up their counters. Keys are passed as 64-bit hashes of their characters, see
+ * {@link SharedResultStore#hash(String)}.
+ * <p>
+ * This class is not thread-safe.
+ */
+final class CountMinSketch {
+
+    /**
+     * The maximum number of counters accepted by {@link #read(DataInputStream)}, so that corrupt input does not exhaust memory.
+     */
+    private static final long MAX_COUNTER_COUNT = 1L << 24;
+
+    CountMinSketch(int width, int depth) {
+        checkArgument(width < 1, "width (" + width + ") < 1");
+        checkArgument(depth < 1, "depth (" + depth + ") < 1");
+        _width = width;
+        _counters = new long[depth][width];
+    }
+
+    CountMinSketch(CountMinSketch source) {
+        _width = source._width;
+        _counters = new long[source._counters.length][];
+        for (int row = 0; row < _counters.length; row++) {
+            _counters[row] = source._counters[row].clone();
+        }
+    }
+
+    private final int _width;
+    private final long[][] _counters;
+
+    /**
+     * Determines the column for a key in a row, deriving a 32-bit hash per row from the two halves of the key hash and mapping it to the width
+     * with a multiplication instead of a division.
+     */
+    private int column(long hash, int row) {
+        long h = ((hash >>> 32) + row * (hash | 1L)) & 0xFFFFFFFFL;
+        return (int) ((h * _width) >>> 32);
+    }
+
+    /**
+     * Adds to the count of a key.
+     *
+     * @return the new estimate for the key.
+     */
+    long add(long hash, long count) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < _counters.length; row++) {
+            long[] counters = _counters[row];
+            int column = column(hash, row);
+            counters[column] += count;
+            estimate = Math.min(estimate, counters[column]);
+        }
+        return estimate;
+    }
+
+    long estimate(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < _counters.length; row++) {
+            estimate = Math.min(estimate, _counters[row][column(hash, row)]);
+        }
+        return estimate;
+    }
+
+    boolean isCompatible(CountMinSketch other) {
+        return _width == other._width && _counters.length == other._counters.length;
+    }
+
+    /**
+     * Adds the counters of another sketch with the same dimensions to this one.
+     */
+    void merge(CountMinSketch other) {
+        for (int row = 0; row < _counters.length; row++) {
+            long[] counters = _counters[row];
+            long[] otherCounters = other._counters[row];
+            for (int column = 0; column < _width; column++) {
+                counters[column] += otherCounters[column];
+            }
+        }
+    }
+
+    void write(DataOutputStream data) throws IOException {
+        data.writeInt(_width);
+        data.writeInt(_counters.length);
+        for (long[] counters : _counters) {
+            for (long counter : counters) {
+                data.writeLong(counter);
+            }
+        }
+    }
+
+    static CountMinSketch read(DataInputStream data) throws IOException {
+        int width = data.readInt();
+        int depth = data.readInt();
+        if (width < 1 || depth < 1 || (long) width * depth > MAX_COUNTER_COUNT) {
+            throw new IOException("Invalid count-min sketch dimensions (" + width + " x " + depth + ").");
+        }
+        CountMinSketch sketch = new CountMinSketch(width, depth);
+        for (long[] counters : sketch._counters) {
+            for (int column = 0; column < width; column++) {
+                counters[column] = data.readLong();
+            }
+        }
+        return sketch;
+    }
+}
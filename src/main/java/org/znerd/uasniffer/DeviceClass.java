@@ -0,0 +1,67 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+/**
+ * Classes of devices, as determined by {@link Sniffer#analyzeDevice(String)}. A device can be in several classes, e.g. a tablet can also be
+ * a phone. Each class corresponds to a name that {@link Sniffer#analyze(String)} adds to the {@link UserAgent}.
+ */
+public enum DeviceClass {
+
+    /**
+     * A desktop or laptop computer; name <code>"Device-Desktop"</code>.
+     */
+    DESKTOP("Device-Desktop"),
+
+    /**
+     * A mobile device; name <code>"Device-Mobile"</code>.
+     */
+    MOBILE("Device-Mobile"),
+
+    /**
+     * A tablet; name <code>"Device-Tablet"</code>.
+     */
+    TABLET("Device-Tablet"),
+
+    /**
+     * A device with telephone support; name <code>"Device-Phone"</code>. Devices without it get the name <code>"Device-NoPhone"</code>.
+     */
+    PHONE("Device-Phone"),
+
+    /**
+     * An e-reader, such as a Nook or Kindle; name <code>"Device-Ereader"</code>.
+     */
+    EREADER("Device-Ereader"),
+
+    /**
+     * A gaming device, such as a PlayStation Portable; name <code>"Device-Gaming"</code>.
+     */
+    GAMING("Device-Gaming"),
+
+    /**
+     * A bot, such as a search engine crawler; name <code>"Device-Bot"</code>.
+     */
+    BOT("Device-Bot");
+
+    private DeviceClass(String name) {
+        _name = name;
+    }
+
+    private final String _name;
+
+    /**
+     * Returns the name that corresponds with this device class.
+     *
+     * @return the name, e.g. <code>"Device-Mobile"</code>, never <code>null</code>.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Returns the bit for this device class in a bit mask of device classes.
+     */
+    int bit() {
+        return 1 << ordinal();
+    }
+}
@@ -0,0 +1,108 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * HyperLogLog estimator for the number of distinct keys, using 2<sup><em>p</em></sup> one-byte registers for a relative standard error of
+ * about 1.04 / &radic;2<sup><em>p</em></sup>. Small cardinalities are estimated with linear counting.
+ * <p>
+ * Estimators with the same precision can be merged by taking the maximum of each register. Keys are passed as 64-bit hashes, see
+ * {@link SharedResultStore#hash(String)}.
+ * <p>
+ * This class is not thread-safe.
+ */
+final class HyperLogLog {
+
+    /**
+     * The lowest supported precision.
+     */
+    static final int MIN_PRECISION = 4;
+
+    /**
+     * The highest supported precision.
+     */
+    static final int MAX_PRECISION = 18;
+
+    HyperLogLog(int precision) {
+        checkArgument(precision < MIN_PRECISION, "precision (" + precision + ") < " + MIN_PRECISION);
+        checkArgument(precision > MAX_PRECISION, "precision (" + precision + ") > " + MAX_PRECISION);
+        _precision = precision;
+        _registers = new byte[1 << precision];
+    }
+
+    HyperLogLog(HyperLogLog source) {
+        _precision = source._precision;
+        _registers = source._registers.clone();
+    }
+
+    private final int _precision;
+    private final byte[] _registers;
+
+    void add(long hash) {
+        int index = (int) (hash >>> (64 - _precision));
+
+        // The rank is the position of the first 1 bit in the remaining bits, at most 64 - precision + 1
+        int rank = Math.min(Long.numberOfLeadingZeros(hash << _precision), 64 - _precision) + 1;
+        if (rank > _registers[index]) {
+            _registers[index] = (byte) rank;
+        }
+    }
+
+    long estimate() {
+        int m = _registers.length;
+        double sum = 0.0;
+        int zeros = 0;
+        for (byte register : _registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = 0.7213 / (1.0 + 1.079 / m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    boolean isCompatible(HyperLogLog other) {
+        return _precision == other._precision;
+    }
+
+    /**
+     * Merges another estimator with the same precision into this one.
+     */
+    void merge(HyperLogLog other) {
+        for (int i = 0; i < _registers.length; i++) {
+            if (other._registers[i] > _registers[i]) {
+                _registers[i] = other._registers[i];
+            }
+        }
+    }
+
+    void write(DataOutputStream data) throws IOException {
+        data.writeInt(_precision);
+        data.write(_registers);
+    }
+
+    static HyperLogLog read(DataInputStream data) throws IOException {
+        int precision = data.readInt();
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IOException("Invalid HyperLogLog precision (" + precision + ").");
+        }
+        HyperLogLog estimator = new HyperLogLog(precision);
+        data.readFully(estimator._registers);
+        for (byte register : estimator._registers) {
+            if (register < 0 || register > 64 - precision + 1) {
+                throw new IOException("Invalid HyperLogLog register (" + register + ").");
+            }
+        }
+        return estimator;
+    }
+}
@@ -0,0 +1,168 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+/**
+ * The keywords found in a text by a {@link KeywordScanner}, with the index of the first occurrence of each.
+ * <p>
+ * Lookups for keywords that are not known to the scanner fall back to a plain search in the text, so results are always correct, but only
+ * known keywords benefit from the single scan.
+ */
+final class KeywordMatches {
+
+    KeywordMatches(KeywordScanner scanner, CharSequence text, int[] firstIndexes, int groupMask) {
+        _scanner = scanner;
+        _text = text;
+        _firstIndexes = firstIndexes;
+        _groupMask = groupMask;
+    }
+
+    private final KeywordScanner _scanner;
+    private final CharSequence _text;
+
+    /**
+     * The index of the first occurrence of each keyword, plus 1; or 0 if the keyword was not found.
+     */
+    private final int[] _firstIndexes;
+
+    private final int _groupMask;
+
+    /**
+     * Returns the text that was scanned.
+     *
+     * @return the text, in its original case, never <code>null</code>.
+     */
+    CharSequence getText() {
+        return _text;
+    }
+
+    /**
+     * Determines if the specified keyword occurs in the text.
+     *
+     * @param keyword
+     *        the keyword to look for, cannot be <code>null</code>.
+     * @return <code>true</code> if the keyword was found, <code>false</code> otherwise.
+     */
+    boolean contains(String keyword) {
+        return indexOf(keyword) >= 0;
+    }
+
+    /**
+     * Determines if the text starts with the specified keyword.
+     *
+     * @param keyword
+     *        the keyword to look for, cannot be <code>null</code>.
+     * @return <code>true</code> if the text starts with the keyword, <code>false</code> otherwise.
+     */
+    boolean startsWith(String keyword) {
+        return indexOf(keyword) == 0;
+    }
+
+    /**
+     * Returns the index of the first occurrence of the specified keyword in the text.
+     *
+     * @param keyword
+     *        the keyword to look for, cannot be <code>null</code>.
+     * @return the index of the first occurrence, or -1 if the keyword was not found.
+     */
+    int indexOf(String keyword) {
+        int keywordID = _scanner.keywordID(keyword);
+        return keywordID < 0 ? indexOf(_text, keyword, 0) : _firstIndexes[keywordID] - 1;
+    }
+
+    /**
+     * Searches the text for the specified keyword, starting at the specified index. Unlike {@link #indexOf(String)}, this always searches the
+     * text.
+     *
+     * @param keyword
+     *        the keyword to look for, in lower case, cannot be <code>null</code>.
+     * @param fromIndex
+     *        the index to start the search at.
+     * @return the index of the first occurrence at or after <code>fromIndex</code>, or -1 if the keyword was not found.
+     */
+    int indexOf(String keyword, int fromIndex) {
+        return indexOf(_text, keyword, fromIndex);
+    }
+
+    /**
+     * Returns the index of the first occurrence of the keyword with the specified ID.
+     *
+     * @param keywordID
+     *        the ID of the keyword, as returned by {@link KeywordScanner#keywordID(String)}.
+     * @return the index of the first occurrence, or -1 if the keyword was not found.
+     */
+    int indexOf(int keywordID) {
+        return _firstIndexes[keywordID] - 1;
+    }
+
+    /**
+     * Determines if any of the keywords in the specified group occurs in the text.
+     *
+     * @param group
+     *        the keyword group, cannot be <code>null</code>.
+     * @return <code>true</code> if at least one keyword in the group was found, <code>false</code> otherwise.
+     */
+    boolean containsAny(String[] group) {
+        int groupID = _scanner.groupID(group);
+        if (groupID >= 0) {
+            return (_groupMask & (1 << groupID)) != 0;
+        }
+        for (String keyword : group) {
+            if (contains(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Searches a text for a keyword, ignoring ASCII case differences.
+     *
+     * @param text
+     *        the text to search, cannot be <code>null</code>.
+     * @param keyword
+     *        the keyword to look for, in lower case, cannot be <code>null</code>.
+     * @param fromIndex
+     *        the index to start the search at.
+     * @return the index of the first occurrence at or after <code>fromIndex</code>, or -1 if the keyword was not found.
+     */
+    static int indexOf(CharSequence text, String keyword, int fromIndex) {
+        for (int i = Math.max(fromIndex, 0), last = text.length() - keyword.length(); i <= last; i++) {
+            if (regionMatches(text, i, keyword)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Determines if a text contains a keyword at the specified index, ignoring ASCII case differences.
+     *
+     * @param text
+     *        the text, cannot be <code>null</code>.
+     * @param index
+     *        the index in the text, must be non-negative.
+     * @param keyword
+     *        the keyword, in lower case, cannot be <code>null</code>.
+     * @return <code>true</code> if the keyword occurs at the index, <code>false</code> otherwise.
+     */
+    static boolean regionMatches(CharSequence text, int index, String keyword) {
+        int length = keyword.length();
+        if (index + length > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLowerCase(text.charAt(index + i)) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts an ASCII upper case character to lower case; all other characters are returned as-is.
+     */
+    static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
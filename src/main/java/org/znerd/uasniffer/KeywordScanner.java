@@ -0,0 +1,294 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-keyword scanner that finds all occurrences of a fixed set of keywords in a single pass over a text, using the Aho-Corasick algorithm.
+ * <p>
+ * The keywords are compiled once into a deterministic automaton. Scanning a text costs time proportional to the length of the text, independent of
+ * the number of keywords. The result is a {@link KeywordMatches} object that records which keywords were found and where.
+ * <p>
+ * Keywords must be lower case; the scanner folds ASCII upper case characters in the text to lower case while scanning, through the character
+ * class table, so folding costs nothing extra per character. Keywords can also be organized in groups, so a caller can check in constant time
+ * whether any keyword of a group was found.
+ * <p>
+ * Instances of this class are immutable and thread-safe.
+ */
+final class KeywordScanner {
+
+    /**
+     * Constructs a new <code>KeywordScanner</code> for the specified keywords and keyword groups.
+     *
+     * @param keywords
+     *        the keywords to find, cannot be <code>null</code> and should not contain <code>null</code> or empty elements; duplicates are ignored.
+     * @param groups
+     *        groups of keywords, cannot be <code>null</code>; keywords in a group do not have to be in <code>keywords</code>; groups are
+     *        identified by array identity, see {@link KeywordMatches#containsAny(String[])}.
+     * @throws IllegalArgumentException
+     *         if <code>keywords == null || groups == null</code>, if there are more than 32 groups, or if one of the keywords is <code>null</code>,
+     *         empty or not in lower case.
+     */
+    KeywordScanner(String[] keywords, String[][] groups) throws IllegalArgumentException {
+        checkArgument(keywords == null, "keywords == null");
+        checkArgument(groups == null, "groups == null");
+        checkArgument(groups.length > 32, "groups.length (" + groups.length + ") > 32");
+
+        // Assign an ID to each distinct keyword
+        _keywordIDs = new HashMap<String, Integer>();
+        List<String> keywordList = new ArrayList<String>();
+        for (String keyword : keywords) {
+            register(keyword, keywordList);
+        }
+        for (String[] group : groups) {
+            for (String keyword : group) {
+                register(keyword, keywordList);
+            }
+        }
+        _keywords = keywordList.toArray(new String[keywordList.size()]);
+
+        // Determine the group memberships per keyword
+        _groupIDs = new IdentityHashMap<String[], Integer>();
+        _groupMasks = new int[_keywords.length];
+        for (int groupID = 0; groupID < groups.length; groupID++) {
+            _groupIDs.put(groups[groupID], groupID);
+            for (String keyword : groups[groupID]) {
+                _groupMasks[_keywordIDs.get(keyword)] |= 1 << groupID;
+            }
+        }
+
+        // Map each character that appears in a keyword to a compact character class; class 0 is for all other characters
+        _charClasses = new byte[MAX_CHAR + 1];
+        int classCount = 1;
+        for (String keyword : _keywords) {
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = keyword.charAt(i);
+                if (_charClasses[c] == 0) {
+                    _charClasses[c] = (byte) classCount++;
+                }
+            }
+        }
+        _classCount = classCount;
+
+        // ASCII upper case characters are in the class of their lower case counterpart, so the text does not need to be lower cased
+        for (char c = 'A'; c <= 'Z'; c++) {
+            _charClasses[c] = _charClasses[c + ('a' - 'A')];
+        }
+
+        buildAutomaton();
+    }
+
+    /**
+     * Highest character value that can appear in a keyword. All other characters never match.
+     */
+    private static final char MAX_CHAR = 127;
+
+    private final String[] _keywords;
+    private final Map<String, Integer> _keywordIDs;
+    private final Map<String[], Integer> _groupIDs;
+    private final int[] _groupMasks;
+    private final byte[] _charClasses;
+    private final int _classCount;
+
+    /**
+     * The transition table, indexed by <code>offset + charClass</code>, where the offset of a state is <code>state * _classCount</code>. Each
+     * element holds the offset of the next state, or its complement (a negative number) if keywords end in the next state. This saves a
+     * multiplication and a lookup in {@link #_outputs} per character.
+     */
+    private int[] _transitions;
+
+    /**
+     * For each state, the IDs of the keywords that end in that state, or <code>null</code> if there are none.
+     */
+    private int[][] _outputs;
+
+    private void register(String keyword, List<String> keywordList) {
+        checkArgument(keyword == null || keyword.length() < 1, "Keyword is null or empty.");
+        if (!_keywordIDs.containsKey(keyword)) {
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = keyword.charAt(i);
+                checkArgument(c > MAX_CHAR || (c >= 'A' && c <= 'Z'), "Keyword \"" + keyword + "\" is not lower case ASCII.");
+            }
+            _keywordIDs.put(keyword, keywordList.size());
+            keywordList.add(keyword);
+        }
+    }
+
+    private void buildAutomaton() {
+
+        // Build the trie, with -1 for missing transitions
+        List<int[]> gotos = new ArrayList<int[]>();
+        List<List<Integer>> outputs = new ArrayList<List<Integer>>();
+        gotos.add(newRow());
+        outputs.add(new ArrayList<Integer>());
+        for (int keywordID = 0; keywordID < _keywords.length; keywordID++) {
+            String keyword = _keywords[keywordID];
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                int charClass = _charClasses[keyword.charAt(i)];
+                int next = gotos.get(state)[charClass];
+                if (next < 0) {
+                    next = gotos.size();
+                    gotos.get(state)[charClass] = next;
+                    gotos.add(newRow());
+                    outputs.add(new ArrayList<Integer>());
+                }
+                state = next;
+            }
+            outputs.get(state).add(keywordID);
+        }
+
+        // Compute the failure links breadth-first and turn the trie into a complete automaton
+        int stateCount = gotos.size();
+        int[] failures = new int[stateCount];
+        _transitions = new int[stateCount * _classCount];
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int charClass = 0; charClass < _classCount; charClass++) {
+            int next = gotos.get(0)[charClass];
+            if (next < 0) {
+                _transitions[charClass] = 0;
+            } else {
+                _transitions[charClass] = next;
+                failures[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.removeFirst();
+            outputs.get(state).addAll(outputs.get(failures[state]));
+            for (int charClass = 0; charClass < _classCount; charClass++) {
+                int next = gotos.get(state)[charClass];
+                int fallback = _transitions[failures[state] * _classCount + charClass];
+                if (next < 0) {
+                    _transitions[state * _classCount + charClass] = fallback;
+                } else {
+                    _transitions[state * _classCount + charClass] = next;
+                    failures[next] = fallback;
+                    queue.add(next);
+                }
+            }
+        }
+
+        // Turn the state numbers into offsets
+        for (int i = 0; i < _transitions.length; i++) {
+            int next = _transitions[i];
+            _transitions[i] = outputs.get(next).isEmpty() ? next * _classCount : ~(next * _classCount);
+        }
+
+        _outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            List<Integer> stateOutputs = outputs.get(state);
+            if (!stateOutputs.isEmpty()) {
+                _outputs[state] = new int[stateOutputs.size()];
+                for (int i = 0; i < _outputs[state].length; i++) {
+                    _outputs[state][i] = stateOutputs.get(i);
+                }
+            }
+        }
+    }
+
+    private int[] newRow() {
+        int[] row = new int[_classCount];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = -1;
+        }
+        return row;
+    }
+
+    /**
+     * Scans the specified text for all keywords.
+     *
+     * @param text
+     *        the text to scan, cannot be <code>null</code>; it is read in place, not copied.
+     * @return the matches found, never <code>null</code>.
+     */
+    KeywordMatches scan(CharSequence text) {
+        int[] firstIndexes = new int[_keywords.length];
+        int groupMask = 0;
+        int offset = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            offset = _transitions[offset + (c > MAX_CHAR ? 0 : _charClasses[c])];
+            if (offset < 0) {
+                offset = ~offset;
+                for (int keywordID : _outputs[offset / _classCount]) {
+                    if (firstIndexes[keywordID] == 0) {
+                        firstIndexes[keywordID] = i - _keywords[keywordID].length() + 2; // 1-based, so 0 means "not found"
+                        groupMask |= _groupMasks[keywordID];
+                    }
+                }
+            }
+        }
+        return new KeywordMatches(this, text, firstIndexes, groupMask);
+    }
+
+    /**
+     * Determines if any keyword occurs entirely within the specified range of a text. Unlike {@link #scan(CharSequence)}, this stops at the first
+     * match and allocates nothing.
+     *
+     * @param text
+     *        the text, cannot be <code>null</code>.
+     * @param start
+     *        the index of the first character of the range.
+     * @param end
+     *        the index after the last character of the range.
+     * @return <code>true</code> if a keyword was found in the range, <code>false</code> otherwise.
+     */
+    boolean containsAny(CharSequence text, int start, int end) {
+        int offset = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            offset = _transitions[offset + (c > MAX_CHAR ? 0 : _charClasses[c])];
+            if (offset < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ID of the specified keyword.
+     *
+     * @return the ID, or -1 if the keyword is not known to this scanner.
+     */
+    int keywordID(String keyword) {
+        Integer id = _keywordIDs.get(keyword);
+        return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * Returns the ID of the specified keyword group.
+     *
+     * @return the ID, or -1 if the group is not known to this scanner.
+     */
+    int groupID(String[] group) {
+        Integer id = _groupIDs.get(group);
+        return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * Returns the distinct keywords known to this scanner, including the ones that are only in a group.
+     *
+     * @return a new array with the keywords, by ID, never <code>null</code>.
+     */
+    String[] getKeywords() {
+        return _keywords.clone();
+    }
+
+    /**
+     * Returns the number of distinct keywords known to this scanner.
+     *
+     * @return the keyword count.
+     */
+    int getKeywordCount() {
+        return _keywords.length;
+    }
+}
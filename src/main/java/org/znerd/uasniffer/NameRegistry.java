@@ -0,0 +1,153 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global registry of all names the {@link Sniffer} can produce, each with an int ID.
+ * <p>
+ * The fixed names (like <code>"Device-Mobile"</code> and <code>"BrowserOS-Windows-NT-6-1"</code>) are registered up front, in a stable order, so
+ * their IDs are the same in every JVM. Other names, typically containing version numbers (like <code>"Browser-Chrome-28-0-1500"</code>), are
+ * registered when they are first produced. Their IDs depend on the order in which they were encountered. Since there is no limit to the number of
+ * distinct version numbers, the number of dynamically registered names is capped at {@value #MAX_NAME_COUNT}; names beyond that are not
+ * registered at all and {@link UserAgent} stores them as plain strings.
+ * <p>
+ * This class is thread-safe.
+ */
+final class NameRegistry {
+
+    /**
+     * The names that are registered up front. The order of this list determines the IDs of these names: do not change the order, only add new
+     * names at the end.
+     */
+    private static final String[] FIXED_NAMES = new String[] {
+
+            // Devices
+            "Device-Desktop", "Device-Mobile", "Device-Tablet", "Device-Phone", "Device-NoPhone", "Device-Bot", "Device-Ereader", "Device-Gaming",
+            "Device-PSP", "Device-PSP-Vita", "Device-AmazonKindle", "Device-AmazonKindle-Fire", "Device-AppleTouch", "Device-AppleTouch-iPad",
+            "Device-AppleTouch-iPhone", "Device-AppleTouch-iPod", "Device-Blackberry", "CloudAcceleration-Yes", "CloudAcceleration-No",
+
+            // Operating systems
+            "BrowserOS-NIX", "BrowserOS-Linux", "BrowserOS-Linux-Android", "BrowserOS-Linux-Maemo", "BrowserOS-CrOS", "BrowserOS-WebOS",
+            "BrowserOS-iOS", "BrowserOS-MacOS", "BrowserOS-MacOS-10", "BrowserOS-Windows", "BrowserOS-Windows-NT", "BrowserOS-Windows-NT-5",
+            "BrowserOS-Windows-NT-5-0", "BrowserOS-Windows-NT-5-1", "BrowserOS-Windows-NT-6", "BrowserOS-Windows-NT-6-0", "BrowserOS-Windows-NT-6-1",
+            "BrowserOS-Windows-NT-6-2", "BrowserOS-Windows-NT-6-3", "BrowserOS-Windows-2000", "BrowserOS-Windows-XP", "BrowserOS-Windows-Vista",
+            "BrowserOS-Windows-7", "BrowserOS-Windows-8", "BrowserOS-Windows-8-0", "BrowserOS-Windows-8-1", "BrowserOS-Windows-RT",
+            "BrowserOS-Windows-ME", "BrowserOS-Windows-98", "BrowserOS-Windows-95", "BrowserOS-Windows-Phone", "BrowserOS-Windows-Mobile",
+            "BrowserOS-BSD", "BrowserOS-BSD-DragonFlyBSD", "BrowserOS-BSD-NetBSD", "BrowserOS-BSD-OpenBSD", "BrowserOS-BSD-FreeBSD", "BrowserOS-AIX",
+            "BrowserOS-IRIX", "BrowserOS-HPUX", "BrowserOS-Solaris", "BrowserOS-BeOS", "BrowserOS-OS2", "BrowserOS-Symbian", "BrowserOS-Bada",
+
+            // Browser engines
+            "BrowserEngine-WebKit", "BrowserEngine-Gecko", "BrowserEngine-Presto", "BrowserEngine-Trident", "BrowserEngine-Trident-MSIE",
+            "BrowserEngine-KHTML", "BrowserEngine-Tasman", "BrowserEngine-ChromeFrame",
+
+            // Browsers
+            "Browser-Lunascape", "Browser-Maxthon", "Browser-Sleipnir", "Browser-Blackberry", "Browser-Konqueror", "Browser-Fennec",
+            "Browser-MobileFirefox", "Browser-Epiphany", "Browser-Flock", "Browser-Camino", "Browser-SeaMonkey", "Browser-Netscape",
+            "Browser-Netscape-6", "Browser-Firefox", "Browser-Opera", "Browser-OperaDesktop", "Browser-OperaMini", "Browser-OperaMobile",
+            "Browser-OperaTablet", "Browser-PalmPreBrowser", "Browser-OmniWeb", "Browser-RockMelt", "Browser-Chrome", "Browser-Nokia",
+            "Browser-NetFront", "Browser-Kindle", "Browser-Dolphin", "Browser-Nook", "Browser-Silk", "Browser-iCab", "Browser-iCab-4", "Browser-Safari",
+            "Browser-MobileSafari", "Browser-DesktopSafari", "Browser-MSIE", "Browser-MobileMSIE", "Browser-DesktopMSIE", "Browser-Mosaic" };
+
+    /**
+     * Maximum number of names in the registry, including the fixed names.
+     */
+    static final int MAX_NAME_COUNT = 65536;
+
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<String, Integer>(256);
+    private static volatile String[] NAMES = new String[1024];
+    private static int NAME_COUNT;
+
+    static {
+        for (String name : FIXED_NAMES) {
+            register(name);
+        }
+    }
+
+    private NameRegistry() {
+    }
+
+    /**
+     * Returns the number of fixed names. The fixed names have IDs <code>0</code> up to (but not including) this number.
+     *
+     * @return the number of fixed names.
+     */
+    static int getFixedNameCount() {
+        return FIXED_NAMES.length;
+    }
+
+    /**
+     * Computes a hash over all fixed names, in order. Data that stores fixed name IDs outside the JVM records it, to detect data written by a
+     * version with other fixed names.
+     *
+     * @return the fingerprint.
+     */
+    static long getFixedNamesFingerprint() {
+        long h = 0xcbf29ce484222325L;
+        for (String name : FIXED_NAMES) {
+            for (int i = 0; i < name.length(); i++) {
+                h = (h ^ name.charAt(i)) * 0x100000001b3L;
+            }
+            h = (h ^ '\n') * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the ID of the specified name, without registering it.
+     *
+     * @param name
+     *        the name, cannot be <code>null</code>.
+     * @return the ID, or -1 if the name is not registered.
+     */
+    static int getID(String name) {
+        Integer id = IDS.get(name);
+        return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * Returns the ID of the specified name, registering it if needed.
+     *
+     * @param name
+     *        the name, cannot be <code>null</code>.
+     * @return the ID, or -1 if the name is not registered and the registry is full.
+     */
+    static int register(String name) {
+        Integer id = IDS.get(name);
+        if (id != null) {
+            return id.intValue();
+        }
+        synchronized (IDS) {
+            id = IDS.get(name);
+            if (id != null) {
+                return id.intValue();
+            } else if (NAME_COUNT >= MAX_NAME_COUNT) {
+                return -1;
+            }
+
+            // Store the name before publishing its ID, so anyone who has the ID can look up the name
+            String[] names = NAMES;
+            if (NAME_COUNT == names.length) {
+                String[] newNames = new String[names.length * 2];
+                System.arraycopy(names, 0, newNames, 0, names.length);
+                names = newNames;
+            }
+            names[NAME_COUNT] = name;
+            NAMES = names;
+            IDS.put(name, NAME_COUNT);
+            return NAME_COUNT++;
+        }
+    }
+
+    /**
+     * Returns the name with the specified ID.
+     *
+     * @param id
+     *        the ID, as returned by {@link #register(String)}.
+     * @return the name, never <code>null</code>.
+     */
+    static String getName(int id) {
+        return NAMES[id];
+    }
+}
@@ -0,0 +1,132 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+/**
+ * Operating system families, as returned by {@link UserAgent#getOperatingSystem()}. Each family corresponds to a name that
+ * {@link Sniffer#analyze(String)} adds to the {@link UserAgent}, see {@link #getName()}.
+ * <p>
+ * If an agent string matches several families, the one declared first wins; e.g. Android is also Linux, but is reported as {@link #ANDROID}.
+ */
+public enum OperatingSystem {
+
+    /**
+     * Android; name <code>"BrowserOS-Linux-Android"</code>.
+     */
+    ANDROID("BrowserOS-Linux-Android"),
+
+    /**
+     * Maemo; name <code>"BrowserOS-Linux-Maemo"</code>.
+     */
+    MAEMO("BrowserOS-Linux-Maemo"),
+
+    /**
+     * Chrome OS; name <code>"BrowserOS-CrOS"</code>.
+     */
+    CHROME_OS("BrowserOS-CrOS"),
+
+    /**
+     * webOS; name <code>"BrowserOS-WebOS"</code>.
+     */
+    WEBOS("BrowserOS-WebOS"),
+
+    /**
+     * Linux; name <code>"BrowserOS-Linux"</code>.
+     */
+    LINUX("BrowserOS-Linux"),
+
+    /**
+     * iOS; name <code>"BrowserOS-iOS"</code>.
+     */
+    IOS("BrowserOS-iOS"),
+
+    /**
+     * Mac OS, including OS X; name <code>"BrowserOS-MacOS"</code>.
+     */
+    MAC_OS("BrowserOS-MacOS"),
+
+    /**
+     * Windows Phone; name <code>"BrowserOS-Windows-Phone"</code>.
+     */
+    WINDOWS_PHONE("BrowserOS-Windows-Phone"),
+
+    /**
+     * Windows Mobile and Windows CE; name <code>"BrowserOS-Windows-Mobile"</code>.
+     */
+    WINDOWS_MOBILE("BrowserOS-Windows-Mobile"),
+
+    /**
+     * Windows; name <code>"BrowserOS-Windows"</code>, the version is taken from <code>"BrowserOS-Windows-NT"</code> or, for Windows 3.x,
+     * <code>"BrowserOS-Windows"</code>.
+     */
+    WINDOWS("BrowserOS-Windows", "BrowserOS-Windows-NT", "BrowserOS-Windows"),
+
+    /**
+     * One of the BSD variants; name <code>"BrowserOS-BSD"</code>.
+     */
+    BSD("BrowserOS-BSD"),
+
+    /**
+     * AIX; name <code>"BrowserOS-AIX"</code>.
+     */
+    AIX("BrowserOS-AIX"),
+
+    /**
+     * IRIX; name <code>"BrowserOS-IRIX"</code>.
+     */
+    IRIX("BrowserOS-IRIX"),
+
+    /**
+     * HP-UX; name <code>"BrowserOS-HPUX"</code>.
+     */
+    HPUX("BrowserOS-HPUX"),
+
+    /**
+     * Solaris and SunOS; name <code>"BrowserOS-Solaris"</code>.
+     */
+    SOLARIS("BrowserOS-Solaris"),
+
+    /**
+     * BeOS; name <code>"BrowserOS-BeOS"</code>.
+     */
+    BEOS("BrowserOS-BeOS"),
+
+    /**
+     * OS/2; name <code>"BrowserOS-OS2"</code>.
+     */
+    OS2("BrowserOS-OS2"),
+
+    /**
+     * Symbian; name <code>"BrowserOS-Symbian"</code>.
+     */
+    SYMBIAN("BrowserOS-Symbian"),
+
+    /**
+     * Bada; name <code>"BrowserOS-Bada"</code>.
+     */
+    BADA("BrowserOS-Bada");
+
+    private OperatingSystem(String name, String... versionNames) {
+        _name = name;
+        _versionNames = versionNames.length == 0 ? new String[] { name } : versionNames;
+    }
+
+    private final String _name;
+    private final String[] _versionNames;
+
+    /**
+     * Returns the name that corresponds with this operating system family.
+     *
+     * @return the name, e.g. <code>"BrowserOS-Linux-Android"</code>, never <code>null</code>.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Returns the names the version of this family is taken from, most preferred first. These names also identify the family.
+     */
+    String[] versionNames() {
+        return _versionNames.clone();
+    }
+}
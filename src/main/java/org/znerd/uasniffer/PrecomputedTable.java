@@ -0,0 +1,377 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table of analysis results for known agent strings, computed at build time by {@link PrecomputedTableGenerator} and stored in the jar file.
+ * {@link Sniffer#analyze(String)} consults it before scanning the agent string.
+ * <p>
+ * The table is indexed by a minimal perfect hash function (hash and displace): every agent string in the table has its own slot, found with at
+ * most two hashes of the string, and the table has exactly as many slots as agent strings. Each slot holds the agent string, which is compared
+ * to rule out strings that are not in the table, and its names: the fixed names as a bitset of IDs, the other names as indexes in a shared list
+ * of strings, the typed result, and the version ladders as pairs of indexes in the same list. The {@link UserAgent} objects are created when the table is loaded; since they are immutable, a lookup returns
+ * the same instance each time.
+ * <p>
+ * Set the system property <code>org.znerd.uasniffer.precomputed</code> to <code>false</code> to disable the table, e.g. to test the detection
+ * rules themselves.
+ */
+final class PrecomputedTable {
+
+    /**
+     * Name of the resource that contains the table, relative to this class.
+     */
+    static final String RESOURCE_NAME = "precomputed.bin";
+
+    private static final int MAGIC = 0x55415054; // "UAPT"
+    private static final int FORMAT_VERSION = 3;
+
+    /**
+     * Maximum number of bytes in an agent string, in modified UTF-8, as imposed by {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static final int MAX_AGENT_STRING_BYTES = 65535;
+
+    private PrecomputedTable(int[] displacements, UserAgent[] results) {
+        _displacements = displacements;
+        _results = results;
+    }
+
+    /**
+     * Per bucket: 0 if empty, a negative value -(<em>slot</em> + 1) if the bucket holds a single agent string, otherwise the seed of the second
+     * hash that gives the slot.
+     */
+    private final int[] _displacements;
+    private final UserAgent[] _results;
+
+    /**
+     * Loads the table from the jar file, unless it is disabled.
+     *
+     * @return the table, or <code>null</code> if it is disabled, not present, in another format, or generated for other fixed names.
+     * @throws IllegalStateException
+     *         if the table cannot be read or is corrupt.
+     */
+    static PrecomputedTable loadResource() throws IllegalStateException {
+        if ("false".equals(System.getProperty("org.znerd.uasniffer.precomputed"))) {
+            return null;
+        }
+        InputStream in = PrecomputedTable.class.getResourceAsStream(RESOURCE_NAME);
+        if (in == null) {
+            return null;
+        }
+        try {
+            try {
+                return read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read precomputed table \"" + RESOURCE_NAME + "\".", e);
+        }
+    }
+
+    /**
+     * Reads a table. A table that does not start with the expected magic number and format version, e.g. one left behind by another version of
+     * this library, is ignored like a table generated for other fixed names, so the detection rules are used instead.
+     *
+     * @param in
+     *        the stream to read from, cannot be <code>null</code>.
+     * @return the table, or <code>null</code> if it is in another format or was generated for other fixed names.
+     * @throws IllegalArgumentException
+     *         if <code>in == null</code>.
+     * @throws IOException
+     *         if the table cannot be read or is corrupt.
+     */
+    static PrecomputedTable read(InputStream in) throws IllegalArgumentException, IOException {
+        checkArgument(in == null, "in == null");
+
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION) {
+            return null;
+        } else if (data.readInt() != NameRegistry.getFixedNameCount() || data.readLong() != NameRegistry.getFixedNamesFingerprint()) {
+            return null;
+        }
+
+        String[] otherNames = new String[data.readInt()];
+        for (int i = 0; i < otherNames.length; i++) {
+            otherNames[i] = data.readUTF();
+        }
+
+        int size = data.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid size (" + size + ").");
+        }
+        int[] displacements = new int[size];
+        for (int i = 0; i < size; i++) {
+            displacements[i] = data.readInt();
+            if (displacements[i] < -size) {
+                throw new IOException("Invalid displacement (" + displacements[i] + ").");
+            }
+        }
+
+        int fixedWordCount = (NameRegistry.getFixedNameCount() + 63) >>> 6;
+        UserAgent[] results = new UserAgent[size];
+        for (int slot = 0; slot < size; slot++) {
+            UserAgent ua = new UserAgent(data.readUTF());
+            for (int word = 0; word < fixedWordCount; word++) {
+                ua.addFixedNameBits(word, data.readLong());
+            }
+            int otherNameCount = data.readUnsignedShort();
+            for (int i = 0; i < otherNameCount; i++) {
+                ua.addName(readString(data, otherNames));
+            }
+            for (int i = 0; i < UserAgent.TYPE_VALUE_COUNT; i++) {
+                ua.setTypeValue(i, data.readInt());
+            }
+            int ladderCount = data.readUnsignedShort();
+            for (int i = 0; i < ladderCount; i++) {
+                ua.addVersionLadder(readString(data, otherNames), readString(data, otherNames));
+            }
+            results[slot] = ua;
+        }
+        return new PrecomputedTable(displacements, results);
+    }
+
+    /**
+     * Reads an index in the shared list of strings and returns the string.
+     */
+    private static String readString(DataInputStream data, String[] strings) throws IOException {
+        int index = data.readUnsignedShort();
+        if (index >= strings.length) {
+            throw new IOException("Invalid name index (" + index + ").");
+        }
+        return strings[index];
+    }
+
+    /**
+     * Analyzes the specified agent strings with the detection rules and writes a table with the results. Duplicate agent strings are included
+     * once; agent strings that are too long to store are skipped.
+     *
+     * @param agentStrings
+     *        the agent strings, cannot be <code>null</code> and cannot contain <code>null</code> elements.
+     * @param out
+     *        the stream to write to, cannot be <code>null</code>.
+     * @return the number of agent strings in the table.
+     * @throws IllegalArgumentException
+     *         if <code>agentStrings == null || out == null</code>, or if <code>agentStrings</code> contains <code>null</code>.
+     * @throws IOException
+     *         if writing fails.
+     */
+    static int write(Collection<String> agentStrings, OutputStream out) throws IllegalArgumentException, IOException {
+        checkArgument(agentStrings == null, "agentStrings == null");
+        checkArgument(out == null, "out == null");
+
+        LinkedHashSet<String> keySet = new LinkedHashSet<String>();
+        for (String agentString : agentStrings) {
+            checkArgument(agentString == null, "agentStrings contains null");
+            if (utfLength(agentString) <= MAX_AGENT_STRING_BYTES) {
+                keySet.add(agentString);
+            }
+        }
+        String[] keys = keySet.toArray(new String[keySet.size()]);
+        int[] displacements = new int[keys.length];
+        int[] slots = assignSlots(keys, displacements);
+
+        // Analyze with the rules only, a table in the jar file must not affect the results
+        int fixedWordCount = (NameRegistry.getFixedNameCount() + 63) >>> 6;
+        UserAgent[] results = new UserAgent[keys.length];
+        Map<String, Integer> otherNameIndexes = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < keys.length; i++) {
+            UserAgent ua = Sniffer.analyzeWithRules(keys[i]);
+            results[slots[i]] = ua;
+            for (String name : ua.getOtherNames()) {
+                addString(otherNameIndexes, name);
+            }
+            for (int ladder = 0; ladder < ua.getVersionLadderCount(); ladder++) {
+                addString(otherNameIndexes, ua.getVersionLadderName(ladder));
+                addString(otherNameIndexes, ua.getVersionLadderVersion(ladder));
+            }
+        }
+        if (otherNameIndexes.size() > 65536) {
+            throw new IOException("Too many distinct names (" + otherNameIndexes.size() + ") to store.");
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(NameRegistry.getFixedNameCount());
+        data.writeLong(NameRegistry.getFixedNamesFingerprint());
+        data.writeInt(otherNameIndexes.size());
+        for (String name : otherNameIndexes.keySet()) {
+            data.writeUTF(name);
+        }
+        data.writeInt(keys.length);
+        for (int displacement : displacements) {
+            data.writeInt(displacement);
+        }
+        for (UserAgent ua : results) {
+            data.writeUTF(ua.getAgentString());
+            for (int word = 0; word < fixedWordCount; word++) {
+                data.writeLong(ua.getFixedNameBits(word));
+            }
+            String[] otherNames = ua.getOtherNames();
+            data.writeShort(otherNames.length);
+            for (String name : otherNames) {
+                data.writeShort(otherNameIndexes.get(name));
+            }
+            for (int i = 0; i < UserAgent.TYPE_VALUE_COUNT; i++) {
+                data.writeInt(ua.getTypeValue(i));
+            }
+            data.writeShort(ua.getVersionLadderCount());
+            for (int ladder = 0; ladder < ua.getVersionLadderCount(); ladder++) {
+                data.writeShort(otherNameIndexes.get(ua.getVersionLadderName(ladder)));
+                data.writeShort(otherNameIndexes.get(ua.getVersionLadderVersion(ladder)));
+            }
+        }
+        data.flush();
+        return keys.length;
+    }
+
+    private static void addString(Map<String, Integer> indexes, String s) {
+        if (!indexes.containsKey(s)) {
+            indexes.put(s, indexes.size());
+        }
+    }
+
+    /**
+     * Computes the minimal perfect hash function: buckets with several keys get the first seed for which all their keys hash to free slots,
+     * starting with the largest buckets; then the keys in single-key buckets are put in the remaining slots directly.
+     *
+     * @return the slot of each key.
+     */
+    private static int[] assignSlots(String[] keys, int[] displacements) {
+        int size = keys.length;
+        List<List<Integer>> buckets = new ArrayList<List<Integer>>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<Integer>(2));
+        }
+        for (int i = 0; i < size; i++) {
+            buckets.get(index(hash(0, keys[i]), size)).add(i);
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        final List<List<Integer>> finalBuckets = buckets;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return finalBuckets.get(b).size() - finalBuckets.get(a).size();
+            }
+        });
+
+        int[] slots = new int[size];
+        boolean[] used = new boolean[size];
+        int next = 0;
+        for (int b : order) {
+            List<Integer> bucket = buckets.get(b);
+            if (bucket.size() > 1) {
+                int[] bucketSlots = new int[bucket.size()];
+                for (int seed = 1;; seed++) {
+                    if (fits(keys, bucket, seed, used, bucketSlots)) {
+                        displacements[b] = seed;
+                        for (int i = 0; i < bucketSlots.length; i++) {
+                            used[bucketSlots[i]] = true;
+                            slots[bucket.get(i)] = bucketSlots[i];
+                        }
+                        break;
+                    }
+                }
+            } else if (bucket.size() == 1) {
+                while (used[next]) {
+                    next++;
+                }
+                used[next] = true;
+                displacements[b] = -(next + 1);
+                slots[bucket.get(0)] = next;
+            }
+        }
+        return slots;
+    }
+
+    private static boolean fits(String[] keys, List<Integer> bucket, int seed, boolean[] used, int[] bucketSlots) {
+        for (int i = 0; i < bucketSlots.length; i++) {
+            int slot = index(hash(seed, keys[bucket.get(i)]), used.length);
+            if (used[slot]) {
+                return false;
+            }
+            for (int j = 0; j < i; j++) {
+                if (bucketSlots[j] == slot) {
+                    return false;
+                }
+            }
+            bucketSlots[i] = slot;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the length of a string in modified UTF-8, as written by {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return length;
+    }
+
+    static int hash(int seed, String s) {
+        int h = 0x811c9dc5 ^ (seed * 0x9e3779b9);
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int index(int hash, int size) {
+        return (hash & 0x7fffffff) % size;
+    }
+
+    /**
+     * Returns the number of agent strings in this table.
+     *
+     * @return the size, at least 0.
+     */
+    int size() {
+        return _results.length;
+    }
+
+    /**
+     * Looks up the specified agent string.
+     *
+     * @param agentString
+     *        the agent string, cannot be <code>null</code>.
+     * @return the immutable user agent with the precomputed result, or <code>null</code> if the agent string is not in this table.
+     */
+    UserAgent lookup(String agentString) {
+        int size = _results.length;
+        if (size == 0) {
+            return null;
+        }
+        int displacement = _displacements[index(hash(0, agentString), size)];
+        int slot = displacement < 0 ? -displacement - 1 : index(hash(displacement, agentString), size);
+        UserAgent ua = _results[slot];
+        return ua.getAgentString().equals(agentString) ? ua : null;
+    }
+}
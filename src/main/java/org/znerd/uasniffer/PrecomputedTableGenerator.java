@@ -0,0 +1,100 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Build tool that generates the table of precomputed results that {@link Sniffer#analyze(String)} consults before scanning an agent string.
+ * The Maven build runs it after compiling, over the unit test input and a list of frequent production agent strings.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * java org.znerd.uasniffer.PrecomputedTableGenerator <em>output-file</em> [-t <em>test-input-file</em> | <em>agent-list-file</em>]...
+ * </pre>
+ *
+ * An agent list file contains one agent string per line; a test input file has the format of <code>SnifferAgentStringsTest-input.txt</code>,
+ * where the first line of each block is the agent string. In both, empty lines and lines starting with <code>#</code> are ignored. Files are
+ * read as UTF-8.
+ */
+public final class PrecomputedTableGenerator {
+
+    private PrecomputedTableGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java " + PrecomputedTableGenerator.class.getName() + " output-file [-t test-input-file | agent-list-file]...");
+            System.exit(1);
+            return;
+        }
+
+        List<String> agentStrings = new ArrayList<String>();
+        for (int i = 1; i < args.length; i++) {
+            if ("-t".equals(args[i]) && i + 1 < args.length) {
+                readAgentStrings(new File(args[++i]), true, agentStrings);
+            } else {
+                readAgentStrings(new File(args[i]), false, agentStrings);
+            }
+        }
+
+        // Generate the table before creating the output file, which may be on the class path of the Sniffer
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        int size = PrecomputedTable.write(agentStrings, table);
+
+        File outputFile = new File(args[0]);
+        File parent = outputFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory \"" + parent + "\".");
+        }
+        OutputStream out = new FileOutputStream(outputFile);
+        try {
+            table.writeTo(out);
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote " + size + " precomputed agent strings to " + outputFile + " (" + outputFile.length() + " bytes).");
+    }
+
+    /**
+     * Reads agent strings from a file.
+     *
+     * @param file
+     *        the file, cannot be <code>null</code>.
+     * @param testInput
+     *        <code>true</code> if the file is in the unit test input format, <code>false</code> if it contains one agent string per line.
+     * @param agentStrings
+     *        the list to add the agent strings to, cannot be <code>null</code>.
+     * @throws IOException
+     *         if the file cannot be read.
+     */
+    static void readAgentStrings(File file, boolean testInput, List<String> agentStrings) throws IOException {
+        BufferedReader lines = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            boolean blockStart = true;
+            for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+                line = line.trim();
+                if (line.length() < 1) {
+                    blockStart = true;
+                } else if (line.charAt(0) == '#') {
+                    continue;
+                } else if (blockStart || !testInput) {
+                    agentStrings.add(line);
+                    blockStart = false;
+                }
+            }
+        } finally {
+            lines.close();
+        }
+    }
+}
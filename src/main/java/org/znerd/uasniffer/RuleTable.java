@@ -0,0 +1,559 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Table of detection rules, read from a text file and compiled into keyword-indexed chains.
+ * <p>
+ * The file consists of chains; each chain starts with a line <code>[name]</code> and is followed by its rules, one per line. The first rule in a
+ * chain that matches is applied and the rest of the chain is skipped, so the order of the rules matters. A rule line has the following columns,
+ * separated by white space; trailing columns can be omitted:
+ * <ol>
+ * <li><em>keywords</em>: the rule matches if the agent string contains any of these; a keyword prefixed with <code>^</code> must be at the start.
+ * An empty list matches any agent string.
+ * <li><em>conditions</em>: keywords that must all be present as well; prefix a keyword with <code>!</code> to require it to be absent, or with
+ * <code>^</code> to require it at the start.
+ * <li><em>names</em>: the names to add.
+ * <li><em>versionPrefixes</em>: the keywords after which the version number is found; for each name and prefix, the name and its versioned
+ * names are added. A prefix of the form <code>=1.2</code> is a literal version number. If empty, only the names are added.
+ * <li><em>minVersionParts</em>: see {@link Sniffer#analyzeVersion(UserAgent, CharSequence, int, String, int, boolean, char)}, defaults to 3.
+ * <li><em>splitSecondVersionPart</em>: idem, <code>true</code> or <code>false</code>, defaults to <code>false</code>.
+ * <li><em>alsoNames</em>: names to add without version numbers.
+ * <li><em>handlers</em>: actions to run after the names have been added: either <code>@chain</code> to apply another chain, or the name of a
+ * {@link Handler} implemented in Java.
+ * </ol>
+ * Lists are separated by commas, <code>-</code> is the empty list, and items that contain white space or commas must be quoted with double
+ * quotes. Lines starting with <code>#</code> are comments.
+ * <p>
+ * Rules are indexed by the keywords they trigger on: applying a chain only evaluates the rules for which one of the keywords was found by the
+ * {@link KeywordScanner}, instead of walking the chain from the top. Hence the order of the rules only determines which rule wins if several
+ * match; a rule near the end of a chain is no more expensive than one at the start.
+ * <p>
+ * A table must be compiled with {@link #compile(KeywordScanner, Map)} before it is used; after that, it is immutable and thread-safe.
+ */
+final class RuleTable {
+
+    /**
+     * An action that is too specific to be expressed as a rule.
+     */
+    interface Handler {
+
+        /**
+         * Applies this handler.
+         *
+         * @param ua
+         *        the user agent to add names to, never <code>null</code>.
+         * @param m
+         *        the keywords found in the agent string, never <code>null</code>.
+         */
+        void apply(UserAgent ua, KeywordMatches m);
+    }
+
+    private RuleTable(Map<String, Chain> chains) {
+        _chains = chains;
+    }
+
+    private final Map<String, Chain> _chains;
+
+    /**
+     * Reads a rule table from a resource next to this class.
+     *
+     * @param resourceName
+     *        the name of the resource, cannot be <code>null</code>.
+     * @return the rule table, not compiled yet, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>resourceName == null</code>, or if the resource contains a syntax error.
+     * @throws IllegalStateException
+     *         if the resource cannot be found or read.
+     */
+    static RuleTable parse(String resourceName) throws IllegalArgumentException, IllegalStateException {
+        checkArgument(resourceName == null, "resourceName == null");
+
+        InputStream in = RuleTable.class.getResourceAsStream(resourceName);
+        if (in == null) {
+            throw new IllegalStateException("Rule table \"" + resourceName + "\" not found.");
+        }
+        try {
+            try {
+                return parse(new InputStreamReader(in, "UTF-8"), resourceName);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read rule table \"" + resourceName + "\".", e);
+        }
+    }
+
+    /**
+     * Reads a rule table.
+     *
+     * @param reader
+     *        the reader to read the table from, cannot be <code>null</code>.
+     * @param sourceName
+     *        the name of the source, used in error messages, cannot be <code>null</code>.
+     * @return the rule table, not compiled yet, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>reader == null || sourceName == null</code>, or if the table contains a syntax error.
+     * @throws IOException
+     *         if the table cannot be read.
+     */
+    static RuleTable parse(Reader reader, String sourceName) throws IllegalArgumentException, IOException {
+        checkArgument(reader == null, "reader == null");
+        checkArgument(sourceName == null, "sourceName == null");
+
+        Map<String, Chain> chains = new LinkedHashMap<String, Chain>();
+        Chain chain = null;
+        BufferedReader lines = new BufferedReader(reader);
+        int lineNumber = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            lineNumber++;
+            line = line.trim();
+            String location = sourceName + ':' + lineNumber + ": ";
+            if (line.length() < 1 || line.charAt(0) == '#') {
+                continue;
+            } else if (line.charAt(0) == '[') {
+                checkArgument(!line.endsWith("]") || line.length() < 3, location + "Invalid chain header \"" + line + "\".");
+                String name = line.substring(1, line.length() - 1);
+                checkArgument(chains.containsKey(name), location + "Duplicate chain \"" + name + "\".");
+                chain = new Chain(name);
+                chains.put(name, chain);
+            } else {
+                checkArgument(chain == null, location + "Rule outside of a chain.");
+                chain._rules.add(new Rule(tokenize(line, location), location));
+            }
+        }
+        return new RuleTable(chains);
+    }
+
+    /**
+     * Splits a rule line into columns, and each column into its list items.
+     */
+    private static List<List<String>> tokenize(String line, String location) {
+        List<List<String>> columns = new ArrayList<List<String>>();
+        List<String> items = null;
+        StringBuilder item = new StringBuilder();
+        boolean quoted = false;
+        boolean sawQuote = false;
+        for (int i = 0, length = line.length(); i <= length; i++) {
+            char c = i < length ? line.charAt(i) : ' ';
+            if (c == '"') {
+                quoted = !quoted;
+                sawQuote = true;
+            } else if (quoted) {
+                checkArgument(i == length, location + "Missing closing quote.");
+                item.append(c);
+            } else if (c == ',' || Character.isWhitespace(c)) {
+                if (items == null && item.length() < 1 && !sawQuote) {
+                    continue; // white space between columns
+                }
+                checkArgument(item.length() < 1, location + "Empty list item.");
+                if (items == null) {
+                    items = new ArrayList<String>();
+                }
+                items.add(item.toString());
+                item.setLength(0);
+                if (c != ',') {
+                    if (!sawQuote && items.size() == 1 && "-".equals(items.get(0))) {
+                        items.clear();
+                    }
+                    columns.add(items);
+                    items = null;
+                    sawQuote = false;
+                }
+            } else {
+                item.append(c);
+            }
+        }
+        checkArgument(quoted, location + "Missing closing quote.");
+        checkArgument(columns.size() > 8, location + "Too many columns (" + columns.size() + ").");
+        return columns;
+    }
+
+    /**
+     * Returns all keywords used in the rules, so they can be passed to the {@link KeywordScanner}.
+     *
+     * @return the keywords, never <code>null</code>.
+     */
+    String[] getKeywords() {
+        Set<String> keywords = new LinkedHashSet<String>();
+        for (Chain chain : _chains.values()) {
+            for (Rule rule : chain._rules) {
+                rule.collectKeywords(keywords);
+            }
+        }
+        return keywords.toArray(new String[keywords.size()]);
+    }
+
+    /**
+     * Resolves the keywords and handlers used in the rules and builds the keyword index of each chain. This method must be called exactly once,
+     * before any of the chains is applied.
+     *
+     * @param scanner
+     *        the scanner that produces the {@link KeywordMatches} the chains are applied to; it must know all of the keywords returned by
+     *        {@link #getKeywords()}; cannot be <code>null</code>.
+     * @param handlers
+     *        the handlers that can be referenced from the rules, by name, cannot be <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>scanner == null || handlers == null</code>, if a keyword is not known to the scanner, or if a rule references an unknown
+     *         handler or chain.
+     */
+    void compile(KeywordScanner scanner, Map<String, ? extends Handler> handlers) throws IllegalArgumentException {
+        checkArgument(scanner == null, "scanner == null");
+        checkArgument(handlers == null, "handlers == null");
+        for (Chain chain : _chains.values()) {
+            for (Rule rule : chain._rules) {
+                rule.compile(scanner, handlers, _chains);
+            }
+            chain.compile();
+        }
+    }
+
+    /**
+     * Returns the chain with the specified name.
+     *
+     * @param name
+     *        the name of the chain, cannot be <code>null</code>.
+     * @return the chain, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if there is no chain with the specified name.
+     */
+    Chain getChain(String name) throws IllegalArgumentException {
+        Chain chain = _chains.get(name);
+        checkArgument(chain == null, "No chain \"" + name + "\".");
+        return chain;
+    }
+
+    /**
+     * An ordered list of rules, of which the first one that matches is applied.
+     */
+    static final class Chain implements Handler {
+
+        Chain(String name) {
+            _name = name;
+        }
+
+        private final String _name;
+        private final List<Rule> _rules = new ArrayList<Rule>();
+        private Rule[] _ruleArray;
+
+        /**
+         * The IDs of all keywords that rules in this chain trigger on.
+         */
+        private int[] _triggerIDs;
+
+        /**
+         * For each trigger keyword, a bit mask of the rules that trigger on it, 64 rules per <code>long</code>.
+         */
+        private long[][] _triggerMasks;
+
+        /**
+         * A bit mask of the rules that have no keywords and are therefore always evaluated.
+         */
+        private long[] _unconditionalMask;
+
+        String getName() {
+            return _name;
+        }
+
+        void compile() {
+            _ruleArray = _rules.toArray(new Rule[_rules.size()]);
+            int wordCount = (_ruleArray.length + 63) / 64;
+            _unconditionalMask = new long[wordCount];
+            Map<Integer, long[]> masks = new LinkedHashMap<Integer, long[]>();
+            for (int ruleIndex = 0; ruleIndex < _ruleArray.length; ruleIndex++) {
+                long bit = 1L << (ruleIndex & 63);
+                int[] keywordIDs = _ruleArray[ruleIndex]._keywordIDs;
+                if (keywordIDs.length < 1) {
+                    _unconditionalMask[ruleIndex >> 6] |= bit;
+                }
+                for (int keywordID : keywordIDs) {
+                    long[] mask = masks.get(keywordID);
+                    if (mask == null) {
+                        mask = new long[wordCount];
+                        masks.put(keywordID, mask);
+                    }
+                    mask[ruleIndex >> 6] |= bit;
+                }
+            }
+
+            _triggerIDs = new int[masks.size()];
+            _triggerMasks = new long[masks.size()][];
+            int i = 0;
+            for (Map.Entry<Integer, long[]> entry : masks.entrySet()) {
+                _triggerIDs[i] = entry.getKey();
+                _triggerMasks[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        /**
+         * Applies the first rule in this chain that matches.
+         *
+         * @param ua
+         *        the user agent to add names to, cannot be <code>null</code>.
+         * @param m
+         *        the keywords found in the agent string, cannot be <code>null</code>.
+         */
+        public void apply(UserAgent ua, KeywordMatches m) {
+            for (int word = 0; word < _unconditionalMask.length; word++) {
+                long candidates = _unconditionalMask[word];
+                for (int i = 0; i < _triggerIDs.length; i++) {
+                    if (m.indexOf(_triggerIDs[i]) >= 0) {
+                        candidates |= _triggerMasks[i][word];
+                    }
+                }
+                while (candidates != 0L) {
+                    Rule rule = _ruleArray[(word << 6) + Long.numberOfTrailingZeros(candidates)];
+                    if (rule.matches(m)) {
+                        rule.apply(ua, m);
+                        return;
+                    }
+                    candidates &= candidates - 1L;
+                }
+            }
+        }
+    }
+
+    /**
+     * A single rule in a chain.
+     */
+    private static final class Rule {
+
+        private static final String[] NONE = new String[0];
+
+        Rule(List<List<String>> columns, String location) {
+            _location = location;
+            _keywords = column(columns, 0);
+            _conditions = column(columns, 1);
+            _names = column(columns, 2);
+            _prefixes = column(columns, 3);
+            String[] minVersionParts = column(columns, 4);
+            String[] splitSecondVersionPart = column(columns, 5);
+            _alsoNames = column(columns, 6);
+            _handlerNames = column(columns, 7);
+
+            checkArgument(minVersionParts.length > 1, location + "Expected a single value for minVersionParts.");
+            try {
+                _minVersionParts = minVersionParts.length < 1 ? 3 : Integer.parseInt(minVersionParts[0]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(location + "Invalid minVersionParts \"" + minVersionParts[0] + "\".");
+            }
+            checkArgument(_minVersionParts < 0, location + "minVersionParts (" + _minVersionParts + ") < 0");
+
+            checkArgument(splitSecondVersionPart.length > 1, location + "Expected a single value for splitSecondVersionPart.");
+            String split = splitSecondVersionPart.length < 1 ? "false" : splitSecondVersionPart[0];
+            checkArgument(!"true".equals(split) && !"false".equals(split), location + "Invalid splitSecondVersionPart \"" + split + "\".");
+            _splitSecondVersionPart = "true".equals(split);
+
+            for (String keyword : _keywords) {
+                checkArgument(keyword.startsWith("!"), location + "Keyword \"" + keyword + "\" cannot be negated; use a condition.");
+            }
+        }
+
+        private static String[] column(List<List<String>> columns, int index) {
+            if (index >= columns.size()) {
+                return NONE;
+            }
+            List<String> items = columns.get(index);
+            return items.toArray(new String[items.size()]);
+        }
+
+        private final String _location;
+        private final String[] _keywords;
+        private final String[] _conditions;
+        private final String[] _names;
+        private final String[] _prefixes;
+        private final int _minVersionParts;
+        private final boolean _splitSecondVersionPart;
+        private final String[] _alsoNames;
+        private final String[] _handlerNames;
+
+        private int[] _keywordIDs;
+        private boolean[] _keywordAtStart;
+        private int[] _conditionIDs;
+        private char[] _conditionTypes;
+
+        /**
+         * Whether being a candidate proves that the rule is triggered: it has no keywords, or only keywords that may occur anywhere, so the
+         * keyword index has already done the check.
+         */
+        private boolean _triggeredIfCandidate;
+
+        /**
+         * The keyword ID of each version prefix, or -1 for a literal version number.
+         */
+        private int[] _prefixIDs;
+        private Handler[] _handlers;
+
+        /**
+         * The constant names that are fixed names, see {@link NameRegistry}, resolved to bitset words for
+         * {@link UserAgent#addFixedNameBits(int, long)}: the word indexes and, for each, the bits. These are the names without version prefixes,
+         * the basic names of the versioned names, and the <em>alsoNames</em>.
+         */
+        private int[] _fixedNameWords;
+        private long[] _fixedNameBits;
+
+        /**
+         * The constant names that are not fixed names, added one by one.
+         */
+        private String[] _otherNames;
+
+        void collectKeywords(Set<String> keywords) {
+            for (String keyword : _keywords) {
+                keywords.add(stripType(keyword));
+            }
+            for (String condition : _conditions) {
+                keywords.add(stripType(condition));
+            }
+            for (String prefix : _prefixes) {
+                if (!prefix.startsWith("=")) {
+                    keywords.add(prefix);
+                }
+            }
+        }
+
+        private static String stripType(String keyword) {
+            char type = keyword.charAt(0);
+            return (type == '^' || type == '!') && keyword.length() > 1 ? keyword.substring(1) : keyword;
+        }
+
+        private int keywordID(KeywordScanner scanner, String keyword) {
+            int keywordID = scanner.keywordID(keyword);
+            checkArgument(keywordID < 0, _location + "Keyword \"" + keyword + "\" is not known to the scanner.");
+            return keywordID;
+        }
+
+        void compile(KeywordScanner scanner, Map<String, ? extends Handler> handlers, Map<String, Chain> chains) {
+            _keywordIDs = new int[_keywords.length];
+            _keywordAtStart = new boolean[_keywords.length];
+            for (int i = 0; i < _keywords.length; i++) {
+                _keywordIDs[i] = keywordID(scanner, stripType(_keywords[i]));
+                _keywordAtStart[i] = _keywords[i].length() > 1 && _keywords[i].charAt(0) == '^';
+            }
+
+            _conditionIDs = new int[_conditions.length];
+            _conditionTypes = new char[_conditions.length];
+            for (int i = 0; i < _conditions.length; i++) {
+                String stripped = stripType(_conditions[i]);
+                _conditionIDs[i] = keywordID(scanner, stripped);
+                _conditionTypes[i] = stripped.length() < _conditions[i].length() ? _conditions[i].charAt(0) : ' ';
+            }
+
+            _prefixIDs = new int[_prefixes.length];
+            for (int i = 0; i < _prefixes.length; i++) {
+                _prefixIDs[i] = _prefixes[i].startsWith("=") ? -1 : keywordID(scanner, _prefixes[i]);
+            }
+
+            _triggeredIfCandidate = true;
+            for (boolean atStart : _keywordAtStart) {
+                _triggeredIfCandidate &= !atStart;
+            }
+            compileNames();
+
+            _handlers = new Handler[_handlerNames.length];
+            for (int i = 0; i < _handlerNames.length; i++) {
+                String name = _handlerNames[i];
+                _handlers[i] = name.startsWith("@") ? chains.get(name.substring(1)) : handlers.get(name);
+                checkArgument(_handlers[i] == null, _location + "Unknown " + (name.startsWith("@") ? "chain" : "handler") + " \"" + name + "\".");
+            }
+        }
+
+        /**
+         * Resolves the constant names to fixed name bits where possible, so applying this rule does not look them up by name.
+         */
+        private void compileNames() {
+            Set<String> names = new LinkedHashSet<String>();
+            for (String name : _names) {
+                names.add(name);
+            }
+            for (String name : _alsoNames) {
+                names.add(name);
+            }
+
+            Map<Integer, Long> bits = new LinkedHashMap<Integer, Long>();
+            List<String> otherNames = new ArrayList<String>();
+            for (String name : names) {
+                int id = NameRegistry.getID(name);
+                if (id < 0 || id >= NameRegistry.getFixedNameCount()) {
+                    otherNames.add(name);
+                } else {
+                    Long word = bits.get(id >>> 6);
+                    bits.put(id >>> 6, (word == null ? 0L : word.longValue()) | 1L << id);
+                }
+            }
+
+            _fixedNameWords = new int[bits.size()];
+            _fixedNameBits = new long[bits.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Long> entry : bits.entrySet()) {
+                _fixedNameWords[i] = entry.getKey();
+                _fixedNameBits[i] = entry.getValue();
+                i++;
+            }
+            _otherNames = otherNames.toArray(new String[otherNames.size()]);
+        }
+
+        /**
+         * Determines if this rule matches, given that it is a candidate of its chain: one of its keywords was found, or it has none.
+         */
+        boolean matches(KeywordMatches m) {
+            return (_triggeredIfCandidate || isTriggered(m)) && matchesConditions(m);
+        }
+
+        private boolean isTriggered(KeywordMatches m) {
+            boolean triggered = _keywordIDs.length < 1;
+            for (int i = 0; i < _keywordIDs.length && !triggered; i++) {
+                int index = m.indexOf(_keywordIDs[i]);
+                triggered = _keywordAtStart[i] ? index == 0 : index >= 0;
+            }
+            return triggered;
+        }
+
+        private boolean matchesConditions(KeywordMatches m) {
+            for (int i = 0; i < _conditionIDs.length; i++) {
+                int index = m.indexOf(_conditionIDs[i]);
+                char type = _conditionTypes[i];
+                if (type == '!' ? index >= 0 : type == '^' ? index != 0 : index < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void apply(UserAgent ua, KeywordMatches m) {
+            for (int i = 0; i < _fixedNameWords.length; i++) {
+                ua.addFixedNameBits(_fixedNameWords[i], _fixedNameBits[i]);
+            }
+            for (String name : _otherNames) {
+                ua.addName(name);
+            }
+            for (String name : _names) {
+                for (int i = 0; i < _prefixes.length; i++) {
+                    if (_prefixIDs[i] < 0) {
+                        Sniffer.analyzeVersionNumber(ua, _prefixes[i], 1, name, _minVersionParts, _splitSecondVersionPart, '_');
+                    } else {
+                        int index = m.indexOf(_prefixIDs[i]);
+                        Sniffer.analyzeVersionNumber(ua, m.getText(), index < 0 ? -1 : index + _prefixes[i].length(), name, _minVersionParts, _splitSecondVersionPart, '_');
+                    }
+                }
+            }
+            for (Handler handler : _handlers) {
+                handler.apply(ua, m);
+            }
+        }
+    }
+}
@@ -0,0 +1,498 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Store of analysis results in a memory-mapped file, shared by all JVMs on a host that open the same file. A newly started JVM immediately
+ * benefits from the results stored by the others, instead of having to analyze the popular agent strings again.
+ * <p>
+ * The file is a hash table of fixed-size slots, keyed by a 64-bit hash of the agent string. A slot stores the fixed names as a bitset of their
+ * IDs in the {@link NameRegistry}, which are the same in every JVM, the typed result, the other names inline as strings, and the version
+ * ladders as pairs of strings. Each key maps to a bucket of {@value #BUCKET_SIZE} adjacent slots; once a bucket is full, new results overwrite an
+ * existing one.
+ * <p>
+ * Lookups do not lock: a slot is only used if its checksum matches, so a slot that is being written by another thread or process is simply
+ * treated as a miss. To store a result, a writer claims a slot with a non-blocking lock on its byte range in the file; if the slot is already
+ * claimed, the result is not stored. Storing is best effort: it never fails the analysis.
+ * <p>
+ * Since a mapped file cannot be unmapped explicitly, the mapping stays in memory after {@link #close()} until it is garbage collected.
+ * <p>
+ * Example use:
+ *
+ * <pre>
+ * private static final SharedResultStore STORE = new SharedResultStore(new File("/var/tmp/uasniffer.store"));
+ * ...
+ * UserAgent ua = STORE.analyze(req.getHeader("user-agent"));
+ * </pre>
+ *
+ * This class is thread-safe.
+ */
+public final class SharedResultStore implements Closeable {
+
+    /**
+     * Default number of slots, for a file of about 8 MB.
+     */
+    public static final int DEFAULT_SLOT_COUNT = 16384;
+
+    /**
+     * Number of adjacent slots that a key can be stored in.
+     */
+    static final int BUCKET_SIZE = 4;
+
+    private static final int MAGIC = 0x55415352; // "UASR"
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 512;
+    private static final int MAX_SLOT_COUNT = (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE;
+
+    // Header layout
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FORMAT_VERSION_OFFSET = 4;
+    private static final int SLOT_COUNT_OFFSET = 8;
+    private static final int SLOT_SIZE_OFFSET = 12;
+    private static final int FIXED_NAME_COUNT_OFFSET = 16;
+    private static final int FINGERPRINT_OFFSET = 24;
+
+    // Slot layout
+    private static final int KEY_OFFSET = 0;
+    private static final int CHECKSUM_OFFSET = 8;
+    private static final int AGENT_HASH_OFFSET = 12;
+    private static final int AGENT_LENGTH_OFFSET = 16;
+    private static final int PAYLOAD_LENGTH_OFFSET = 20;
+    private static final int OTHER_NAME_COUNT_OFFSET = 22;
+    private static final int PAYLOAD_OFFSET = 24;
+    private static final int MAX_PAYLOAD_LENGTH = SLOT_SIZE - PAYLOAD_OFFSET;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Serializes opening files within this JVM; file locks only exclude other processes.
+     */
+    private static final Object OPEN_LOCK = new Object();
+
+    /**
+     * Constructs a new <code>SharedResultStore</code> backed by the specified file, with a default number of slots.
+     *
+     * @param file
+     *        the file, cannot be <code>null</code>; created if it does not exist.
+     * @throws IllegalArgumentException
+     *         if <code>file == null</code>.
+     * @throws IOException
+     *         if the file cannot be opened or mapped, or if it is not a compatible store.
+     */
+    public SharedResultStore(File file) throws IllegalArgumentException, IOException {
+        this(file, DEFAULT_SLOT_COUNT);
+    }
+
+    /**
+     * Constructs a new <code>SharedResultStore</code> backed by the specified file.
+     *
+     * @param file
+     *        the file, cannot be <code>null</code>; created if it does not exist.
+     * @param slotCount
+     *        the number of slots if the file is created, rounded up to a power of 2 and at least {@value #BUCKET_SIZE}; an existing file keeps
+     *        its number of slots.
+     * @throws IllegalArgumentException
+     *         if <code>file == null || slotCount &lt; 1</code> or if <code>slotCount</code> is too large to map.
+     * @throws IOException
+     *         if the file cannot be opened or mapped, or if it is not a compatible store.
+     */
+    public SharedResultStore(File file, int slotCount) throws IllegalArgumentException, IOException {
+        checkArgument(file == null, "file == null");
+        checkArgument(slotCount < 1, "slotCount (" + slotCount + ") < 1");
+        checkArgument(slotCount > MAX_SLOT_COUNT, "slotCount (" + slotCount + ") > " + MAX_SLOT_COUNT);
+
+        int actualSlotCount = BUCKET_SIZE;
+        while (actualSlotCount < slotCount) {
+            actualSlotCount *= 2;
+        }
+
+        _fixedWordCount = (NameRegistry.getFixedNameCount() + 63) >>> 6;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        boolean opened = false;
+        try {
+            _channel = raf.getChannel();
+            synchronized (OPEN_LOCK) {
+                FileLock lock = _channel.lock(0L, HEADER_SIZE, false);
+                try {
+                    _slotCount = initHeader(raf, file, actualSlotCount);
+                } finally {
+                    lock.release();
+                }
+            }
+            _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0L, HEADER_SIZE + (long) _slotCount * SLOT_SIZE);
+            opened = true;
+        } finally {
+            if (!opened) {
+                raf.close();
+            }
+        }
+    }
+
+    private final FileChannel _channel;
+    private final MappedByteBuffer _buffer;
+    private final int _slotCount;
+    private final int _fixedWordCount;
+    private final AtomicLong _hitCount = new AtomicLong();
+    private final AtomicLong _missCount = new AtomicLong();
+    private volatile boolean _closed;
+
+    /**
+     * Initializes the header of a new file, or checks the header of an existing one.
+     *
+     * @return the number of slots in the file.
+     */
+    private int initHeader(RandomAccessFile raf, File file, int slotCount) throws IOException {
+        long size = _channel.size();
+        if (size > 0L && size < HEADER_SIZE) {
+            throw new IOException("File \"" + file + "\" is not a user agent result store.");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (size > 0L) {
+            _channel.read(header, 0L);
+        }
+
+        // A file without magic is new, or its creator died before finishing the header
+        if (header.getInt(MAGIC_OFFSET) == 0) {
+            raf.setLength(0L);
+            raf.setLength(HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+            header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(FORMAT_VERSION_OFFSET, FORMAT_VERSION);
+            header.putInt(SLOT_COUNT_OFFSET, slotCount);
+            header.putInt(SLOT_SIZE_OFFSET, SLOT_SIZE);
+            header.putInt(FIXED_NAME_COUNT_OFFSET, NameRegistry.getFixedNameCount());
+            header.putLong(FINGERPRINT_OFFSET, NameRegistry.getFixedNamesFingerprint());
+            _channel.write(header, 0L);
+            _channel.force(false);
+
+            // Write the magic last, so the header is only valid once complete
+            header.clear();
+            header.putInt(MAGIC);
+            header.flip();
+            _channel.write(header, MAGIC_OFFSET);
+            _channel.force(false);
+            return slotCount;
+        }
+
+        if (header.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("File \"" + file + "\" is not a user agent result store.");
+        } else if (header.getInt(FORMAT_VERSION_OFFSET) != FORMAT_VERSION || header.getInt(SLOT_SIZE_OFFSET) != SLOT_SIZE) {
+            throw new IOException("File \"" + file + "\" has an unsupported format version (" + header.getInt(FORMAT_VERSION_OFFSET) + ").");
+        } else if (header.getInt(FIXED_NAME_COUNT_OFFSET) != NameRegistry.getFixedNameCount() || header.getLong(FINGERPRINT_OFFSET) != NameRegistry.getFixedNamesFingerprint()) {
+            throw new IOException("File \"" + file + "\" was created by a different version of the sniffer, with different fixed names.");
+        }
+
+        int existingSlotCount = header.getInt(SLOT_COUNT_OFFSET);
+        if (existingSlotCount < BUCKET_SIZE || existingSlotCount > MAX_SLOT_COUNT || Integer.bitCount(existingSlotCount) != 1
+                || _channel.size() < HEADER_SIZE + (long) existingSlotCount * SLOT_SIZE) {
+            throw new IOException("File \"" + file + "\" is corrupt.");
+        }
+        return existingSlotCount;
+    }
+
+    /**
+     * Returns the number of slots in the file.
+     *
+     * @return the slot count, a power of 2.
+     */
+    public int getSlotCount() {
+        return _slotCount;
+    }
+
+    /**
+     * Returns the number of lookups that were answered from the store.
+     *
+     * @return the hit count, at least 0.
+     */
+    public long getHitCount() {
+        return _hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that required the agent string to be analyzed.
+     *
+     * @return the miss count, at least 0.
+     */
+    public long getMissCount() {
+        return _missCount.get();
+    }
+
+    /**
+     * Analyzes the specified user agent string, reusing a result from the store if available, and storing the result otherwise.
+     * <p>
+     * Unlike the {@link UserAgentCache}, every call returns a new {@link UserAgent} instance.
+     *
+     * @param agentString
+     *        the user agent string, cannot be <code>null</code>.
+     * @return an immutable {@link UserAgent} instance that describes the user agent, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>agentString == null</code>.
+     * @throws IllegalStateException
+     *         if this store is closed.
+     */
+    public UserAgent analyze(String agentString) throws IllegalArgumentException, IllegalStateException {
+        checkArgument(agentString == null, "agentString == null");
+        if (_closed) {
+            throw new IllegalStateException("Store is closed.");
+        }
+
+        long key = hash(agentString);
+        int bucket = (int) key & (_slotCount - 1) & -BUCKET_SIZE;
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            int base = slotOffset(bucket + i);
+            if (_buffer.getLong(base + KEY_OFFSET) == key) {
+                UserAgent ua = read(base, key, agentString);
+                if (ua != null) {
+                    record(true);
+                    return ua;
+                }
+            }
+        }
+
+        record(false);
+        UserAgent ua = Sniffer.analyze(agentString);
+        store(bucket, key, agentString, ua);
+        return ua;
+    }
+
+    private void record(boolean hit) {
+        (hit ? _hitCount : _missCount).incrementAndGet();
+        SnifferMetrics metrics = SnifferMetrics.active();
+        if (metrics != null) {
+            metrics.recordCacheLookup(hit);
+        }
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * Reads the result in the specified slot.
+     *
+     * @return the user agent, or <code>null</code> if the slot does not (or no longer) contain a complete result for the agent string.
+     */
+    private UserAgent read(int base, long key, String agentString) {
+        int agentHash = _buffer.getInt(base + AGENT_HASH_OFFSET);
+        int agentLength = _buffer.getInt(base + AGENT_LENGTH_OFFSET);
+        int payloadLength = _buffer.getShort(base + PAYLOAD_LENGTH_OFFSET) & 0xFFFF;
+        int otherNameCount = _buffer.getShort(base + OTHER_NAME_COUNT_OFFSET) & 0xFFFF;
+        if (agentHash != agentString.hashCode() || agentLength != agentString.length() || payloadLength > MAX_PAYLOAD_LENGTH
+                || payloadLength < _fixedWordCount * 8 + UserAgent.TYPE_VALUE_COUNT * 4) {
+            return null;
+        }
+
+        byte[] payload = new byte[payloadLength];
+        ByteBuffer slot = _buffer.duplicate();
+        slot.position(base + PAYLOAD_OFFSET);
+        slot.get(payload);
+
+        // Only trust the copy if it is consistent and the slot was not reused in the meantime
+        int checksum = checksum(key, agentHash, agentLength, payloadLength, otherNameCount, payload);
+        if (checksum != _buffer.getInt(base + CHECKSUM_OFFSET) || _buffer.getLong(base + KEY_OFFSET) != key) {
+            return null;
+        }
+
+        UserAgent ua = new UserAgent(agentString);
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        for (int word = 0; word < _fixedWordCount; word++) {
+            ua.addFixedNameBits(word, in.getLong());
+        }
+        for (int i = 0; i < UserAgent.TYPE_VALUE_COUNT; i++) {
+            ua.setTypeValue(i, in.getInt());
+        }
+        for (int i = 0; i < otherNameCount; i++) {
+            String name = readString(in, payload);
+            if (name == null) {
+                return null;
+            }
+            ua.addName(name);
+        }
+        int ladderCount = in.remaining() < 2 ? -1 : in.getShort() & 0xFFFF;
+        if (ladderCount < 0) {
+            return null;
+        }
+        for (int i = 0; i < ladderCount; i++) {
+            String basicName = readString(in, payload);
+            String version = basicName == null ? null : readString(in, payload);
+            if (version == null) {
+                return null;
+            }
+            ua.addVersionLadder(basicName, version);
+        }
+        return ua;
+    }
+
+    /**
+     * Reads a string, preceded by its length, from the payload.
+     *
+     * @return the string, or <code>null</code> if the payload is too short.
+     */
+    private static String readString(ByteBuffer in, byte[] payload) {
+        int length = in.remaining() < 2 ? -1 : in.getShort() & 0xFFFF;
+        if (length < 0 || length > in.remaining()) {
+            return null;
+        }
+        String s = new String(payload, in.position(), length, UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    /**
+     * Stores the result in a slot of the bucket, if it fits and a slot can be claimed.
+     */
+    private void store(int bucket, long key, String agentString, UserAgent ua) {
+        byte[] payload = encode(ua);
+        if (payload == null) {
+            return;
+        }
+
+        // Prefer an empty slot, otherwise overwrite a slot picked by the key
+        int slot = bucket + ((int) (key >>> 32) & (BUCKET_SIZE - 1));
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            long slotKey = _buffer.getLong(slotOffset(bucket + i) + KEY_OFFSET);
+            if (slotKey == 0L || slotKey == key) {
+                slot = bucket + i;
+                break;
+            }
+        }
+
+        int base = slotOffset(slot);
+        FileLock lock;
+        try {
+            lock = _channel.tryLock(base, SLOT_SIZE, false);
+        } catch (OverlappingFileLockException e) {
+            return; // claimed by another thread in this JVM
+        } catch (IOException e) {
+            return; // store is best effort, e.g. the channel was closed concurrently
+        }
+        if (lock == null) {
+            return; // claimed by another process
+        }
+
+        try {
+            int otherNameCount = ua.getOtherNames().length;
+            int agentHash = agentString.hashCode();
+            int agentLength = agentString.length();
+
+            // Invalidate the slot first, so readers never combine the old key with the new contents
+            _buffer.putLong(base + KEY_OFFSET, 0L);
+            _buffer.putInt(base + AGENT_HASH_OFFSET, agentHash);
+            _buffer.putInt(base + AGENT_LENGTH_OFFSET, agentLength);
+            _buffer.putShort(base + PAYLOAD_LENGTH_OFFSET, (short) payload.length);
+            _buffer.putShort(base + OTHER_NAME_COUNT_OFFSET, (short) otherNameCount);
+            ByteBuffer out = _buffer.duplicate();
+            out.position(base + PAYLOAD_OFFSET);
+            out.put(payload);
+            _buffer.putInt(base + CHECKSUM_OFFSET, checksum(key, agentHash, agentLength, payload.length, otherNameCount, payload));
+            _buffer.putLong(base + KEY_OFFSET, key);
+        } finally {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                // the lock is released when the channel is closed
+            }
+        }
+    }
+
+    /**
+     * Encodes the result: the bitset of fixed names and the typed result, followed by the other names, then the number of version ladders and
+     * the basic name and version of each ladder; each string is preceded by its length.
+     *
+     * @return the encoded names, or <code>null</code> if they do not fit in a slot.
+     */
+    private byte[] encode(UserAgent ua) {
+        String[] otherNames = ua.getOtherNames();
+        int ladderCount = ua.getVersionLadderCount();
+        byte[][] encodedNames = new byte[otherNames.length + 2 * ladderCount][];
+        int length = _fixedWordCount * 8 + UserAgent.TYPE_VALUE_COUNT * 4 + 2;
+        for (int i = 0; i < encodedNames.length; i++) {
+            String name;
+            if (i < otherNames.length) {
+                name = otherNames[i];
+            } else {
+                int ladder = (i - otherNames.length) / 2;
+                name = (i - otherNames.length) % 2 == 0 ? ua.getVersionLadderName(ladder) : ua.getVersionLadderVersion(ladder);
+            }
+            encodedNames[i] = name.getBytes(UTF_8);
+            length += 2 + encodedNames[i].length;
+            if (length > MAX_PAYLOAD_LENGTH) {
+                return null;
+            }
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(length);
+        for (int word = 0; word < _fixedWordCount; word++) {
+            out.putLong(ua.getFixedNameBits(word));
+        }
+        for (int i = 0; i < UserAgent.TYPE_VALUE_COUNT; i++) {
+            out.putInt(ua.getTypeValue(i));
+        }
+        for (int i = 0; i < encodedNames.length; i++) {
+            if (i == otherNames.length) {
+                out.putShort((short) ladderCount);
+            }
+            out.putShort((short) encodedNames[i].length);
+            out.put(encodedNames[i]);
+        }
+        if (ladderCount == 0) {
+            out.putShort((short) 0);
+        }
+        return out.array();
+    }
+
+    /**
+     * Computes the 64-bit key of an agent string; never 0, which marks an empty slot.
+     */
+    static long hash(String agentString) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < agentString.length(); i++) {
+            h = (h ^ agentString.charAt(i)) * 0x100000001b3L;
+        }
+
+        // Finalize, so all bits depend on all characters
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0L ? 1L : h;
+    }
+
+    private static int checksum(long key, int agentHash, int agentLength, int payloadLength, int otherNameCount, byte[] payload) {
+        int h = (int) key ^ (int) (key >>> 32);
+        h = h * 31 + agentHash;
+        h = h * 31 + agentLength;
+        h = h * 31 + payloadLength;
+        h = h * 31 + otherNameCount;
+        for (byte b : payload) {
+            h = (h ^ (b & 0xFF)) * 0x01000193;
+        }
+        return h;
+    }
+
+    /**
+     * Closes the file. The results stay in the file, for other JVMs and for stores opened later.
+     *
+     * @throws IOException
+     *         if closing the file fails.
+     */
+    public void close() throws IOException {
+        _closed = true;
+        _channel.close();
+    }
+}
@@ -2,7 +2,15 @@
 // Copyright 2011, Ernst de Haan
 package org.znerd.uasniffer;
 
-import org.znerd.util.text.TextUtils;
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -14,12 +22,110 @@ public final class Sniffer {
     private static final String[] UA_TABLET_DEVICE_SNIPPETS = new String[] { "ipad", "xoom", "tablet" };
     private static final String[] UA_MOBILE_DEVICE_WITHOUT_TEL_SUPPORT = new String[] { "opera/8.", "opera/7.", "opera/6.", "opera/5.", "opera/4.", "opera/3.", "ipod", "ipad", "tablet", "playstation" };
     private static final String[] UA_BOT_SNIPPETS = new String[] { "spider", "bot", "crawl", "miner", "checker", "java", "pingdom" };
+    private static final String[] UA_MOZILLA_1_TO_4 = new String[] { "mozilla/1", "mozilla/2", "mozilla/3", "mozilla/4" };
+
+    /**
+     * All keywords the detection code in this class looks for, in addition to the ones in the keyword groups above and the ones in the rule
+     * table. Keywords that are not listed here, in one of the groups or in the rule table still work, but are searched for separately, outside
+     * the single scan of the agent string.
+     */
+    private static final String[] KEYWORDS = new String[] {
+            // Devices
+            "android", "iphone", "nook ", "bntv250", "playstation portable", "playstation vita", "silk-accelerated", "pre/", "kindle/", "webos/",
+            "silk-accelerated=true", "silk-accelerated=false", "msie ", "vita ", "blackberry ", "(ie ",
+
+            // Rule handlers
+            "mac os x", "mac os x ", "mac os x tiger ", "mac os x leopard ", "mac os x snow leopard ", "mac os x lion ", "mac os x mountain lion ",
+            "win3.", "windows", " arm;", "mini/", "mobi/", "opera mini/", "opr/", "version/", "opera/", "mobile/", "chromeframe", "chromeframe/",
+            "ncsa mosaic/", "ncsa_mosaic/", "rv ", "rv:" };
+
+    /**
+     * Strings the detection code searches for itself, outside the single scan of the agent string: see {@link RuleHandler#WIN3} and
+     * {@link #iOSVersionIndex(CharSequence)}.
+     */
+    private static final String[] UNSCANNED_KEYWORDS = new String[] { "win", "os " };
+
+    /**
+     * The detection rules for the operating system, browser engine and browser.
+     */
+    private static final RuleTable RULES = RuleTable.parse("rules.txt");
+
+    private static final KeywordScanner KEYWORD_SCANNER = new KeywordScanner(concat(KEYWORDS, RULES.getKeywords()), new String[][] { UA_MOBILE_DEVICE_SNIPPETS, UA_TABLET_DEVICE_SNIPPETS, UA_MOBILE_DEVICE_WITHOUT_TEL_SUPPORT, UA_BOT_SNIPPETS, UA_MOZILLA_1_TO_4 });
+
+    /**
+     * The keywords {@link #classifyBot(KeywordMatches)} checks, in addition to the bot, mobile and tablet device snippets.
+     */
+    private static final String[] BOT_KEYWORDS = new String[] { "nook ", "bntv250", "silk-accelerated", "android", "pre/", "kindle/", "ipod", "iphone", "ipad", "webos/", "playstation portable", "playstation vita" };
+
+    /**
+     * Prefilter for {@link #isBot(CharSequence)}: a small automaton for just the bot snippets, which rejects most agent strings in a single pass
+     * without allocating anything.
+     */
+    private static final KeywordScanner BOT_SNIPPET_SCANNER = new KeywordScanner(UA_BOT_SNIPPETS, new String[0][]);
+
+    /**
+     * All keywords {@link #classifyBot(KeywordMatches)} checks, for agent strings that pass the prefilter.
+     */
+    private static final KeywordScanner BOT_SCANNER = new KeywordScanner(BOT_KEYWORDS, new String[][] { UA_BOT_SNIPPETS, UA_MOBILE_DEVICE_SNIPPETS, UA_TABLET_DEVICE_SNIPPETS });
+
+    private static final RuleTable.Chain MAEMO_RULES;
+    private static final RuleTable.Chain OS_RULES;
+    private static final RuleTable.Chain ENGINE_RULES;
+    private static final RuleTable.Chain BROWSER_RULES;
+
+    static {
+        RULES.compile(KEYWORD_SCANNER, RuleHandler.byName());
+        MAEMO_RULES = RULES.getChain("maemo");
+        OS_RULES = RULES.getChain("os");
+        ENGINE_RULES = RULES.getChain("engine");
+        BROWSER_RULES = RULES.getChain("browser");
+    }
+
+    private static final Pattern MOBILE_SAFARI_VERSION_PATTERN = Pattern.compile("mobile\\/[0-9]+(\\.[0-9]+)+(\\s|\\))", Pattern.CASE_INSENSITIVE);
+
+    private static final DeviceClass[] DEVICE_CLASSES = DeviceClass.values();
+
+    /**
+     * Results for known agent strings, computed at build time, or <code>null</code> if not available or disabled.
+     */
+    private static final PrecomputedTable PRECOMPUTED = PrecomputedTable.loadResource();
+
+    /**
+     * Results for the agent strings built from client hints, see {@link #analyze(Map)}. These have few distinct values, so a small cache holds
+     * them all. Its lookups are not recorded in the {@link SnifferMetrics}; a result served from it is recorded as a call instead.
+     */
+    private static final UserAgentCache CLIENT_HINTS_RESULTS = new UserAgentCache(1024);
+
+    /**
+     * Flag in the result of {@link #classifyDevice(KeywordMatches)} that indicates that the user agent was identified as a bot, in which case
+     * the operating system, browser engine and browser are not detected. Note that this does not imply {@link DeviceClass#BOT}, e.g. for a bot
+     * that identifies as an Android tablet.
+     */
+    private static final int BOT_TYPE = 1 << 16;
 
     private Sniffer() {
     }
 
     /**
-     * Analyzes the specified user agent string.
+     * Returns all strings that the detection code looks for in an agent string. Text that contains none of these, and does not change where
+     * they occur, does not affect the result of {@link #analyze(String)}, see {@link AgentStringCanonicalizer}.
+     *
+     * @return a new array with the keywords, in lower case, never <code>null</code>.
+     */
+    static String[] getKeywords() {
+        return concat(KEYWORD_SCANNER.getKeywords(), UNSCANNED_KEYWORDS);
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        String[] result = new String[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * Analyzes the specified user agent string. Agent strings that were known at build time are looked up in a precomputed table, see
+     * {@link PrecomputedTableGenerator}; other agent strings are analyzed with the detection rules.
      * 
      * @param agentString
      *        the user agent string, cannot be <code>null</code>.
@@ -28,21 +134,295 @@ public final class Sniffer {
      *         if <code>agentString == null</code>.
      */
     public static final UserAgent analyze(String agentString) throws IllegalArgumentException {
+        checkArgument(agentString == null, "agentString == null");
+        return analyze(agentString, PRECOMPUTED);
+    }
+
+    /**
+     * Analyzes the specified user agent string, looking it up in the specified precomputed table first. A call answered from the table is
+     * recorded in the {@link SnifferMetrics} like any other call, with its device classes, but without stage timings.
+     *
+     * @param precomputed
+     *        the precomputed table, or <code>null</code> to always use the detection rules.
+     */
+    static final UserAgent analyze(String agentString, PrecomputedTable precomputed) {
+        if (precomputed != null) {
+            UserAgent ua = precomputed.lookup(agentString);
+            if (ua != null) {
+                SnifferMetrics metrics = SnifferMetrics.active();
+                if (metrics != null) {
+                    metrics.recordCall(ua.getDeviceClassBits());
+                }
+                return ua;
+            }
+        }
+        return analyzeWithRules(agentString);
+    }
+
+    /**
+     * Analyzes the user agent of an HTTP request, given its headers. If the request contains User-Agent Client Hints, as sent by Chromium based
+     * browsers (<code>Sec-CH-UA</code> or <code>Sec-CH-UA-Full-Version-List</code>, <code>Sec-CH-UA-Platform</code>, and optionally
+     * <code>Sec-CH-UA-Mobile</code>, <code>Sec-CH-UA-Platform-Version</code> and <code>Sec-CH-UA-Model</code>), the result is based on those:
+     * it has the same names as the result of analyzing the agent string the browser would send if it did not reduce its
+     * <code>User-Agent</code> header. Since the hints only take a few distinct values, the results are cached and such a request is analyzed
+     * by parsing just the hints.
+     * <p>
+     * The high entropy hints are optional: if <code>Sec-CH-UA-Full-Version-List</code> is absent, the full browser version is taken from the
+     * <code>User-Agent</code> header, and if <code>Sec-CH-UA-Platform-Version</code> (or, for Android, <code>Sec-CH-UA-Model</code>) is
+     * absent, so is the platform part.
+     * <p>
+     * Otherwise, e.g. for other browsers or brands that are not recognized, if the <code>User-Agent</code> header does not provide what the
+     * hints leave out, or if it is a bot, the <code>User-Agent</code> header is analyzed, as by {@link #analyze(String)}.
+     *
+     * @param headers
+     *        the request headers, by name, cannot be <code>null</code>; names are matched ignoring case.
+     * @return an {@link UserAgent} instance that describes the user agent, never <code>null</code>; its agent string is the value of the
+     *         <code>User-Agent</code> header, or an empty string if there is no such header.
+     * @throws IllegalArgumentException
+     *         if <code>headers == null</code>.
+     */
+    public static final UserAgent analyze(Map<String, String> headers) throws IllegalArgumentException {
+        checkArgument(headers == null, "headers == null");
+
+        String agentString = ClientHints.header(headers, "User-Agent");
+        if (agentString == null) {
+            agentString = "";
+        }
+        String hintsAgentString = isBot(agentString) ? null : ClientHints.toAgentString(headers, agentString);
+        if (hintsAgentString == null) {
+            return analyze(agentString);
+        }
+        UserAgent result = CLIENT_HINTS_RESULTS.get(hintsAgentString);
+        if (result == null) {
+            result = CLIENT_HINTS_RESULTS.putIfAbsent(hintsAgentString, analyze(hintsAgentString));
+        } else {
+            SnifferMetrics metrics = SnifferMetrics.active();
+            if (metrics != null) {
+                metrics.recordCall(result.getDeviceClassBits());
+            }
+        }
+        return new UserAgent(agentString, result);
+    }
+
+    /**
+     * Analyzes the specified user agent string with the detection rules, bypassing the precomputed table.
+     */
+    static final UserAgent analyzeWithRules(String agentString) {
         UserAgent ua = new UserAgent(agentString);
         analyze(ua);
         return ua;
     }
 
-    private static final void analyze(UserAgent ua) {
+    /**
+     * Analyzes the specified user agent string, given as a character sequence. Matching is done in place, ignoring ASCII case differences,
+     * without creating a lower case copy. A character sequence that is not a <code>String</code> is copied once with
+     * {@link CharSequence#toString()}, since it could change after this method returns.
+     * 
+     * @param agentString
+     *        the user agent string, cannot be <code>null</code>.
+     * @return an {@link UserAgent} instance that describes the user agent, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>agentString == null</code>.
+     */
+    public static final UserAgent analyze(CharSequence agentString) throws IllegalArgumentException {
+        checkArgument(agentString == null, "agentString == null");
+        return analyze(agentString.toString());
+    }
 
-        String agentString = ua.getLowerCaseAgentString();
+    /**
+     * Analyzes the specified user agent string, given as bytes, e.g. a raw HTTP header value. Each byte is interpreted as an ISO-8859-1
+     * character, of which ASCII is a subset. The bytes are matched in place, without decoding them to characters; the agent string is only
+     * created if {@link UserAgent#getAgentString()} is called. The bytes are copied once, so the caller can reuse the array afterwards. Since
+     * that would require the agent string, the precomputed table of known agent strings is not consulted; the detection rules are always used.
+     * 
+     * @param bytes
+     *        the array that contains the user agent string, cannot be <code>null</code>.
+     * @param offset
+     *        the index of the first byte of the user agent string.
+     * @param length
+     *        the number of bytes in the user agent string.
+     * @return an {@link UserAgent} instance that describes the user agent, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>bytes == null</code>, or if <code>offset</code> and <code>length</code> do not specify a range within the array.
+     */
+    public static final UserAgent analyze(byte[] bytes, int offset, int length) throws IllegalArgumentException {
+        checkArgument(bytes == null, "bytes == null");
+        checkArgument(offset < 0 || length < 0 || offset > bytes.length - length, "offset (" + offset + ") and length (" + length + ") out of range for bytes.length (" + bytes.length + ").");
+
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, offset, copy, 0, length);
+        return analyzeOwnedBytes(copy);
+    }
+
+    /**
+     * Analyzes the specified user agent string, given as the remaining bytes in a buffer, e.g. a raw HTTP header value. Each byte is interpreted
+     * as an ISO-8859-1 character, of which ASCII is a subset. The bytes are matched in place, without decoding them to characters; the agent
+     * string is only created if {@link UserAgent#getAgentString()} is called. The bytes are copied once, so the caller can reuse the buffer
+     * afterwards. The position of the buffer is not changed. As with {@link #analyze(byte[], int, int)}, the precomputed table of known agent
+     * strings is not consulted.
+     * 
+     * @param buffer
+     *        the buffer that contains the user agent string between its position and its limit, cannot be <code>null</code>.
+     * @return an {@link UserAgent} instance that describes the user agent, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>buffer == null</code>.
+     */
+    public static final UserAgent analyze(ByteBuffer buffer) throws IllegalArgumentException {
+        checkArgument(buffer == null, "buffer == null");
+
+        byte[] copy = new byte[buffer.remaining()];
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + buffer.position(), copy, 0, copy.length);
+        } else {
+            buffer.duplicate().get(copy);
+        }
+        return analyzeOwnedBytes(copy);
+    }
+
+    private static final UserAgent analyzeOwnedBytes(byte[] bytes) {
+        UserAgent ua = new UserAgent(new ByteCharSequence(bytes, 0, bytes.length));
+        analyze(ua);
+        return ua;
+    }
+
+    /**
+     * Analyzes all specified user agent strings, using multiple threads. Identical agent strings are analyzed only once and share the same
+     * {@link UserAgent} instance in the result.
+     * 
+     * @param agentStrings
+     *        the user agent strings, cannot be <code>null</code> and cannot contain <code>null</code> elements.
+     * @return an array with a {@link UserAgent} for each agent string, in the same order, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>agentStrings == null</code> or if any of the elements is <code>null</code>.
+     */
+    public static final UserAgent[] analyzeAll(String[] agentStrings) throws IllegalArgumentException {
+        return BatchAnalyzer.analyzeAll(agentStrings);
+    }
+
+    /**
+     * Analyzes all specified user agent strings, using multiple threads. Identical agent strings are analyzed only once and share the same
+     * {@link UserAgent} instance in the result.
+     * 
+     * @param agentStrings
+     *        the user agent strings, cannot be <code>null</code> and cannot contain <code>null</code> elements.
+     * @return a list with a {@link UserAgent} for each agent string, in iteration order, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>agentStrings == null</code> or if any of the elements is <code>null</code>.
+     */
+    public static final List<UserAgent> analyzeAll(Collection<String> agentStrings) throws IllegalArgumentException {
+        checkArgument(agentStrings == null, "agentStrings == null");
+        return Arrays.asList(BatchAnalyzer.analyzeAll(agentStrings.toArray(new String[agentStrings.size()])));
+    }
+
+    /**
+     * Determines only the device classes for the specified user agent string. This is considerably faster than {@link #analyze(String)}, since
+     * the operating system, browser engine and browser are not detected and no version numbers are parsed. The result is consistent with
+     * <code>analyze</code>: a device class is included if and only if <code>analyze</code> adds the corresponding name, see
+     * {@link DeviceClass#getName()}.
+     * 
+     * @param agentString
+     *        the user agent string, cannot be <code>null</code>.
+     * @return a new set with the device classes, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>agentString == null</code>.
+     */
+    public static final EnumSet<DeviceClass> analyzeDevice(String agentString) throws IllegalArgumentException {
+        checkArgument(agentString == null, "agentString == null");
+
+        // The scanner folds case itself, and the device rules only check for keywords, so no lower case copy is needed
+        int deviceClasses = classifyDevice(KEYWORD_SCANNER.scan(agentString));
+        SnifferMetrics metrics = SnifferMetrics.active();
+        if (metrics != null) {
+            metrics.recordDeviceOnlyCall(deviceClasses);
+        }
+        EnumSet<DeviceClass> result = EnumSet.noneOf(DeviceClass.class);
+        for (DeviceClass deviceClass : DEVICE_CLASSES) {
+            if ((deviceClasses & deviceClass.bit()) != 0) {
+                result.add(deviceClass);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determines if the specified user agent string is identified as a bot. This is consistent with {@link #analyze(String)}: an agent string
+     * is a bot if and only if <code>analyze</code> returns a result with a bot family, see {@link UserAgent#getBotFamily()}, in which case the
+     * operating system, browser engine and browser are not detected. Most bots are also in {@link DeviceClass#BOT}, except for bots that
+     * identify as, e.g., an iPhone.
+     * <p>
+     * This is much faster than <code>analyze</code>: most agent strings are rejected by a single pass of a small automaton for the bot
+     * keywords, and nothing is allocated for them.
+     * 
+     * @param agentString
+     *        the user agent string, cannot be <code>null</code>.
+     * @return <code>true</code> if the agent string is identified as a bot, <code>false</code> otherwise.
+     * @throws IllegalArgumentException
+     *         if <code>agentString == null</code>.
+     */
+    public static final boolean isBot(CharSequence agentString) throws IllegalArgumentException {
+        checkArgument(agentString == null, "agentString == null");
+        return BOT_SNIPPET_SCANNER.containsAny(agentString, 0, agentString.length()) && classifyBot(BOT_SCANNER.scan(agentString)) != 0;
+    }
+
+    /**
+     * Determines the crawler family of the specified user agent string, if it is identified as a bot, see {@link #isBot(CharSequence)}. The
+     * result is the same as {@link UserAgent#getBotFamily()} for the result of {@link #analyze(String)}.
+     * 
+     * @param agentString
+     *        the user agent string, cannot be <code>null</code>.
+     * @return the bot family, or <code>null</code> if the agent string is not identified as a bot.
+     * @throws IllegalArgumentException
+     *         if <code>agentString == null</code>.
+     */
+    public static final BotFamily getBotFamily(CharSequence agentString) throws IllegalArgumentException {
+        return isBot(agentString) ? BotFamily.classify(agentString) : null;
+    }
+
+    /**
+     * Determines if the user agent is identified as a bot: it contains one of the bot snippets, but none of the keywords of the devices that
+     * are checked for before bots. Those are e-readers, the Kindle Fire, mobile devices, Android phones (but not tablets) and the Palm Pre.
+     * 
+     * @return the bits of the device classes of the bot, see {@link DeviceClass#bit()}, plus {@link #BOT_TYPE}; or 0 if it is not a bot.
+     */
+    private static final int classifyBot(KeywordMatches m) {
+        if (!m.containsAny(UA_BOT_SNIPPETS) || m.contains("nook ") || m.contains("bntv250") || m.contains("silk-accelerated")
+                || m.containsAny(UA_MOBILE_DEVICE_SNIPPETS) || m.contains("android") && !m.containsAny(UA_TABLET_DEVICE_SNIPPETS)
+                || m.contains("pre/") || m.contains("kindle/")) {
+            return 0;
+        }
+
+        int deviceClasses = BOT_TYPE;
+        if (m.contains("ipod") || m.contains("iphone") || m.contains("ipad") || m.contains("android") || m.contains("webos/")) {
+            deviceClasses |= DeviceClass.MOBILE.bit();
+        } else {
+            deviceClasses |= DeviceClass.BOT.bit();
+        }
+        if (m.containsAny(UA_TABLET_DEVICE_SNIPPETS)) {
+            deviceClasses |= DeviceClass.TABLET.bit();
+        }
+        if (m.contains("playstation portable") || m.contains("playstation vita")) {
+            deviceClasses |= DeviceClass.GAMING.bit() | DeviceClass.MOBILE.bit();
+        }
+        return deviceClasses;
+    }
+
+    /**
+     * Determines the device classes. Bots are classified first, see {@link #classifyBot(KeywordMatches)}.
+     * 
+     * @return the bits of the device classes, see {@link DeviceClass#bit()}, plus {@link #BOT_TYPE} if applicable.
+     */
+    private static final int classifyDevice(KeywordMatches m) {
+        int botClasses = classifyBot(m);
+        if (botClasses != 0) {
+            return botClasses;
+        }
 
         // Detect specific devices
-        boolean android = agentString.contains("android");
-        boolean appleTouch = agentString.contains("ipod") || agentString.contains("iphone") || agentString.contains("ipad");
-        boolean nook = agentString.contains("nook ") || agentString.contains("bntv250");
-        boolean psp = agentString.contains("playstation portable") || agentString.contains("playstation vita");
-        boolean kindleFire = agentString.contains("silk-accelerated"); // TODO
+        boolean android = m.contains("android");
+        boolean appleTouch = m.contains("ipod") || m.contains("iphone") || m.contains("ipad");
+        boolean nook = m.contains("nook ") || m.contains("bntv250");
+        boolean psp = m.contains("playstation portable") || m.contains("playstation vita");
+        boolean kindleFire = m.contains("silk-accelerated"); // TODO
 
         // Mobile devices
         boolean matchFound = false;
@@ -61,685 +441,500 @@ public final class Sniffer {
             isPhone = false;
             isTablet = true;
         } else {
-            for (String mobileDeviceSnippet : UA_MOBILE_DEVICE_SNIPPETS) {
-                if (agentString.contains(mobileDeviceSnippet)) {
-                    matchFound = true;
-                    uaType = "mobile";
-                    isPhone = true;
-
-                    for (String mobileWithoutTelSnippet : UA_MOBILE_DEVICE_WITHOUT_TEL_SUPPORT) {
-                        if (agentString.contains(mobileWithoutTelSnippet)) {
-                            isPhone = false;
-                        }
-                    }
-                }
+            if (m.containsAny(UA_MOBILE_DEVICE_SNIPPETS)) {
+                matchFound = true;
+                uaType = "mobile";
+                isPhone = !m.containsAny(UA_MOBILE_DEVICE_WITHOUT_TEL_SUPPORT);
             }
 
             // Tablets
-            for (String tabletDeviceSnippet : UA_TABLET_DEVICE_SNIPPETS) {
-                if (agentString.contains(tabletDeviceSnippet)) {
-                    isTablet = true;
-                }
-            }
+            isTablet = m.containsAny(UA_TABLET_DEVICE_SNIPPETS);
         }
 
         if (!matchFound) {
-            if (!isTablet && agentString.contains("android")) { // Android
+            if (!isTablet && m.contains("android")) { // Android
                 matchFound = true;
                 uaType = "desktop";
                 isPhone = true;
 
-            } else if (agentString.contains("pre/")) { // Palm Pre
+            } else if (m.contains("pre/")) { // Palm Pre
                 matchFound = true;
                 uaType = "desktop";
                 isPhone = true;
 
-            } else if (agentString.contains("kindle/")) { // Amazon Kindle
+            } else if (m.contains("kindle/")) { // Amazon Kindle
                 matchFound = true;
                 uaType = "ereader";
                 isPhone = false;
-
-            } else { // Bots
-                for (String botSnippet : UA_BOT_SNIPPETS) {
-                    if (agentString.contains(botSnippet)) {
-                        matchFound = true;
-                        uaType = "bot";
-                        isPhone = false;
-                    }
-                }
             }
         }
 
         // Categorize Device
-        if (isPhone) {
-            ua.addName("Device-Phone");
-        } else {
-            ua.addName("Device-NoPhone");
-        }
+        int deviceClasses = isPhone ? DeviceClass.PHONE.bit() : 0;
 
         if ("ereader".equals(uaType)) {
-            ua.addName("Device-Mobile");
-            ua.addName("Device-Ereader");
-        } else if ("mobile".equals(uaType) || appleTouch || android || agentString.contains("webos/")) {
-            ua.addName("Device-Mobile");
-        } else if ("bot".equals(uaType)) {
-            ua.addName("Device-Bot");
+            deviceClasses |= DeviceClass.MOBILE.bit() | DeviceClass.EREADER.bit();
+        } else if ("mobile".equals(uaType) || appleTouch || android || m.contains("webos/")) {
+            deviceClasses |= DeviceClass.MOBILE.bit();
         } else if (!isTablet) {
-            ua.addName("Device-Desktop");
+            deviceClasses |= DeviceClass.DESKTOP.bit();
         }
 
         if (isTablet) {
-            ua.addName("Device-Tablet");
+            deviceClasses |= DeviceClass.TABLET.bit();
         }
 
         if (psp) {
-            ua.addName("Device-Gaming");
-            ua.addName("Device-Mobile");
-            ua.addName("Device-PSP");
-            if (agentString.contains("vita")) {
-                analyze(ua, agentString, "Device-PSP-Vita", "vita ", 2, false);
+            deviceClasses |= DeviceClass.GAMING.bit() | DeviceClass.MOBILE.bit();
+        }
+        return deviceClasses;
+    }
+
+    private static final void analyze(UserAgent ua) {
+
+        // Only read the clock if metrics are enabled
+        SnifferMetrics metrics = SnifferMetrics.active();
+        long time = metrics == null ? 0L : System.nanoTime();
+
+        KeywordMatches m = KEYWORD_SCANNER.scan(ua.getAgentText());
+
+        // Add the names for the device classes
+        int deviceClasses = classifyDevice(m);
+        for (DeviceClass deviceClass : DEVICE_CLASSES) {
+            if ((deviceClasses & deviceClass.bit()) != 0) {
+                ua.addName(deviceClass.getName());
             }
         }
+        if ((deviceClasses & DeviceClass.PHONE.bit()) == 0) {
+            ua.addName("Device-NoPhone");
+        }
+
+        // Bots: only the names of the devices they can identify as, and no operating system, browser engine or browser
+        if ((deviceClasses & BOT_TYPE) != 0) {
+            addPSPNames(ua, m);
+            addAppleTouchNames(ua, m);
+            ua.resolveTypes();
+            if (metrics != null) {
+                metrics.recordCall(deviceClasses);
+                record(metrics, SnifferMetrics.Stage.DEVICE, time);
+            }
+            return;
+        }
+
+        // Detect specific devices
+        addPSPNames(ua, m);
 
-        if (kindleFire) {
+        if (m.contains("silk-accelerated")) { // Kindle Fire
             ua.addName("Device-AmazonKindle");
             ua.addName("Device-AmazonKindle-Fire");
 
-            if (agentString.contains("silk-accelerated=true")) {
+            if (m.contains("silk-accelerated=true")) {
                 ua.addName("CloudAcceleration-Yes");
-            } else if (agentString.contains("silk-accelerated=false")) {
+            } else if (m.contains("silk-accelerated=false")) {
                 ua.addName("CloudAcceleration-No");
             }
         }
 
-        if (appleTouch) {
-            ua.addName("Device-AppleTouch");
-            if (agentString.contains("ipod")) {
-                ua.addName("Device-AppleTouch-iPod");
-            } else if (agentString.contains("ipad")) {
-                ua.addName("Device-AppleTouch-iPad");
-            } else {
-                ua.addName("Device-AppleTouch-iPhone");
+        if (!addAppleTouchNames(ua, m)) {
+            if (m.contains("blackberry")) {
+                analyze(ua, m, "Device-Blackberry", "blackberry", 1, false);
+                analyze(ua, m, "Device-Blackberry", "blackberry ", 1, false);
+            } else if (m.contains("kindle/")) {
+                analyze(ua, m, "Device-AmazonKindle", "kindle/", 2, false);
             }
-        } else if (agentString.contains("blackberry")) {
-            analyze(ua, agentString, "Device-Blackberry", "blackberry", 1, false);
-            analyze(ua, agentString, "Device-Blackberry", "blackberry ", 1, false);
-        } else if (agentString.contains("kindle/")) {
-            analyze(ua, agentString, "Device-AmazonKindle", "kindle/", 2, false);
+        }
+
+        if (metrics != null) {
+            metrics.recordCall(deviceClasses);
+            time = record(metrics, SnifferMetrics.Stage.DEVICE, time);
         }
 
         // Detect OS, browser engine and browser
-        if (!"bot".equals(uaType)) {
-            detectBrowserOS(ua);
-            detectBrowserEngine(ua);
-            detectBrowser(ua);
+        MAEMO_RULES.apply(ua, m);
+        OS_RULES.apply(ua, m);
+        if (metrics != null) {
+            time = record(metrics, SnifferMetrics.Stage.OS, time);
         }
+        ENGINE_RULES.apply(ua, m);
+        if (metrics != null) {
+            time = record(metrics, SnifferMetrics.Stage.ENGINE, time);
+        }
+        BROWSER_RULES.apply(ua, m);
 
         if (ua.hasName("BrowserEngine-Trident") && !ua.hasName("Browser-MobileMSIE")) {
-            analyze(ua, agentString, "BrowserEngine-Trident-MSIE", agentString.contains("msie ") ? "msie " : "(ie ", 2, true);
+            analyze(ua, m, "BrowserEngine-Trident-MSIE", m.contains("msie ") ? "msie " : "(ie ", 2, true);
         }
-    }
+        ua.resolveTypes();
 
-    private static final void detectBrowserOS(UserAgent ua) {
-
-        String agentString = ua.getLowerCaseAgentString();
-
-        boolean nook = agentString.contains("nook ") || agentString.contains("nook/") || agentString.contains("bntv250");
-
-        // Maemo - check before Linux
-        if (agentString.contains("maemo")) {
-            ua.addName("BrowserOS-NIX");
-            ua.addName("BrowserOS-Linux");
-            ua.addName("BrowserOS-Linux-Maemo");
+        if (metrics != null) {
+            record(metrics, SnifferMetrics.Stage.BROWSER, time);
         }
+    }
 
-        // Linux
-        if (agentString.contains("linux") || agentString.contains("android") || nook) {
-            ua.addName("BrowserOS-NIX");
-            ua.addName("BrowserOS-Linux");
-            if (agentString.contains("linux 2.")) {
-                analyze(ua, agentString, "BrowserOS-Linux", "linux ");
-            }
-
-            // Android
-            if (agentString.contains("android") || nook) {
-                analyze(ua, agentString, "BrowserOS-Linux-Android", "android ");
-            }
-
-            // Google Chrome OS
-        } else if (agentString.contains("cros ")) {
-            ua.addName("BrowserOS-CrOS");
-
-            // webOS, by Palm
-        } else if (agentString.contains("webos/")) {
-            analyze(ua, agentString, "BrowserOS-WebOS", "webos/");
-
-            // iOS (detect before Mac OS)
-        } else if (agentString.contains("iphone") || agentString.contains("ipod") || agentString.contains("ipad")) {
-            analyze(ua, agentString.replace('_', '.').replace("mac os x", ""), "BrowserOS-iOS", "OS ");
-
-            // Mac OS
-        } else if (agentString.contains("mac os") || agentString.contains("mac_") || agentString.contains("macintosh")) {
-            ua.addName("BrowserOS-MacOS");
-
-            // OS X
-            if (agentString.contains("mac os x")) {
-                ua.addName("BrowserOS-NIX");
-                ua.addName("BrowserOS-MacOS-10");
-                analyze(ua, agentString.replace('_', '.'), "BrowserOS-MacOS", "mac os x ", 0, false);
-                analyze(ua, agentString.replace('_', '.'), "BrowserOS-MacOS", "mac os x tiger ", 0, false);
-                analyze(ua, agentString.replace('_', '.'), "BrowserOS-MacOS", "mac os x leopard ", 0, false);
-                analyze(ua, agentString.replace('_', '.'), "BrowserOS-MacOS", "mac os x snow leopard ", 0, false);
-                analyze(ua, agentString.replace('_', '.'), "BrowserOS-MacOS", "mac os x lion ", 0, false);
-                analyze(ua, agentString.replace('_', '.'), "BrowserOS-MacOS", "mac os x mountain lion ", 0, false);
-            }
-
-            // Windows
-        } else if (agentString.contains("windows") || agentString.contains("win3.") || agentString.contains("win9") || agentString.contains("winnt") || agentString.contains("wince")) {
-            ua.addName("BrowserOS-Windows");
-            if (agentString.contains("windows nt")) {
-                analyze(ua, agentString, "BrowserOS-Windows-NT", "windows nt ", 2, true);
-            } else if (agentString.contains("windows 5.") || agentString.contains("windows 6.")) {
-                analyze(ua, agentString, "BrowserOS-Windows-NT", "windows ", 2, false);
-            } else if (agentString.contains("windows vista")) {
-                analyze(ua, "nt/6.0", "BrowserOS-Windows-NT", "nt/", 2, false);
-            } else if (agentString.contains("windows xp")) {
-                analyze(ua, "nt/5.1", "BrowserOS-Windows-NT", "nt/", 2, false);
-            } else if (agentString.contains("windows 2000")) {
-                analyze(ua, "nt/5.0", "BrowserOS-Windows-NT", "nt/", 2, false);
-            } else if (agentString.contains("winnt")) {
-                analyze(ua, agentString, "BrowserOS-Windows-NT", "winnt", 2, true);
-
-                // Windows ME (needs to be checked before Windows 98)
-            } else if (agentString.contains("win 9x 4.90") || agentString.contains("windows me")) {
-                ua.addName("BrowserOS-Windows-ME");
-
-                // Windows 98
-            } else if (agentString.contains("windows 98") || agentString.contains("win98")) {
-                ua.addName("BrowserOS-Windows-98");
-
-                // Windows 95
-            } else if (agentString.contains("windows 95") || agentString.contains("win95")) {
-                ua.addName("BrowserOS-Windows-95");
-                
-                // Windows Phone
-            } else if (agentString.contains("windows phone os")) {
-                analyze(ua, agentString, "BrowserOS-Windows-Phone", "windows phone os", 2, false);
-            } else if (agentString.contains("windows phone")) {
-                analyze(ua, agentString, "BrowserOS-Windows-Phone", "windows phone", 2, false);
-
-                // Windows Mobile
-            } else if (agentString.contains("windows mobile") || agentString.contains("windows; ppc") || agentString.contains("windows ce") || agentString.contains("wince")) {
-                analyze(ua, agentString, "BrowserOS-Windows-Mobile", "windows mobile ", 3, true);
-
-                // Windows 3.x
-            } else if (agentString.contains("windows 3.")) {
-                analyze(ua, agentString, "BrowserOS-Windows", "windows ", 3, true);
-            } else if (agentString.contains("win3.")) {
-                int indexWin3 = agentString.indexOf("win3.");
-                int indexWindows = agentString.indexOf("windows");
-                String s = indexWindows >= 0 && indexWindows < indexWin3 ? agentString.substring(indexWindows + 1) : agentString;
-
-                analyze(ua, s, "BrowserOS-Windows", "win", 3, true);
-            }
-
-            // Add some marketing names for various Windows versions
-            if (ua.hasName("BrowserOS-Windows-NT-5-0")) {
-                ua.addName("BrowserOS-Windows-2000");
-            } else if (ua.hasName("BrowserOS-Windows-NT-5")) {
-                ua.addName("BrowserOS-Windows-XP");
-            } else if (ua.hasName("BrowserOS-Windows-NT-6-0")) {
-                ua.addName("BrowserOS-Windows-Vista");
-            } else if (ua.hasName("BrowserOS-Windows-NT-6-1")) {
-                ua.addName("BrowserOS-Windows-7");
-            } else if (ua.hasName("BrowserOS-Windows-NT-6-2")) {
-            	if (agentString.contains(" arm;")) {
-            		ua.addName("BrowserOS-Windows-RT");
-            	} else {
-                    ua.addName("BrowserOS-Windows-8");
-                    ua.addName("BrowserOS-Windows-8-0");
-            	}
-            } else if (ua.hasName("BrowserOS-Windows-NT-6-3")) {
-            	if (agentString.contains(" arm;")) {
-            		ua.addName("BrowserOS-Windows-RT");
-            	} else {
-                    ua.addName("BrowserOS-Windows-8");
-                    ua.addName("BrowserOS-Windows-8-1");
-            	}
-            }
-
-            // DragonFlyBSD, extra check
-        } else if (agentString.contains("dragonfly")) {
-            ua.addName("BrowserOS-NIX");
-            ua.addName("BrowserOS-BSD");
-            ua.addName("BrowserOS-BSD-DragonFlyBSD");
-
-            // Other BSD variants
-        } else if (agentString.contains("bsd")) {
-            ua.addName("BrowserOS-NIX");
-            ua.addName("BrowserOS-BSD");
-            if (agentString.contains("netbsd")) {
-                ua.addName("BrowserOS-BSD-NetBSD");
-            } else if (agentString.contains("openbsd")) {
-                ua.addName("BrowserOS-BSD-OpenBSD");
-            } else if (agentString.contains("freebsd")) {
-                ua.addName("BrowserOS-BSD-FreeBSD");
+    private static final void addPSPNames(UserAgent ua, KeywordMatches m) {
+        if (m.contains("playstation portable") || m.contains("playstation vita")) {
+            ua.addName("Device-PSP");
+            if (m.contains("vita")) {
+                analyze(ua, m, "Device-PSP-Vita", "vita ", 2, false);
             }
-
-            // AIX
-        } else if (agentString.contains("aix")) {
-            ua.addName("BrowserOS-NIX");
-            analyze(ua, agentString, "BrowserOS-AIX", "aix ", 1, false);
-
-            // IRIX
-        } else if (agentString.contains("irix")) {
-            ua.addName("BrowserOS-NIX");
-            analyze(ua, agentString, "BrowserOS-IRIX", "irix ", 2, false);
-            analyze(ua, agentString, "BrowserOS-IRIX", "irix64 ", 2, false);
-
-            // HP-UX
-        } else if (agentString.contains("hp-ux")) {
-            ua.addName("BrowserOS-NIX");
-            ua.addName("BrowserOS-HPUX");
-
-            // Sun Solaris
-        } else if (agentString.contains("sunos")) {
-            ua.addName("BrowserOS-NIX");
-            analyze(ua, agentString, "BrowserOS-Solaris", "sunos ", 1, false);
-
-            // Sun Solaris
-        } else if (agentString.contains("beos")) {
-            ua.addName("BrowserOS-BeOS");
-
-            // OS/2 (a.k.a. Ecomstation)
-        } else if (agentString.contains("(os/2")) {
-            analyze(ua, agentString, "BrowserOS-OS2", "warp ", 1, false);
-
-            // Symbian
-        } else if (agentString.contains("symbian")) {
-            analyze(ua, agentString, "BrowserOS-Symbian", "symbianos/", 3, false);
-
-        } else if (agentString.contains("bada/")) {
-            analyze(ua, agentString, "BrowserOS-Bada", "bada/", 2, false);
         }
     }
 
-    private static final void detectBrowserEngine(UserAgent ua) {
-        String agentString = ua.getLowerCaseAgentString();
-
-        // Apple WebKit
-        if (agentString.contains("applewebkit/")) {
-            analyze(ua, agentString, "BrowserEngine-WebKit", "applewebkit/", 4, false);
-        } else if (agentString.contains("apple webkit/")) {
-            analyze(ua, agentString, "BrowserEngine-WebKit", "apple webkit/", 4, false);
-
-            // Mozilla Gecko
-        } else if (agentString.contains("gecko/")) {
-            analyze(ua, agentString, "BrowserEngine-Gecko", "rv:", 4, false);
-
-            // Opera Presto
-        } else if (agentString.contains("presto/")) {
-            analyze(ua, agentString, "BrowserEngine-Presto", "presto/", 3, false);
-        } else if (agentString.contains("presto")) {
-            analyze(ua, agentString, "BrowserEngine-Presto", "presto ", 3, false);
-
-            // Microsoft Trident
-        } else if (agentString.contains("trident/")) {
-            analyze(ua, agentString, "BrowserEngine-Trident", "trident/", 3, false);
-        } else if (agentString.contains("trident")) {
-            analyze(ua, agentString, "BrowserEngine-Trident", "trident ", 3, false);
-
-            // KDE KHTML
-        } else if (agentString.contains("khtml/")) {
-            analyze(ua, agentString, "BrowserEngine-KHTML", "khtml/", 3, false);
+    /**
+     * Adds the names for an iPod, iPad or iPhone.
+     * 
+     * @return <code>true</code> if the user agent is one of these devices, <code>false</code> otherwise.
+     */
+    private static final boolean addAppleTouchNames(UserAgent ua, KeywordMatches m) {
+        if (!m.contains("ipod") && !m.contains("iphone") && !m.contains("ipad")) {
+            return false;
+        }
+        ua.addName("Device-AppleTouch");
+        if (m.contains("ipod")) {
+            ua.addName("Device-AppleTouch-iPod");
+        } else if (m.contains("ipad")) {
+            ua.addName("Device-AppleTouch-iPad");
         } else {
-            if (agentString.contains("opera ")) {
-                ua.addName("BrowserEngine-Presto");
-            } else if (agentString.contains("msie ") || agentString.contains("msie/")) {
-                if (agentString.contains("mac") && agentString.contains("msie 5.")) {
-                    ua.addName("BrowserEngine-Tasman");
-                } else {
-                    ua.addName("BrowserEngine-Trident");
-                }
-            }
+            ua.addName("Device-AppleTouch-iPhone");
         }
+        return true;
     }
 
-    private static final void detectBrowser(UserAgent ua) {
-
-        String agentString = ua.getLowerCaseAgentString();
-
-        // Lunascape, can use different rendering engines
-        // E.g.: Lunascape5 (Webkit) - Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US)
-        // AppleWebKit/528+ (KHTML, like Gecko, Safari/528.0) Lunascape/5.0.3.0
-        if (agentString.contains("lunascape")) {
-            analyze(ua, agentString, "Browser-Lunascape", "lunascape ", 4, false);
-            analyze(ua, agentString, "Browser-Lunascape", "lunascape/", 4, false);
-
-            // Maxthon
-        } else if (agentString.contains("maxthon")) {
-            analyze(ua, agentString, "Browser-Maxthon", "maxthon ", 4, false);
-            analyze(ua, agentString, "Browser-Maxthon", "maxthon/", 4, false);
-
-            // Sleipnir
-        } else if (agentString.contains("sleipnir/")) {
-            analyze(ua, agentString, "Browser-Sleipnir", "sleipnir/", 3, false);
-
-            // Blackberry
-        } else if (agentString.contains("blackberry")) {
-            analyze(ua, agentString, "Browser-Blackberry", "version/");
-
-            // Konqueror (needs to be detected before Gecko-based browsers)
-            // E.g.: Mozilla/5.0 (compatible; Konqueror/4.1; Linux) KHTML/4.1.2 (like Gecko)
-        } else if (agentString.contains("konqueror")) {
-            analyze(ua, agentString, "Browser-Konqueror", "konqueror/", 2, false);
-            ua.addName("BrowserEngine-KHTML");
-
-            // Fennec
-            // E.g.: Mozilla/5.0 (Macintosh; U; Intel Mac OS X; en-US; rv:1.9.2a1pre) Gecko/20090317
-            // Fennec/1.0b1
-            // Mozilla/5.0 (X11; U; Linux i686; en-US; rv:1.9.1b2pre) Gecko/20081015 Fennec/1.0a1
-            // Mozilla/5.0 (X11; U; Linux armv7l; en-US; rv:1.9.2a1pre) Gecko/20090322
-            // Fennec/1.0b2pre
-        } else if (agentString.contains("fennec")) {
-            analyze(ua, agentString, "Browser-Fennec", "fennec/");
-            analyze(ua, agentString, "Browser-MobileFirefox", "fennec/");
-
-            // Epiphany
-            // E.g.: Mozilla/5.0 (X11; U; Linux i686; en-US; rv:1.7.3) Gecko/20041007 Epiphany/1.4.7
-        } else if (agentString.contains("epiphany")) {
-            analyze(ua, agentString, "Browser-Epiphany", "epiphany/");
-
-            // Flock (needs to be detected before Firefox and Chrome)
-            // E.g.: Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.8.1.18) Gecko/20081107
-            // Firefox/2.0.0.18 Flock/1.2.7
-            // or: Mozilla/5.0 (Windows; U; Windows NT 6.1; en-US) AppleWebKit/534.7 (KHTML, like
-            // Gecko) Flock/3.5.2.4599 Chrome/7.0.517.442 Safari/534.7
-        } else if (agentString.contains("flock")) {
-            analyze(ua, agentString, "Browser-Flock", "flock/", 4, false);
-
-            // Camino (needs to be detected before Firefox)
-            // E.g.: Mozilla/5.0 (Macintosh; U; Intel Mac OS X; nl; rv:1.8.1.14) Gecko/20080512
-            // Camino/1.6.1 (MultiLang) (like Firefox/2.0.0.14)
-        } else if (agentString.contains("camino")) {
-            analyze(ua, agentString, "Browser-Camino", "camino/");
-
-            // SeaMonkey
-            // E.g.: Mozilla/5.0 (X11; U; Linux x86_64; en-US; rv:1.9.1b3pre) Gecko/20090302
-            // SeaMonkey/2.0b1pre
-        } else if (agentString.contains("seamonkey/")) {
-            analyze(ua, agentString, "Browser-SeaMonkey", "seamonkey/");
-
-            // SeaMonkey (again)
-            // E.g.: Seamonkey-1.1.13-1(X11; U; GNU Fedora fc 10) Gecko/20081112
-        } else if (agentString.contains("seamonkey-")) {
-            analyze(ua, agentString, "Browser-SeaMonkey", "seamonkey-");
-            ua.addName("BrowserEngine-Gecko");
-
-            // Netscape Navigator (needs to be detected before Firefox)
-            // E.g.: Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.8.1.5pre) Gecko/20070712
-            // Firefox/2.0.0.4 Navigator/9.0b2
-        } else if (agentString.contains("navigator/")) {
-            analyze(ua, agentString, "Browser-Netscape", "navigator/");
-            ua.addName("BrowserEngine-Gecko");
-
-            // Firefox
-        } else if (agentString.contains("firefox")) {
-            analyze(ua, agentString, "Browser-Firefox", "firefox/");
-            if (agentString.contains("mobile") || agentString.contains("tablet")) {
-                analyze(ua, agentString, "Browser-MobileFirefox", "firefox/");
-            }
-        } else if (agentString.contains("minefield/")) {
-            analyze(ua, agentString, "Browser-Firefox", "minefield/");
-
-        } else if (agentString.contains("namoroka/")) {
-            analyze(ua, agentString, "Browser-Firefox", "namoroka/"); // Firefox 3.6 pre-releases
-        } else if (agentString.contains("shiretoko/")) {
-            analyze(ua, agentString, "Browser-Firefox", "shiretoko/"); // Firefox 3.5 pre-releases
-        } else if (agentString.contains("granparadiso/")) {
-            analyze(ua, agentString, "Browser-Firefox", "granparadiso/"); // Firefox 3.0/3.1
-                                                                          // pre-releases
-        } else if (agentString.contains("firebird/")) {
-            analyze(ua, agentString, "Browser-Firefox", "firebird/"); // Before 1.0
-        } else if (agentString.contains("phoenix/")) {
-            analyze(ua, agentString, "Browser-Firefox", "phoenix/"); // Before 1.0 (and before
-                                                                     // Firebird code-name)
-
-            // Opera (detect before Chrome)
-        } else if (agentString.startsWith("opera/") || agentString.contains("opr/")) {
-
-            ua.addName("Browser-Opera");
-
-            String browserName;
-            if (agentString.contains("tablet")) { // Opera Tablet
-                browserName = "Browser-OperaTablet";
-            } else if (agentString.contains("mini/")) { // Opera Mini
-                browserName = "Browser-OperaMini";
-            } else if (agentString.contains("mobi/")) { // Opera Mobile
-                browserName = "Browser-OperaMobile";
-            } else { // Opera Desktop
-                browserName = "Browser-OperaDesktop";
-            }
+    /**
+     * Records the time since <code>start</code> for the specified stage.
+     * 
+     * @return the end time, which is the start time of the next stage.
+     */
+    private static final long record(SnifferMetrics metrics, SnifferMetrics.Stage stage, long start) {
+        long end = System.nanoTime();
+        metrics.recordStage(stage, end - start);
+        return end;
+    }
 
-            if (agentString.contains("opera mini/")) {
-                analyze(ua, agentString, browserName, "opera mini/", 3, true);
-            } else if (agentString.contains("opr/")) {
-                analyze(ua, agentString, browserName, "opr/", 4, true);
-            } else if (agentString.contains("version/")) {
-                analyze(ua, agentString, browserName, "version/", 3, true);
-            } else if (agentString.contains("opera/")) {
-                ua.addName("BrowserEngine-Presto");
-                analyze(ua, agentString, browserName, "opera/", 3, true);
-            } else {
-                analyze(ua, agentString, "Browser-OperaDesktop", agentString.contains("version/") ? "version/" : "opera/", 3, true);
-            }
+    /**
+     * The parts of the detection rules that are implemented in Java, referenced by name from the rule table.
+     */
+    private enum RuleHandler implements RuleTable.Handler {
 
-            // Opera (older releases)
-        } else if (agentString.contains("opera")) {
-            ua.addName("Browser-Opera");
-            analyze(ua, agentString, "Browser-OperaDesktop", "opera ", 3, true);
-            ua.addName("BrowserEngine-Presto");
-
-            // Palm Pre browser - this one needs to be checked before Safari
-        } else if (agentString.contains("pre/")) {
-            analyze(ua, agentString, "Browser-PalmPreBrowser", "version/");
-
-            // OmniWeb - this one needs to be checked before Safari
-        } else if (agentString.contains("omniweb")) {
-            ua.addName("Browser-OmniWeb");
-
-            // RockMelt - this one needs to be checked before Google Chrome
-            // e.g.: Mozilla/5.0 (Windows; U; Windows NT 6.1; en-US) AppleWebKit/534.13 (KHTML, like
-            // Gecko) RockMelt/0.9.48.51 Chrome/9.0.597.107 Safari/534.13
-        } else if (agentString.contains("rockmelt")) {
-            analyze(ua, agentString, "Browser-RockMelt", "rockmelt/", 4, false);
-
-            // Google Chrome - this one needs to be checked before Safari
-            // e.g.: Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US) AppleWebKit/525.13 (KHTML, like
-            // Gecko) Chrome/0.X.Y.Z Safari/525.13.
-        } else if (agentString.contains("chrome/") && !agentString.contains("chromeframe")) {
-            analyze(ua, agentString, "Browser-Chrome", "chrome/", 4, false);
-
-            // Nokia browser - needs to be checked before Safari
-        } else if (agentString.contains("symbianos")) {
-            if (agentString.contains("version/") || !agentString.contains("browserng/")) {
-                analyze(ua, agentString, "Browser-Nokia", "version/", 3, false);
-            } else {
-                analyze(ua, agentString, "Browser-Nokia", "browserng/", 3, false);
+        IOS {
+            public void apply(UserAgent ua, KeywordMatches m) {
+                analyzeVersion(ua, m.getText(), iOSVersionIndex(m.getText()), "BrowserOS-iOS", 3, false, '.');
             }
-
-            // NetFront
-        } else if (agentString.contains("netfront")) {
-            analyze(ua, agentString, "Browser-NetFront", "netfront/", 3, true);
-
-            // Amazon Kindle browser (detect after NetFront but before Safari)
-        } else if (agentString.contains("kindle/")) {
-            analyze(ua, agentString, "Browser-Kindle", "version/", 2, true);
-
-            // Dolphin, check before Safari
-        } else if (agentString.contains("dolfin")) {
-            analyze(ua, agentString, "Browser-Dolphin", "dolfin/", 2, true);
-
-            // Nook, check before Safari
-        } else if (agentString.contains("nook ") || agentString.contains("bntv250 ")) {
-            if (agentString.contains("nook browser/")) {
-                analyze(ua, agentString, "Browser-Nook", "browser/", 2, true);
-            } else {
-                analyze(ua, agentString, "Browser-Nook", "version/", 2, true);
+        },
+
+        MAC_OS_X {
+            public void apply(UserAgent ua, KeywordMatches m) {
+                if (m.contains("mac os x")) {
+                    CharSequence agentString = m.getText();
+                    ua.addName("BrowserOS-NIX");
+                    ua.addName("BrowserOS-MacOS-10");
+                    analyzeVersion(ua, agentString, versionIndex(m, "mac os x "), "BrowserOS-MacOS", 0, false, '.');
+                    analyzeVersion(ua, agentString, versionIndex(m, "mac os x tiger "), "BrowserOS-MacOS", 0, false, '.');
+                    analyzeVersion(ua, agentString, versionIndex(m, "mac os x leopard "), "BrowserOS-MacOS", 0, false, '.');
+                    analyzeVersion(ua, agentString, versionIndex(m, "mac os x snow leopard "), "BrowserOS-MacOS", 0, false, '.');
+                    analyzeVersion(ua, agentString, versionIndex(m, "mac os x lion "), "BrowserOS-MacOS", 0, false, '.');
+                    analyzeVersion(ua, agentString, versionIndex(m, "mac os x mountain lion "), "BrowserOS-MacOS", 0, false, '.');
+                }
             }
+        },
 
-        } else if (agentString.contains("silk/")) {
-            analyze(ua, agentString, "Browser-Silk", "silk/", 2, true);
-
-            // iCab, check before Safari
-            // E.g.: iCab/4.5 (Macintosh; U; Mac OS X Leopard 10.5.7)
-        } else if (agentString.contains("icab")) {
-            analyze(ua, agentString, "Browser-iCab", "icab/");
-            analyze(ua, agentString, "Browser-iCab", "icab ");
+        WIN3 {
+            public void apply(UserAgent ua, KeywordMatches m) {
+                int indexWin3 = m.indexOf("win3.");
+                int indexWindows = m.indexOf("windows");
+                int indexWin = m.indexOf("win", indexWindows >= 0 && indexWindows < indexWin3 ? indexWindows + 1 : 0);
 
-            // iCab 4 uses the WebKit rendering engine, although the user agent
-            // string does not advertise that
-            if (ua.hasName("Browser-iCab-4")) {
-                ua.addName("BrowserEngine-WebKit");
+                analyzeVersion(ua, m.getText(), indexWin + 3, "BrowserOS-Windows", 3, true, '_');
             }
+        },
+
+        /**
+         * Adds some marketing names for various Windows versions.
+         */
+        WINDOWS_MARKETING_NAMES {
+            public void apply(UserAgent ua, KeywordMatches m) {
+                if (ua.hasName("BrowserOS-Windows-NT-5-0")) {
+                    ua.addName("BrowserOS-Windows-2000");
+                } else if (ua.hasName("BrowserOS-Windows-NT-5")) {
+                    ua.addName("BrowserOS-Windows-XP");
+                } else if (ua.hasName("BrowserOS-Windows-NT-6-0")) {
+                    ua.addName("BrowserOS-Windows-Vista");
+                } else if (ua.hasName("BrowserOS-Windows-NT-6-1")) {
+                    ua.addName("BrowserOS-Windows-7");
+                } else if (ua.hasName("BrowserOS-Windows-NT-6-2")) {
+                    if (m.contains(" arm;")) {
+                        ua.addName("BrowserOS-Windows-RT");
+                    } else {
+                        ua.addName("BrowserOS-Windows-8");
+                        ua.addName("BrowserOS-Windows-8-0");
+                    }
+                } else if (ua.hasName("BrowserOS-Windows-NT-6-3")) {
+                    if (m.contains(" arm;")) {
+                        ua.addName("BrowserOS-Windows-RT");
+                    } else {
+                        ua.addName("BrowserOS-Windows-8");
+                        ua.addName("BrowserOS-Windows-8-1");
+                    }
+                }
+            }
+        },
+
+        OPERA {
+            public void apply(UserAgent ua, KeywordMatches m) {
+                String browserName;
+                if (m.contains("tablet")) { // Opera Tablet
+                    browserName = "Browser-OperaTablet";
+                } else if (m.contains("mini/")) { // Opera Mini
+                    browserName = "Browser-OperaMini";
+                } else if (m.contains("mobi/")) { // Opera Mobile
+                    browserName = "Browser-OperaMobile";
+                } else { // Opera Desktop
+                    browserName = "Browser-OperaDesktop";
+                }
 
-            // Apple Safari
-        } else if (! agentString.contains("chromeframe") && (agentString.contains("safari") || agentString.contains("applewebkit"))) {
-            ua.addName("BrowserEngine-WebKit");
-            ua.addName("Browser-Safari");
-
-            if (agentString.contains("mobile/") || agentString.contains("android")) {
-                if (Pattern.compile("mobile\\/[0-9]+(\\.[0-9]+)+(\\s|\\))").matcher(agentString).find()) {
-                    analyze(ua, agentString, "Browser-MobileSafari", "mobile/");
+                if (m.contains("opera mini/")) {
+                    analyze(ua, m, browserName, "opera mini/", 3, true);
+                } else if (m.contains("opr/")) {
+                    analyze(ua, m, browserName, "opr/", 4, true);
+                } else if (m.contains("version/")) {
+                    analyze(ua, m, browserName, "version/", 3, true);
+                } else if (m.contains("opera/")) {
+                    ua.addName("BrowserEngine-Presto");
+                    analyze(ua, m, browserName, "opera/", 3, true);
                 } else {
-                    analyze(ua, agentString, "Browser-MobileSafari", "version/");
+                    analyze(ua, m, "Browser-OperaDesktop", m.contains("version/") ? "version/" : "opera/", 3, true);
                 }
-            } else {
-                analyze(ua, agentString, "Browser-DesktopSafari", "version/");
             }
+        },
+
+        /**
+         * iCab 4 uses the WebKit rendering engine, although the user agent string does not advertise that.
+         */
+        ICAB_ENGINE {
+            public void apply(UserAgent ua, KeywordMatches m) {
+                if (ua.hasName("Browser-iCab-4")) {
+                    ua.addName("BrowserEngine-WebKit");
+                }
+            }
+        },
 
-            // Netscape (again)
-        } else if (agentString.contains("netscape6")) {
-            analyze(ua, agentString, "Browser-Netscape", "netscape6/");
-            ua.addName("Browser-Netscape");
-            ua.addName("Browser-Netscape-6");
-            ua.addName("BrowserEngine-Gecko");
-        } else if (agentString.contains("netscape")) {
-            analyze(ua, agentString, "Browser-Netscape", "netscape/", 3, true);
-            ua.addName("BrowserEngine-Gecko");
-
-            // Internet Explorer
-        } else if (agentString.contains("msie") || agentString.contains("(ie ") || agentString.contains("chromeframe")) {
-            ua.addName("Browser-MSIE");
-
-            // Mobile IE
-            if (agentString.contains("iemobile/")) {
-                analyze(ua, agentString, "Browser-MobileMSIE", "iemobile/", 3, true);
-            } else if (agentString.contains("iemobile")) {
-                analyze(ua, agentString, "Browser-MobileMSIE", "iemobile ", 3, true);
-            } else if (ua.hasName("BrowserOS-Windows-Mobile")) {
-                ua.addName("Browser-MobileMSIE");
-            } else {
-                analyze(ua, agentString, "Browser-DesktopMSIE", agentString.contains("msie ") ? "msie " : "(ie ", 3, true);
+        MOBILE_SAFARI {
+            public void apply(UserAgent ua, KeywordMatches m) {
+                if (MOBILE_SAFARI_VERSION_PATTERN.matcher(m.getText()).find()) {
+                    analyze(ua, m, "Browser-MobileSafari", "mobile/");
+                } else {
+                    analyze(ua, m, "Browser-MobileSafari", "version/");
+                }
+            }
+        },
+
+        /**
+         * Internet Explorer, other than the mobile versions that identify themselves as such.
+         */
+        MSIE_OTHER {
+            public void apply(UserAgent ua, KeywordMatches m) {
+                if (ua.hasName("BrowserOS-Windows-Mobile")) {
+                    ua.addName("Browser-MobileMSIE");
+                } else {
+                    analyze(ua, m, "Browser-DesktopMSIE", m.contains("msie ") ? "msie " : "(ie ", 3, true);
 
-                // Chrome Frame
-                if (agentString.contains("chromeframe")) {
-                    analyze(ua, agentString, "BrowserEngine-ChromeFrame", "chromeframe/", 4, false);
+                    // Chrome Frame
+                    if (m.contains("chromeframe")) {
+                        analyze(ua, m, "BrowserEngine-ChromeFrame", "chromeframe/", 4, false);
+                    }
                 }
             }
+        },
 
-            // NCSA Mosaic
-        } else if (agentString.startsWith("ncsa_mosaic") || agentString.startsWith("ncsa mosaic")) {
-            analyze(ua, agentString.replace('_', ' '), "Browser-Mosaic", "ncsa mosaic/", 2, true);
-
-            // Netscape 1, 2, 3, 4
-        } else if (!agentString.contains("(compatible") && TextUtils.matches(agentString, "mozilla\\/[1234]")) {
-            analyze(ua, agentString, "Browser-Netscape", "mozilla/", 3, true);
-            
-            // Internet Explorer, as of version 11
-        } else if (agentString.contains("trident/") && agentString.contains("rv")) {
-        	ua.addName("Browser-MSIE");
-                if (agentString.contains("rv ")) {
-        	    analyze(ua, agentString, "Browser-DesktopMSIE", "rv ", 3, true);
-        	    analyze(ua, agentString, "BrowserEngine-Trident-MSIE", "rv ", 2, true); // TODO: Move elsewhere
-                } else if (agentString.contains("rv:")) {
-        	    analyze(ua, agentString, "Browser-DesktopMSIE", "rv:", 3, true);
-        	    analyze(ua, agentString, "BrowserEngine-Trident-MSIE", "rv:", 2, true); // TODO: Move elsewhere
+        MOSAIC {
+            public void apply(UserAgent ua, KeywordMatches m) {
+                analyzeVersion(ua, m.getText(), Math.max(versionIndex(m, "ncsa mosaic/"), versionIndex(m, "ncsa_mosaic/")), "Browser-Mosaic", 2, true, ' ');
+            }
+        },
+
+        MSIE_11 {
+            public void apply(UserAgent ua, KeywordMatches m) {
+                if (m.contains("rv ")) {
+                    analyze(ua, m, "Browser-DesktopMSIE", "rv ", 3, true);
+                    analyze(ua, m, "BrowserEngine-Trident-MSIE", "rv ", 2, true); // TODO: Move elsewhere
+                } else if (m.contains("rv:")) {
+                    analyze(ua, m, "Browser-DesktopMSIE", "rv:", 3, true);
+                    analyze(ua, m, "BrowserEngine-Trident-MSIE", "rv:", 2, true); // TODO: Move elsewhere
                 }
+            }
+        };
 
+        static Map<String, RuleHandler> byName() {
+            Map<String, RuleHandler> handlers = new HashMap<String, RuleHandler>();
+            for (RuleHandler handler : values()) {
+                handlers.put(handler.name(), handler);
+            }
+            return handlers;
         }
     }
 
-    private static final void analyze(UserAgent ua, String agentString, String basicName, String versionPrefix) {
-        analyze(ua, agentString, basicName, versionPrefix, 3, false);
+    private static final void analyze(UserAgent ua, KeywordMatches m, String basicName, String versionPrefix) {
+        analyze(ua, m, basicName, versionPrefix, 3, false);
     }
 
-    private static final void analyze(UserAgent ua, String agentString, String basicName, String versionPrefix, int minVersionParts, boolean splitSecondVersionPart) {
-
-        versionPrefix = versionPrefix.toLowerCase();
-
-        // First add the basic name
-        ua.addName(basicName);
+    private static final void analyze(UserAgent ua, KeywordMatches m, String basicName, String versionPrefix, int minVersionParts, boolean splitSecondVersionPart) {
+        analyzeVersion(ua, m.getText(), versionIndex(m, versionPrefix), basicName, minVersionParts, splitSecondVersionPart, '_');
+    }
 
-        // Find the location of the version number after the prefix
-        int index = agentString.indexOf(versionPrefix);
-        if (index >= 0) {
+    /**
+     * Determines where the version number after the specified prefix starts.
+     *
+     * @return the index right after the first occurrence of the prefix, or -1 if the prefix was not found.
+     */
+    private static final int versionIndex(KeywordMatches m, String versionPrefix) {
+        int index = m.indexOf(versionPrefix);
+        return index < 0 ? -1 : index + versionPrefix.length();
+    }
 
-            // Get the version number in a string
-            String version = cutVersionEnd(agentString.substring(index + versionPrefix.length()).trim());
+    /**
+     * Determines where the iOS version number starts: after the first <code>"os "</code> that is not part of <code>"mac os x"</code>.
+     * Occurrences of <code>"mac os x"</code> are skipped entirely, so they cannot precede the version number either.
+     *
+     * @return the index of the version number, or -1 if not found.
+     */
+    private static final int iOSVersionIndex(CharSequence agentString) {
+        int length = agentString.length();
+        char previous1 = 0;
+        char previous2 = 0;
+        int i = 0;
+        while (i < length) {
+            if (KeywordMatches.regionMatches(agentString, i, "mac os x")) {
+                i += 8;
+            } else {
+                char c = KeywordMatches.toLowerCase(agentString.charAt(i++));
+                if (previous2 == 'o' && previous1 == 's' && c == ' ') {
+                    while (i < length && (agentString.charAt(i) <= ' ' || KeywordMatches.regionMatches(agentString, i, "mac os x"))) {
+                        i += agentString.charAt(i) <= ' ' ? 1 : 8;
+                    }
+                    return i;
+                }
+                previous2 = previous1;
+                previous1 = c;
+            }
+        }
+        return -1;
+    }
 
-            if (version.length() > 0 && !version.startsWith("00")) {
+    /**
+     * Adds the basic name and the names for the version number that starts at the specified index, if any. For example, for the basic name
+     * <code>"Browser-Firefox"</code> and the version number <code>"3.6"</code>, with <code>minVersionParts == 3</code>, this adds
+     * <code>"Browser-Firefox"</code>, <code>"Browser-Firefox-3"</code>, <code>"Browser-Firefox-3-6"</code> and
+     * <code>"Browser-Firefox-3-6-0"</code>.
+     * <p>
+     * The version number is parsed in place. The names for the version number are not created: they are added as a single version ladder, see
+     * {@link UserAgent#addVersionLadder(String, String)}.
+     *
+     * @param ua
+     *        the user agent to add the names to, cannot be <code>null</code>.
+     * @param agentString
+     *        the string that contains the version number, cannot be <code>null</code>.
+     * @param index
+     *        the index where the version number starts, possibly preceded by white space; or a negative number to only add the basic name.
+     * @param basicName
+     *        the basic name, cannot be <code>null</code>.
+     * @param minVersionParts
+     *        the minimum number of version parts to add names for, missing parts are considered to be zero.
+     * @param splitSecondVersionPart
+     *        if <code>true</code> and the version number has exactly two parts, then each digit of the second part is considered a separate part;
+     *        for example, <code>"5.12"</code> is then treated as <code>"5.1.2"</code>.
+     * @param underscoreReplacement
+     *        the character to treat underscores as, e.g. <code>'.'</code> for <code>"10_8_2"</code>; <code>'_'</code> to leave them as-is.
+     */
+    static final void analyzeVersion(UserAgent ua, CharSequence agentString, int index, String basicName, int minVersionParts, boolean splitSecondVersionPart, char underscoreReplacement) {
+        ua.addName(basicName);
+        analyzeVersionNumber(ua, agentString, index, basicName, minVersionParts, splitSecondVersionPart, underscoreReplacement);
+    }
 
-                // Split the version number in pieces
-                String[] versionParts = version.split("\\.");
+    /**
+     * Adds the names for the version number that starts at the specified index, if any, but not the basic name itself. See
+     * {@link #analyzeVersion(UserAgent, CharSequence, int, String, int, boolean, char)}, for callers that have already added the basic name.
+     */
+    static final void analyzeVersionNumber(UserAgent ua, CharSequence agentString, int index, String basicName, int minVersionParts, boolean splitSecondVersionPart, char underscoreReplacement) {
+        if (index < 0) {
+            return;
+        }
 
-                // First version part can always be done immediately
-                String specificName = basicName + '-' + versionParts[0];
-                ua.addName(specificName);
+        // Skip white space, then find the end of the version number
+        int length = agentString.length();
+        int start = index;
+        while (start < length && versionChar(agentString.charAt(start), underscoreReplacement) <= ' ') {
+            start++;
+        }
+        int end = start;
+        int versionPartCount = 1;
+        while (end < length) {
+            char c = versionChar(agentString.charAt(end), underscoreReplacement);
+            if (c == '.') {
+                versionPartCount++;
+            } else if (!Character.isDigit(c)) {
+                break;
+            }
+            end++;
+        }
 
-                int versionPartsFound;
-                if (splitSecondVersionPart && versionParts.length == 2) {
-                    versionPartsFound = 1;
+        // Ignore trailing dots
+        while (end > start && versionChar(agentString.charAt(end - 1), underscoreReplacement) == '.') {
+            end--;
+            versionPartCount--;
+        }
+        if (end == start || (agentString.charAt(start) == '0' && start + 1 < length && agentString.charAt(start + 1) == '0')) {
+            return;
+        }
 
-                    String secondVersionPart = versionParts[1];
-                    for (int i = 0; i < secondVersionPart.length(); i++) {
-                        specificName += "-" + secondVersionPart.charAt(i);
-                        ua.addName(specificName);
-                        versionPartsFound++;
-                    }
-                } else {
-                    for (int i = 1; i < versionParts.length; i++) {
-                        if (TextUtils.matches(versionParts[i], "^0[0-9]")) {
-                            specificName += '-' + "0";
-                            ua.addName(specificName);
-                            versionParts[i] = versionParts[i].substring(1);
-                        }
-
-                        specificName += '-' + versionParts[i];
-                        ua.addName(specificName);
-                    }
-                    versionPartsFound = versionParts.length;
+        // First version part can always be done immediately
+        StringBuilder version = new StringBuilder(2 * (end - start + minVersionParts));
+        int partEnd = versionPartEnd(agentString, start, end, underscoreReplacement);
+        version.append(agentString, start, partEnd);
+
+        int versionPartsFound;
+        if (splitSecondVersionPart && versionPartCount == 2) {
+            versionPartsFound = 1;
+            for (int i = partEnd + 1; i < end; i++) {
+                version.append('-').append(agentString.charAt(i));
+                versionPartsFound++;
+            }
+        } else {
+            for (int part = 1; part < versionPartCount; part++) {
+                int partStart = partEnd + 1;
+                partEnd = versionPartEnd(agentString, partStart, end, underscoreReplacement);
+
+                // A leading zero is a separate part, e.g. "9.1.0285" gives 9-1-0-285
+                if (partEnd - partStart > 1 && agentString.charAt(partStart) == '0' && isASCIIDigit(agentString.charAt(partStart + 1))) {
+                    version.append("-0");
+                    partStart++;
                 }
 
-                for (int i = versionPartsFound; i < minVersionParts; i++) {
-                    specificName += "-0";
-                    ua.addName(specificName);
-                }
+                version.append('-').append(agentString, partStart, partEnd);
             }
+            versionPartsFound = versionPartCount;
         }
+
+        for (int i = versionPartsFound; i < minVersionParts; i++) {
+            version.append("-0");
+        }
+        String versionString = version.toString();
+        ua.addVersionLadder(basicName, versionString);
+        ua.addVersion(basicName, versionString);
     }
 
-    private static final String cutVersionEnd(String s) {
-        String result = "";
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (Character.isDigit(c) || c == '.') {
-                result += c;
-            } else {
-                break;
-            }
+    private static final int versionPartEnd(CharSequence agentString, int start, int end, char underscoreReplacement) {
+        int i = start;
+        while (i < end && versionChar(agentString.charAt(i), underscoreReplacement) != '.') {
+            i++;
         }
+        return i;
+    }
 
-        return result;
+    private static final char versionChar(char c, char underscoreReplacement) {
+        return c == '_' ? underscoreReplacement : c;
+    }
+
+    private static final boolean isASCIIDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 }
@@ -0,0 +1,429 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics for the {@link Sniffer}: call counts, latency histograms per detection stage, the mix of device classes and the
+ * {@link UserAgentCache} hit and miss counts.
+ * <p>
+ * Metrics are disabled by default; enable them with {@link #setEnabled(boolean)}, via JMX, or by starting the JVM with
+ * <code>-Dorg.znerd.uasniffer.metrics=true</code>. While disabled, the only cost per analysis is a single check of a volatile field.
+ * <p>
+ * Example use:
+ *
+ * <pre>
+ * SnifferMetrics metrics = SnifferMetrics.getInstance();
+ * metrics.setEnabled(true);
+ * metrics.registerMBean();
+ * ...
+ * SnifferMetrics.Snapshot snapshot = metrics.getSnapshot();
+ * </pre>
+ */
+public final class SnifferMetrics implements SnifferMetricsMXBean {
+
+    /**
+     * The name under which the metrics are registered with JMX.
+     */
+    public static final String OBJECT_NAME = "org.znerd.uasniffer:type=SnifferMetrics";
+
+    /**
+     * The stages of {@link Sniffer#analyze(String)} that are timed separately.
+     */
+    public enum Stage {
+
+        /**
+         * Device classification, including the device-specific names.
+         */
+        DEVICE,
+
+        /**
+         * Operating system detection.
+         */
+        OS,
+
+        /**
+         * Browser engine detection.
+         */
+        ENGINE,
+
+        /**
+         * Browser detection.
+         */
+        BROWSER
+    }
+
+    /**
+     * Number of histogram buckets; bucket <em>i</em> counts durations of less than 2<sup><em>i</em></sup> nanoseconds that did not fit in
+     * bucket <em>i</em> - 1. The last bucket also counts all longer durations.
+     */
+    static final int BUCKET_COUNT = 40;
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private static final SnifferMetrics INSTANCE = new SnifferMetrics(Boolean.getBoolean("org.znerd.uasniffer.metrics"));
+
+    SnifferMetrics(boolean enabled) {
+        _enabled = enabled;
+        _histograms = new Histogram[STAGES.length];
+        for (int i = 0; i < _histograms.length; i++) {
+            _histograms[i] = new Histogram();
+        }
+    }
+
+    private volatile boolean _enabled;
+    private final AtomicLong _callCount = new AtomicLong();
+    private final AtomicLong _deviceOnlyCallCount = new AtomicLong();
+    private final AtomicLongArray _deviceClassCounts = new AtomicLongArray(DeviceClass.values().length);
+    private final AtomicLong _cacheHitCount = new AtomicLong();
+    private final AtomicLong _cacheMissCount = new AtomicLong();
+    private final Histogram[] _histograms;
+
+    /**
+     * Returns the metrics for this JVM (or rather, for this class loader).
+     *
+     * @return the metrics, never <code>null</code>.
+     */
+    public static SnifferMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the metrics if they are enabled.
+     *
+     * @return the metrics, or <code>null</code> if they are disabled.
+     */
+    static SnifferMetrics active() {
+        SnifferMetrics metrics = INSTANCE;
+        return metrics._enabled ? metrics : null;
+    }
+
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        _enabled = enabled;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, under the name {@value #OBJECT_NAME}. Does nothing if they are already registered.
+     *
+     * @return the object name, never <code>null</code>.
+     * @throws IllegalStateException
+     *         if registration fails.
+     */
+    public ObjectName registerMBean() throws IllegalStateException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                try {
+                    server.registerMBean(this, name);
+                } catch (InstanceAlreadyExistsException e) {
+                    // registered concurrently
+                }
+            }
+            return name;
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register " + OBJECT_NAME + '.', e);
+        }
+    }
+
+    void recordCall(int deviceClasses) {
+        _callCount.incrementAndGet();
+        recordDeviceClasses(deviceClasses);
+    }
+
+    void recordDeviceOnlyCall(int deviceClasses) {
+        _deviceOnlyCallCount.incrementAndGet();
+        recordDeviceClasses(deviceClasses);
+    }
+
+    private void recordDeviceClasses(int deviceClasses) {
+        for (int i = 0; i < _deviceClassCounts.length(); i++) {
+            if ((deviceClasses & (1 << i)) != 0) {
+                _deviceClassCounts.incrementAndGet(i);
+            }
+        }
+    }
+
+    void recordStage(Stage stage, long nanos) {
+        _histograms[stage.ordinal()].record(nanos);
+    }
+
+    void recordCacheLookup(boolean hit) {
+        (hit ? _cacheHitCount : _cacheMissCount).incrementAndGet();
+    }
+
+    public Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    public long getCallCount() {
+        return _callCount.get();
+    }
+
+    public long getBotCount() {
+        return getDeviceClassCount(DeviceClass.BOT);
+    }
+
+    public long getMobileCount() {
+        return getDeviceClassCount(DeviceClass.MOBILE);
+    }
+
+    public long getDesktopCount() {
+        return getDeviceClassCount(DeviceClass.DESKTOP);
+    }
+
+    private long getDeviceClassCount(DeviceClass deviceClass) {
+        return _deviceClassCounts.get(deviceClass.ordinal());
+    }
+
+    public long getCacheHitCount() {
+        return _cacheHitCount.get();
+    }
+
+    public long getCacheMissCount() {
+        return _cacheMissCount.get();
+    }
+
+    public void reset() {
+        _callCount.set(0L);
+        _deviceOnlyCallCount.set(0L);
+        for (int i = 0; i < _deviceClassCounts.length(); i++) {
+            _deviceClassCounts.set(i, 0L);
+        }
+        _cacheHitCount.set(0L);
+        _cacheMissCount.set(0L);
+        for (Histogram histogram : _histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Histogram of durations, with power-of-two buckets.
+     */
+    private static final class Histogram {
+
+        private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong _totalNanos = new AtomicLong();
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, 0L);
+            _buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKET_COUNT - 1));
+            _totalNanos.addAndGet(nanos);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                _buckets.set(i, 0L);
+            }
+            _totalNanos.set(0L);
+        }
+    }
+
+    /**
+     * Point-in-time copy of the metrics. The counters are read one by one while analysis may continue in other threads, so they can be slightly
+     * inconsistent with each other.
+     */
+    public static final class Snapshot {
+
+        Snapshot(SnifferMetrics metrics) {
+            _callCount = metrics._callCount.get();
+            _deviceOnlyCallCount = metrics._deviceOnlyCallCount.get();
+            _deviceClassCounts = new long[metrics._deviceClassCounts.length()];
+            for (int i = 0; i < _deviceClassCounts.length; i++) {
+                _deviceClassCounts[i] = metrics._deviceClassCounts.get(i);
+            }
+            _cacheHitCount = metrics._cacheHitCount.get();
+            _cacheMissCount = metrics._cacheMissCount.get();
+            _stages = new StageSnapshot[STAGES.length];
+            for (int i = 0; i < _stages.length; i++) {
+                _stages[i] = new StageSnapshot(STAGES[i], metrics._histograms[i]);
+            }
+        }
+
+        private final long _callCount;
+        private final long _deviceOnlyCallCount;
+        private final long[] _deviceClassCounts;
+        private final long _cacheHitCount;
+        private final long _cacheMissCount;
+        private final StageSnapshot[] _stages;
+
+        /**
+         * Returns the number of calls to {@link Sniffer#analyze(String)} and its overloads.
+         *
+         * @return the call count.
+         */
+        public long getCallCount() {
+            return _callCount;
+        }
+
+        /**
+         * Returns the number of calls to {@link Sniffer#analyzeDevice(String)}.
+         *
+         * @return the call count.
+         */
+        public long getDeviceOnlyCallCount() {
+            return _deviceOnlyCallCount;
+        }
+
+        /**
+         * Returns the number of analyzed user agents in the specified device class, by both {@link Sniffer#analyze(String)} and
+         * {@link Sniffer#analyzeDevice(String)}.
+         *
+         * @param deviceClass
+         *        the device class, cannot be <code>null</code>.
+         * @return the count.
+         */
+        public long count(DeviceClass deviceClass) {
+            return _deviceClassCounts[deviceClass.ordinal()];
+        }
+
+        public long getBotCount() {
+            return count(DeviceClass.BOT);
+        }
+
+        public long getMobileCount() {
+            return count(DeviceClass.MOBILE);
+        }
+
+        public long getTabletCount() {
+            return count(DeviceClass.TABLET);
+        }
+
+        public long getDesktopCount() {
+            return count(DeviceClass.DESKTOP);
+        }
+
+        public long getPhoneCount() {
+            return count(DeviceClass.PHONE);
+        }
+
+        public long getCacheHitCount() {
+            return _cacheHitCount;
+        }
+
+        public long getCacheMissCount() {
+            return _cacheMissCount;
+        }
+
+        /**
+         * Returns the latency metrics for the specified stage.
+         *
+         * @param stage
+         *        the stage, cannot be <code>null</code>.
+         * @return the metrics, never <code>null</code>.
+         */
+        public StageSnapshot stage(Stage stage) {
+            return _stages[stage.ordinal()];
+        }
+
+        public StageSnapshot getDeviceStage() {
+            return stage(Stage.DEVICE);
+        }
+
+        public StageSnapshot getOSStage() {
+            return stage(Stage.OS);
+        }
+
+        public StageSnapshot getEngineStage() {
+            return stage(Stage.ENGINE);
+        }
+
+        public StageSnapshot getBrowserStage() {
+            return stage(Stage.BROWSER);
+        }
+    }
+
+    /**
+     * Point-in-time copy of the latency histogram of a single stage.
+     */
+    public static final class StageSnapshot {
+
+        StageSnapshot(Stage stage, Histogram histogram) {
+            _stage = stage;
+            _bucketCounts = new long[BUCKET_COUNT];
+            long count = 0L;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                _bucketCounts[i] = histogram._buckets.get(i);
+                count += _bucketCounts[i];
+            }
+            _count = count;
+            _totalNanos = histogram._totalNanos.get();
+        }
+
+        private final Stage _stage;
+        private final long _count;
+        private final long _totalNanos;
+        private final long[] _bucketCounts;
+
+        public Stage getStage() {
+            return _stage;
+        }
+
+        /**
+         * Returns the number of times this stage was timed.
+         *
+         * @return the count.
+         */
+        public long getCount() {
+            return _count;
+        }
+
+        public long getTotalNanos() {
+            return _totalNanos;
+        }
+
+        public long getMeanNanos() {
+            return _count == 0L ? 0L : _totalNanos / _count;
+        }
+
+        /**
+         * Returns the number of durations in each histogram bucket; bucket <em>i</em> counts the durations <em>d</em> with
+         * 2<sup><em>i</em>-1</sup> &lt;= <em>d</em> &lt; 2<sup><em>i</em></sup> nanoseconds, bucket 0 the durations of 0 nanoseconds.
+         *
+         * @return a copy of the bucket counts, never <code>null</code>.
+         */
+        public long[] getBucketCounts() {
+            return _bucketCounts.clone();
+        }
+
+        /**
+         * Estimates a percentile of the durations, as the upper bound of the histogram bucket it falls in; so the estimate is at most twice the
+         * actual value.
+         *
+         * @param percentile
+         *        the percentile, between 0 and 100.
+         * @return the estimated duration in nanoseconds, or 0 if nothing was recorded.
+         */
+        public long percentileNanos(double percentile) {
+            long threshold = (long) Math.ceil(_count * percentile / 100.0);
+            long cumulative = 0L;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                cumulative += _bucketCounts[i];
+                if (cumulative >= threshold && cumulative > 0L) {
+                    return i == 0 ? 0L : (1L << i) - 1L;
+                }
+            }
+            return 0L;
+        }
+
+        public long getP50Nanos() {
+            return percentileNanos(50.0);
+        }
+
+        public long getP99Nanos() {
+            return percentileNanos(99.0);
+        }
+    }
+}
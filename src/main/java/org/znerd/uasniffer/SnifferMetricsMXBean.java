@@ -0,0 +1,79 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+/**
+ * JMX management interface of {@link SnifferMetrics}. The snapshot is exposed as composite data; the most important counters are also exposed
+ * as simple attributes, for monitoring tools that cannot look into composite data.
+ */
+public interface SnifferMetricsMXBean {
+
+    /**
+     * Determines if metrics are currently being collected.
+     *
+     * @return <code>true</code> if enabled, <code>false</code> otherwise.
+     */
+    boolean isEnabled();
+
+    /**
+     * Enables or disables the collection of metrics. Disabling does not reset the metrics collected so far.
+     *
+     * @param enabled
+     *        <code>true</code> to enable, <code>false</code> to disable.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Returns a snapshot of all metrics.
+     *
+     * @return the snapshot, never <code>null</code>.
+     */
+    SnifferMetrics.Snapshot getSnapshot();
+
+    /**
+     * Returns the number of calls to {@link Sniffer#analyze(String)} and its overloads.
+     *
+     * @return the call count.
+     */
+    long getCallCount();
+
+    /**
+     * Returns the number of analyzed user agents that are bots.
+     *
+     * @return the bot count.
+     */
+    long getBotCount();
+
+    /**
+     * Returns the number of analyzed user agents that are mobile devices.
+     *
+     * @return the mobile count.
+     */
+    long getMobileCount();
+
+    /**
+     * Returns the number of analyzed user agents that are desktop devices.
+     *
+     * @return the desktop count.
+     */
+    long getDesktopCount();
+
+    /**
+     * Returns the number of {@link UserAgentCache} lookups that were answered from a cache.
+     *
+     * @return the cache hit count.
+     */
+    long getCacheHitCount();
+
+    /**
+     * Returns the number of {@link UserAgentCache} lookups that required analysis.
+     *
+     * @return the cache miss count.
+     */
+    long getCacheMissCount();
+
+    /**
+     * Resets all metrics to zero.
+     */
+    void reset();
+}
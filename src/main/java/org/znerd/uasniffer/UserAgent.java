@@ -1,7 +1,13 @@
 // Copyright 2011, Ernst de Haan
 package org.znerd.uasniffer;
 
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.znerd.util.Preconditions;
@@ -27,27 +33,230 @@ import org.znerd.util.Preconditions;
  * <li>BrowserOS-Windows-NT-6-0
  * <li>BrowserOS-Windows-Vista
  * </ul>
+ * <p>
+ * Once returned from the {@link Sniffer}, a <code>UserAgent</code> object is immutable and can safely be shared between threads, for example
+ * via a {@link UserAgentCache}.
+ * <p>
+ * To keep the memory footprint small, names are not stored as strings, but as IDs from the {@link NameRegistry}: a bitset for the fixed names and
+ * a sorted array for the dynamically registered ones. Only names that did not fit in the registry are stored as strings, and the name strings
+ * are only looked up when the set returned by {@link #getNames()} is iterated. The names for a version number, like
+ * <code>"Browser-DesktopMSIE-7"</code>, <code>"Browser-DesktopMSIE-7-0"</code> and <code>"Browser-DesktopMSIE-7-0-0"</code>, are not stored at
+ * all: only the basic name and the version number are, and {@link #hasName(String)} and {@link #hasVersionAtLeast(String, int...)} answer
+ * from those, without creating strings.
+ * <p>
+ * The most commonly needed information is also available in typed form, filled in during analysis: the device classes, the browser family,
+ * operating system family and browser engine, each with its major, minor and patch version. For example, for the agent string above,
+ * {@link #getBrowser()} returns {@link Browser#MSIE} and {@link #getBrowserMajorVersion()} returns 7.
  */
 public final class UserAgent {
 
     UserAgent(String agentString) throws IllegalArgumentException {
-        Preconditions.checkArgument(agentString == null, "agentString == null");
-        _names = new HashSet<String>();
-        _string = agentString;
-        _stringLC = agentString.toLowerCase();
+        this((CharSequence) agentString);
+    }
+
+    /**
+     * Constructs a new <code>UserAgent</code> for the specified agent text. The text must not change afterwards; if it is not a
+     * <code>String</code>, the agent string is only created when {@link #getAgentString()} is first called.
+     */
+    UserAgent(CharSequence agentText) throws IllegalArgumentException {
+        Preconditions.checkArgument(agentText == null, "agentString == null");
+        _nameBits = new long[(NameRegistry.getFixedNameCount() + 63) >>> 6];
+        _types = new int[COMPONENT_COUNT * TYPE_SIZE];
+        Arrays.fill(_types, -1);
+        _text = agentText;
+        _string = agentText instanceof String ? (String) agentText : null;
+    }
+
+    /**
+     * Constructs a new <code>UserAgent</code> for the specified agent string, with the same names and typed result as another one.
+     */
+    UserAgent(String agentString, UserAgent source) throws IllegalArgumentException {
+        this(agentString);
+        System.arraycopy(source._nameBits, 0, _nameBits, 0, _nameBits.length);
+        System.arraycopy(source._types, 0, _types, 0, _types.length);
+        _dynamicNameIDs = copyOf(source._dynamicNameIDs, source._dynamicNameCount);
+        _dynamicNameCount = source._dynamicNameCount;
+        _overflowNames = copyOf(source._overflowNames, source._overflowNameCount);
+        _overflowNameCount = source._overflowNameCount;
+        _ladderNames = copyOf(source._ladderNames, source._ladderCount);
+        _ladderVersions = copyOf(source._ladderVersions, source._ladderCount);
+        _ladderCount = source._ladderCount;
+        _ladderNameCount = source._ladderNameCount;
+        _namesAsString = source._namesAsString;
+    }
+
+    private static final int[] NO_IDS = new int[0];
+    private static final String[] NO_NAMES = new String[0];
+
+    // Components of the typed result, see _types
+    private static final int BROWSER = 0;
+    private static final int OPERATING_SYSTEM = 1;
+    private static final int BROWSER_ENGINE = 2;
+    private static final int COMPONENT_COUNT = 3;
+
+    // Offsets within a component in _types
+    private static final int FAMILY = 0;
+    private static final int MAJOR = 1;
+    private static final int MINOR = 2;
+    private static final int PATCH = 3;
+    private static final int VERSION_FAMILY = 4;
+    private static final int VERSION_RANK = 5;
+    private static final int TYPE_SIZE = 6;
+
+    /**
+     * Number of values that describe the typed result, see {@link #getTypeValue(int)}.
+     */
+    static final int TYPE_VALUE_COUNT = COMPONENT_COUNT * (PATCH + 1);
+
+    private static final Browser[] BROWSERS = Browser.values();
+    private static final OperatingSystem[] OPERATING_SYSTEMS = OperatingSystem.values();
+    private static final BrowserEngine[] BROWSER_ENGINES = BrowserEngine.values();
+    private static final DeviceClass[] DEVICE_CLASSES = DeviceClass.values();
+    private static final BotFamily[] BOT_FAMILIES = BotFamily.values();
+
+    /**
+     * Per component, per family: the IDs of the fixed names that identify the family.
+     */
+    private static final int[][][] FAMILY_IDS = new int[COMPONENT_COUNT][][];
+
+    /**
+     * The names with a version that is used in the typed result, each with its component, family and rank within the family (0 is most
+     * preferred).
+     */
+    private static final Map<String, int[]> VERSION_SOURCES = new HashMap<String, int[]>();
+
+    private static final int[] DEVICE_CLASS_IDS = new int[DEVICE_CLASSES.length];
+
+    static {
+        String[][] names = new String[BROWSERS.length][];
+        for (Browser browser : BROWSERS) {
+            names[browser.ordinal()] = concat(browser.getName(), browser.versionNames());
+        }
+        registerFamilies(BROWSER, names);
+
+        names = new String[OPERATING_SYSTEMS.length][];
+        for (OperatingSystem os : OPERATING_SYSTEMS) {
+            names[os.ordinal()] = concat(os.getName(), os.versionNames());
+        }
+        registerFamilies(OPERATING_SYSTEM, names);
+
+        names = new String[BROWSER_ENGINES.length][];
+        for (BrowserEngine engine : BROWSER_ENGINES) {
+            names[engine.ordinal()] = concat(engine.getName(), engine.versionNames());
+        }
+        registerFamilies(BROWSER_ENGINE, names);
+
+        for (DeviceClass deviceClass : DEVICE_CLASSES) {
+            DEVICE_CLASS_IDS[deviceClass.ordinal()] = fixedNameID(deviceClass.getName());
+        }
+    }
+
+    private static String[] concat(String name, String[] versionNames) {
+        String[] result = new String[versionNames.length + 1];
+        result[0] = name;
+        System.arraycopy(versionNames, 0, result, 1, versionNames.length);
+        return result;
+    }
+
+    /**
+     * Registers the families of a component. For each family, the first name is the family name and the others are the version names.
+     */
+    private static void registerFamilies(int component, String[][] names) {
+        FAMILY_IDS[component] = new int[names.length][];
+        for (int family = 0; family < names.length; family++) {
+            FAMILY_IDS[component][family] = new int[names[family].length];
+            for (int i = 0; i < names[family].length; i++) {
+                FAMILY_IDS[component][family][i] = fixedNameID(names[family][i]);
+                if (i > 0 && !VERSION_SOURCES.containsKey(names[family][i])) {
+                    VERSION_SOURCES.put(names[family][i], new int[] { component, family, i - 1 });
+                }
+            }
+        }
+    }
+
+    private static int fixedNameID(String name) {
+        int id = NameRegistry.getID(name);
+        if (id < 0 || id >= NameRegistry.getFixedNameCount()) {
+            throw new IllegalStateException("\"" + name + "\" is not a fixed name.");
+        }
+        return id;
     }
 
-    private final HashSet<String> _names;
-    private final String _string;
-    private final String _stringLC;
+    /**
+     * Bitset of the fixed names, indexed by name ID.
+     */
+    private final long[] _nameBits;
+
+    /**
+     * Sorted IDs of the dynamically registered names, the first <code>_dynamicNameCount</code> elements are used.
+     */
+    private int[] _dynamicNameIDs = NO_IDS;
+    private int _dynamicNameCount;
+
+    /**
+     * Names that could not be registered, the first <code>_overflowNameCount</code> elements are used.
+     */
+    private String[] _overflowNames = NO_NAMES;
+    private int _overflowNameCount;
+
+    /**
+     * Version ladders: per ladder a basic name and a version number, like <code>"Browser-Firefox"</code> and <code>"3-6-0"</code>, which stand for
+     * the names <code>"Browser-Firefox-3"</code>, <code>"Browser-Firefox-3-6"</code> and <code>"Browser-Firefox-3-6-0"</code>. The first
+     * <code>_ladderCount</code> elements are used.
+     */
+    private String[] _ladderNames = NO_NAMES;
+    private String[] _ladderVersions = NO_NAMES;
+    private int _ladderCount;
+
+    /**
+     * Number of distinct names the ladders stand for that are not stored otherwise, or -1 if not yet computed. Races are harmless: every thread
+     * computes the same number.
+     */
+    private int _ladderNameCount = -1;
+
+    /**
+     * The result of {@link #getNamesAsString()}, or <code>null</code> if not yet computed. Races are harmless: every thread computes an equal,
+     * immutable string.
+     */
+    private String _namesAsString;
+
+    /**
+     * The ordinal of the result of {@link #getBotFamily()}, <code>NOT_A_BOT</code>, or <code>UNKNOWN</code> if not yet computed. Races are
+     * harmless: every thread computes the same family.
+     */
+    private int _botFamily = UNKNOWN;
+
+    private static final int UNKNOWN = -2;
+    private static final int NOT_A_BOT = -1;
+
+    private final CharSequence _text;
+
+    /**
+     * The agent string, created lazily if the agent text is not a <code>String</code>. Races are harmless: every thread creates an equal,
+     * immutable string.
+     */
+    private String _string;
+
+    /**
+     * The typed result: per component (browser, operating system, browser engine) the family ordinal, the major, minor and patch version, and
+     * while analyzing, the family and rank of the name the version was taken from; -1 if unknown.
+     */
+    private final int[] _types;
 
     @Override
     public String toString() {
-        return _string;
+        return getAgentString();
     };
 
+    /**
+     * Returns the agent text that is analyzed, without creating a string.
+     */
+    CharSequence getAgentText() {
+        return _text;
+    }
+
     String getLowerCaseAgentString() {
-        return _stringLC;
+        return getAgentString().toLowerCase();
     }
 
     /**
@@ -56,20 +265,386 @@ public final class UserAgent {
      * @return the original agent string, never <code>null</code>.
      */
     public String getAgentString() {
-        return _string;
+        String string = _string;
+        if (string == null) {
+            string = _text.toString();
+            _string = string;
+        }
+        return string;
     }
 
     void addName(String name) {
-        _names.add(name);
+        namesChanged();
+        int id = NameRegistry.register(name);
+        if (id < 0) {
+            if (!hasOverflowName(name)) {
+                if (_overflowNameCount == _overflowNames.length) {
+                    _overflowNames = copyOf(_overflowNames, _overflowNameCount + 4);
+                }
+                _overflowNames[_overflowNameCount++] = name;
+            }
+        } else if (id < NameRegistry.getFixedNameCount()) {
+            _nameBits[id >>> 6] |= 1L << id;
+        } else {
+            int index = binarySearch(_dynamicNameIDs, _dynamicNameCount, id);
+            if (index < 0) {
+                index = -(index + 1);
+                if (_dynamicNameCount == _dynamicNameIDs.length) {
+                    _dynamicNameIDs = copyOf(_dynamicNameIDs, _dynamicNameCount + 8);
+                }
+                System.arraycopy(_dynamicNameIDs, index, _dynamicNameIDs, index + 1, _dynamicNameCount - index);
+                _dynamicNameIDs[index] = id;
+                _dynamicNameCount++;
+            }
+        }
+    }
+
+    /**
+     * Returns a word of the bitset of the fixed names; bit <em>i</em> of word <em>w</em> is set if the name with ID 64 * <em>w</em> + <em>i</em>
+     * is associated with this user agent.
+     */
+    long getFixedNameBits(int word) {
+        return _nameBits[word];
+    }
+
+    /**
+     * Adds the fixed names in the specified word of a bitset, see {@link #getFixedNameBits(int)}.
+     */
+    void addFixedNameBits(int word, long bits) {
+        _nameBits[word] |= bits;
+        namesChanged();
+    }
+
+    /**
+     * Adds a version ladder: the names that consist of the basic name followed by each prefix of the version number. The basic name itself is
+     * not added.
+     *
+     * @param basicName
+     *        the name without version, e.g. <code>"Browser-Firefox"</code>.
+     * @param version
+     *        the version number, with the parts separated by dashes, e.g. <code>"3-6-0"</code>.
+     */
+    void addVersionLadder(String basicName, String version) {
+        for (int i = 0; i < _ladderCount; i++) {
+            if (_ladderNames[i].equals(basicName) && _ladderVersions[i].equals(version)) {
+                return;
+            }
+        }
+        if (_ladderCount == _ladderNames.length) {
+            _ladderNames = copyOf(_ladderNames, _ladderCount + 2);
+            _ladderVersions = copyOf(_ladderVersions, _ladderCount + 2);
+        }
+        _ladderNames[_ladderCount] = basicName;
+        _ladderVersions[_ladderCount] = version;
+        _ladderCount++;
+        namesChanged();
+    }
+
+    /**
+     * Discards the values derived from the names, while analyzing.
+     */
+    private void namesChanged() {
+        _ladderNameCount = -1;
+        _namesAsString = null;
+    }
+
+    /**
+     * Returns the number of version ladders, see {@link #addVersionLadder(String, String)}.
+     */
+    int getVersionLadderCount() {
+        return _ladderCount;
+    }
+
+    /**
+     * Returns the basic name of a version ladder.
+     */
+    String getVersionLadderName(int ladder) {
+        return _ladderNames[ladder];
+    }
+
+    /**
+     * Returns the version number of a version ladder.
+     */
+    String getVersionLadderVersion(int ladder) {
+        return _ladderVersions[ladder];
+    }
+
+    /**
+     * Returns the names that are not fixed names, i.e. the dynamically registered names and those that did not fit in the registry.
+     */
+    String[] getOtherNames() {
+        String[] names = new String[_dynamicNameCount + _overflowNameCount];
+        for (int i = 0; i < _dynamicNameCount; i++) {
+            names[i] = NameRegistry.getName(_dynamicNameIDs[i]);
+        }
+        System.arraycopy(_overflowNames, 0, names, _dynamicNameCount, _overflowNameCount);
+        return names;
+    }
+
+    /**
+     * Records the version of a name, if it is used in the typed result and it is preferred over the version recorded before. Called during
+     * analysis, before {@link #resolveTypes()}.
+     *
+     * @param basicName
+     *        the name without version, e.g. <code>"Browser-DesktopMSIE"</code>.
+     * @param version
+     *        the version number, with the parts separated by dashes, e.g. <code>"7-0-0"</code>.
+     */
+    void addVersion(String basicName, String version) {
+        int[] source = VERSION_SOURCES.get(basicName);
+        if (source == null) {
+            return;
+        }
+        int base = source[0] * TYPE_SIZE;
+        int family = source[1];
+        int rank = source[2];
+        int currentFamily = _types[base + VERSION_FAMILY];
+        if (currentFamily >= 0 && (currentFamily < family || (currentFamily == family && _types[base + VERSION_RANK] <= rank))) {
+            return;
+        }
+
+        _types[base + VERSION_FAMILY] = family;
+        _types[base + VERSION_RANK] = rank;
+        int index = 0;
+        int length = version.length();
+        for (int part = MAJOR; part <= PATCH; part++) {
+            int value = -1;
+            while (index < length && version.charAt(index) >= '0' && version.charAt(index) <= '9') {
+                int digit = version.charAt(index++) - '0';
+                value = value < 0 ? digit : value > (Integer.MAX_VALUE - digit) / 10 ? Integer.MAX_VALUE : value * 10 + digit;
+            }
+            _types[base + part] = value;
+            if (value < 0 || index >= length || version.charAt(index) != '-') {
+                for (part++; part <= PATCH; part++) {
+                    _types[base + part] = -1;
+                }
+                break;
+            }
+            index++;
+        }
+    }
+
+    /**
+     * Determines the family of each component from the names, once analysis is complete. A version recorded for another family than the one
+     * determined is discarded.
+     */
+    void resolveTypes() {
+        for (int component = 0; component < COMPONENT_COUNT; component++) {
+            int base = component * TYPE_SIZE;
+            int[][] familyIDs = FAMILY_IDS[component];
+            int family = -1;
+            for (int f = 0; f < familyIDs.length && family < 0; f++) {
+                for (int id : familyIDs[f]) {
+                    if ((_nameBits[id >>> 6] & (1L << id)) != 0L) {
+                        family = f;
+                        break;
+                    }
+                }
+            }
+            _types[base + FAMILY] = family;
+            if (family < 0 || _types[base + VERSION_FAMILY] != family) {
+                _types[base + MAJOR] = -1;
+                _types[base + MINOR] = -1;
+                _types[base + PATCH] = -1;
+            }
+        }
+    }
+
+    /**
+     * Returns one of the values that describe the typed result, for storing it outside the JVM; see {@link #setTypeValue(int, int)}.
+     *
+     * @param index
+     *        the index, between 0 and {@link #TYPE_VALUE_COUNT}.
+     */
+    int getTypeValue(int index) {
+        return _types[(index / (PATCH + 1)) * TYPE_SIZE + index % (PATCH + 1)];
+    }
+
+    /**
+     * Sets one of the values that describe the typed result, as returned by {@link #getTypeValue(int)}. This replaces analysis and
+     * {@link #resolveTypes()}.
+     */
+    void setTypeValue(int index, int value) {
+        _types[(index / (PATCH + 1)) * TYPE_SIZE + index % (PATCH + 1)] = value;
+    }
+
+    /**
+     * Determines if this user agent is in the specified device class.
+     *
+     * @param deviceClass
+     *        the device class, can be <code>null</code>.
+     * @return <code>true</code> if this user agent is in the device class, i.e. has its name; <code>false</code> otherwise.
+     */
+    public boolean is(DeviceClass deviceClass) {
+        if (deviceClass == null) {
+            return false;
+        }
+        int id = DEVICE_CLASS_IDS[deviceClass.ordinal()];
+        return (_nameBits[id >>> 6] & (1L << id)) != 0L;
+    }
+
+    /**
+     * Returns the device classes of this user agent as bits, see {@link DeviceClass#bit()}.
+     */
+    int getDeviceClassBits() {
+        int bits = 0;
+        for (DeviceClass deviceClass : DEVICE_CLASSES) {
+            if (is(deviceClass)) {
+                bits |= deviceClass.bit();
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the device classes of this user agent, consistent with {@link Sniffer#analyzeDevice(String)}.
+     *
+     * @return a new set with the device classes, never <code>null</code>.
+     */
+    public EnumSet<DeviceClass> getDeviceClasses() {
+        EnumSet<DeviceClass> result = EnumSet.noneOf(DeviceClass.class);
+        for (DeviceClass deviceClass : DEVICE_CLASSES) {
+            if (is(deviceClass)) {
+                result.add(deviceClass);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the crawler family, if this user agent is identified as a bot, see {@link Sniffer#isBot(CharSequence)}. The family is determined
+     * from the agent string the first time it is requested, so that analyzing a bot does not pay for it.
+     *
+     * @return the bot family, or <code>null</code> if this user agent is not a bot.
+     */
+    public BotFamily getBotFamily() {
+        int botFamily = _botFamily;
+        if (botFamily == UNKNOWN) {
+            BotFamily family = Sniffer.getBotFamily(getAgentText());
+            botFamily = family == null ? NOT_A_BOT : family.ordinal();
+            _botFamily = botFamily;
+        }
+        return botFamily == NOT_A_BOT ? null : BOT_FAMILIES[botFamily];
+    }
+
+    /**
+     * Returns the browser family.
+     *
+     * @return the browser family, or <code>null</code> if unknown.
+     */
+    public Browser getBrowser() {
+        int family = _types[BROWSER * TYPE_SIZE + FAMILY];
+        return family < 0 ? null : BROWSERS[family];
+    }
+
+    /**
+     * Returns the major version of the browser, e.g. 7 for Internet Explorer 7.0.
+     *
+     * @return the major version, or -1 if unknown.
+     */
+    public int getBrowserMajorVersion() {
+        return _types[BROWSER * TYPE_SIZE + MAJOR];
+    }
+
+    /**
+     * Returns the minor version of the browser, e.g. 0 for Internet Explorer 7.0.
+     *
+     * @return the minor version, or -1 if unknown.
+     */
+    public int getBrowserMinorVersion() {
+        return _types[BROWSER * TYPE_SIZE + MINOR];
+    }
+
+    /**
+     * Returns the patch version of the browser, i.e. the third part of the version number.
+     *
+     * @return the patch version, or -1 if unknown.
+     */
+    public int getBrowserPatchVersion() {
+        return _types[BROWSER * TYPE_SIZE + PATCH];
+    }
+
+    /**
+     * Returns the operating system family.
+     *
+     * @return the operating system family, or <code>null</code> if unknown.
+     */
+    public OperatingSystem getOperatingSystem() {
+        int family = _types[OPERATING_SYSTEM * TYPE_SIZE + FAMILY];
+        return family < 0 ? null : OPERATING_SYSTEMS[family];
+    }
+
+    /**
+     * Returns the major version of the operating system, e.g. 6 for Windows NT 6.1.
+     *
+     * @return the major version, or -1 if unknown.
+     */
+    public int getOperatingSystemMajorVersion() {
+        return _types[OPERATING_SYSTEM * TYPE_SIZE + MAJOR];
+    }
+
+    /**
+     * Returns the minor version of the operating system, e.g. 1 for Windows NT 6.1.
+     *
+     * @return the minor version, or -1 if unknown.
+     */
+    public int getOperatingSystemMinorVersion() {
+        return _types[OPERATING_SYSTEM * TYPE_SIZE + MINOR];
+    }
+
+    /**
+     * Returns the patch version of the operating system, e.g. 4 for Mac OS X 10.8.4.
+     *
+     * @return the patch version, or -1 if unknown.
+     */
+    public int getOperatingSystemPatchVersion() {
+        return _types[OPERATING_SYSTEM * TYPE_SIZE + PATCH];
+    }
+
+    /**
+     * Returns the browser engine.
+     *
+     * @return the browser engine, or <code>null</code> if unknown.
+     */
+    public BrowserEngine getBrowserEngine() {
+        int family = _types[BROWSER_ENGINE * TYPE_SIZE + FAMILY];
+        return family < 0 ? null : BROWSER_ENGINES[family];
+    }
+
+    /**
+     * Returns the major version of the browser engine, e.g. 537 for WebKit 537.36.
+     *
+     * @return the major version, or -1 if unknown.
+     */
+    public int getBrowserEngineMajorVersion() {
+        return _types[BROWSER_ENGINE * TYPE_SIZE + MAJOR];
+    }
+
+    /**
+     * Returns the minor version of the browser engine, e.g. 36 for WebKit 537.36.
+     *
+     * @return the minor version, or -1 if unknown.
+     */
+    public int getBrowserEngineMinorVersion() {
+        return _types[BROWSER_ENGINE * TYPE_SIZE + MINOR];
+    }
+
+    /**
+     * Returns the patch version of the browser engine, i.e. the third part of the version number.
+     *
+     * @return the patch version, or -1 if unknown.
+     */
+    public int getBrowserEnginePatchVersion() {
+        return _types[BROWSER_ENGINE * TYPE_SIZE + PATCH];
     }
 
     /**
      * Retrieves all names associated with this user agent.
      * 
-     * @return a {@link Set} of all names associated with this user agent.
+     * @return an unmodifiable {@link Set} of all names associated with this user agent.
      */
     public Set<String> getNames() {
-        return _names;
+        return new NameSet();
     }
 
     /**
@@ -79,19 +654,320 @@ public final class UserAgent {
      * @return <code>true</code> if the name is associated with this object, <code>false</code> otherwise.
      */
     public boolean hasName(String name) {
-        return name == null ? false : _names.contains(name);
+        return name != null && (hasStoredName(name) || hasLadderName(name, _ladderCount));
+    }
+
+    /**
+     * Determines if the specified name is stored, i.e. not only part of a version ladder.
+     */
+    private boolean hasStoredName(String name) {
+        int id = NameRegistry.getID(name);
+        if (id < 0) {
+            return hasOverflowName(name);
+        } else if (id < NameRegistry.getFixedNameCount()) {
+            return (_nameBits[id >>> 6] & (1L << id)) != 0L;
+        } else {
+            return binarySearch(_dynamicNameIDs, _dynamicNameCount, id) >= 0;
+        }
+    }
+
+    /**
+     * Determines if one of the first <code>ladderCount</code> version ladders stands for the specified name.
+     */
+    private boolean hasLadderName(String name, int ladderCount) {
+        for (int ladder = 0; ladder < ladderCount; ladder++) {
+            String basicName = _ladderNames[ladder];
+            String version = _ladderVersions[ladder];
+            int basicLength = basicName.length();
+            int versionLength = name.length() - basicLength - 1;
+            if (versionLength >= 0 && versionLength <= version.length() && name.startsWith(basicName) && name.charAt(basicLength) == '-'
+                    && version.regionMatches(0, name, basicLength + 1, versionLength)
+                    && (versionLength == version.length() || version.charAt(versionLength) == '-')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines if a version ladder with the specified basic name has a version number that is at least the specified one. Version parts are
+     * compared as numbers; missing parts count as zero. For example, if this user agent has the name <code>"Browser-Chrome-28-0-1500"</code>,
+     * then <code>hasVersionAtLeast("Browser-Chrome", 28)</code> and <code>hasVersionAtLeast("Browser-Chrome", 28, 0, 1000)</code> return
+     * <code>true</code>, but <code>hasVersionAtLeast("Browser-Chrome", 30)</code> returns <code>false</code>.
+     *
+     * @param basicName
+     *        the name without version, e.g. <code>"Browser-Chrome"</code>; if <code>basicName == null</code> then <code>false</code> is returned.
+     * @param version
+     *        the minimum version, one number per part, at least one part.
+     * @return <code>true</code> if a version of the basic name is at least the specified version, <code>false</code> otherwise.
+     * @throws IllegalArgumentException
+     *         if <code>version == null || version.length == 0</code>.
+     */
+    public boolean hasVersionAtLeast(String basicName, int... version) throws IllegalArgumentException {
+        Preconditions.checkArgument(version == null || version.length == 0, "version == null || version.length == 0");
+        for (int ladder = 0; ladder < _ladderCount; ladder++) {
+            if (_ladderNames[ladder].equals(basicName) && compareVersion(_ladderVersions[ladder], version) >= 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Returns all names associated with this user agent, separated by a single space each, in random order.
+     * Determines if a version ladder with the specified basic name has a version number that is lower than the specified one, see
+     * {@link #hasVersionAtLeast(String, int...)}. Combine both to query a range; for example, Firefox 3.5 up to (but not including) 4 is
+     * <code>hasVersionAtLeast("Browser-Firefox", 3, 5) &amp;&amp; hasVersionBelow("Browser-Firefox", 4)</code>.
+     *
+     * @param basicName
+     *        the name without version, e.g. <code>"Browser-Chrome"</code>; if <code>basicName == null</code> then <code>false</code> is returned.
+     * @param version
+     *        the version, one number per part, at least one part.
+     * @return <code>true</code> if a version of the basic name is lower than the specified version, <code>false</code> otherwise.
+     * @throws IllegalArgumentException
+     *         if <code>version == null || version.length == 0</code>.
+     */
+    public boolean hasVersionBelow(String basicName, int... version) throws IllegalArgumentException {
+        Preconditions.checkArgument(version == null || version.length == 0, "version == null || version.length == 0");
+        for (int ladder = 0; ladder < _ladderCount; ladder++) {
+            if (_ladderNames[ladder].equals(basicName) && compareVersion(_ladderVersions[ladder], version) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares a version number of a ladder with a version given as numbers, part by part; missing parts count as zero and parts too large
+     * for an <code>int</code> as {@link Integer#MAX_VALUE}.
+     *
+     * @return a negative number, zero or a positive number if the ladder version is lower than, equal to or higher than the other version.
+     */
+    private static int compareVersion(String ladderVersion, int[] version) {
+        int index = 0;
+        int length = ladderVersion.length();
+        for (int part = 0; part < version.length || index < length; part++) {
+            int value = 0;
+            while (index < length && ladderVersion.charAt(index) != '-') {
+                int digit = Math.max(0, Character.digit(ladderVersion.charAt(index++), 10));
+                value = value > (Integer.MAX_VALUE - digit) / 10 ? Integer.MAX_VALUE : value * 10 + digit;
+            }
+            index++;
+            int other = part < version.length ? version[part] : 0;
+            if (value != other) {
+                return value < other ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private boolean hasOverflowName(String name) {
+        for (int i = 0; i < _overflowNameCount; i++) {
+            if (_overflowNames[i].equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns all names associated with this user agent, separated by a single space each, in random order. The string is computed once, so a
+     * shared instance (e.g. from a {@link UserAgentCache}) returns the same string each time.
      * 
      * @return all names, separated by a space character; never <code>null</code>.
      */
     public String getNamesAsString() {
-        String s = "";
-        for (String name : _names) {
-            s += " " + name;
+        String namesAsString = _namesAsString;
+        if (namesAsString == null) {
+            StringBuilder s = new StringBuilder();
+            for (String name : getNames()) {
+                if (s.length() > 0) {
+                    s.append(' ');
+                }
+                s.append(name);
+            }
+            namesAsString = s.toString();
+            _namesAsString = namesAsString;
+        }
+        return namesAsString;
+    }
+
+    private int nameCount() {
+        int count = _dynamicNameCount + _overflowNameCount + ladderNameCount();
+        for (long bits : _nameBits) {
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+    private int ladderNameCount() {
+        int count = _ladderNameCount;
+        if (count < 0) {
+            count = 0;
+            for (int ladder = 0; ladder < _ladderCount; ladder++) {
+                String version = _ladderVersions[ladder];
+                for (int end = nextLadderEnd(version, -1); end >= 0; end = nextLadderEnd(version, end)) {
+                    if (!isDuplicateLadderName(ladder, ladderName(ladder, end))) {
+                        count++;
+                    }
+                }
+            }
+            _ladderNameCount = count;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the end of the next prefix of a ladder version number, i.e. the index of the next dash or the length.
+     *
+     * @return the end of the prefix after the one ending at <code>end</code> (-1 for the first), or -1 if there are no more.
+     */
+    private static int nextLadderEnd(String version, int end) {
+        if (end >= version.length()) {
+            return -1;
+        }
+        int dash = version.indexOf('-', end + 1);
+        return dash < 0 ? version.length() : dash;
+    }
+
+    private String ladderName(int ladder, int end) {
+        String basicName = _ladderNames[ladder];
+        return new StringBuilder(basicName.length() + 1 + end).append(basicName).append('-').append(_ladderVersions[ladder], 0, end).toString();
+    }
+
+    /**
+     * Determines if a name of a ladder is also stored, or is also a name of a preceding ladder; it is then only counted and iterated once.
+     */
+    private boolean isDuplicateLadderName(int ladder, String name) {
+        return hasStoredName(name) || hasLadderName(name, ladder);
+    }
+
+    private static int binarySearch(int[] a, int length, int key) {
+        int low = 0;
+        int high = length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (a[mid] < key) {
+                low = mid + 1;
+            } else if (a[mid] > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static int[] copyOf(int[] a, int newLength) {
+        int[] copy = new int[newLength];
+        System.arraycopy(a, 0, copy, 0, Math.min(a.length, newLength));
+        return copy;
+    }
+
+    private static String[] copyOf(String[] a, int newLength) {
+        String[] copy = new String[newLength];
+        System.arraycopy(a, 0, copy, 0, Math.min(a.length, newLength));
+        return copy;
+    }
+
+    /**
+     * Unmodifiable view of the names of this user agent.
+     */
+    private final class NameSet extends AbstractSet<String> {
+
+        @Override
+        public int size() {
+            return nameCount();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String && hasName((String) o);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+
+                /**
+                 * Position over the stored names: first the fixed name IDs, then the dynamic names, then the overflow names.
+                 */
+                private int _position = nextFixedNameID(0);
+
+                /**
+                 * Position over the ladder names, which follow the stored names: the ladder and the end of the version prefix.
+                 */
+                private int _ladder;
+                private int _ladderEnd = -1;
+
+                /**
+                 * The next ladder name, or <code>null</code> if there are no more.
+                 */
+                private String _nextLadderName = nextLadderName();
+
+                private String nextLadderName() {
+                    while (_ladder < _ladderCount) {
+                        _ladderEnd = nextLadderEnd(_ladderVersions[_ladder], _ladderEnd);
+                        if (_ladderEnd < 0) {
+                            _ladder++;
+                        } else {
+                            String name = ladderName(_ladder, _ladderEnd);
+                            if (!isDuplicateLadderName(_ladder, name)) {
+                                return name;
+                            }
+                        }
+                    }
+                    return null;
+                }
+
+                public boolean hasNext() {
+                    return _position < NameRegistry.getFixedNameCount() + _dynamicNameCount + _overflowNameCount || _nextLadderName != null;
+                }
+
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    int position = _position;
+                    if (position >= NameRegistry.getFixedNameCount() + _dynamicNameCount + _overflowNameCount) {
+                        String name = _nextLadderName;
+                        _nextLadderName = nextLadderName();
+                        return name;
+                    }
+                    int fixedNameCount = NameRegistry.getFixedNameCount();
+                    if (position < fixedNameCount) {
+                        _position = nextFixedNameID(position + 1);
+                        return NameRegistry.getName(position);
+                    }
+                    _position++;
+                    position -= fixedNameCount;
+                    if (position < _dynamicNameCount) {
+                        return NameRegistry.getName(_dynamicNameIDs[position]);
+                    }
+                    return _overflowNames[position - _dynamicNameCount];
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Finds the next fixed name ID that is set, starting at the specified ID.
+     *
+     * @return the ID, or the number of fixed names if there are no more.
+     */
+    private int nextFixedNameID(int id) {
+        int fixedNameCount = NameRegistry.getFixedNameCount();
+        while (id < fixedNameCount) {
+            long bits = _nameBits[id >>> 6] >>> id;
+            if (bits != 0L) {
+                return id + Long.numberOfTrailingZeros(bits);
+            }
+            id = (id | 63) + 1;
         }
-        return "".equals(s) ? s : s.substring(1);
+        return fixedNameCount;
     }
 }
@@ -0,0 +1,280 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, thread-safe cache of analysis results, in front of {@link Sniffer#analyze(String)}.
+ * <p>
+ * The cache is split in a number of segments, each with its own lock, so threads that look up different agent strings rarely contend. Each
+ * segment evicts its least recently used entry once it is full. Since {@link UserAgent} objects are immutable, the same instance is returned to
+ * all callers that pass an equal agent string.
+ * <p>
+ * Example use:
+ *
+ * <pre>
+ * private static final UserAgentCache CACHE = new UserAgentCache(1000);
+ * ...
+ * UserAgent ua = CACHE.analyze(req.getHeader("user-agent"));
+ * </pre>
+ */
+public final class UserAgentCache {
+
+    private static final int DEFAULT_SEGMENT_COUNT = 16;
+
+    private final Segment[] _segments;
+    private final int _segmentMask;
+    private final int _maxSize;
+    private final SharedResultStore _store;
+    private final boolean _canonicalKeys;
+
+    /**
+     * Constructs a new <code>UserAgentCache</code> with the specified maximum size and a default number of segments.
+     *
+     * @param maxSize
+     *        the maximum number of agent strings to keep in the cache, must be at least 1.
+     * @throws IllegalArgumentException
+     *         if <code>maxSize &lt; 1</code>.
+     */
+    public UserAgentCache(int maxSize) throws IllegalArgumentException {
+        this(maxSize, DEFAULT_SEGMENT_COUNT);
+    }
+
+    /**
+     * Constructs a new <code>UserAgentCache</code> with the specified maximum size and number of segments.
+     *
+     * @param maxSize
+     *        the maximum number of agent strings to keep in the cache, must be at least 1.
+     * @param segmentCount
+     *        the number of independently locked segments, must be at least 1; rounded up to a power of 2, but never beyond <code>maxSize</code>.
+     * @throws IllegalArgumentException
+     *         if <code>maxSize &lt; 1 || segmentCount &lt; 1</code>.
+     */
+    public UserAgentCache(int maxSize, int segmentCount) throws IllegalArgumentException {
+        this(maxSize, segmentCount, null);
+    }
+
+    /**
+     * Constructs a new <code>UserAgentCache</code> with the specified maximum size and number of segments, in front of a
+     * {@link SharedResultStore}: agent strings that are not in this cache are looked up in the store before they are analyzed.
+     *
+     * @param maxSize
+     *        the maximum number of agent strings to keep in the cache, must be at least 1.
+     * @param segmentCount
+     *        the number of independently locked segments, must be at least 1; rounded up to a power of 2, but never beyond <code>maxSize</code>.
+     * @param store
+     *        the shared store, or <code>null</code> to always analyze agent strings that are not in this cache.
+     * @throws IllegalArgumentException
+     *         if <code>maxSize &lt; 1 || segmentCount &lt; 1</code>.
+     */
+    public UserAgentCache(int maxSize, int segmentCount, SharedResultStore store) throws IllegalArgumentException {
+        this(maxSize, segmentCount, store, false);
+    }
+
+    /**
+     * Constructs a new <code>UserAgentCache</code> with the specified maximum size and number of segments, optionally in front of a
+     * {@link SharedResultStore}, and optionally keyed by the canonical form of the agent strings, see
+     * {@link AgentStringCanonicalizer#canonicalize(String)}. With canonical keys, agent strings that only differ in tokens the detection rules
+     * ignore, like the locale, share a cache entry; the result then has the names of the agent string that was analyzed first, which are the
+     * same, but the agent string that was passed in.
+     *
+     * @param maxSize
+     *        the maximum number of agent strings to keep in the cache, must be at least 1.
+     * @param segmentCount
+     *        the number of independently locked segments, must be at least 1; rounded up to a power of 2, but never beyond <code>maxSize</code>.
+     * @param store
+     *        the shared store, or <code>null</code> to always analyze agent strings that are not in this cache.
+     * @param canonicalKeys
+     *        <code>true</code> to use the canonical form of the agent strings as the key, <code>false</code> to use the agent strings as-is.
+     * @throws IllegalArgumentException
+     *         if <code>maxSize &lt; 1 || segmentCount &lt; 1</code>.
+     */
+    public UserAgentCache(int maxSize, int segmentCount, SharedResultStore store, boolean canonicalKeys) throws IllegalArgumentException {
+        checkArgument(maxSize < 1, "maxSize (" + maxSize + ") < 1");
+        checkArgument(segmentCount < 1, "segmentCount (" + segmentCount + ") < 1");
+
+        int actualSegmentCount = 1;
+        while (actualSegmentCount < segmentCount && actualSegmentCount * 2 <= maxSize) {
+            actualSegmentCount *= 2;
+        }
+
+        // Spread the capacity over the segments, without exceeding maxSize
+        _segments = new Segment[actualSegmentCount];
+        for (int i = 0; i < actualSegmentCount; i++) {
+            int capacity = maxSize / actualSegmentCount + (i < maxSize % actualSegmentCount ? 1 : 0);
+            _segments[i] = new Segment(capacity);
+        }
+        _segmentMask = actualSegmentCount - 1;
+        _maxSize = maxSize;
+        _store = store;
+        _canonicalKeys = canonicalKeys;
+    }
+
+    /**
+     * Analyzes the specified user agent string, reusing a previous result if the string is in the cache.
+     *
+     * @param agentString
+     *        the user agent string, cannot be <code>null</code>.
+     * @return an immutable {@link UserAgent} instance that describes the user agent, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>agentString == null</code>.
+     */
+    public UserAgent analyze(String agentString) throws IllegalArgumentException {
+        checkArgument(agentString == null, "agentString == null");
+
+        String key = _canonicalKeys ? AgentStringCanonicalizer.canonicalize(agentString) : agentString;
+        Segment segment = segmentFor(key);
+        UserAgent ua = segment.get(key);
+        SnifferMetrics metrics = SnifferMetrics.active();
+        if (metrics != null) {
+            metrics.recordCacheLookup(ua != null);
+        }
+        if (ua == null) {
+
+            // Analyze outside the lock, so other threads are not blocked
+            ua = segment.putIfAbsent(key, _store == null ? Sniffer.analyze(agentString) : _store.analyze(agentString));
+        }
+
+        // With canonical keys, the entry can be for another agent string with the same canonical form
+        if (_canonicalKeys && !ua.getAgentString().equals(agentString)) {
+            ua = new UserAgent(agentString, ua);
+        }
+        return ua;
+    }
+
+    /**
+     * Returns the cached result for the specified key, without analyzing it on a miss and without recording the lookup in the
+     * {@link SnifferMetrics}. Used for caches internal to this library, whose lookups are not the caller's.
+     */
+    UserAgent get(String key) {
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Stores the specified result for the specified key, unless there already is one.
+     *
+     * @return the result now cached for the key.
+     */
+    UserAgent putIfAbsent(String key, UserAgent ua) {
+        return segmentFor(key).putIfAbsent(key, ua);
+    }
+
+    private Segment segmentFor(String agentString) {
+        int h = agentString.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return _segments[h & _segmentMask];
+    }
+
+    /**
+     * Returns the maximum number of entries in this cache.
+     *
+     * @return the maximum size, as passed to the constructor.
+     */
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    /**
+     * Returns the current number of entries in this cache.
+     *
+     * @return the number of cached agent strings, between 0 and {@link #getMaxSize()}.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : _segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Removes all entries from this cache. The hit and miss counts are not reset.
+     */
+    public void clear() {
+        for (Segment segment : _segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns the number of lookups that were answered from the cache.
+     *
+     * @return the hit count, at least 0.
+     */
+    public long getHitCount() {
+        long count = 0L;
+        for (Segment segment : _segments) {
+            count += segment.getHitCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of lookups that required the agent string to be analyzed.
+     *
+     * @return the miss count, at least 0.
+     */
+    public long getMissCount() {
+        long count = 0L;
+        for (Segment segment : _segments) {
+            count += segment.getMissCount();
+        }
+        return count;
+    }
+
+    private static final class Segment {
+
+        Segment(final int capacity) {
+            _map = new LinkedHashMap<String, UserAgent>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, UserAgent> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        private final LinkedHashMap<String, UserAgent> _map;
+        private long _hitCount;
+        private long _missCount;
+
+        synchronized UserAgent get(String agentString) {
+            UserAgent ua = _map.get(agentString);
+            if (ua == null) {
+                _missCount++;
+            } else {
+                _hitCount++;
+            }
+            return ua;
+        }
+
+        synchronized UserAgent putIfAbsent(String agentString, UserAgent ua) {
+            UserAgent existing = _map.get(agentString);
+            if (existing != null) {
+                return existing;
+            }
+            _map.put(agentString, ua);
+            return ua;
+        }
+
+        synchronized int size() {
+            return _map.size();
+        }
+
+        synchronized void clear() {
+            _map.clear();
+        }
+
+        synchronized long getHitCount() {
+            return _hitCount;
+        }
+
+        synchronized long getMissCount() {
+            return _missCount;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet filter that analyzes the <code>User-Agent</code> header once per request and stores the result as request attributes, so other
+ * filters, servlets and views do not have to analyze the same header again:
+ * <ul>
+ * <li>{@value #USER_AGENT_ATTRIBUTE}: the {@link UserAgent};
+ * <li>{@value #NAMES_ATTRIBUTE}: the names as a string, see {@link UserAgent#getNamesAsString()}, e.g. for the <code>class</code> attribute of
+ * the <code>&lt;html&gt;</code> element.
+ * </ul>
+ * Results are kept in a {@link UserAgentCache}, so each distinct agent string is analyzed once, and its names string is created once. Since
+ * responses that use these attributes depend on the <code>User-Agent</code> header, the filter adds a <code>Vary: User-Agent</code> header,
+ * so HTTP caches store a response per agent string.
+ * <p>
+ * Init parameters, both optional:
+ * <ul>
+ * <li><code>cacheSize</code>: the maximum number of agent strings to cache, defaults to {@value #DEFAULT_CACHE_SIZE};
+ * <li><code>vary</code>: <code>false</code> to not add the <code>Vary</code> header, defaults to <code>true</code>.
+ * </ul>
+ * Example configuration in <code>web.xml</code>:
+ *
+ * <pre>
+ * &lt;filter&gt;
+ *    &lt;filter-name&gt;UserAgentFilter&lt;/filter-name&gt;
+ *    &lt;filter-class&gt;org.znerd.uasniffer.UserAgentFilter&lt;/filter-class&gt;
+ * &lt;/filter&gt;
+ * &lt;filter-mapping&gt;
+ *    &lt;filter-name&gt;UserAgentFilter&lt;/filter-name&gt;
+ *    &lt;url-pattern&gt;/*&lt;/url-pattern&gt;
+ * &lt;/filter-mapping&gt;
+ * </pre>
+ *
+ * Code that may also run without the filter can use {@link #getUserAgent(ServletRequest)}, which analyzes the header if the filter did not.
+ */
+public final class UserAgentFilter implements Filter {
+
+    /**
+     * Name of the request attribute that holds the {@link UserAgent}.
+     */
+    public static final String USER_AGENT_ATTRIBUTE = "org.znerd.uasniffer.UserAgent";
+
+    /**
+     * Name of the request attribute that holds the names of the user agent as a string, see {@link UserAgent#getNamesAsString()}.
+     */
+    public static final String NAMES_ATTRIBUTE = "org.znerd.uasniffer.UserAgentNames";
+
+    /**
+     * Default maximum number of agent strings in the cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private UserAgentCache _cache;
+    private boolean _vary;
+
+    public void init(FilterConfig config) throws ServletException {
+        int cacheSize = DEFAULT_CACHE_SIZE;
+        String cacheSizeParam = config.getInitParameter("cacheSize");
+        if (cacheSizeParam != null) {
+            try {
+                cacheSize = Integer.parseInt(cacheSizeParam.trim());
+            } catch (NumberFormatException e) {
+                throw new ServletException("Init parameter \"cacheSize\" (\"" + cacheSizeParam + "\") is not a number.", e);
+            }
+            if (cacheSize < 1) {
+                throw new ServletException("Init parameter \"cacheSize\" (" + cacheSize + ") < 1.");
+            }
+        }
+        _cache = new UserAgentCache(cacheSize);
+        _vary = !"false".equals(config.getInitParameter("vary"));
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (request.getAttribute(USER_AGENT_ATTRIBUTE) == null && request instanceof HttpServletRequest) {
+            analyze((HttpServletRequest) request, _cache);
+        }
+        if (_vary && response instanceof HttpServletResponse) {
+            ((HttpServletResponse) response).addHeader("Vary", "User-Agent");
+        }
+        chain.doFilter(request, response);
+    }
+
+    public void destroy() {
+        _cache.clear();
+    }
+
+    /**
+     * Returns the user agent of the specified request, as stored by the filter. If the filter did not analyze the request, the
+     * <code>User-Agent</code> header is analyzed now and the result is stored in the request attributes, so it is analyzed at most once.
+     *
+     * @param request
+     *        the request, cannot be <code>null</code>.
+     * @return the user agent, never <code>null</code>; for a request without <code>User-Agent</code> header, or a request that is not an HTTP
+     *         request, the result of analyzing an empty agent string.
+     * @throws IllegalArgumentException
+     *         if <code>request == null</code>.
+     */
+    public static UserAgent getUserAgent(ServletRequest request) throws IllegalArgumentException {
+        checkArgument(request == null, "request == null");
+
+        Object ua = request.getAttribute(USER_AGENT_ATTRIBUTE);
+        if (ua instanceof UserAgent) {
+            return (UserAgent) ua;
+        }
+        return analyze(request, null);
+    }
+
+    /**
+     * Analyzes the <code>User-Agent</code> header of a request and stores the result in the request attributes.
+     *
+     * @param cache
+     *        the cache to analyze with, or <code>null</code> to analyze directly.
+     */
+    private static UserAgent analyze(ServletRequest request, UserAgentCache cache) {
+        String agentString = request instanceof HttpServletRequest ? ((HttpServletRequest) request).getHeader("User-Agent") : null;
+        if (agentString == null) {
+            agentString = "";
+        }
+        UserAgent ua = cache == null ? Sniffer.analyze(agentString) : cache.analyze(agentString);
+        request.setAttribute(USER_AGENT_ATTRIBUTE, ua);
+        request.setAttribute(NAMES_ATTRIBUTE, ua.getNamesAsString());
+        return ua;
+    }
+}
@@ -0,0 +1,414 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.znerd.util.Preconditions.checkArgument;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded-memory statistics over a stream of analysis results: approximate counts per name (browser versions, operating system versions, device
+ * classes, etc.), the most frequent names and an estimate of the number of distinct agent strings. Memory use depends only on the dimensions
+ * passed to the constructor, not on the number of results or the number of distinct agent strings.
+ * <p>
+ * The counts per name are kept in a count-min sketch, so an estimated count is never below the actual count, but may be above it. The most
+ * frequent names are tracked as the names with the highest estimated counts. The number of distinct agent strings is estimated with
+ * HyperLogLog.
+ * <p>
+ * Instances are not thread-safe; use one per thread and combine them with {@link #merge(Snapshot)} or {@link Snapshot#merge(Snapshot)}.
+ * Snapshots are immutable, so they can be passed between threads; to combine the statistics of several JVMs, transfer snapshots with
+ * {@link Snapshot#write(OutputStream)} and {@link Snapshot#read(InputStream)}:
+ *
+ * <pre>
+ * UserAgentStatistics statistics = new UserAgentStatistics();
+ * statistics.record(Sniffer.analyze(agentString));
+ * ...
+ * UserAgentStatistics.Snapshot total = statistics.getSnapshot().merge(otherSnapshot);
+ * long chromeCount = total.estimate("Browser-Chrome");
+ * </pre>
+ */
+public final class UserAgentStatistics {
+
+    private static final int MAGIC = 0x55415353; // "UASS"
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * The default width of the count-min sketch, which keeps the overestimation of a count below 0.1% of the total of all counts with high
+     * probability.
+     */
+    public static final int DEFAULT_WIDTH = 2048;
+
+    /**
+     * The default depth of the count-min sketch.
+     */
+    public static final int DEFAULT_DEPTH = 4;
+
+    /**
+     * The default number of most frequent names that are tracked.
+     */
+    public static final int DEFAULT_TOP_COUNT = 100;
+
+    /**
+     * The default HyperLogLog precision: 16384 registers, for a standard error of about 0.8%.
+     */
+    public static final int DEFAULT_PRECISION = 14;
+
+    /**
+     * Constructs a new <code>UserAgentStatistics</code> with the default dimensions, using about 80 KB.
+     */
+    public UserAgentStatistics() {
+        this(DEFAULT_WIDTH, DEFAULT_DEPTH, DEFAULT_TOP_COUNT, DEFAULT_PRECISION);
+    }
+
+    /**
+     * Constructs a new <code>UserAgentStatistics</code> with the specified dimensions. Only statistics with the same dimensions can be merged.
+     *
+     * @param width
+     *        the width of the count-min sketch for the counts per name, at least 1.
+     * @param depth
+     *        the depth of the count-min sketch for the counts per name, at least 1.
+     * @param topCount
+     *        the number of most frequent names to track, at least 1 and at most {@value NameRegistry#MAX_NAME_COUNT}.
+     * @param precision
+     *        the HyperLogLog precision for the number of distinct agent strings, between {@value HyperLogLog#MIN_PRECISION} and
+     *        {@value HyperLogLog#MAX_PRECISION}.
+     * @throws IllegalArgumentException
+     *         if one of the dimensions is out of range.
+     */
+    public UserAgentStatistics(int width, int depth, int topCount, int precision) throws IllegalArgumentException {
+        checkArgument(topCount < 1, "topCount (" + topCount + ") < 1");
+        checkArgument(topCount > NameRegistry.MAX_NAME_COUNT, "topCount (" + topCount + ") > " + NameRegistry.MAX_NAME_COUNT);
+        _names = new CountMinSketch(width, depth);
+        _agentStrings = new HyperLogLog(precision);
+        _topNames = new TopNames(topCount);
+    }
+
+    private UserAgentStatistics(Snapshot snapshot) {
+        _count = snapshot._count;
+        _names = new CountMinSketch(snapshot._names);
+        _agentStrings = new HyperLogLog(snapshot._agentStrings);
+        _topNames = new TopNames(snapshot._topCount);
+        for (int i = 0; i < snapshot._topNames.length; i++) {
+            _topNames.offer(snapshot._topNames[i], snapshot._topEstimates[i]);
+        }
+    }
+
+    private long _count;
+    private final CountMinSketch _names;
+    private final HyperLogLog _agentStrings;
+    private final TopNames _topNames;
+
+    /**
+     * Records an analysis result.
+     *
+     * @param ua
+     *        the result, cannot be <code>null</code>.
+     * @throws IllegalArgumentException
+     *         if <code>ua == null</code>.
+     */
+    public void record(UserAgent ua) throws IllegalArgumentException {
+        checkArgument(ua == null, "ua == null");
+        _count++;
+        _agentStrings.add(SharedResultStore.hash(ua.getAgentString()));
+        for (String name : ua.getNames()) {
+            _topNames.offer(name, _names.add(SharedResultStore.hash(name), 1L));
+        }
+    }
+
+    /**
+     * Returns the number of recorded results, including merged ones.
+     *
+     * @return the count.
+     */
+    public long getCount() {
+        return _count;
+    }
+
+    /**
+     * Adds the statistics in a snapshot to these statistics, e.g. to combine the statistics of several threads.
+     *
+     * @param snapshot
+     *        the snapshot, cannot be <code>null</code> and must have the same dimensions as these statistics.
+     * @throws IllegalArgumentException
+     *         if <code>snapshot == null</code> or if its dimensions differ.
+     */
+    public void merge(Snapshot snapshot) throws IllegalArgumentException {
+        checkArgument(snapshot == null, "snapshot == null");
+        checkArgument(!_names.isCompatible(snapshot._names) || !_agentStrings.isCompatible(snapshot._agentStrings)
+                || _topNames.getCapacity() != snapshot._topCount, "snapshot has different dimensions");
+
+        _count += snapshot._count;
+        _names.merge(snapshot._names);
+        _agentStrings.merge(snapshot._agentStrings);
+
+        // The estimates of both sets of most frequent names changed, so re-estimate all of them
+        _topNames.refresh(_names);
+        for (String name : snapshot._topNames) {
+            _topNames.offer(name, _names.estimate(SharedResultStore.hash(name)));
+        }
+    }
+
+    /**
+     * Returns a copy of the current statistics.
+     *
+     * @return the snapshot, never <code>null</code>.
+     */
+    public Snapshot getSnapshot() {
+
+        // Estimates also increase when another name with the same counters is recorded, so re-estimate before sorting
+        final TopNames topNames = _topNames;
+        topNames.refresh(_names);
+        Integer[] slots = new Integer[topNames._size];
+        for (int slot = 0; slot < slots.length; slot++) {
+            slots[slot] = slot;
+        }
+        Arrays.sort(slots, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                long estimateA = topNames._estimates[a];
+                long estimateB = topNames._estimates[b];
+                return estimateA != estimateB ? (estimateA > estimateB ? -1 : 1) : topNames._names[a].compareTo(topNames._names[b]);
+            }
+        });
+        String[] names = new String[slots.length];
+        long[] estimates = new long[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            names[i] = topNames._names[slots[i]];
+            estimates[i] = topNames._estimates[slots[i]];
+        }
+        return new Snapshot(_count, new CountMinSketch(_names), new HyperLogLog(_agentStrings), topNames.getCapacity(), names, estimates);
+    }
+
+    /**
+     * The names with the highest estimated counts. Since estimates only increase while results are recorded, the slot with the lowest estimate
+     * only has to be searched for again when its own estimate changed.
+     */
+    private static final class TopNames {
+
+        TopNames(int capacity) {
+            _names = new String[capacity];
+            _estimates = new long[capacity];
+            _slots = new HashMap<String, Integer>(capacity * 2);
+        }
+
+        private final String[] _names;
+        private final long[] _estimates;
+        private final Map<String, Integer> _slots;
+        private int _size;
+
+        /**
+         * The slot with the lowest estimate, or -1 if unknown.
+         */
+        private int _minSlot = -1;
+
+        int getCapacity() {
+            return _names.length;
+        }
+
+        void offer(String name, long estimate) {
+
+            // Most names are infrequent; a name whose estimate does not exceed the lowest one would not be added, and a tracked name with
+            // that estimate would stay the lowest, so skip the lookup
+            if (_size == _names.length && estimate <= _estimates[minSlot()]) {
+                return;
+            }
+
+            Integer slot = _slots.get(name);
+            if (slot != null) {
+                _estimates[slot] = estimate;
+                if (slot == _minSlot) {
+                    _minSlot = -1;
+                }
+            } else if (_size < _names.length) {
+                put(_size++, name, estimate);
+            } else {
+                int minSlot = minSlot();
+                _slots.remove(_names[minSlot]);
+                put(minSlot, name, estimate);
+                _minSlot = -1;
+            }
+        }
+
+        private void put(int slot, String name, long estimate) {
+            _names[slot] = name;
+            _estimates[slot] = estimate;
+            _slots.put(name, slot);
+        }
+
+        private int minSlot() {
+            if (_minSlot < 0) {
+                int minSlot = 0;
+                for (int slot = 1; slot < _size; slot++) {
+                    if (_estimates[slot] < _estimates[minSlot]) {
+                        minSlot = slot;
+                    }
+                }
+                _minSlot = minSlot;
+            }
+            return _minSlot;
+        }
+
+        void refresh(CountMinSketch sketch) {
+            for (int slot = 0; slot < _size; slot++) {
+                _estimates[slot] = sketch.estimate(SharedResultStore.hash(_names[slot]));
+            }
+            _minSlot = -1;
+        }
+    }
+
+    /**
+     * Immutable copy of the statistics at a point in time.
+     */
+    public static final class Snapshot {
+
+        Snapshot(long count, CountMinSketch names, HyperLogLog agentStrings, int topCount, String[] topNames, long[] topEstimates) {
+            _count = count;
+            _names = names;
+            _agentStrings = agentStrings;
+            _topCount = topCount;
+            _topNames = topNames;
+            _topEstimates = topEstimates;
+        }
+
+        private final long _count;
+        private final CountMinSketch _names;
+        private final HyperLogLog _agentStrings;
+        private final int _topCount;
+        private final String[] _topNames;
+        private final long[] _topEstimates;
+
+        /**
+         * Returns the number of recorded results.
+         *
+         * @return the count.
+         */
+        public long getCount() {
+            return _count;
+        }
+
+        /**
+         * Estimates the number of recorded results that have the specified name. The estimate is never below the actual count.
+         *
+         * @param name
+         *        the name, cannot be <code>null</code>.
+         * @return the estimated count.
+         * @throws IllegalArgumentException
+         *         if <code>name == null</code>.
+         */
+        public long estimate(String name) throws IllegalArgumentException {
+            checkArgument(name == null, "name == null");
+            return _count == 0L ? 0L : _names.estimate(SharedResultStore.hash(name));
+        }
+
+        /**
+         * Returns the most frequent names with their estimated counts, highest count first. A name that is frequent overall, but was not among
+         * the most frequent names in any of the merged statistics, can be missing.
+         *
+         * @return an unmodifiable map from name to estimated count, in iteration order, never <code>null</code>.
+         */
+        public Map<String, Long> getTopNames() {
+            Map<String, Long> topNames = new LinkedHashMap<String, Long>();
+            for (int i = 0; i < _topNames.length; i++) {
+                topNames.put(_topNames[i], _topEstimates[i]);
+            }
+            return Collections.unmodifiableMap(topNames);
+        }
+
+        /**
+         * Estimates the number of distinct agent strings among the recorded results.
+         *
+         * @return the estimated number of distinct agent strings.
+         */
+        public long getDistinctAgentStringCount() {
+            return _agentStrings.estimate();
+        }
+
+        /**
+         * Combines this snapshot with another one, e.g. from another thread or JVM.
+         *
+         * @param other
+         *        the other snapshot, cannot be <code>null</code> and must have the same dimensions.
+         * @return a new snapshot with the combined statistics, never <code>null</code>.
+         * @throws IllegalArgumentException
+         *         if <code>other == null</code> or if its dimensions differ.
+         */
+        public Snapshot merge(Snapshot other) throws IllegalArgumentException {
+            UserAgentStatistics statistics = new UserAgentStatistics(this);
+            statistics.merge(other);
+            return statistics.getSnapshot();
+        }
+
+        /**
+         * Writes this snapshot, so that it can be read and merged in another JVM.
+         *
+         * @param out
+         *        the stream to write to, cannot be <code>null</code>.
+         * @throws IllegalArgumentException
+         *         if <code>out == null</code>.
+         * @throws IOException
+         *         if writing fails.
+         */
+        public void write(OutputStream out) throws IllegalArgumentException, IOException {
+            checkArgument(out == null, "out == null");
+
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeInt(FORMAT_VERSION);
+            data.writeLong(_count);
+            _names.write(data);
+            _agentStrings.write(data);
+            data.writeInt(_topCount);
+            data.writeInt(_topNames.length);
+            for (int i = 0; i < _topNames.length; i++) {
+                data.writeUTF(_topNames[i]);
+                data.writeLong(_topEstimates[i]);
+            }
+            data.flush();
+        }
+
+        /**
+         * Reads a snapshot written by {@link #write(OutputStream)}. No bytes are read beyond the end of the snapshot, so several snapshots can be
+         * read from the same stream; the stream is not buffered by this method, so pass a buffered stream when reading from a file or socket.
+         *
+         * @param in
+         *        the stream to read from, cannot be <code>null</code>.
+         * @return the snapshot, never <code>null</code>.
+         * @throws IllegalArgumentException
+         *         if <code>in == null</code>.
+         * @throws IOException
+         *         if the snapshot cannot be read or is corrupt.
+         */
+        public static Snapshot read(InputStream in) throws IllegalArgumentException, IOException {
+            checkArgument(in == null, "in == null");
+
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a statistics snapshot, or an unsupported format version.");
+            }
+            long count = data.readLong();
+            CountMinSketch names = CountMinSketch.read(data);
+            HyperLogLog agentStrings = HyperLogLog.read(data);
+            int topCount = data.readInt();
+            int size = data.readInt();
+            if (count < 0L || topCount < 1 || size < 0 || size > topCount || topCount > NameRegistry.MAX_NAME_COUNT) {
+                throw new IOException("Invalid statistics snapshot.");
+            }
+            String[] topNames = new String[size];
+            long[] topEstimates = new long[size];
+            for (int i = 0; i < size; i++) {
+                topNames[i] = data.readUTF();
+                topEstimates[i] = data.readLong();
+            }
+            return new Snapshot(count, names, agentStrings, topCount, topNames, topEstimates);
+        }
+    }
+}
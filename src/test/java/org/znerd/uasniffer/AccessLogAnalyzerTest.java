@@ -0,0 +1,114 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AccessLogAnalyzerTest {
+
+    private static final String MSIE = "Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0)";
+    private static final String OPERA = "Opera/9.80 (Windows NT 6.1; U; en) Presto/2.2.15 Version/10.00";
+    private static final String IPHONE = "Mozilla/5.0 (iPhone; CPU iPhone OS 6_1_3 like Mac OS X) AppleWebKit/536.26 (KHTML, like Gecko) Version/6.0 Mobile/10B329 Safari/8536.25";
+
+    private File _file;
+
+    @Before
+    public void setUp() throws IOException {
+        _file = File.createTempFile("access", ".log");
+    }
+
+    @After
+    public void tearDown() {
+        _file.delete();
+    }
+
+    private static String line(String agentField) {
+        return "127.0.0.1 - - [10/Oct/2013:13:55:36 +0200] \"GET /index.html HTTP/1.1\" 200 2326 \"http://example.com/\" \"" + agentField + "\"\n";
+    }
+
+    private void write(String content) throws IOException {
+        OutputStream out = new FileOutputStream(_file);
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void add(Map<String, Long> expected, String agentString, long count) {
+        for (String name : Sniffer.analyze(agentString).getNames()) {
+            Long current = expected.get(name);
+            expected.put(name, current == null ? count : current + count);
+        }
+    }
+
+    @Test
+    public void testCountsPerName() throws IOException {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            log.append(line(MSIE));
+            log.append(line(i % 2 == 0 ? OPERA : IPHONE));
+            if (i % 10 == 0) {
+                log.append(line(IPHONE));
+            }
+        }
+        write(log.toString());
+
+        Map<String, Long> expected = new HashMap<String, Long>();
+        add(expected, MSIE, 100);
+        add(expected, OPERA, 50);
+        add(expected, IPHONE, 60);
+
+        assertEquals(expected, AccessLogAnalyzer.analyze(_file));
+
+        // Small chunks, so lines and chunk boundaries do not line up
+        assertEquals(expected, AccessLogAnalyzer.analyze(_file, 100, 3));
+        assertEquals(expected, AccessLogAnalyzer.analyze(_file, 1, 2));
+    }
+
+    @Test
+    public void testEscapedAgentField() throws IOException {
+        write(line("Mozilla/5.0 \\\"quoted\\\" \\\\ Opera\\x2f9.80") + "no agent field here\n" + line(MSIE).trim());
+
+        Map<String, Long> expected = new HashMap<String, Long>();
+        add(expected, "Mozilla/5.0 \"quoted\" \\ Opera/9.80", 1);
+        add(expected, MSIE, 1);
+        assertEquals(expected, AccessLogAnalyzer.analyze(_file, 16, 2));
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        write("");
+        assertTrue(AccessLogAnalyzer.analyze(_file).isEmpty());
+    }
+
+    @Test
+    public void testDecodeAgentField() throws IOException {
+        assertEquals("a\"b\\c/d", AccessLogAnalyzer.decodeAgentField("a\\\"b\\\\c\\x2Fd".getBytes("ISO-8859-1")));
+        assertEquals("\\xZZ\\", AccessLogAnalyzer.decodeAgentField("\\xZZ\\".getBytes("ISO-8859-1")));
+        assertEquals("\u00e9", AccessLogAnalyzer.decodeAgentField(new byte[] { (byte) 0xE9 }));
+    }
+
+    @Test
+    public void testNullFile() throws IOException {
+        try {
+            AccessLogAnalyzer.analyze(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+}
@@ -0,0 +1,117 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AgentStringCanonicalizerTest {
+
+    private static void assertCanonical(String expected, String agentString) {
+        assertEquals(expected, AgentStringCanonicalizer.canonicalize(agentString));
+        assertEquals(Collections.emptyList(), AgentStringCanonicalizer.verify(Collections.singletonList(agentString)));
+    }
+
+    private static void assertUnchanged(String agentString) {
+        assertSame(agentString, AgentStringCanonicalizer.canonicalize(agentString));
+    }
+
+    @Test
+    public void testVolatileTokens() {
+        assertCanonical("Mozilla/5.0 (Windows; Windows NT 5.1; rv:1.9.2.3) Gecko/20100401 Firefox/3.6.3",
+                "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.2.3) Gecko/20100401 Firefox/3.6.3");
+        assertCanonical("Mozilla/5.0 (Windows; Windows NT 5.1; rv:1.9.2.3) Gecko/20100401 Firefox/3.6.3",
+                "Mozilla/5.0 (Windows; U; Windows NT 5.1; pt_BR; rv:1.9.2.3) Gecko/20100401 Firefox/3.6.3");
+        assertCanonical("Mozilla/4.0 (compatible; MSIE 8.0; Windows NT 6.1; Trident/4.0)",
+                "Mozilla/4.0 (compatible; MSIE 8.0; Windows NT 6.1; Trident/4.0; SLCC2; .NET CLR 2.0.50727; .NET CLR 3.5.30729; Media Center PC 6.0; InfoPath.2)");
+        assertCanonical("Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1)", "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1; SV1; GTB7.4; FunWebProducts)");
+        assertCanonical("Opera/9.80 (Windows NT 6.1) Presto/2.12.388 Version/12.15", "Opera/9.80 (Windows NT 6.1; U; nl) Presto/2.12.388 Version/12.15");
+        assertCanonical("Mozilla/5.0 (Linux; Android 2.3.4) AppleWebKit/533.1 (KHTML, like Gecko) Version/4.0 Mobile Safari/533.1",
+                "Mozilla/5.0 (Linux; U; Android 2.3.4; en-us) AppleWebKit/533.1 (KHTML, like Gecko) Version/4.0 Mobile Safari/533.1");
+    }
+
+    @Test
+    public void testKeptTokens() {
+
+        // Nothing to remove
+        assertUnchanged("Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/28.0.1500.72 Safari/537.36");
+        assertUnchanged("");
+        assertUnchanged("Mozilla/4.0 (compatible; MSIE 8.0; Windows NT 6.1; Trident/4.0; Tablet PC 2.0)");
+        assertUnchanged("Mozilla/5.0 (compatible; MSIE 10.0; Windows NT 6.2; ARM; Trident/6.0; Touch)");
+        assertUnchanged("Opera/9.51 Beta (Microsoft Windows; PPC; Opera Mobi/1718)");
+
+        // The first token of a comment
+        assertUnchanged("Mozilla/5.0 (en-US; Windows NT 5.1) Gecko/20100101 Firefox/22.0");
+
+        // Tokens outside a comment, or in an unbalanced one
+        assertUnchanged("Mozilla/4.78 [en] (Win95)");
+        assertUnchanged("Mozilla/5.0 (Windows; U; en-US");
+
+        // A different separator after the removed token would end up in front of the next token
+        assertUnchanged("Mozilla/5.0 (Windows; U;Windows NT 5.1) Gecko/20100101 Firefox/22.0");
+
+        // A trailing token after a version that the Mobile Safari pattern could match
+        assertCanonical("Mozilla/5.0 (iPhone; CPU iPhone OS 6_0 like Mac OS X; Mobile/10A403; en-us)",
+                "Mozilla/5.0 (iPhone; U; CPU iPhone OS 6_0 like Mac OS X; Mobile/10A403; en-us)");
+
+        // A keyword that contains a ';' would appear
+        assertUnchanged("Mozilla/4.0 (compatible; MSIE 4.01; Windows; en; PPC; 240x320)");
+        assertCanonical("Mozilla/4.0 (compatible; MSIE 4.01; Windows; PPC; 240x320)", "Mozilla/4.0 (compatible; MSIE 4.01; Windows; PPC; U; 240x320)");
+    }
+
+    @Test
+    public void testSameCanonicalForm() {
+        String canonical = AgentStringCanonicalizer.canonicalize("Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10_6_3; en-us) AppleWebKit/533.16 (KHTML, like Gecko) Version/5.0 Safari/533.16");
+        for (String locale : new String[] { "nl", "nl-nl", "de-DE", "zh-TW", "es-419" }) {
+            assertEquals(canonical, AgentStringCanonicalizer.canonicalize("Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10_6_3; " + locale
+                    + ") AppleWebKit/533.16 (KHTML, like Gecko) Version/5.0 Safari/533.16"));
+        }
+    }
+
+    @Test
+    public void testVerifyTestInput() throws Exception {
+        SnifferTestData data = SnifferAgentStringsTest.loadTestData();
+        List<String> agentStrings = new ArrayList<String>();
+        int changed = 0;
+        for (int i = 0; i < data.size(); i++) {
+            String agentString = ((SnifferTestDataEntry) data.getTestValue(i)).getAgentString();
+            agentStrings.add(agentString);
+            if (AgentStringCanonicalizer.canonicalize(agentString) != agentString) {
+                changed++;
+            }
+        }
+        assertEquals(Collections.emptyList(), AgentStringCanonicalizer.verify(agentStrings));
+        assertTrue("Only " + changed + " agent strings changed.", changed > agentStrings.size() / 3);
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        try {
+            AgentStringCanonicalizer.canonicalize(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            AgentStringCanonicalizer.verify(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            AgentStringCanonicalizer.verify(Arrays.asList("Mozilla/5.0", null));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+}
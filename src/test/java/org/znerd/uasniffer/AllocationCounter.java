@@ -0,0 +1,82 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the number of bytes allocated by the current thread, using the HotSpot-specific extension of {@link ThreadMXBean}.
+ */
+public final class AllocationCounter {
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = threadBean();
+
+    private AllocationCounter() {
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+                if (sunBean.isThreadAllocatedMemorySupported()) {
+                    sunBean.setThreadAllocatedMemoryEnabled(true);
+                    return sunBean;
+                }
+            }
+        } catch (LinkageError e) {
+            // Not a HotSpot-based JVM
+        }
+        return null;
+    }
+
+    /**
+     * Determines if allocations can be measured on this JVM.
+     *
+     * @return <code>true</code> if supported, <code>false</code> otherwise.
+     */
+    public static boolean isSupported() {
+        return THREAD_BEAN != null;
+    }
+
+    /**
+     * Returns the total number of bytes allocated by the current thread so far.
+     *
+     * @return the number of bytes.
+     * @throws IllegalStateException
+     *         if allocations cannot be measured on this JVM.
+     */
+    public static long allocatedBytes() throws IllegalStateException {
+        if (THREAD_BEAN == null) {
+            throw new IllegalStateException("Thread allocation measurement is not supported.");
+        }
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Determines the average number of bytes allocated per run of the specified task. The task is run a number of times first, so it is compiled
+     * by the JIT before it is measured.
+     *
+     * @param task
+     *        the task to measure, cannot be <code>null</code>.
+     * @param runs
+     *        the number of runs to measure, must be at least 1.
+     * @return the average number of bytes allocated per run.
+     */
+    public static long bytesPerRun(Runnable task, int runs) {
+        for (int i = 0; i < runs; i++) {
+            task.run();
+        }
+
+        // Measure the overhead of the measurement itself, then the task
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead;
+        long before = allocatedBytes();
+        for (int i = 0; i < runs; i++) {
+            task.run();
+        }
+        long after = allocatedBytes();
+        return Math.max(0L, after - before - overhead) / runs;
+    }
+}
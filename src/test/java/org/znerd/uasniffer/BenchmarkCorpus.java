@@ -0,0 +1,108 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The agent strings from the unit test input file, for use in benchmarks and allocation tests.
+ */
+public final class BenchmarkCorpus {
+
+    /**
+     * Categories of agent strings, each with a representative agent string taken from the test input.
+     */
+    public enum Category {
+
+        BOT("Device-Bot", null),
+        LEGACY_MSIE("Browser-DesktopMSIE-6", "BrowserOS-Windows-XP"),
+        MODERN_CHROME("Browser-Chrome", "Browser-Chrome-30"),
+        MOBILE_SAFARI("Browser-MobileSafari", "Device-AppleTouch-iPhone");
+
+        private Category(String requiredName, String otherRequiredName) {
+            _requiredName = requiredName;
+            _otherRequiredName = otherRequiredName;
+        }
+
+        private final String _requiredName;
+        private final String _otherRequiredName;
+
+        boolean matches(Collection<String> expectedNames) {
+            return expectedNames.contains(_requiredName) && (_otherRequiredName == null || expectedNames.contains(_otherRequiredName));
+        }
+    }
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * Loads all entries from the unit test input file.
+     *
+     * @return all entries, never <code>null</code>.
+     */
+    public static List<SnifferTestDataEntry> entries() {
+        SnifferTestData data;
+        try {
+            data = SnifferAgentStringsTest.loadTestData();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to load test data.", e);
+        }
+
+        List<SnifferTestDataEntry> entries = new ArrayList<SnifferTestDataEntry>(data.size());
+        for (int i = 0; i < data.size(); i++) {
+            entries.add((SnifferTestDataEntry) data.getTestValue(i));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns all agent strings from the unit test input file.
+     *
+     * @return all agent strings, never <code>null</code>.
+     */
+    public static String[] agentStrings() {
+        List<SnifferTestDataEntry> entries = entries();
+        String[] agentStrings = new String[entries.size()];
+        for (int i = 0; i < agentStrings.length; i++) {
+            agentStrings[i] = entries.get(i).getAgentString();
+        }
+        return agentStrings;
+    }
+
+    /**
+     * Returns all agent strings in the specified category.
+     *
+     * @param category
+     *        the category, cannot be <code>null</code>.
+     * @return the agent strings in the category, never <code>null</code> and never empty.
+     * @throws IllegalStateException
+     *         if the test input contains no agent strings in the category.
+     */
+    public static List<String> agentStrings(Category category) throws IllegalStateException {
+        List<String> agentStrings = new ArrayList<String>();
+        for (SnifferTestDataEntry entry : entries()) {
+            if (category.matches(entry.getOutputStrings())) {
+                agentStrings.add(entry.getAgentString());
+            }
+        }
+        if (agentStrings.isEmpty()) {
+            throw new IllegalStateException("No agent strings found in category " + category + '.');
+        }
+        return agentStrings;
+    }
+
+    /**
+     * Returns a representative agent string for the specified category.
+     *
+     * @param category
+     *        the category, cannot be <code>null</code>.
+     * @return the first agent string in the category, never <code>null</code>.
+     * @throws IllegalStateException
+     *         if the test input contains no agent strings in the category.
+     */
+    public static String agentString(Category category) throws IllegalStateException {
+        return agentStrings(category).get(0);
+    }
+}
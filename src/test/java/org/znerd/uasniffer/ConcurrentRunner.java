@@ -0,0 +1,163 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a task on a number of threads at the same time, on platform threads or, on a JVM that has them, virtual threads.
+ */
+public final class ConcurrentRunner {
+
+    /**
+     * The task that each thread runs.
+     */
+    public interface Task {
+
+        /**
+         * Runs the task.
+         *
+         * @param threadIndex
+         *        the index of the thread, between 0 and the number of threads.
+         * @return the number of operations done.
+         * @throws Exception
+         *         if the task fails.
+         */
+        long run(int threadIndex) throws Exception;
+    }
+
+    /**
+     * The result of a run.
+     */
+    public static final class Result {
+
+        private final long _operations;
+        private final long _nanos;
+
+        Result(long operations, long nanos) {
+            _operations = operations;
+            _nanos = nanos;
+        }
+
+        /**
+         * Returns the number of operations done by all threads together.
+         */
+        public long getOperations() {
+            return _operations;
+        }
+
+        /**
+         * Returns the wall clock time from the start of the first thread until the last thread finished.
+         */
+        public long getNanos() {
+            return _nanos;
+        }
+
+        /**
+         * Returns the number of operations per second.
+         */
+        public double getThroughput() {
+            return _operations * 1e9 / Math.max(1L, _nanos);
+        }
+    }
+
+    private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+
+    private ConcurrentRunner() {
+    }
+
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            return null; // No virtual threads on this JVM
+        }
+    }
+
+    /**
+     * Returns a factory for platform threads.
+     *
+     * @return the factory, never <code>null</code>.
+     */
+    public static ThreadFactory platformThreads() {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ConcurrentRunner-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Returns a factory for virtual threads, if this JVM has them.
+     *
+     * @return the factory, or <code>null</code> if virtual threads are not supported.
+     */
+    public static ThreadFactory virtualThreads() {
+        return VIRTUAL_THREADS;
+    }
+
+    /**
+     * Runs a task on the specified number of threads. All threads start the task at the same time.
+     *
+     * @param threads
+     *        the factory for the threads, cannot be <code>null</code>.
+     * @param threadCount
+     *        the number of threads, at least 1.
+     * @param task
+     *        the task, cannot be <code>null</code>.
+     * @return the result, never <code>null</code>.
+     * @throws Exception
+     *         the first failure of the task in any of the threads.
+     */
+    public static Result run(ThreadFactory threads, int threadCount, final Task task) throws Exception {
+        final CountDownLatch ready = new CountDownLatch(threadCount);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final long[] operations = new long[threadCount];
+        Thread[] started = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int threadIndex = i;
+            started[i] = threads.newThread(new Runnable() {
+                public void run() {
+                    ready.countDown();
+                    try {
+                        start.await();
+                        operations[threadIndex] = task.run(threadIndex);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            started[i].start();
+        }
+
+        ready.await();
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : started) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - startTime;
+
+        Throwable t = failure.get();
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        long total = 0L;
+        for (long count : operations) {
+            total += count;
+        }
+        return new Result(total, nanos);
+    }
+}
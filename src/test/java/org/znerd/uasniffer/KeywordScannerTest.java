@@ -0,0 +1,98 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class KeywordScannerTest {
+
+    private static final String[] MOBILE = new String[] { "mobile", "mobi/" };
+    private static final String[] BOTS = new String[] { "bot", "crawl" };
+
+    private final KeywordScanner _scanner = new KeywordScanner(new String[] { "he", "she", "his", "hers", "opera/", "opera mini/", "version/" }, new String[][] { MOBILE, BOTS });
+
+    @Test
+    public void testOverlappingKeywords() {
+        KeywordMatches m = _scanner.scan("ushers");
+        assertTrue(m.contains("she"));
+        assertTrue(m.contains("he"));
+        assertTrue(m.contains("hers"));
+        assertFalse(m.contains("his"));
+        assertEquals(1, m.indexOf("she"));
+        assertEquals(2, m.indexOf("he"));
+        assertEquals(2, m.indexOf("hers"));
+        assertEquals(-1, m.indexOf("his"));
+    }
+
+    @Test
+    public void testFirstOccurrenceIsRecorded() {
+        KeywordMatches m = _scanner.scan("opera/9.80 (j2me/midp; opera mini/4.2) version/10.54 opera/9");
+        assertTrue(m.startsWith("opera/"));
+        assertEquals(0, m.indexOf("opera/"));
+        assertEquals(23, m.indexOf("opera mini/"));
+        assertEquals(39, m.indexOf("version/"));
+    }
+
+    @Test
+    public void testUpperCaseIsFolded() {
+        KeywordMatches m = _scanner.scan("Opera/9.80 Version/12.00");
+        assertTrue(m.startsWith("opera/"));
+        assertEquals(11, m.indexOf("version/"));
+
+        m = _scanner.scan("USHERS");
+        assertEquals(1, m.indexOf("she"));
+        assertEquals(2, m.indexOf("hers"));
+        assertTrue(_scanner.containsAny("GoogleBOT", 6, 9));
+        assertFalse(_scanner.containsAny("GoogleBOT", 0, 8));
+    }
+
+    @Test
+    public void testGroups() {
+        KeywordMatches m = _scanner.scan("googlebot/2.1");
+        assertTrue(m.containsAny(BOTS));
+        assertFalse(m.containsAny(MOBILE));
+        assertTrue(m.contains("bot"));
+        assertEquals(6, m.indexOf("bot"));
+
+        m = _scanner.scan("opera/9.80 (android; opera mobi/");
+        assertTrue(m.containsAny(MOBILE));
+        assertFalse(m.containsAny(BOTS));
+    }
+
+    @Test
+    public void testUnknownKeywordsFallBack() {
+        KeywordMatches m = _scanner.scan("mozilla/5.0 (x11; linux x86_64)");
+        assertTrue(m.contains("linux"));
+        assertEquals(13, m.indexOf("x11"));
+        assertFalse(m.contains("windows"));
+        assertTrue(m.containsAny(new String[] { "windows", "x86_64" }));
+    }
+
+    @Test
+    public void testNonAsciiText() {
+        KeywordMatches m = _scanner.scan("\u00fcshe\u20ac his");
+        assertEquals(1, m.indexOf("she"));
+        assertEquals(6, m.indexOf("his"));
+    }
+
+    @Test
+    public void testInvalidKeywords() {
+        try {
+            new KeywordScanner(new String[] { "Opera" }, new String[0][]);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            new KeywordScanner(new String[] { "" }, new String[0][]);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+}
@@ -0,0 +1,140 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PrecomputedTableTest {
+
+    private static final String MSIE = "Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0)";
+
+    private static List<String> testAgentStrings() throws Exception {
+        SnifferTestData data = SnifferAgentStringsTest.loadTestData();
+        List<String> agentStrings = new ArrayList<String>();
+        for (int i = 0; i < data.size(); i++) {
+            agentStrings.add(((SnifferTestDataEntry) data.getTestValue(i)).getAgentString());
+        }
+        return agentStrings;
+    }
+
+    private static PrecomputedTable build(List<String> agentStrings) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrecomputedTable.write(agentStrings, out);
+        return PrecomputedTable.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void testSameResultsAsRules() throws Exception {
+        List<String> agentStrings = testAgentStrings();
+        PrecomputedTable table = build(agentStrings);
+        assertEquals(agentStrings.size(), table.size() + duplicateCount(agentStrings));
+        for (String agentString : agentStrings) {
+            UserAgent ua = table.lookup(agentString);
+            assertNotNull(agentString, ua);
+            assertEquals(agentString, ua.getAgentString());
+            assertEquals(agentString, Sniffer.analyzeWithRules(agentString).getNames(), ua.getNames());
+            UserAgentTypesTest.assertSameTypes(agentString, Sniffer.analyzeWithRules(agentString), ua);
+        }
+    }
+
+    private static int duplicateCount(List<String> agentStrings) {
+        return agentStrings.size() - new HashSet<String>(agentStrings).size();
+    }
+
+    @Test
+    public void testUnknownAgentStrings() throws Exception {
+        PrecomputedTable table = build(testAgentStrings());
+        assertNull(table.lookup(""));
+        assertNull(table.lookup(MSIE + " "));
+        assertNull(table.lookup("Mozilla/5.0 (X11; Linux x86_64; rv:99.0) Gecko/20100101 Firefox/99.0"));
+    }
+
+    @Test
+    public void testSmallTables() throws IOException {
+        PrecomputedTable empty = build(Collections.<String> emptyList());
+        assertEquals(0, empty.size());
+        assertNull(empty.lookup(MSIE));
+
+        PrecomputedTable single = build(Arrays.asList(MSIE, MSIE));
+        assertEquals(1, single.size());
+        assertEquals(Sniffer.analyze(MSIE).getNames(), single.lookup(MSIE).getNames());
+    }
+
+    @Test
+    public void testGenerator() throws Exception {
+        File testInput = new File(SnifferAgentStringsTest.class.getResource("SnifferAgentStringsTest-input.txt").toURI());
+        List<String> agentStrings = new ArrayList<String>();
+        PrecomputedTableGenerator.readAgentStrings(testInput, true, agentStrings);
+        assertEquals(testAgentStrings(), agentStrings);
+
+        File output = File.createTempFile("precomputed", ".bin");
+        try {
+            PrecomputedTableGenerator.main(new String[] { output.getPath(), "-t", testInput.getPath() });
+            InputStream in = new FileInputStream(output);
+            try {
+                PrecomputedTable table = PrecomputedTable.read(in);
+                assertEquals(Sniffer.analyze(MSIE).getNames(), table.lookup(MSIE).getNames());
+            } finally {
+                in.close();
+            }
+        } finally {
+            output.delete();
+        }
+    }
+
+    @Test
+    public void testOtherFormat() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrecomputedTable.write(Arrays.asList(MSIE), out);
+
+        // Another magic number or format version is ignored, like a table for other fixed names
+        byte[] otherMagic = out.toByteArray();
+        otherMagic[3] = 'X';
+        assertNull(PrecomputedTable.read(new ByteArrayInputStream(otherMagic)));
+        byte[] otherVersion = out.toByteArray();
+        otherVersion[7]++;
+        assertNull(PrecomputedTable.read(new ByteArrayInputStream(otherVersion)));
+    }
+
+    @Test
+    public void testCorruptTable() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrecomputedTable.write(Arrays.asList(MSIE), out);
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+        try {
+            PrecomputedTable.read(new ByteArrayInputStream(truncated));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // as expected
+        }
+        try {
+            PrecomputedTable.read(new ByteArrayInputStream(new byte[] { 'U', 'A', 'P' }));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // as expected
+        }
+        try {
+            PrecomputedTable.read(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+}
@@ -0,0 +1,154 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class RuleTableTest {
+
+    private static final String TABLE = "# Test rules\n"
+            + "[browser]\n"
+            + "flock        -             Browser-Flock     flock/         4 false\n"
+            + "firefox      -             Browser-Firefox   firefox/       3 false -  @mobile\n"
+            + "chrome/      !chromeframe  Browser-Chrome    chrome/        4 false\n"
+            + "^opera/      -             Browser-Opera     -              - -     BrowserEngine-Presto\n"
+            + "\"windows xp\" -           BrowserOS-Windows-NT  =5.1       2 false\n"
+            + "msie         -             Browser-MSIE      -              - -     -  CUSTOM\n"
+            + "-            -             Browser-Other\n"
+            + "\n"
+            + "[mobile]\n"
+            + "mobile,tablet -            Browser-MobileFirefox  firefox/\n";
+
+    private static final RuleTable.Handler CUSTOM = new RuleTable.Handler() {
+        public void apply(UserAgent ua, KeywordMatches m) {
+            ua.addName("Custom-" + m.indexOf("msie"));
+        }
+    };
+
+    private KeywordScanner _scanner;
+
+    private RuleTable.Chain compile(String table, String chain) throws IOException {
+        RuleTable rules = RuleTable.parse(new StringReader(table), "test");
+        _scanner = new KeywordScanner(rules.getKeywords(), new String[0][]);
+        rules.compile(_scanner, Collections.singletonMap("CUSTOM", CUSTOM));
+        return rules.getChain(chain);
+    }
+
+    private UserAgent apply(RuleTable.Chain chain, String agentString) {
+        UserAgent ua = new UserAgent(agentString);
+        chain.apply(ua, _scanner.scan(ua.getLowerCaseAgentString()));
+        return ua;
+    }
+
+    private static void assertNames(UserAgent ua, String... expected) {
+        assertEquals(new HashSet<String>(Arrays.asList(expected)), new HashSet<String>(ua.getNames()));
+    }
+
+    @Test
+    public void testFirstMatchingRuleWins() throws IOException {
+        RuleTable.Chain chain = compile(TABLE, "browser");
+        assertNames(apply(chain, "Mozilla/5.0 Gecko/20081107 Firefox/2.0.0.18 Flock/1.2.7"), "Browser-Flock", "Browser-Flock-1", "Browser-Flock-1-2", "Browser-Flock-1-2-7", "Browser-Flock-1-2-7-0");
+        assertNames(apply(chain, "Mozilla/5.0 Gecko/20100101 Firefox/22.0"), "Browser-Firefox", "Browser-Firefox-22", "Browser-Firefox-22-0", "Browser-Firefox-22-0-0");
+        assertNames(apply(chain, "Something else"), "Browser-Other");
+    }
+
+    @Test
+    public void testSubChain() throws IOException {
+        UserAgent ua = apply(compile(TABLE, "browser"), "Mozilla/5.0 (Android; Mobile) Gecko/22.0 Firefox/22.0");
+        assertTrue(ua.hasName("Browser-Firefox-22"));
+        assertTrue(ua.hasName("Browser-MobileFirefox-22-0-0"));
+    }
+
+    @Test
+    public void testConditions() throws IOException {
+        RuleTable.Chain chain = compile(TABLE, "browser");
+        assertTrue(apply(chain, "Mozilla/5.0 AppleWebKit/537.36 Chrome/30.0.1599.17 Safari/537.36").hasName("Browser-Chrome-30-0-1599-17"));
+        UserAgent ua = apply(chain, "Mozilla/4.0 (compatible; MSIE 8.0; chromeframe/29.0.1547.76) Chrome/29.0.1547.76");
+        assertFalse(ua.hasName("Browser-Chrome"));
+        assertNames(ua, "Browser-MSIE", "Custom-25");
+    }
+
+    @Test
+    public void testKeywordAtStart() throws IOException {
+        RuleTable.Chain chain = compile(TABLE, "browser");
+        assertNames(apply(chain, "Opera/9.80 (Windows NT 6.1)"), "Browser-Opera", "BrowserEngine-Presto");
+        assertNames(apply(chain, "Mozilla/4.0 (Opera/9.80)"), "Browser-Other");
+    }
+
+    @Test
+    public void testLiteralVersion() throws IOException {
+        assertNames(apply(compile(TABLE, "browser"), "Mozilla/4.0 (Windows XP)"), "BrowserOS-Windows-NT", "BrowserOS-Windows-NT-5", "BrowserOS-Windows-NT-5-1");
+    }
+
+    @Test
+    public void testFixedAndOtherNames() throws IOException {
+        String table = "[names]\n"
+                + "gecko/  -  Browser-Firefox,Test-Constant  gecko/  2 false  BrowserEngine-Gecko,Test-Also\n";
+        assertNames(apply(compile(table, "names"), "Mozilla/5.0 Gecko/20100101"), "Browser-Firefox", "Browser-Firefox-20100101", "Browser-Firefox-20100101-0",
+                "Test-Constant", "Test-Constant-20100101", "Test-Constant-20100101-0", "BrowserEngine-Gecko", "Test-Also");
+    }
+
+    @Test
+    public void testSyntaxErrors() throws IOException {
+        assertSyntaxError("flock - Browser-Flock\n", "test:1: Rule outside of a chain.");
+        assertSyntaxError("[a]\nflock - \"Browser-Flock\n", "test:2: Missing closing quote.");
+        assertSyntaxError("[a]\n[a]\n", "test:2: Duplicate chain \"a\".");
+        assertSyntaxError("[a]\nflock - Browser-Flock flock/ x\n", "test:2: Invalid minVersionParts \"x\".");
+        assertSyntaxError("[a]\nflock - Browser-Flock flock/ 3 yes\n", "test:2: Invalid splitSecondVersionPart \"yes\".");
+        assertSyntaxError("[a]\n!flock - Browser-Flock\n", "test:2: Keyword \"!flock\" cannot be negated; use a condition.");
+        assertSyntaxError("[a]\nflock,,camino - Browser-Flock\n", "test:2: Empty list item.");
+        assertSyntaxError("[a]\na b c d e f g h i\n", "test:2: Too many columns (9).");
+    }
+
+    private static void assertSyntaxError(String table, String expectedMessage) throws IOException {
+        try {
+            RuleTable.parse(new StringReader(table), "test");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals(expectedMessage, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnknownHandlerAndChain() throws IOException {
+        try {
+            compile("[a]\nflock - - - - - - NONE\n", "a");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("test:2: Unknown handler \"NONE\".", e.getMessage());
+        }
+        try {
+            compile("[a]\nflock - - - - - - @none\n", "a");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("test:2: Unknown chain \"@none\".", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLargeChain() throws IOException {
+
+        // More than 64 rules, so the rule masks span multiple words
+        StringBuilder table = new StringBuilder("[a]\n");
+        for (int i = 0; i < 100; i++) {
+            table.append("keyword").append(i).append("x - Name-").append(i).append('\n');
+        }
+        RuleTable rules = RuleTable.parse(new StringReader(table.toString()), "test");
+        KeywordScanner scanner = new KeywordScanner(rules.getKeywords(), new String[0][]);
+        rules.compile(scanner, Collections.<String, RuleTable.Handler> emptyMap());
+
+        _scanner = scanner;
+        assertNames(apply(rules.getChain("a"), "keyword99x keyword70x"), "Name-70");
+    }
+}
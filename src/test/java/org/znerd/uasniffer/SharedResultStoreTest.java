@@ -0,0 +1,189 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedResultStoreTest {
+
+    private static final String MSIE = "Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0)";
+    private static final String CHROME = "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/28.0.1500.72 Safari/537.36";
+
+    private File _file;
+
+    @Before
+    public void setUp() throws IOException {
+        _file = File.createTempFile("uasniffer", ".store");
+    }
+
+    @After
+    public void tearDown() {
+        _file.delete();
+    }
+
+    @Test
+    public void testSameResultsAsSniffer() throws Exception {
+        SnifferTestData data = SnifferAgentStringsTest.loadTestData();
+        SharedResultStore writer = new SharedResultStore(_file, 4096);
+        try {
+            for (int i = 0; i < data.size(); i++) {
+                String agentString = ((SnifferTestDataEntry) data.getTestValue(i)).getAgentString();
+                assertEquals(agentString, Sniffer.analyze(agentString).getNames(), writer.analyze(agentString).getNames());
+            }
+        } finally {
+            writer.close();
+        }
+
+        // A store opened later, like one in another JVM, finds the results in the file
+        SharedResultStore reader = new SharedResultStore(_file, 16);
+        try {
+            assertEquals(4096, reader.getSlotCount());
+            for (int i = 0; i < data.size(); i++) {
+                String agentString = ((SnifferTestDataEntry) data.getTestValue(i)).getAgentString();
+                UserAgent ua = reader.analyze(agentString);
+                assertEquals(agentString, Sniffer.analyze(agentString).getNames(), ua.getNames());
+                UserAgentTypesTest.assertSameTypes(agentString, Sniffer.analyze(agentString), ua);
+                assertEquals(agentString, ua.getAgentString());
+            }
+            assertTrue(reader.getHitCount() > 0L);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        SharedResultStore store = new SharedResultStore(_file, 64);
+        try {
+            UserAgent first = store.analyze(CHROME);
+            UserAgent second = store.analyze(CHROME);
+            assertNotSame(first, second);
+            assertEquals(first.getNames(), second.getNames());
+            assertTrue(second.hasName("Browser-Chrome-28-0-1500"));
+            assertEquals(1L, store.getHitCount());
+            assertEquals(1L, store.getMissCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testCorruptSlotIsAMiss() throws IOException {
+        SharedResultStore store = new SharedResultStore(_file, 4);
+        store.analyze(MSIE);
+        store.close();
+
+        // Flip a byte in the payload of every slot
+        RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+        try {
+            for (int slot = 0; slot < 4; slot++) {
+                long position = 64 + slot * 512 + 30;
+                raf.seek(position);
+                int b = raf.read();
+                raf.seek(position);
+                raf.write(b ^ 0xFF);
+            }
+        } finally {
+            raf.close();
+        }
+
+        store = new SharedResultStore(_file, 4);
+        try {
+            assertEquals(Sniffer.analyze(MSIE).getNames(), store.analyze(MSIE).getNames());
+            assertEquals(0L, store.getHitCount());
+            assertEquals(1L, store.getMissCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testFullBucketIsOverwritten() throws IOException {
+        SharedResultStore store = new SharedResultStore(_file, 4);
+        try {
+            for (int i = 0; i < 20; i++) {
+                String agentString = MSIE + " " + i;
+                assertEquals(Sniffer.analyze(agentString).getNames(), store.analyze(agentString).getNames());
+            }
+            String last = MSIE + " 19";
+            assertEquals(Sniffer.analyze(last).getNames(), store.analyze(last).getNames());
+            assertEquals(1L, store.getHitCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testIncompatibleFile() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+        try {
+            raf.write("This is not a result store, just some text.....................".getBytes("US-ASCII"));
+        } finally {
+            raf.close();
+        }
+        try {
+            new SharedResultStore(_file);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // as expected
+        }
+    }
+
+    @Test
+    public void testCacheInFrontOfStore() throws IOException {
+        SharedResultStore store = new SharedResultStore(_file, 64);
+        try {
+            new UserAgentCache(16, 1, store).analyze(MSIE);
+
+            // A new cache, e.g. after a restart, is filled from the store
+            UserAgentCache cache = new UserAgentCache(16, 1, store);
+            assertEquals(Sniffer.analyze(MSIE).getNames(), cache.analyze(MSIE).getNames());
+            assertEquals(1L, cache.getMissCount());
+            assertEquals(1L, store.getHitCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testInvalidArguments() throws IOException {
+        try {
+            new SharedResultStore(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            new SharedResultStore(_file, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+
+        SharedResultStore store = new SharedResultStore(_file, 4);
+        try {
+            store.analyze(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        store.close();
+        try {
+            store.analyze(MSIE);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // as expected
+        }
+    }
+}
@@ -28,8 +28,7 @@ public class SnifferAgentStringsTest extends Object {
         this.entry = entry;
         agentString = entry.getAgentString();
         ua = Sniffer.analyze(agentString);
-        actualNames = ua.getNames();
-
+        actualNames = new HashSet<String>(ua.getNames());
     }
 
     @PolySuite.Config
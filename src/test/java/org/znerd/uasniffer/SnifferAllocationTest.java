@@ -0,0 +1,87 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Allocation budgets for {@link Sniffer#analyze(String)}, per category of agent strings from the unit test input. A test fails when the
+ * average number of bytes allocated per call exceeds its budget, so that allocation reductions are not undone unnoticed.
+ * <p>
+ * The budgets are the measured allocations plus about 25% headroom, so that differences between JVMs do not make the tests fail. When an
+ * allocation reduction lowers the measured number substantially, lower the budget too.
+ */
+public class SnifferAllocationTest {
+
+    /**
+     * The number of times each agent string is analyzed before and during the measurement.
+     */
+    private static final int RUNS = 200;
+
+    // Measured on HotSpot 17: 1056, 1505, 1504, 1847 and 1401 bytes
+    private static final long BOT_BUDGET = 1300L;
+    private static final long LEGACY_MSIE_BUDGET = 1900L;
+    private static final long MODERN_CHROME_BUDGET = 1900L;
+    private static final long MOBILE_SAFARI_BUDGET = 2300L;
+    private static final long ALL_BUDGET = 1750L;
+
+    @Before
+    public void checkSupported() {
+        assumeTrue(AllocationCounter.isSupported());
+    }
+
+    /**
+     * Determines the average number of bytes allocated per analyzed agent string.
+     */
+    private static long bytesPerCall(final List<String> agentStrings) {
+        Runnable task = new Runnable() {
+            public void run() {
+                for (String agentString : agentStrings) {
+                    Sniffer.analyze(agentString);
+                }
+            }
+        };
+        return AllocationCounter.bytesPerRun(task, RUNS) / agentStrings.size();
+    }
+
+    private static void assertWithinBudget(String category, List<String> agentStrings, long budget) {
+        long bytes = bytesPerCall(agentStrings);
+        assertTrue(category + ": allocated " + bytes + " bytes per call, budget is " + budget + '.', bytes <= budget);
+    }
+
+    private static void assertWithinBudget(BenchmarkCorpus.Category category, long budget) {
+        assertWithinBudget(category.name(), BenchmarkCorpus.agentStrings(category), budget);
+    }
+
+    @Test
+    public void testBots() {
+        assertWithinBudget(BenchmarkCorpus.Category.BOT, BOT_BUDGET);
+    }
+
+    @Test
+    public void testLegacyMSIE() {
+        assertWithinBudget(BenchmarkCorpus.Category.LEGACY_MSIE, LEGACY_MSIE_BUDGET);
+    }
+
+    @Test
+    public void testModernChrome() {
+        assertWithinBudget(BenchmarkCorpus.Category.MODERN_CHROME, MODERN_CHROME_BUDGET);
+    }
+
+    @Test
+    public void testMobileSafari() {
+        assertWithinBudget(BenchmarkCorpus.Category.MOBILE_SAFARI, MOBILE_SAFARI_BUDGET);
+    }
+
+    @Test
+    public void testAll() {
+        assertWithinBudget("ALL", Arrays.asList(BenchmarkCorpus.agentStrings()), ALL_BUDGET);
+    }
+}
@@ -0,0 +1,79 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SnifferBatchTest {
+
+    private static String[] corpus() throws Exception {
+        SnifferTestData data = SnifferAgentStringsTest.loadTestData();
+        String[] agentStrings = new String[data.size()];
+        for (int i = 0; i < agentStrings.length; i++) {
+            agentStrings[i] = ((SnifferTestDataEntry) data.getTestValue(i)).getAgentString();
+        }
+        return agentStrings;
+    }
+
+    @Test
+    public void testResultsInInputOrder() throws Exception {
+
+        // Repeat the corpus a few times, so the batch is large enough to be split over threads
+        String[] corpus = corpus();
+        List<String> input = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            input.addAll(Arrays.asList(corpus));
+        }
+        List<UserAgent> results = Sniffer.analyzeAll(input);
+
+        assertEquals(input.size(), results.size());
+        for (int i = 0; i < input.size(); i++) {
+            String agentString = input.get(i);
+            assertEquals(agentString, results.get(i).getAgentString());
+            assertEquals(Sniffer.analyze(agentString).getNames(), results.get(i).getNames());
+        }
+    }
+
+    @Test
+    public void testDuplicatesShareResult() {
+        String msie = "Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0)";
+        String[] input = new String[] { msie, "Opera/9.80 (Windows NT 6.1; U; en) Presto/2.2.15 Version/10.00", new String(msie) };
+        UserAgent[] results = Sniffer.analyzeAll(input);
+
+        assertEquals(3, results.length);
+        assertSame(results[0], results[2]);
+        assertNotSame(results[0], results[1]);
+        assertEquals(input[1], results[1].getAgentString());
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        assertEquals(0, Sniffer.analyzeAll(new String[0]).length);
+        assertEquals(0, Sniffer.analyzeAll(new ArrayList<String>()).size());
+    }
+
+    @Test
+    public void testNullArguments() {
+        try {
+            Sniffer.analyzeAll((String[]) null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            Sniffer.analyzeAll(Arrays.asList("Mozilla/4.0", null));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+}
@@ -0,0 +1,102 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SnifferBotTest {
+
+    /**
+     * Agent strings with a bot keyword combined with device keywords, which are checked for before bots or change the device classes of a bot.
+     */
+    private static final String[] MIXED = new String[] { "Googlebot (iPad)", "Googlebot (iPhone)", "Googlebot (Android)", "Googlebot (Android; Tablet)",
+            "Googlebot (Nook BNTV250)", "Googlebot Mobile", "Googlebot Pre/1.0", "Googlebot Kindle/3.0", "Googlebot silk-accelerated=true",
+            "Googlebot (PlayStation Vita 1.5)", "Googlebot webOS/2.0", "Googlebot Xoom", "Java/1.6.0_26 (Windows NT 6.1)" };
+
+    private static List<String> agentStrings() throws Exception {
+        List<String> agentStrings = new ArrayList<String>();
+        SnifferTestData data = SnifferAgentStringsTest.loadTestData();
+        for (int i = 0; i < data.size(); i++) {
+            agentStrings.add(((SnifferTestDataEntry) data.getTestValue(i)).getAgentString());
+        }
+        for (String agentString : MIXED) {
+            agentStrings.add(agentString);
+        }
+        return agentStrings;
+    }
+
+    @Test
+    public void testConsistentWithFullAnalysis() throws Exception {
+        for (String agentString : agentStrings()) {
+            UserAgent ua = Sniffer.analyze(agentString);
+            BotFamily family = ua.getBotFamily();
+            assertEquals(agentString, family != null, Sniffer.isBot(agentString));
+            assertEquals(agentString, family, Sniffer.getBotFamily(agentString));
+            assertEquals(agentString, family != null, Sniffer.isBot(new StringBuilder(agentString)));
+            if (family != null) {
+                assertNull(agentString, ua.getOperatingSystem());
+                assertNull(agentString, ua.getBrowserEngine());
+                assertNull(agentString, ua.getBrowser());
+            }
+        }
+    }
+
+    @Test
+    public void testFamilies() {
+        assertEquals(BotFamily.GOOGLE, Sniffer.getBotFamily("Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)"));
+        assertEquals(BotFamily.BING, Sniffer.getBotFamily("Mozilla/5.0 (compatible; bingbot/2.0; +http://www.bing.com/bingbot.htm)"));
+        assertEquals(BotFamily.BING, Sniffer.getBotFamily("msnbot/2.0b (+http://search.msn.com/msnbot.htm)"));
+        assertEquals(BotFamily.BAIDU, Sniffer.getBotFamily("Mozilla/5.0 (compatible; Baiduspider/2.0; +http://www.baidu.com/search/spider.html)"));
+        assertEquals(BotFamily.SEO, Sniffer.getBotFamily("Mozilla/5.0 (compatible; AhrefsBot/5.0; +http://ahrefs.com/robot/)"));
+        assertEquals(BotFamily.SOCIAL, Sniffer.getBotFamily("Twitterbot/1.0"));
+        assertEquals(BotFamily.LIBRARY, Sniffer.getBotFamily("Java/1.7.0_25"));
+        assertEquals(BotFamily.OTHER, Sniffer.getBotFamily("Sogou web spider/4.0(+http://www.sogou.com/docs/help/webmasters.htm#07)"));
+        assertNull(Sniffer.getBotFamily("Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0)"));
+
+        UserAgent ua = Sniffer.analyze("Mozilla/5.0 (compatible; YandexBot/3.0; +http://yandex.com/bots)");
+        assertEquals(BotFamily.YANDEX, ua.getBotFamily());
+        assertEquals(BotFamily.YANDEX, ua.getBotFamily());
+        assertNull(Sniffer.analyze("Mozilla/5.0 (Windows NT 6.1; rv:22.0) Gecko/20100101 Firefox/22.0").getBotFamily());
+    }
+
+    @Test
+    public void testDevicesCheckedBeforeBots() {
+        assertFalse(Sniffer.isBot("Googlebot Mobile"));
+        assertFalse(Sniffer.isBot("Googlebot (Android)"));
+        assertFalse(Sniffer.isBot("Googlebot (Nook BNTV250)"));
+
+        // Bots that identify as a device get its names and device classes
+        assertTrue(Sniffer.isBot("Googlebot (Android; Tablet)"));
+        UserAgent ua = Sniffer.analyze("Googlebot (iPad)");
+        assertEquals(BotFamily.GOOGLE, ua.getBotFamily());
+        assertEquals(EnumSet.of(DeviceClass.MOBILE, DeviceClass.TABLET), ua.getDeviceClasses());
+        assertTrue(ua.hasName("Device-AppleTouch-iPad"));
+        assertEquals(EnumSet.of(DeviceClass.MOBILE, DeviceClass.TABLET), Sniffer.analyzeDevice("Googlebot (iPad)"));
+    }
+
+    @Test
+    public void testNullArgument() {
+        try {
+            Sniffer.isBot(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            Sniffer.getBotFamily(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+}
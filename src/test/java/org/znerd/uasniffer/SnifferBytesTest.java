@@ -0,0 +1,97 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class SnifferBytesTest {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final String MSIE = "Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0)";
+
+    @Test
+    public void testSameResultsAsString() throws Exception {
+        SnifferTestData data = SnifferAgentStringsTest.loadTestData();
+        for (int i = 0; i < data.size(); i++) {
+            String agentString = ((SnifferTestDataEntry) data.getTestValue(i)).getAgentString();
+            if (!ISO_8859_1.newEncoder().canEncode(agentString)) {
+                continue;
+            }
+            UserAgent expected = Sniffer.analyze(agentString);
+
+            // Surround the agent string with other bytes, to check the offset and length are honored
+            byte[] bytes = ("Foo: " + agentString + "\r\n").getBytes(ISO_8859_1);
+            int length = bytes.length - 7;
+            assertEquals(agentString, expected.getNames(), Sniffer.analyze(bytes, 5, length).getNames());
+
+            ByteBuffer heapBuffer = ByteBuffer.wrap(bytes, 5, length).slice();
+            assertEquals(agentString, expected.getNames(), Sniffer.analyze(heapBuffer).getNames());
+
+            ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytes.length);
+            directBuffer.put(bytes).position(5).limit(5 + length);
+            assertEquals(agentString, expected.getNames(), Sniffer.analyze(directBuffer).getNames());
+            assertEquals(5, directBuffer.position());
+
+            assertEquals(agentString, expected.getNames(), Sniffer.analyze(new StringBuilder(agentString)).getNames());
+        }
+    }
+
+    @Test
+    public void testAgentStringIsCreatedLazily() {
+        byte[] bytes = MSIE.getBytes(ISO_8859_1);
+        UserAgent ua = Sniffer.analyze(bytes, 0, bytes.length);
+        assertFalse(ua.getAgentText() instanceof String);
+
+        // The bytes are copied, so the caller can reuse the array
+        bytes[0] = 'X';
+        assertEquals(MSIE, ua.getAgentString());
+        assertEquals(MSIE, ua.toString());
+    }
+
+    @Test
+    public void testNonASCIIBytes() {
+        byte[] bytes = new byte[] { 'M', 'S', 'I', 'E', ' ', '7', '.', '0', ' ', (byte) 0xE9 };
+        UserAgent ua = Sniffer.analyze(ByteBuffer.wrap(bytes));
+        assertEquals("MSIE 7.0 \u00e9", ua.getAgentString());
+        assertEquals(Sniffer.analyze("MSIE 7.0 \u00e9").getNames(), ua.getNames());
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        byte[] bytes = new byte[10];
+        assertInvalid(null, 0, 0);
+        assertInvalid(bytes, -1, 5);
+        assertInvalid(bytes, 0, -1);
+        assertInvalid(bytes, 6, 5);
+        assertEquals("", Sniffer.analyze(bytes, 10, 0).getAgentString());
+        try {
+            Sniffer.analyze((ByteBuffer) null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            Sniffer.analyze((CharSequence) null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+
+    private static void assertInvalid(byte[] bytes, int offset, int length) {
+        try {
+            Sniffer.analyze(bytes, offset, length);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+}
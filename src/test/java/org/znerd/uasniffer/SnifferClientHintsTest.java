@@ -0,0 +1,186 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SnifferClientHintsTest {
+
+    private static final String REDUCED_WINDOWS = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.0.0 Safari/537.36";
+    private static final String REDUCED_ANDROID = "Mozilla/5.0 (Linux; Android 10; K) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.0.0 Mobile Safari/537.36";
+    private static final String CHROME_BRANDS = "\"Chromium\";v=\"110.0.5481.77\", \"Not A(Brand\";v=\"24.0.0.0\", \"Google Chrome\";v=\"110.0.5481.77\"";
+
+    private static Map<String, String> headers(String agentString, String fullVersionList, String platform, String platformVersion, String mobile) {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (agentString != null) {
+            headers.put("User-Agent", agentString);
+        }
+        headers.put("Sec-CH-UA", "\"Chromium\";v=\"110\", \"Not A(Brand\";v=\"24\", \"Google Chrome\";v=\"110\"");
+        if (fullVersionList != null) {
+            headers.put("Sec-CH-UA-Full-Version-List", fullVersionList);
+        }
+        if (platform != null) {
+            headers.put("Sec-CH-UA-Platform", '"' + platform + '"');
+        }
+        if (platformVersion != null) {
+            headers.put("Sec-CH-UA-Platform-Version", '"' + platformVersion + '"');
+        }
+        headers.put("Sec-CH-UA-Mobile", mobile);
+        return headers;
+    }
+
+    /**
+     * Returns the headers a Chromium based browser sends by default: only the low entropy hints.
+     */
+    private static Map<String, String> lowEntropyHeaders(String agentString, String majorVersion, String platform, String mobile) {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("User-Agent", agentString);
+        headers.put("Sec-CH-UA", "\"Not_A Brand\";v=\"99\", \"Google Chrome\";v=\"" + majorVersion + "\", \"Chromium\";v=\"" + majorVersion + '"');
+        headers.put("Sec-CH-UA-Platform", '"' + platform + '"');
+        headers.put("Sec-CH-UA-Mobile", mobile);
+        return headers;
+    }
+
+    private static void assertSameAs(String fullAgentString, Map<String, String> headers) {
+        UserAgent ua = Sniffer.analyze(headers);
+        String agentString = ClientHints.header(headers, "User-Agent");
+        assertEquals(agentString == null ? "" : agentString, ua.getAgentString());
+
+        UserAgent expected = Sniffer.analyze(fullAgentString);
+        assertEquals(fullAgentString, expected.getNames(), ua.getNames());
+        UserAgentTypesTest.assertSameTypes(fullAgentString, expected, ua);
+    }
+
+    @Test
+    public void testDesktop() {
+        assertSameAs("Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.5481.77 Safari/537.36",
+                headers(REDUCED_WINDOWS, CHROME_BRANDS, "Windows", "0.1.0", "?0"));
+        assertSameAs("Mozilla/5.0 (Windows NT 6.3; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.5481.77 Safari/537.36",
+                headers(REDUCED_WINDOWS, CHROME_BRANDS, "Windows", "0.3.0", "?0"));
+        assertSameAs("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.5481.77 Safari/537.36",
+                headers(REDUCED_WINDOWS, CHROME_BRANDS, "Windows", "15.0.0", "?0"));
+        assertSameAs("Mozilla/5.0 (Macintosh; Intel Mac OS X 13_2_1) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.5481.77 Safari/537.36",
+                headers(REDUCED_WINDOWS, CHROME_BRANDS, "macOS", "13.2.1", "?0"));
+        assertSameAs("Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.5481.77 Safari/537.36",
+                headers(REDUCED_WINDOWS, CHROME_BRANDS, "Linux", "", "?0"));
+        assertSameAs("Mozilla/5.0 (X11; CrOS x86_64 15278.64.0) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.5481.77 Safari/537.36",
+                headers(REDUCED_WINDOWS, CHROME_BRANDS, "Chrome OS", "15278.64.0", "?0"));
+    }
+
+    @Test
+    public void testMobile() {
+        Map<String, String> headers = headers(REDUCED_ANDROID, CHROME_BRANDS, "Android", "13.0.0", "?1");
+        headers.put("Sec-CH-UA-Model", "\"Pixel 7\"");
+        assertSameAs("Mozilla/5.0 (Linux; Android 13.0.0; Pixel 7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.5481.77 Mobile Safari/537.36",
+                headers);
+    }
+
+    @Test
+    public void testLowEntropyHintsOnly() {
+
+        // Without the high entropy hints, the result is the same as for the reduced agent string
+        assertSameAs(REDUCED_WINDOWS, headers(REDUCED_WINDOWS, null, "Windows", null, "?0"));
+        assertSameAs(REDUCED_ANDROID, headers(REDUCED_ANDROID, null, "Android", null, "?1"));
+
+        // Without a User-Agent header, there is nothing to take the full version and the platform version from
+        assertSameAs("", headers(null, null, "Windows", null, "?0"));
+    }
+
+    @Test
+    public void testLowEntropyHintsWithUnreducedAgentString() {
+
+        // The versions the hints leave out are taken from the User-Agent header, not made up
+        String windows7 = "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/109.0.5414.120 Safari/537.36";
+        assertSameAs(windows7, lowEntropyHeaders(windows7, "109", "Windows", "?0"));
+        UserAgent ua = Sniffer.analyze(lowEntropyHeaders(windows7, "109", "Windows", "?0"));
+        assertTrue(ua.hasName("BrowserOS-Windows-7"));
+        assertTrue(ua.hasName("Browser-Chrome-109-0-5414-120"));
+
+        String mac = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_13_6) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/109.0.5414.119 Safari/537.36";
+        assertSameAs(mac, lowEntropyHeaders(mac, "109", "macOS", "?0"));
+        String android = "Mozilla/5.0 (Linux; Android 6.0.1; Nexus 5X Build/MMB29P) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/109.0.5414.117 Mobile Safari/537.36";
+        assertSameAs(android, lowEntropyHeaders(android, "109", "Android", "?1"));
+        String chromeOS = "Mozilla/5.0 (X11; CrOS x86_64 15236.80.0) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/109.0.5414.125 Safari/537.36";
+        assertSameAs(chromeOS, lowEntropyHeaders(chromeOS, "109", "Chrome OS", "?0"));
+
+        // Bots that send hints
+        String googlebot = "Mozilla/5.0 (Linux; Android 6.0.1; Nexus 5X Build/MMB29P) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/109.0.5414.117 Mobile Safari/537.36 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)";
+        assertSameAs(googlebot, lowEntropyHeaders(googlebot, "109", "Android", "?1"));
+
+        // Hints and header that disagree on the major version or the platform
+        assertSameAs(windows7, lowEntropyHeaders(windows7, "110", "Windows", "?0"));
+        assertSameAs(mac, lowEntropyHeaders(mac, "109", "Windows", "?0"));
+    }
+
+    @Test
+    public void testOtherBrands() {
+        assertSameAs(REDUCED_WINDOWS + " OPR/96.0.4693.50", headers(REDUCED_WINDOWS + " OPR/96.0.4693.50",
+                "\"Chromium\";v=\"110.0.0.0\", \"Opera\";v=\"96.0.4693.50\", \"Not A(Brand\";v=\"24.0.0.0\"", "Windows", null, "?0"));
+        assertSameAs(REDUCED_WINDOWS + " Edg/110.0.1587.57", headers(REDUCED_WINDOWS + " Edg/110.0.1587.57",
+                "\"Chromium\";v=\"110.0.0.0\", \"Not A(Brand\";v=\"24.0.0.0\", \"Microsoft Edge\";v=\"110.0.1587.57\"", "Windows", null, "?0"));
+
+        // Unknown brands fall back to the agent string
+        String agentString = "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/28.0.1500.72 Safari/537.36";
+        assertSameAs(agentString, headers(agentString, "\"Chromium\";v=\"110.0.0.0\", \"Brave\";v=\"110.0.0.0\"", "Windows", null, "?0"));
+    }
+
+    @Test
+    public void testFallback() {
+        String agentString = "Mozilla/5.0 (Windows NT 6.1; WOW64; rv:22.0) Gecko/20100101 Firefox/22.0";
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("User-Agent", agentString);
+        assertSameAs(agentString, headers);
+
+        // Incomplete or malformed hints
+        assertSameAs(agentString, headers(agentString, CHROME_BRANDS, null, null, "?0"));
+        assertSameAs(agentString, headers(agentString, CHROME_BRANDS, "Fuchsia", null, "?0"));
+        assertSameAs(agentString, headers(agentString, "Chromium;v=110", "Windows", null, "?0"));
+        assertSameAs(agentString, headers(agentString, "\"Google Chrome\";v=\"110\"", "Windows", null, "?0"));
+
+        assertSameAs("", new HashMap<String, String>());
+    }
+
+    @Test
+    public void testHeaderNamesIgnoreCase() {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("user-agent", REDUCED_WINDOWS);
+        headers.put("sec-ch-ua", "\"Chromium\";v=\"110\", \"Google Chrome\";v=\"110\"");
+        headers.put("sec-ch-ua-platform", "\"Windows\"");
+        headers.put("sec-ch-ua-platform-version", "\"0.1.0\"");
+        assertSameAs("Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.0.0 Safari/537.36", headers);
+    }
+
+    @Test
+    public void testParseBrands() {
+        Map<String, String> brands = ClientHints.parseBrands(" \"Chromium\";v=\"110\" ,\"Not=A?Brand\"; x=\"1\"; v=\"8\",\"Google Chrome\";v=\"110\"");
+        assertEquals("{Chromium=110, Not=A?Brand=8, Google Chrome=110}", brands.toString());
+        assertNull(ClientHints.parseBrands(""));
+        assertNull(ClientHints.parseBrands("\"Chromium\""));
+        assertNull(ClientHints.parseBrands("\"Chromium\";v=\"110\" \"Google Chrome\";v=\"110\""));
+        assertNull(ClientHints.parseBrands("\"Chromium\";v=\"beta\""));
+        assertNull(ClientHints.parseBrands("\"Chromium;v=\"110\""));
+
+        assertEquals("Windows", ClientHints.parseString(" \"Windows\" "));
+        assertNull(ClientHints.parseString("Windows"));
+        assertNull(ClientHints.parseString("\"Windows\" x"));
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        try {
+            Sniffer.analyze((Map<String, String>) null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+}
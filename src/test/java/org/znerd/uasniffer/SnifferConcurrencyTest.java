@@ -0,0 +1,130 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Analyzes the test input from many threads at once and verifies that every result matches the single-threaded one.
+ */
+public class SnifferConcurrencyTest {
+
+    private static final int ROUNDS = 2;
+
+    private static String[] AGENT_STRINGS;
+    private static UserAgent[] EXPECTED;
+
+    @BeforeClass
+    public static void analyzeSingleThreaded() throws Exception {
+        SnifferTestData data = SnifferAgentStringsTest.loadTestData();
+        AGENT_STRINGS = new String[data.size()];
+        EXPECTED = new UserAgent[data.size()];
+        for (int i = 0; i < data.size(); i++) {
+            AGENT_STRINGS[i] = ((SnifferTestDataEntry) data.getTestValue(i)).getAgentString();
+            EXPECTED[i] = Sniffer.analyze(AGENT_STRINGS[i]);
+        }
+    }
+
+    /**
+     * Returns the thread counts to test with: powers of 2, up to twice the number of processors, at least 8.
+     */
+    static List<Integer> threadCounts() {
+        int max = Math.min(32, Math.max(8, 2 * Runtime.getRuntime().availableProcessors()));
+        List<Integer> counts = new ArrayList<Integer>();
+        for (int count = 1; count <= max; count *= 2) {
+            counts.add(count);
+        }
+        return counts;
+    }
+
+    private static void assertSameResults(ThreadFactory threads) throws Exception {
+        for (final int threadCount : threadCounts()) {
+            final UserAgentCache cache = new UserAgentCache(64, 4);
+            final Queue<String> mismatches = new ConcurrentLinkedQueue<String>();
+            ConcurrentRunner.Result result = ConcurrentRunner.run(threads, threadCount, new ConcurrentRunner.Task() {
+                public long run(int threadIndex) {
+
+                    // Each thread starts elsewhere in the input, so threads analyze both the same and different agent strings at once
+                    int count = AGENT_STRINGS.length;
+                    int offset = threadIndex * count / threadCount;
+                    for (int n = 0; n < ROUNDS * count; n++) {
+                        int i = (offset + n) % count;
+                        check(i, Sniffer.analyze(AGENT_STRINGS[i]), mismatches);
+                        check(i, cache.analyze(AGENT_STRINGS[i]), mismatches);
+                    }
+                    return 2L * ROUNDS * count;
+                }
+            });
+            assertTrue(threadCount + " threads: " + mismatches.size() + " mismatches, first: " + mismatches.peek(), mismatches.isEmpty());
+            assertEquals(2L * ROUNDS * AGENT_STRINGS.length * threadCount, result.getOperations());
+        }
+    }
+
+    private static void check(int index, UserAgent ua, Queue<String> mismatches) {
+        UserAgent expected = EXPECTED[index];
+        if (!ua.getNames().equals(expected.getNames()) || !ua.getNamesAsString().equals(expected.getNamesAsString())
+                || !ua.getAgentString().equals(AGENT_STRINGS[index])) {
+            mismatches.add(AGENT_STRINGS[index] + ": " + ua.getNames());
+            return;
+        }
+        for (int i = 0; i < UserAgent.TYPE_VALUE_COUNT; i++) {
+            if (ua.getTypeValue(i) != expected.getTypeValue(i)) {
+                mismatches.add(AGENT_STRINGS[index] + ": type value " + i);
+                return;
+            }
+        }
+    }
+
+    @Test
+    public void testPlatformThreads() throws Exception {
+        assertSameResults(ConcurrentRunner.platformThreads());
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        ThreadFactory threads = ConcurrentRunner.virtualThreads();
+        assumeTrue(threads != null);
+        assertSameResults(threads);
+    }
+
+    @Test
+    public void testNameRegistry() throws Exception {
+        final int nameCount = 500;
+        final int threadCount = 8;
+        final int[][] ids = new int[threadCount][nameCount];
+        ConcurrentRunner.run(ConcurrentRunner.platformThreads(), threadCount, new ConcurrentRunner.Task() {
+            public long run(int threadIndex) {
+
+                // Half of the threads register the names in reverse order
+                for (int n = 0; n < nameCount; n++) {
+                    int i = threadIndex % 2 == 0 ? n : nameCount - 1 - n;
+                    ids[threadIndex][i] = NameRegistry.register("Browser-SnifferConcurrencyTest-" + i);
+                }
+                return nameCount;
+            }
+        });
+
+        Set<Integer> distinct = new HashSet<Integer>();
+        for (int i = 0; i < nameCount; i++) {
+            for (int t = 1; t < threadCount; t++) {
+                assertEquals(ids[0][i], ids[t][i]);
+            }
+            assertEquals("Browser-SnifferConcurrencyTest-" + i, NameRegistry.getName(ids[0][i]));
+            distinct.add(ids[0][i]);
+        }
+        assertEquals(nameCount, distinct.size());
+    }
+}
@@ -0,0 +1,48 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+public class SnifferDeviceTest {
+
+    @Test
+    public void testConsistentWithFullAnalysis() throws Exception {
+        SnifferTestData data = SnifferAgentStringsTest.loadTestData();
+        for (int i = 0; i < data.size(); i++) {
+            String agentString = ((SnifferTestDataEntry) data.getTestValue(i)).getAgentString();
+            UserAgent ua = Sniffer.analyze(agentString);
+
+            EnumSet<DeviceClass> expected = EnumSet.noneOf(DeviceClass.class);
+            for (DeviceClass deviceClass : DeviceClass.values()) {
+                if (ua.hasName(deviceClass.getName())) {
+                    expected.add(deviceClass);
+                }
+            }
+            assertEquals(agentString, expected, Sniffer.analyzeDevice(agentString));
+        }
+    }
+
+    @Test
+    public void testDeviceClasses() {
+        assertEquals(EnumSet.of(DeviceClass.DESKTOP), Sniffer.analyzeDevice("Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0)"));
+        assertEquals(EnumSet.of(DeviceClass.MOBILE, DeviceClass.PHONE), Sniffer.analyzeDevice("Mozilla/5.0 (iPhone; CPU iPhone OS 6_1_3 like Mac OS X) AppleWebKit/536.26 (KHTML, like Gecko) Version/6.0 Mobile/10B329 Safari/8536.25"));
+        assertEquals(EnumSet.of(DeviceClass.MOBILE, DeviceClass.TABLET), Sniffer.analyzeDevice("Mozilla/5.0 (iPad; CPU OS 6_0 like Mac OS X) AppleWebKit/536.26 (KHTML, like Gecko) Version/6.0 Mobile/10A5355d Safari/8536.25"));
+        assertEquals(EnumSet.of(DeviceClass.BOT), Sniffer.analyzeDevice("Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)"));
+    }
+
+    @Test
+    public void testNullArgument() {
+        try {
+            Sniffer.analyzeDevice(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+}
@@ -0,0 +1,196 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnifferMetricsTest {
+
+    private static final String DESKTOP = "Mozilla/5.0 (Windows NT 6.1; WOW64; rv:22.0) Gecko/20100101 Firefox/22.0";
+    private static final String PHONE = "Mozilla/5.0 (iPhone; CPU iPhone OS 6_1_4 like Mac OS X) AppleWebKit/536.26 (KHTML, like Gecko) Version/6.0 Mobile/10B350 Safari/8536.25";
+    private static final String BOT = "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)";
+
+    private final SnifferMetrics _metrics = SnifferMetrics.getInstance();
+    private boolean _wasEnabled;
+
+    @Before
+    public void setUp() {
+        _wasEnabled = _metrics.isEnabled();
+        _metrics.setEnabled(true);
+        _metrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        _metrics.setEnabled(_wasEnabled);
+        _metrics.reset();
+    }
+
+    @Test
+    public void testCounts() {
+        Sniffer.analyze(DESKTOP);
+        Sniffer.analyze(PHONE);
+        Sniffer.analyze(BOT);
+        Sniffer.analyzeDevice(PHONE);
+
+        SnifferMetrics.Snapshot snapshot = _metrics.getSnapshot();
+        assertEquals(3L, snapshot.getCallCount());
+        assertEquals(1L, snapshot.getDeviceOnlyCallCount());
+        assertEquals(1L, snapshot.getDesktopCount());
+        assertEquals(2L, snapshot.getMobileCount());
+        assertEquals(2L, snapshot.getPhoneCount());
+        assertEquals(1L, snapshot.getBotCount());
+        assertEquals(0L, snapshot.getTabletCount());
+
+        // Bots skip the OS, engine and browser stages
+        assertEquals(3L, snapshot.stage(SnifferMetrics.Stage.DEVICE).getCount());
+        assertEquals(2L, snapshot.stage(SnifferMetrics.Stage.OS).getCount());
+        assertEquals(2L, snapshot.stage(SnifferMetrics.Stage.ENGINE).getCount());
+        assertEquals(2L, snapshot.stage(SnifferMetrics.Stage.BROWSER).getCount());
+
+        SnifferMetrics.StageSnapshot device = snapshot.getDeviceStage();
+        long bucketTotal = 0L;
+        for (long count : device.getBucketCounts()) {
+            bucketTotal += count;
+        }
+        assertEquals(device.getCount(), bucketTotal);
+        assertTrue(device.getP50Nanos() <= device.getP99Nanos());
+        assertTrue(device.getTotalNanos() >= 0L);
+    }
+
+    @Test
+    public void testPrecomputedTable() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrecomputedTable.write(Arrays.asList(DESKTOP, PHONE, BOT), out);
+        PrecomputedTable table = PrecomputedTable.read(new ByteArrayInputStream(out.toByteArray()));
+        _metrics.reset();
+
+        for (int i = 0; i < 10; i++) {
+            Sniffer.analyze(PHONE, table);
+        }
+        Sniffer.analyze(BOT, table);
+        Sniffer.analyze(DESKTOP + " ", table);
+
+        // Calls answered from the table are counted, but have no stage timings
+        SnifferMetrics.Snapshot snapshot = _metrics.getSnapshot();
+        assertEquals(12L, snapshot.getCallCount());
+        assertEquals(10L, snapshot.getMobileCount());
+        assertEquals(10L, snapshot.getPhoneCount());
+        assertEquals(1L, snapshot.getBotCount());
+        assertEquals(1L, snapshot.getDesktopCount());
+        assertEquals(1L, snapshot.stage(SnifferMetrics.Stage.DEVICE).getCount());
+    }
+
+    @Test
+    public void testCache() {
+        UserAgentCache cache = new UserAgentCache(16);
+        cache.analyze(DESKTOP);
+        cache.analyze(DESKTOP);
+        cache.analyze(DESKTOP);
+        assertEquals(2L, _metrics.getCacheHitCount());
+        assertEquals(1L, _metrics.getCacheMissCount());
+        assertEquals(1L, _metrics.getCallCount());
+    }
+
+    @Test
+    public void testClientHints() {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.0.0 Safari/537.36");
+        headers.put("Sec-CH-UA", "\"Chromium\";v=\"110\", \"Not A(Brand\";v=\"24\", \"Google Chrome\";v=\"110\"");
+        headers.put("Sec-CH-UA-Platform", "\"Windows\"");
+        headers.put("Sec-CH-UA-Platform-Version", "\"15.0.0\"");
+        headers.put("Sec-CH-UA-Mobile", "?0");
+        for (int i = 0; i < 5; i++) {
+            Sniffer.analyze(headers);
+        }
+
+        // The results cached for client hints count as calls, not as cache lookups
+        SnifferMetrics.Snapshot snapshot = _metrics.getSnapshot();
+        assertEquals(5L, snapshot.getCallCount());
+        assertEquals(5L, snapshot.getDesktopCount());
+        assertEquals(0L, snapshot.getCacheHitCount());
+        assertEquals(0L, snapshot.getCacheMissCount());
+    }
+
+    @Test
+    public void testDisabled() {
+        _metrics.setEnabled(false);
+        Sniffer.analyze(DESKTOP);
+        Sniffer.analyzeDevice(DESKTOP);
+        new UserAgentCache(16).analyze(DESKTOP);
+
+        SnifferMetrics.Snapshot snapshot = _metrics.getSnapshot();
+        assertEquals(0L, snapshot.getCallCount());
+        assertEquals(0L, snapshot.getDeviceOnlyCallCount());
+        assertEquals(0L, snapshot.getDesktopCount());
+        assertEquals(0L, snapshot.getCacheMissCount());
+        assertEquals(0L, snapshot.getDeviceStage().getCount());
+    }
+
+    @Test
+    public void testReset() {
+        Sniffer.analyze(DESKTOP);
+        assertEquals(1L, _metrics.getCallCount());
+        _metrics.reset();
+
+        SnifferMetrics.Snapshot snapshot = _metrics.getSnapshot();
+        assertEquals(0L, snapshot.getCallCount());
+        assertEquals(0L, snapshot.getDesktopCount());
+        assertEquals(0L, snapshot.getOSStage().getCount());
+        assertEquals(0L, snapshot.getOSStage().getP99Nanos());
+    }
+
+    @Test
+    public void testPercentiles() {
+        SnifferMetrics metrics = new SnifferMetrics(true);
+        for (int i = 0; i < 99; i++) {
+            metrics.recordStage(SnifferMetrics.Stage.OS, 100L);
+        }
+        metrics.recordStage(SnifferMetrics.Stage.OS, 5000L);
+
+        SnifferMetrics.StageSnapshot os = metrics.getSnapshot().getOSStage();
+        assertEquals(100L, os.getCount());
+        assertEquals(99L * 100L + 5000L, os.getTotalNanos());
+        assertEquals(127L, os.getP50Nanos());
+        assertEquals(127L, os.getP99Nanos());
+        assertEquals(8191L, os.percentileNanos(100.0));
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        ObjectName name = _metrics.registerMBean();
+        assertEquals(name, _metrics.registerMBean());
+
+        Sniffer.analyze(DESKTOP);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(Boolean.TRUE, server.getAttribute(name, "Enabled"));
+        assertEquals(Long.valueOf(1L), server.getAttribute(name, "CallCount"));
+        assertEquals(Long.valueOf(1L), server.getAttribute(name, "DesktopCount"));
+
+        CompositeData snapshot = (CompositeData) server.getAttribute(name, "Snapshot");
+        assertEquals(Long.valueOf(1L), snapshot.get("callCount"));
+        CompositeData browserStage = (CompositeData) snapshot.get("browserStage");
+        assertEquals(Long.valueOf(1L), browserStage.get("count"));
+        assertEquals("BROWSER", browserStage.get("stage"));
+
+        server.invoke(name, "reset", new Object[0], new String[0]);
+        assertEquals(Long.valueOf(0L), server.getAttribute(name, "CallCount"));
+    }
+}
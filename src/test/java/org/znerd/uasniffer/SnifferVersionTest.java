@@ -0,0 +1,121 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SnifferVersionTest {
+
+    /**
+     * Maximum number of bytes that may be allocated per name added, which covers the name itself.
+     */
+    private static final long BYTES_PER_NAME_BUDGET = 128L;
+
+    /**
+     * Maximum number of bytes that may be allocated per call, in addition to the names.
+     */
+    private static final long BYTES_PER_CALL_BUDGET = 128L;
+
+    private static Set<String> analyzeVersion(String agentString, int index, String basicName, int minVersionParts, boolean splitSecondVersionPart, char underscoreReplacement) {
+        UserAgent ua = new UserAgent(agentString);
+        Sniffer.analyzeVersion(ua, agentString, index, basicName, minVersionParts, splitSecondVersionPart, underscoreReplacement);
+        return ua.getNames();
+    }
+
+    private static Set<String> names(String... names) {
+        return new HashSet<String>(Arrays.asList(names));
+    }
+
+    @Test
+    public void testVersionLadder() {
+        assertEquals(names("B", "B-7", "B-7-0", "B-7-0-0"), analyzeVersion("msie 7.0; windows", 5, "B", 3, false, '_'));
+        assertEquals(names("B", "B-3", "B-3-6", "B-3-6-12"), analyzeVersion("firefox/3.6.12 x", 8, "B", 3, false, '_'));
+        assertEquals(names("B", "B-28", "B-28-0", "B-28-0-1500", "B-28-0-1500-20"), analyzeVersion("chrome/28.0.1500.20", 7, "B", 4, false, '_'));
+        assertEquals(names("B", "B-5"), analyzeVersion("aix 5", 4, "B", 1, false, '_'));
+        assertEquals(names("B", "B-5", "B-5-0"), analyzeVersion("aix 5", 4, "B", 2, false, '_'));
+    }
+
+    @Test
+    public void testNoVersion() {
+        assertEquals(names("B"), analyzeVersion("firefox", -1, "B", 3, false, '_'));
+        assertEquals(names("B"), analyzeVersion("firefox/", 8, "B", 3, false, '_'));
+        assertEquals(names("B"), analyzeVersion("firefox/beta", 8, "B", 3, false, '_'));
+        assertEquals(names("B"), analyzeVersion("firefox/...", 8, "B", 3, false, '_'));
+        assertEquals(names("B"), analyzeVersion("firefox/007", 8, "B", 3, false, '_'));
+    }
+
+    @Test
+    public void testWhiteSpaceAndTrailingDots() {
+        assertEquals(names("B", "B-6", "B-6-1"), analyzeVersion("windows nt  6.1.; wow64", 10, "B", 2, false, '_'));
+        assertEquals(names("B", "B-6", "B-6-1"), analyzeVersion("windows nt\t6.1", 10, "B", 2, false, '_'));
+    }
+
+    @Test
+    public void testLeadingZero() {
+        assertEquals(names("B", "B-9", "B-9-1", "B-9-1-0", "B-9-1-0-285"), analyzeVersion("netscape/9.1.0285", 9, "B", 3, false, '_'));
+        assertEquals(names("B", "B-9", "B-9-80"), analyzeVersion("opera/9.80", 6, "B", 2, false, '_'));
+        assertEquals(names("B", "B-1", "B-1-0", "B-1-0-5"), analyzeVersion("x/1.05", 2, "B", 2, false, '_'));
+    }
+
+    @Test
+    public void testSplitSecondVersionPart() {
+        assertEquals(names("B", "B-5", "B-5-1", "B-5-1-2"), analyzeVersion("opera/5.12", 6, "B", 3, true, '_'));
+        assertEquals(names("B", "B-6", "B-6-1", "B-6-1-0"), analyzeVersion("msie 6.1", 5, "B", 3, true, '_'));
+        assertEquals(names("B", "B-12", "B-12-0", "B-12-0-2"), analyzeVersion("opera/12.0.2", 6, "B", 3, true, '_'));
+    }
+
+    @Test
+    public void testUnderscoreReplacement() {
+        assertEquals(names("B", "B-10", "B-10-8", "B-10-8-2"), analyzeVersion("mac os x 10_8_2)", 9, "B", 0, false, '.'));
+        assertEquals(names("B", "B-10"), analyzeVersion("mac os x 10_8_2)", 9, "B", 0, false, '_'));
+        assertEquals(names("B", "B-2", "B-2-7"), analyzeVersion("ncsa_mosaic/_2.7", 12, "B", 2, true, ' '));
+    }
+
+    @Test
+    public void testVersionQueries() {
+        UserAgent ua = Sniffer.analyze("Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/28.0.1500.72 Safari/537.36");
+        assertTrue(ua.hasVersionAtLeast("Browser-Chrome", 28));
+        assertTrue(ua.hasVersionAtLeast("Browser-Chrome", 28, 0, 1500, 72));
+        assertFalse(ua.hasVersionAtLeast("Browser-Chrome", 30));
+        assertTrue(ua.hasVersionBelow("Browser-Chrome", 29));
+        assertTrue(ua.hasVersionAtLeast("BrowserOS-Windows-NT", 6, 1));
+        assertFalse(ua.hasVersionAtLeast("Browser-MSIE", 0));
+    }
+
+    @Test
+    public void testVersionNamesNotRegistered() {
+        String agentString = "firefox/3.6.12345678";
+        UserAgent ua = new UserAgent(agentString);
+        Sniffer.analyzeVersion(ua, agentString, 8, "Browser-SnifferVersionTest", 3, false, '_');
+        assertTrue(ua.hasName("Browser-SnifferVersionTest-3-6-12345678"));
+        assertEquals(-1, NameRegistry.getID("Browser-SnifferVersionTest-3-6-12345678"));
+    }
+
+    @Test
+    public void testAllocationBudget() {
+        assumeTrue(AllocationCounter.isSupported());
+
+        final String agentString = "mozilla/5.0 (windows nt 6.1; wow64; rv:22.0) gecko/20100101 firefox/22.0.1";
+        final int index = agentString.indexOf("firefox/") + 8;
+        final UserAgent ua = new UserAgent(agentString);
+        Runnable task = new Runnable() {
+            public void run() {
+                Sniffer.analyzeVersion(ua, agentString, index, "Browser-Firefox", 4, false, '_');
+            }
+        };
+
+        long bytes = AllocationCounter.bytesPerRun(task, 20000);
+        int versionNames = ua.getNames().size() - 1;
+        long budget = BYTES_PER_CALL_BUDGET + versionNames * BYTES_PER_NAME_BUDGET;
+        assertTrue("Allocated " + bytes + " bytes per call, budget is " + budget + '.', bytes <= budget);
+    }
+}
@@ -0,0 +1,119 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class UserAgentCacheTest {
+
+    private static final String MSIE_7 = "Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0)";
+    private static final String CHROME_28 = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_8_2) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/28.0.1500.20 Safari/537.36";
+
+    @Test
+    public void testInvalidArguments() {
+        try {
+            new UserAgentCache(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            new UserAgentCache(10, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            new UserAgentCache(10).analyze(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+
+    @Test
+    public void testSharedResult() {
+        UserAgentCache cache = new UserAgentCache(10);
+        UserAgent ua = cache.analyze(MSIE_7);
+        assertSame(ua, cache.analyze(new String(MSIE_7)));
+        assertEquals(Sniffer.analyze(MSIE_7).getNames(), ua.getNames());
+        assertEquals(1, cache.size());
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+    }
+
+    @Test
+    public void testCanonicalKeys() {
+        String english = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.2.3) Gecko/20100401 Firefox/3.6.3";
+        String dutch = "Mozilla/5.0 (Windows; U; Windows NT 5.1; nl; rv:1.9.2.3) Gecko/20100401 Firefox/3.6.3";
+        UserAgentCache cache = new UserAgentCache(10, 1, null, true);
+        UserAgent ua = cache.analyze(english);
+        assertSame(ua, cache.analyze(new String(english)));
+        UserAgent other = cache.analyze(dutch);
+        assertEquals(dutch, other.getAgentString());
+        assertEquals(ua.getNames(), other.getNames());
+        assertEquals(Sniffer.analyze(dutch).getNames(), other.getNames());
+        UserAgentTypesTest.assertSameTypes(dutch, Sniffer.analyze(dutch), other);
+        assertEquals(1, cache.size());
+        assertEquals(2L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+
+        // Without canonical keys, each agent string has its own entry
+        cache = new UserAgentCache(10, 1, null, false);
+        cache.analyze(english);
+        cache.analyze(dutch);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testResultIsImmutable() {
+        UserAgent ua = new UserAgentCache(10).analyze(MSIE_7);
+        try {
+            ua.getNames().add("Browser-Fake");
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // as expected
+        }
+        try {
+            ua.getNames().clear();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // as expected
+        }
+        assertTrue(ua.hasName("Browser-DesktopMSIE-7"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        UserAgentCache cache = new UserAgentCache(2, 1);
+        UserAgent msie = cache.analyze(MSIE_7);
+        cache.analyze(CHROME_28);
+        cache.analyze(MSIE_7); // MSIE is now the most recently used
+        cache.analyze("Opera/9.80 (Macintosh; Intel Mac OS X 10.8.1) Presto/2.10.289 Version/12.02");
+
+        assertEquals(2, cache.size());
+        assertSame(msie, cache.analyze(MSIE_7));
+        long misses = cache.getMissCount();
+        cache.analyze(CHROME_28);
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void testMaxSizeIsNotExceeded() {
+        UserAgentCache cache = new UserAgentCache(5, 64);
+        for (int i = 0; i < 100; i++) {
+            cache.analyze("Agent/" + i);
+        }
+        assertEquals(5, cache.getMaxSize());
+        assertTrue(cache.size() <= 5);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
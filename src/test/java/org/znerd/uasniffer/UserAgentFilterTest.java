@@ -0,0 +1,200 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class UserAgentFilterTest {
+
+    private static final String CHROME = "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/28.0.1500.72 Safari/537.36";
+
+    /**
+     * Stand-in for a request in a servlet container: a header map, attributes, and a count of header lookups.
+     */
+    private static final class Request implements InvocationHandler {
+
+        private final Map<String, String> _headers = new HashMap<String, String>();
+        private final Map<String, Object> _attributes = new HashMap<String, Object>();
+        private int _headerLookups;
+
+        Request(String agentString) {
+            if (agentString != null) {
+                _headers.put("user-agent", agentString);
+            }
+        }
+
+        HttpServletRequest proxy() {
+            return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletRequest.class }, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getHeader")) {
+                _headerLookups++;
+                return _headers.get(((String) args[0]).toLowerCase());
+            } else if (name.equals("getAttribute")) {
+                return _attributes.get(args[0]);
+            } else if (name.equals("setAttribute")) {
+                _attributes.put((String) args[0], args[1]);
+                return null;
+            } else if (name.equals("removeAttribute")) {
+                _attributes.remove(args[0]);
+                return null;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    /**
+     * Stand-in for a response: records the headers that are added.
+     */
+    private static final class Response implements InvocationHandler {
+
+        private final List<String> _headers = new ArrayList<String>();
+
+        HttpServletResponse proxy() {
+            return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletResponse.class }, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("addHeader")) {
+                _headers.add(args[0] + ": " + args[1]);
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private static FilterConfig config(final Map<String, String> initParameters) {
+        return (FilterConfig) Proxy.newProxyInstance(UserAgentFilterTest.class.getClassLoader(), new Class<?>[] { FilterConfig.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getInitParameter")) {
+                            return initParameters.get(args[0]);
+                        } else if (method.getName().equals("getInitParameterNames")) {
+                            return Collections.enumeration(initParameters.keySet());
+                        }
+                        return "UserAgentFilter";
+                    }
+                });
+    }
+
+    private static UserAgentFilter newFilter(Map<String, String> initParameters) throws ServletException {
+        UserAgentFilter filter = new UserAgentFilter();
+        filter.init(config(initParameters));
+        return filter;
+    }
+
+    /**
+     * Passes a request through the filters, like a container does; after each filter, records the user agent that the next filter or the
+     * servlet sees.
+     */
+    private static UserAgent[] service(final List<Filter> filters, ServletRequest request, ServletResponse response) throws IOException,
+            ServletException {
+        final UserAgent[] seen = new UserAgent[filters.size()];
+        FilterChain chain = new FilterChain() {
+            private int _next = 1;
+
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                int index = _next++;
+                seen[index - 1] = UserAgentFilter.getUserAgent(request);
+                if (index < filters.size()) {
+                    filters.get(index).doFilter(request, response, this);
+                }
+            }
+        };
+        filters.get(0).doFilter(request, response, chain);
+        return seen;
+    }
+
+    @Test
+    public void testAnalyzedOncePerRequest() throws Exception {
+        UserAgentFilter filter = newFilter(new HashMap<String, String>());
+        List<Filter> filters = new ArrayList<Filter>();
+        filters.add(filter);
+        filters.add(filter);
+
+        Request request = new Request(CHROME);
+        Response response = new Response();
+        UserAgent[] seen = service(filters, request.proxy(), response.proxy());
+        assertEquals(1, request._headerLookups);
+        for (UserAgent ua : seen) {
+            assertSame(seen[0], ua);
+        }
+        assertEquals(Sniffer.analyze(CHROME).getNames(), seen[0].getNames());
+        assertSame(seen[0], request._attributes.get(UserAgentFilter.USER_AGENT_ATTRIBUTE));
+        assertEquals(seen[0].getNamesAsString(), request._attributes.get(UserAgentFilter.NAMES_ATTRIBUTE));
+        assertTrue(response._headers.contains("Vary: User-Agent"));
+    }
+
+    @Test
+    public void testOncePerDistinctAgent() throws Exception {
+        UserAgentFilter filter = newFilter(Collections.singletonMap("cacheSize", "16"));
+        List<Filter> filters = Collections.<Filter> singletonList(filter);
+
+        Request first = new Request(CHROME);
+        service(filters, first.proxy(), new Response().proxy());
+        Request second = new Request(new String(CHROME));
+        service(filters, second.proxy(), new Response().proxy());
+
+        assertSame(first._attributes.get(UserAgentFilter.USER_AGENT_ATTRIBUTE), second._attributes.get(UserAgentFilter.USER_AGENT_ATTRIBUTE));
+        assertSame(first._attributes.get(UserAgentFilter.NAMES_ATTRIBUTE), second._attributes.get(UserAgentFilter.NAMES_ATTRIBUTE));
+        filter.destroy();
+    }
+
+    @Test
+    public void testWithoutFilter() {
+        Request request = new Request(null);
+        UserAgent ua = UserAgentFilter.getUserAgent(request.proxy());
+        assertEquals("", ua.getAgentString());
+        assertSame(ua, UserAgentFilter.getUserAgent(request.proxy()));
+        assertEquals(1, request._headerLookups);
+        try {
+            UserAgentFilter.getUserAgent(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+
+    @Test
+    public void testInitParameters() throws Exception {
+        Response response = new Response();
+        service(Collections.<Filter> singletonList(newFilter(Collections.singletonMap("vary", "false"))), new Request(CHROME).proxy(),
+                response.proxy());
+        assertTrue(response._headers.isEmpty());
+
+        for (String cacheSize : new String[] { "0", "many" }) {
+            try {
+                newFilter(Collections.singletonMap("cacheSize", cacheSize));
+                fail("Expected ServletException");
+            } catch (ServletException e) {
+                // as expected
+            }
+        }
+    }
+}
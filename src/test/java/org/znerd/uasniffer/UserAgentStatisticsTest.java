@@ -0,0 +1,253 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class UserAgentStatisticsTest {
+
+    private static List<UserAgent> RESULTS;
+
+    @BeforeClass
+    public static void analyzeTestInput() throws Exception {
+        SnifferTestData data = SnifferAgentStringsTest.loadTestData();
+        RESULTS = new ArrayList<UserAgent>();
+        for (int i = 0; i < data.size(); i++) {
+            RESULTS.add(Sniffer.analyze(((SnifferTestDataEntry) data.getTestValue(i)).getAgentString()));
+        }
+    }
+
+    private static UserAgentStatistics.Snapshot record(List<UserAgent> results) {
+        UserAgentStatistics statistics = new UserAgentStatistics();
+        for (UserAgent ua : results) {
+            statistics.record(ua);
+        }
+        return statistics.getSnapshot();
+    }
+
+    private static Map<String, Long> exactCounts(List<UserAgent> results) {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (UserAgent ua : results) {
+            for (String name : ua.getNames()) {
+                Long count = counts.get(name);
+                counts.put(name, count == null ? 1L : count + 1L);
+            }
+        }
+        return counts;
+    }
+
+    private static void assertSameSnapshot(UserAgentStatistics.Snapshot expected, UserAgentStatistics.Snapshot actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getDistinctAgentStringCount(), actual.getDistinctAgentStringCount());
+
+        // Which of the less frequent names are tracked can differ, but not the most frequent ones
+        List<Map.Entry<String, Long>> expectedTopNames = new ArrayList<Map.Entry<String, Long>>(expected.getTopNames().entrySet());
+        List<Map.Entry<String, Long>> actualTopNames = new ArrayList<Map.Entry<String, Long>>(actual.getTopNames().entrySet());
+        assertEquals(expectedTopNames.size(), actualTopNames.size());
+        assertEquals(expectedTopNames.subList(0, 10), actualTopNames.subList(0, 10));
+        for (String name : exactCounts(RESULTS).keySet()) {
+            assertEquals(name, expected.estimate(name), actual.estimate(name));
+        }
+    }
+
+    @Test
+    public void testEstimates() {
+        UserAgentStatistics.Snapshot snapshot = record(RESULTS);
+        assertEquals(RESULTS.size(), snapshot.getCount());
+
+        Map<String, Long> exact = exactCounts(RESULTS);
+        long total = 0L;
+        for (long count : exact.values()) {
+            total += count;
+        }
+        int exceeded = 0;
+        for (Map.Entry<String, Long> entry : exact.entrySet()) {
+            long estimate = snapshot.estimate(entry.getKey());
+            assertTrue(entry.getKey(), estimate >= entry.getValue());
+            if (estimate - entry.getValue() > 2L * total / UserAgentStatistics.DEFAULT_WIDTH) {
+                exceeded++;
+            }
+        }
+
+        // Each estimate exceeds the count by more than 2N/w with a probability of at most 2^-d
+        assertTrue(exceeded + " of " + exact.size(), exceeded <= exact.size() >> UserAgentStatistics.DEFAULT_DEPTH);
+        assertEquals(0L, new UserAgentStatistics().getSnapshot().estimate("Chrome"));
+    }
+
+    @Test
+    public void testNamesWithEqualHashCodes() {
+        assertEquals("Test-Aa".hashCode(), "Test-BB".hashCode());
+        UserAgentStatistics statistics = new UserAgentStatistics();
+        for (int i = 0; i < 1000; i++) {
+            UserAgent ua = new UserAgent("Test/" + i);
+            ua.addName("Test-Aa");
+            statistics.record(ua);
+        }
+        assertEquals(1000L, statistics.getSnapshot().estimate("Test-Aa"));
+        assertEquals(0L, statistics.getSnapshot().estimate("Test-BB"));
+    }
+
+    @Test
+    public void testTopNames() {
+        Map<String, Long> topNames = record(RESULTS).getTopNames();
+        assertEquals(UserAgentStatistics.DEFAULT_TOP_COUNT, topNames.size());
+
+        // Highest count first, and the 10 most frequent names are all found
+        long previous = Long.MAX_VALUE;
+        for (long estimate : topNames.values()) {
+            assertTrue(estimate <= previous);
+            previous = estimate;
+        }
+        List<Long> counts = new ArrayList<Long>(exactCounts(RESULTS).values());
+        Collections.sort(counts, Collections.reverseOrder());
+        for (Map.Entry<String, Long> entry : exactCounts(RESULTS).entrySet()) {
+            if (entry.getValue() > counts.get(10)) {
+                assertTrue(entry.getKey(), topNames.containsKey(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testDistinctAgentStrings() {
+        UserAgentStatistics statistics = new UserAgentStatistics();
+        for (int i = 0; i < 100000; i++) {
+            int n = i % 50000;
+            UserAgent ua = RESULTS.get(n % RESULTS.size());
+            statistics.record(new UserAgent(ua.getAgentString() + " Build/" + n, ua));
+        }
+        long estimate = statistics.getSnapshot().getDistinctAgentStringCount();
+        assertTrue("Estimate: " + estimate, Math.abs(estimate - 50000) < 50000 * 3 / 100);
+
+        // Small cardinalities are nearly exact
+        int distinct = new HashSet<String>(agentStrings(RESULTS)).size();
+        estimate = record(RESULTS).getDistinctAgentStringCount();
+        assertTrue("Estimate: " + estimate + ", actual: " + distinct, Math.abs(estimate - distinct) <= distinct / 50);
+    }
+
+    private static List<String> agentStrings(List<UserAgent> results) {
+        List<String> agentStrings = new ArrayList<String>();
+        for (UserAgent ua : results) {
+            agentStrings.add(ua.getAgentString());
+        }
+        return agentStrings;
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        UserAgentStatistics.Snapshot expected = record(RESULTS);
+
+        // Record in 4 threads, then combine the snapshots
+        final int threadCount = 4;
+        final UserAgentStatistics.Snapshot[] snapshots = new UserAgentStatistics.Snapshot[threadCount];
+        ConcurrentRunner.run(ConcurrentRunner.platformThreads(), threadCount, new ConcurrentRunner.Task() {
+            public long run(int threadIndex) {
+                int start = threadIndex * RESULTS.size() / threadCount;
+                int end = (threadIndex + 1) * RESULTS.size() / threadCount;
+                snapshots[threadIndex] = record(RESULTS.subList(start, end));
+                return end - start;
+            }
+        });
+        UserAgentStatistics.Snapshot merged = snapshots[0];
+        for (int i = 1; i < threadCount; i++) {
+            merged = merged.merge(snapshots[i]);
+        }
+        assertSameSnapshot(expected, merged);
+
+        UserAgentStatistics statistics = new UserAgentStatistics();
+        for (UserAgentStatistics.Snapshot snapshot : snapshots) {
+            statistics.merge(snapshot);
+        }
+        assertEquals(RESULTS.size(), statistics.getCount());
+        assertSameSnapshot(expected, statistics.getSnapshot());
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        UserAgentStatistics.Snapshot snapshot = record(RESULTS);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.write(out);
+        UserAgentStatistics.Snapshot read = UserAgentStatistics.Snapshot.read(new ByteArrayInputStream(out.toByteArray()));
+        assertSameSnapshot(snapshot, read);
+        assertEquals(snapshot.getTopNames(), read.getTopNames());
+
+        byte[] corrupt = out.toByteArray();
+        corrupt[0] = 0;
+        try {
+            UserAgentStatistics.Snapshot.read(new ByteArrayInputStream(corrupt));
+            fail();
+        } catch (IOException e) {
+            // as expected
+        }
+    }
+
+    @Test
+    public void testReadSeveralFromOneStream() throws Exception {
+        UserAgentStatistics.Snapshot first = record(RESULTS);
+        UserAgentStatistics.Snapshot second = record(RESULTS.subList(0, RESULTS.size() / 2));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        first.write(out);
+        second.write(out);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals(first.getTopNames(), UserAgentStatistics.Snapshot.read(in).getTopNames());
+        UserAgentStatistics.Snapshot read = UserAgentStatistics.Snapshot.read(in);
+        assertEquals(second.getCount(), read.getCount());
+        assertEquals(second.getTopNames(), read.getTopNames());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        try {
+            new UserAgentStatistics(0, 4, 100, 14);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            new UserAgentStatistics(2048, 4, 0, 14);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            new UserAgentStatistics(2048, 4, 100, 3);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            new UserAgentStatistics().record(null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            new UserAgentStatistics().merge(new UserAgentStatistics(1024, 4, 100, 14).getSnapshot());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            new UserAgentStatistics().getSnapshot().estimate(null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+}
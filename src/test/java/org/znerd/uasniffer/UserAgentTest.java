@@ -0,0 +1,134 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class UserAgentTest {
+
+    @Test
+    public void testNames() {
+        UserAgent ua = new UserAgent("Test/1.0");
+        ua.addName("Device-Desktop");
+        ua.addName("Browser-Test");
+        ua.addName("Browser-Test-1");
+        ua.addName("Browser-Test-1-0");
+        ua.addName("Browser-Test-1");
+        ua.addName("Device-Desktop");
+
+        Set<String> expected = new HashSet<String>(Arrays.asList("Device-Desktop", "Browser-Test", "Browser-Test-1", "Browser-Test-1-0"));
+        assertEquals(expected, ua.getNames());
+        assertEquals(expected, new HashSet<String>(ua.getNames()));
+        assertEquals(4, ua.getNames().size());
+
+        assertTrue(ua.hasName("Device-Desktop"));
+        assertTrue(ua.hasName("Browser-Test-1-0"));
+        assertFalse(ua.hasName("Device-Mobile"));
+        assertFalse(ua.hasName("Browser-Test-1-0-0"));
+        assertFalse(ua.hasName("Unregistered-Name"));
+        assertFalse(ua.hasName(null));
+
+        Set<String> fromString = new HashSet<String>(Arrays.asList(ua.getNamesAsString().split(" ")));
+        assertEquals(expected, fromString);
+    }
+
+    @Test
+    public void testVersionLadders() {
+        UserAgent ua = new UserAgent("Test/1.0");
+        ua.addName("Browser-Test");
+        ua.addName("Browser-Test-1");
+        ua.addVersionLadder("Browser-Test", "1-2-0");
+        ua.addVersionLadder("Browser-Test", "1-2");
+        ua.addVersionLadder("Browser-Test", "1-2-0");
+        ua.addVersionLadder("Browser-Other", "10-0");
+
+        Set<String> expected = new HashSet<String>(Arrays.asList("Browser-Test", "Browser-Test-1", "Browser-Test-1-2", "Browser-Test-1-2-0",
+                "Browser-Other-10", "Browser-Other-10-0"));
+        assertEquals(expected, ua.getNames());
+        assertEquals(expected, new HashSet<String>(ua.getNames()));
+        assertEquals(6, ua.getNames().size());
+        assertEquals(3, ua.getVersionLadderCount());
+
+        assertTrue(ua.hasName("Browser-Test-1-2"));
+        assertTrue(ua.hasName("Browser-Other-10"));
+        assertFalse(ua.hasName("Browser-Test-1-"));
+        assertFalse(ua.hasName("Browser-Test-1-2-"));
+        assertFalse(ua.hasName("Browser-Test-1-2-0-0"));
+        assertFalse(ua.hasName("Browser-Other-1"));
+        assertFalse(ua.hasName("Browser-Test1-2"));
+
+        assertTrue(ua.hasVersionAtLeast("Browser-Test", 1));
+        assertTrue(ua.hasVersionAtLeast("Browser-Test", 1, 2, 0, 0));
+        assertFalse(ua.hasVersionAtLeast("Browser-Test", 1, 3));
+        assertTrue(ua.hasVersionAtLeast("Browser-Other", 9, 99));
+        assertFalse(ua.hasVersionAtLeast("Browser-Other", 11));
+        assertFalse(ua.hasVersionAtLeast("Browser-Unknown", 0));
+        assertFalse(ua.hasVersionAtLeast(null, 0));
+        assertTrue(ua.hasVersionBelow("Browser-Test", 2));
+        assertTrue(ua.hasVersionBelow("Browser-Test", 1, 2, 1));
+        assertFalse(ua.hasVersionBelow("Browser-Test", 1, 2));
+        assertFalse(ua.hasVersionBelow("Browser-Other", 10));
+    }
+
+    @Test
+    public void testEmptyFirstVersionPart() {
+        String agentString = "Mozilla/5.0 (Windows NT .1) Chrome/1.2.3.4";
+        UserAgent ua = Sniffer.analyze(agentString);
+        assertTrue(ua.getNames().contains("BrowserOS-Windows-NT-"));
+        for (String name : ua.getNames()) {
+            assertTrue(name, ua.hasName(name));
+        }
+        assertTrue(ua.hasName("BrowserOS-Windows-NT-"));
+        assertTrue(ua.hasName("BrowserOS-Windows-NT--1"));
+        assertFalse(ua.hasName("BrowserOS-Windows-NT-1"));
+        assertEquals(ua.getNames(), Sniffer.analyze(agentString).getNames());
+        assertEquals(new HashSet<String>(ua.getNames()), ua.getNames());
+    }
+
+    @Test
+    public void testVersionQueryArguments() {
+        UserAgent ua = new UserAgent("Test/1.0");
+        try {
+            ua.hasVersionAtLeast("Browser-Test");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+        try {
+            ua.hasVersionBelow("Browser-Test", (int[]) null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // as expected
+        }
+    }
+
+    @Test
+    public void testNoNames() {
+        UserAgent ua = new UserAgent("");
+        assertTrue(ua.getNames().isEmpty());
+        assertEquals("", ua.getNamesAsString());
+    }
+
+    @Test
+    public void testNameRegistry() {
+        int id = NameRegistry.register("Device-Mobile");
+        assertTrue(id >= 0 && id < NameRegistry.getFixedNameCount());
+        assertEquals("Device-Mobile", NameRegistry.getName(id));
+        assertEquals(id, NameRegistry.getID("Device-Mobile"));
+
+        assertEquals(-1, NameRegistry.getID("Browser-UserAgentTest-42"));
+        int dynamicID = NameRegistry.register("Browser-UserAgentTest-42");
+        assertTrue(dynamicID >= NameRegistry.getFixedNameCount());
+        assertEquals(dynamicID, NameRegistry.register(new String("Browser-UserAgentTest-42")));
+        assertEquals("Browser-UserAgentTest-42", NameRegistry.getName(dynamicID));
+    }
+}
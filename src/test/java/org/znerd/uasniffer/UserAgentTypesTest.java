@@ -0,0 +1,132 @@
+// BSD-licensed, see COPYRIGHT file
+// Copyright 2013, Ernst de Haan
+package org.znerd.uasniffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class UserAgentTypesTest {
+
+    /**
+     * Asserts that two user agents have the same typed result.
+     */
+    static void assertSameTypes(String message, UserAgent expected, UserAgent actual) {
+        for (int i = 0; i < UserAgent.TYPE_VALUE_COUNT; i++) {
+            assertEquals(message, expected.getTypeValue(i), actual.getTypeValue(i));
+        }
+        assertEquals(message, expected.getDeviceClasses(), actual.getDeviceClasses());
+    }
+
+    @Test
+    public void testMSIE() {
+        UserAgent ua = Sniffer.analyze("Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0)");
+        assertEquals(EnumSet.of(DeviceClass.DESKTOP), ua.getDeviceClasses());
+        assertTrue(ua.is(DeviceClass.DESKTOP));
+        assertFalse(ua.is(DeviceClass.MOBILE));
+        assertFalse(ua.is(null));
+        assertEquals(Browser.MSIE, ua.getBrowser());
+        assertEquals(7, ua.getBrowserMajorVersion());
+        assertEquals(0, ua.getBrowserMinorVersion());
+        assertEquals(0, ua.getBrowserPatchVersion());
+        assertEquals(OperatingSystem.WINDOWS, ua.getOperatingSystem());
+        assertEquals(6, ua.getOperatingSystemMajorVersion());
+        assertEquals(0, ua.getOperatingSystemMinorVersion());
+        assertEquals(-1, ua.getOperatingSystemPatchVersion());
+        assertEquals(BrowserEngine.TRIDENT, ua.getBrowserEngine());
+        assertEquals(7, ua.getBrowserEngineMajorVersion());
+    }
+
+    @Test
+    public void testChrome() {
+        UserAgent ua = Sniffer.analyze("Mozilla/5.0 (Linux; Android 4.2.2; Nexus 7 Build/JDQ39) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/28.0.1500.94 Safari/537.36");
+        assertEquals(Browser.CHROME, ua.getBrowser());
+        assertEquals(28, ua.getBrowserMajorVersion());
+        assertEquals(0, ua.getBrowserMinorVersion());
+        assertEquals(1500, ua.getBrowserPatchVersion());
+        assertEquals(OperatingSystem.ANDROID, ua.getOperatingSystem());
+        assertEquals(4, ua.getOperatingSystemMajorVersion());
+        assertEquals(2, ua.getOperatingSystemMinorVersion());
+        assertEquals(2, ua.getOperatingSystemPatchVersion());
+        assertEquals(BrowserEngine.WEBKIT, ua.getBrowserEngine());
+        assertEquals(537, ua.getBrowserEngineMajorVersion());
+        assertEquals(36, ua.getBrowserEngineMinorVersion());
+    }
+
+    @Test
+    public void testMobileSafari() {
+        UserAgent ua = Sniffer.analyze("Mozilla/5.0 (iPhone; CPU iPhone OS 6_1_4 like Mac OS X) AppleWebKit/536.26 (KHTML, like Gecko) Version/6.0 Mobile/10B350 Safari/8536.25");
+        assertEquals(EnumSet.of(DeviceClass.MOBILE, DeviceClass.PHONE), ua.getDeviceClasses());
+        assertEquals(Browser.SAFARI, ua.getBrowser());
+        assertEquals(6, ua.getBrowserMajorVersion());
+        assertEquals(OperatingSystem.IOS, ua.getOperatingSystem());
+        assertEquals(6, ua.getOperatingSystemMajorVersion());
+        assertEquals(1, ua.getOperatingSystemMinorVersion());
+        assertEquals(4, ua.getOperatingSystemPatchVersion());
+    }
+
+    @Test
+    public void testBot() {
+        UserAgent ua = Sniffer.analyze("Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)");
+        assertEquals(EnumSet.of(DeviceClass.BOT), ua.getDeviceClasses());
+        assertNull(ua.getBrowser());
+        assertEquals(-1, ua.getBrowserMajorVersion());
+        assertNull(ua.getOperatingSystem());
+        assertNull(ua.getBrowserEngine());
+        assertEquals(-1, ua.getBrowserEngineMajorVersion());
+    }
+
+    @Test
+    public void testConsistentWithNames() throws Exception {
+        SnifferTestData data = SnifferAgentStringsTest.loadTestData();
+        for (int i = 0; i < data.size(); i++) {
+            String agentString = ((SnifferTestDataEntry) data.getTestValue(i)).getAgentString();
+            UserAgent ua = Sniffer.analyze(agentString);
+            Set<String> names = ua.getNames();
+            assertEquals(agentString, Sniffer.analyzeDevice(agentString), ua.getDeviceClasses());
+
+            Browser browser = ua.getBrowser();
+            if (browser == null) {
+                assertEquals(agentString, -1, ua.getBrowserMajorVersion());
+            } else {
+                assertConsistent(agentString, names, browser.getName(), browser.versionNames(), ua.getBrowserMajorVersion(), ua.getBrowserMinorVersion());
+            }
+
+            OperatingSystem os = ua.getOperatingSystem();
+            if (os == null) {
+                assertEquals(agentString, -1, ua.getOperatingSystemMajorVersion());
+            } else {
+                assertConsistent(agentString, names, os.getName(), os.versionNames(), ua.getOperatingSystemMajorVersion(), ua.getOperatingSystemMinorVersion());
+            }
+
+            BrowserEngine engine = ua.getBrowserEngine();
+            if (engine == null) {
+                assertEquals(agentString, -1, ua.getBrowserEngineMajorVersion());
+            } else {
+                assertConsistent(agentString, names, engine.getName(), engine.versionNames(), ua.getBrowserEngineMajorVersion(), ua.getBrowserEngineMinorVersion());
+            }
+        }
+    }
+
+    /**
+     * Asserts that a family is identified by one of its names and that its version, if any, corresponds with a version name.
+     */
+    private static void assertConsistent(String agentString, Set<String> names, String name, String[] versionNames, int major, int minor) {
+        boolean identified = names.contains(name);
+        boolean versionFound = major < 0;
+        for (String versionName : versionNames) {
+            identified |= names.contains(versionName);
+            if (major >= 0 && names.contains(versionName + '-' + major) && (minor < 0 || names.contains(versionName + '-' + major + '-' + minor))) {
+                versionFound = true;
+            }
+        }
+        assertTrue(agentString + ": " + name, identified);
+        assertTrue(agentString + ": " + name + " version " + major + '.' + minor, versionFound);
+    }
+}